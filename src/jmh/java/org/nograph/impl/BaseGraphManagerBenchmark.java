@@ -0,0 +1,128 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.nograph.ID;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The shared bookkeeping in BaseGraphManager.  Node lookups are served from memory so only our side is measured.
+ * 
+ * @author aholinch
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BaseGraphManagerBenchmark 
+{
+	@Param({"10","1000"})
+	public int size;
+	
+	protected MemoryLookupManager gm = null;
+	protected List<Node> mixed = null;
+	protected List<Relationship> rels = null;
+	
+	@Setup
+	public void setup()
+	{
+		List<Node> nodes = BenchData.nodes(size, true);
+		
+		gm = new MemoryLookupManager();
+		int nn = nodes.size();
+		for(int i=0; i<nn; i++)
+		{
+			gm.nodes.put(nodes.get(i).getID(), nodes.get(i));
+		}
+		
+		// half new half existing
+		mixed = new ArrayList<Node>(size);
+		List<Node> fresh = BenchData.nodes(size, false);
+		for(int i=0; i<size; i++)
+		{
+			if((i&1) == 0)
+			{
+				mixed.add(nodes.get(i));
+			}
+			else
+			{
+				mixed.add(fresh.get(i));
+			}
+		}
+		
+		// a few hubs so ids repeat like real data
+		rels = BenchData.rels(size, nodes.subList(0, Math.max(1, size/4)), false);
+	}
+	
+	@Benchmark
+	public List<List<? extends ID>> separateNewVsExisting()
+	{
+		return gm.separateNewVsExisting(mixed, new ArrayList<String>(size));
+	}
+	
+	@Benchmark
+	public List<Relationship> populateNodesForRels() throws NoGraphException
+	{
+		gm.populateNodesForRels(rels);
+		return rels;
+	}
+	
+	/**
+	 * Answers node lookups from a map instead of the network.
+	 */
+	protected static class MemoryLookupManager extends NGWebGraphManager
+	{
+		protected Map<String,Node> nodes = new HashMap<String,Node>();
+		
+		@Override
+		protected Map<String,Node> buildNodeMap(List<String> ids)
+		{
+			Map<String,Node> out = new HashMap<String,Node>();
+			int size = ids.size();
+			String id = null;
+			for(int i=0; i<size; i++)
+			{
+				id = ids.get(i);
+				out.put(id, nodes.get(id));
+			}
+			return out;
+		}
+	}
+}
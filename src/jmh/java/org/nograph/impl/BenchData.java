@@ -0,0 +1,232 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.InternalRelationship;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+import es.jodd.client.SearchHit;
+import es.jodd.client.SearchResults;
+
+/**
+ * Synthetic graph data shared by the benchmarks.  Everything is built from a fixed seed so runs compare.
+ * 
+ * @author aholinch
+ *
+ */
+public class BenchData 
+{
+	public static final String TYPES[] = {"person","place","thing","event"};
+	public static final String REL_TYPES[] = {"knows","visited","owns","attended"};
+	
+	public static Map<String,Object> props(int i)
+	{
+		Map<String,Object> m = new HashMap<String,Object>();
+		m.put("name", "name"+i);
+		m.put("rank", i);
+		m.put("score", i*0.5);
+		m.put("active", (i&1)==0);
+		m.put("desc", "synthetic node number "+i+" for benchmarks");
+		return m;
+	}
+	
+	public static List<Node> nodes(int num, boolean withIds)
+	{
+		List<Node> nodes = new ArrayList<Node>(num);
+		GenericNode n = null;
+		for(int i=0; i<num; i++)
+		{
+			n = new GenericNode();
+			if(withIds) n.setID(String.valueOf(i));
+			n.setType(TYPES[i%TYPES.length]);
+			n.setPropertyMap(props(i));
+			nodes.add(n);
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Relationships between nodes, hub is how many distinct nodes they touch.
+	 * 
+	 * @param num
+	 * @param nodes
+	 * @param withNodes leave endpoints as id only when false
+	 * @return
+	 */
+	public static List<Relationship> rels(int num, List<Node> nodes, boolean withNodes)
+	{
+		List<Relationship> rels = new ArrayList<Relationship>(num);
+		int nn = nodes.size();
+		GenericRelationship r = null;
+		Node n1 = null;
+		Node n2 = null;
+		for(int i=0; i<num; i++)
+		{
+			r = new GenericRelationship();
+			r.setID("r"+i);
+			r.setType(REL_TYPES[i%REL_TYPES.length]);
+			r.setPropertyMap(props(i));
+			
+			n1 = nodes.get(i%nn);
+			n2 = nodes.get((i*7+3)%nn);
+			if(!withNodes)
+			{
+				n1 = idOnly(n1);
+				n2 = idOnly(n2);
+			}
+			r.setNode1(n1);
+			r.setNode2(n2);
+			rels.add(r);
+		}
+		return rels;
+	}
+	
+	public static Node idOnly(Node n)
+	{
+		GenericNode out = new GenericNode();
+		out.setID(n.getID());
+		return out;
+	}
+	
+	public static SearchResults nodeHits(List<Node> nodes)
+	{
+		int size = nodes.size();
+		SearchHit hits[] = new SearchHit[size];
+		SearchHit hit = null;
+		for(int i=0; i<size; i++)
+		{
+			hit = new SearchHit();
+			hit.setID(nodes.get(i).getID());
+			hit.setSource(nodes.get(i).toJSONString());
+			hits[i] = hit;
+		}
+		SearchResults res = new SearchResults();
+		res.setHits(hits);
+		res.setTotal(size);
+		return res;
+	}
+	
+	public static SearchResults relHits(List<Relationship> rels)
+	{
+		int size = rels.size();
+		SearchHit hits[] = new SearchHit[size];
+		SearchHit hit = null;
+		for(int i=0; i<size; i++)
+		{
+			hit = new SearchHit();
+			hit.setID(rels.get(i).getID());
+			hit.setSource(rels.get(i).toJSONString());
+			hits[i] = hit;
+		}
+		SearchResults res = new SearchResults();
+		res.setHits(hits);
+		res.setTotal(size);
+		return res;
+	}
+	
+	public static String toJSONArray(List<? extends org.nograph.ID> objs)
+	{
+		StringBuilder sb = new StringBuilder(objs.size()*256);
+		sb.append('[');
+		int size = objs.size();
+		for(int i=0; i<size; i++)
+		{
+			if(i > 0) sb.append(',');
+			Object o = objs.get(i);
+			if(o instanceof Node)
+			{
+				sb.append(((Node)o).toJSONString());
+			}
+			else
+			{
+				sb.append(((Relationship)o).toJSONString());
+			}
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+	
+	protected static Map<String,Value> values(Map<String,Object> m)
+	{
+		Map<String,Value> out = new HashMap<String,Value>();
+		for(Map.Entry<String,Object> me : m.entrySet())
+		{
+			out.put(me.getKey(), Values.value(me.getValue()));
+		}
+		return out;
+	}
+	
+	/**
+	 * Records shaped like "return n".
+	 * 
+	 * @param num
+	 * @return
+	 */
+	public static Record[] nodeRecords(int num)
+	{
+		Record recs[] = new Record[num];
+		List<String> keys = Arrays.asList("n");
+		InternalNode node = null;
+		for(int i=0; i<num; i++)
+		{
+			node = new InternalNode(i, Arrays.asList(TYPES[i%TYPES.length]), values(props(i)));
+			recs[i] = new InternalRecord(keys, new Value[]{node.asValue()});
+		}
+		return recs;
+	}
+	
+	/**
+	 * Records shaped like "return r,n,m".
+	 * 
+	 * @param num
+	 * @param numNodes
+	 * @return
+	 */
+	public static Record[] relRecords(int num, int numNodes)
+	{
+		Record recs[] = new Record[num];
+		List<String> keys = Arrays.asList("r","n","m");
+		InternalNode n1 = null;
+		InternalNode n2 = null;
+		InternalRelationship rel = null;
+		int i1 = 0;
+		int i2 = 0;
+		for(int i=0; i<num; i++)
+		{
+			i1 = i%numNodes;
+			i2 = (i*7+3)%numNodes;
+			n1 = new InternalNode(i1, Arrays.asList(TYPES[i1%TYPES.length]), values(props(i1)));
+			n2 = new InternalNode(i2, Arrays.asList(TYPES[i2%TYPES.length]), values(props(i2)));
+			rel = new InternalRelationship(i, i1, i2, REL_TYPES[i%REL_TYPES.length], values(props(i)));
+			recs[i] = new InternalRecord(keys, new Value[]{rel.asValue(),n1.asValue(),n2.asValue()});
+		}
+		return recs;
+	}
+}
@@ -0,0 +1,130 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.v1.Record;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import es.jodd.client.SearchResults;
+
+/**
+ * Turning backend results into nodes and relationships, per backend.  No backend needs to be running.
+ * 
+ * @author aholinch
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultMappingBenchmark 
+{
+	@Param({"10","1000"})
+	public int size;
+	
+	protected ElasticGraphManager elastic = null;
+	protected NGWebGraphManager ngweb = null;
+	protected Neo4jGraphManager neo = null;
+	
+	protected SearchResults nodeRes = null;
+	protected SearchResults relRes = null;
+	protected String nodeJSON = null;
+	protected String relJSON = null;
+	protected Record nodeRecs[] = null;
+	protected Record relRecs[] = null;
+	
+	@Setup
+	public void setup()
+	{
+		elastic = new ElasticGraphManager();
+		ngweb = new NGWebGraphManager();
+		neo = new Neo4jGraphManager();
+		
+		List<Node> nodes = BenchData.nodes(size, true);
+		List<Relationship> rels = BenchData.rels(size, nodes, true);
+		
+		nodeRes = BenchData.nodeHits(nodes);
+		relRes = BenchData.relHits(rels);
+		nodeJSON = BenchData.toJSONArray(nodes);
+		relJSON = BenchData.toJSONArray(rels);
+		nodeRecs = BenchData.nodeRecords(size);
+		relRecs = BenchData.relRecords(size, Math.max(1, size/4));
+	}
+	
+	@Benchmark
+	public List<Node> elasticResToNodes()
+	{
+		return elastic.resToNodes(nodeRes);
+	}
+	
+	@Benchmark
+	public List<Relationship> elasticResToRels() throws NoGraphException
+	{
+		// fetching nodes would go to the server
+		return elastic.resToRels(relRes, false);
+	}
+	
+	@Benchmark
+	public List<Node> ngwebJsonToNodes()
+	{
+		return ngweb.jsonToNodes(nodeJSON);
+	}
+	
+	@Benchmark
+	public List<Relationship> ngwebJsonToRels()
+	{
+		return ngweb.jsonToRels(relJSON, true);
+	}
+	
+	@Benchmark
+	public void neo4jRecToNode(Blackhole bh)
+	{
+		for(int i=0; i<nodeRecs.length; i++)
+		{
+			bh.consume(neo.recToNode(nodeRecs[i], 0, true));
+		}
+	}
+	
+	@Benchmark
+	public void neo4jRecToRel(Blackhole bh)
+	{
+		for(int i=0; i<relRecs.length; i++)
+		{
+			bh.consume(neo.recToRel(relRecs[i], 0, 1, 2, true));
+		}
+	}
+}
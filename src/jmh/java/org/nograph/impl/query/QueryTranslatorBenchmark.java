@@ -0,0 +1,100 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translating criterion trees into backend query strings.
+ * 
+ * @author aholinch
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryTranslatorBenchmark 
+{
+	/**
+	 * Levels of nested sets.
+	 */
+	@Param({"2","6"})
+	public int depth;
+	
+	/**
+	 * Children per set.
+	 */
+	@Param({"4"})
+	public int width;
+	
+	protected QueryTranslator translator = null;
+	protected Criterion tree = null;
+	
+	@Setup
+	public void setup()
+	{
+		translator = new BasicStringQueryTranslator(":");
+		tree = buildTree(depth, 0);
+	}
+	
+	/**
+	 * Alternating AND and OR sets with simple leaves.
+	 * 
+	 * @param level
+	 * @param seed
+	 * @return
+	 */
+	protected Criterion buildTree(int level, int seed)
+	{
+		if(level == 0)
+		{
+			return new SimpleCriterion("key"+(seed%10), "val"+seed);
+		}
+		
+		SetCriterion sc = new SetCriterion((level&1)==0?SetCriterion.COMB_AND:SetCriterion.COMB_OR);
+		for(int i=0; i<width; i++)
+		{
+			sc.addCriterion(buildTree(level-1, seed*width+i));
+		}
+		return sc;
+	}
+	
+	@Benchmark
+	public Object criterionToClause()
+	{
+		return translator.criterionToClause("", tree);
+	}
+}
@@ -0,0 +1,113 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.nograph.GraphManager;
+import org.nograph.GraphQuery;
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+/**
+ * Non-blocking versions of the GraphManager calls so a caller can fan out many lookups and wait on all of them.
+ * 
+ * The defaults run the blocking call on the shared async pool, sized by async.threads.  Backends whose
+ * driver can do real async io override these.  Failures complete the future exceptionally with the NoGraphException.
+ * 
+ * @author aholinch
+ *
+ */
+public interface AsyncGraphManager extends GraphManager 
+{
+	public default CompletableFuture<Node> getNodeAsync(String id)
+	{
+		return GraphExecutors.supplyAsync(() -> getNode(id));
+	}
+	
+	public default CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		return GraphExecutors.supplyAsync(() -> getRelationship(id, fetchNodes));
+	}
+	
+	public default CompletableFuture<List<Node>> findNodesAsync(String type, String key, Object val, int maxResults)
+	{
+		return GraphExecutors.supplyAsync(() -> findNodes(type, key, val, maxResults));
+	}
+	
+	public default CompletableFuture<List<Relationship>> findRelationshipsAsync(String type, String key, Object val, boolean fetchNodes, int maxResults)
+	{
+		return GraphExecutors.supplyAsync(() -> findRelationships(type, key, val, fetchNodes, maxResults));
+	}
+	
+	public default CompletableFuture<List<Node>> findNodesAsync(GraphQuery query)
+	{
+		return GraphExecutors.supplyAsync(() -> findNodes(query));
+	}
+	
+	public default CompletableFuture<List<Relationship>> findRelationshipsAsync(GraphQuery query)
+	{
+		return GraphExecutors.supplyAsync(() -> findRelationships(query));
+	}
+	
+	public default CompletableFuture<List<Relationship>> findRelatedNodesAsync(String id)
+	{
+		return GraphExecutors.supplyAsync(() -> findRelatedNodes(id));
+	}
+	
+	public default CompletableFuture<Long> countNodesAsync(String type)
+	{
+		return GraphExecutors.supplyAsync(() -> countNodes(type));
+	}
+	
+	public default CompletableFuture<Long> countRelationshipsAsync(String type)
+	{
+		return GraphExecutors.supplyAsync(() -> countRelationships(type));
+	}
+	
+	public default CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		return GraphExecutors.runAsync(() -> saveNode(n));
+	}
+	
+	public default CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		return GraphExecutors.runAsync(() -> saveNodes(nodes));
+	}
+	
+	public default CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return GraphExecutors.runAsync(() -> deleteNodesByID(ids));
+	}
+	
+	public default CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		return GraphExecutors.runAsync(() -> saveRelationship(r));
+	}
+	
+	public default CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		return GraphExecutors.runAsync(() -> saveRelationships(rels));
+	}
+	
+	public default CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return GraphExecutors.runAsync(() -> deleteRelationshipsByID(ids));
+	}
+}
@@ -18,16 +18,25 @@ limitations under the License.
 package org.nograph.impl;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.nograph.DataDecorator;
-import org.nograph.GraphManager;
+import org.nograph.GraphQuery;
 import org.nograph.ID;
 import org.nograph.NoGraph;
 import org.nograph.NoGraphConfig;
@@ -36,7 +45,8 @@ import org.nograph.Node;
 import org.nograph.Path;
 import org.nograph.Relationship;
 import org.nograph.GraphQuery.Criterion;
-import org.nograph.util.FileUtil;
+import org.nograph.impl.metrics.GraphMetrics;
+import org.nograph.impl.query.QueryOptimizer;
 
 /**
  * The base implementation that handles most convenience operations leaving only core functions for the actual implementation.
@@ -44,11 +54,17 @@ import org.nograph.util.FileUtil;
  * @author aholinch
  *
  */
-public abstract class BaseGraphManager implements GraphManager 
+public abstract class BaseGraphManager implements AsyncGraphManager 
 {
 	private static final Logger logger = Logger.getLogger(BaseGraphManager.class.getName());
 
 	public static final String PROP_MD = "meta.dir";
+	public static final String PROP_DECORATE_PARALLEL = "decorate.parallel";
+	public static final String PROP_DECORATE_PIPELINE = "decorate.pipeline";
+	public static final String PROP_DECORATE_CHUNK = "decorate.chunk";
+	public static final String PROP_PATH_ROOTS = "paths.roots.max";
+	public static final String PROP_QUERY_OPTIMIZE = "query.optimize";
+	public static final String PROP_QUERY_STATS_MS = "query.stats.ms";
 
     protected String name = null;
     
@@ -56,18 +72,55 @@ public abstract class BaseGraphManager implements GraphManager
 	protected DataDecorator decorator = null;
 	protected boolean decorateNodes = false;
 	protected boolean decorateRels = false;
+	protected boolean parallelDecorate = false;
+	protected boolean pipelineDecorate = false;
+	protected int decorateChunk = 64;
+	
+	// bulk lookups
+	protected int nodeMapBatchSize = 1000;
+	protected int parallelBatchSize = 50;
+	
+	// most start or end nodes a path search will take, also the default hit limit
+	protected int pathRootMax = 10000;
+	
+	// query rewriting, stats for ordering are refreshed in the background
+	protected boolean optimizeQueries = true;
+	protected long queryStatsMillis = 60000;
+	protected boolean multiValuedProperties = false;
+	protected volatile QueryOptimizer nodeOptimizer = null;
+	protected volatile QueryOptimizer relOptimizer = null;
+	protected volatile long optimizerBuilt = 0;
+	protected final AtomicBoolean optimizerRefreshing = new AtomicBoolean();
+
+	// metrics
+	protected volatile GraphMetrics metrics = null;
 
 	// meta info
+	protected GraphMetaStore metaStore = null;
+	protected String metaDir = null;
+	
+	/**
+	 * @deprecated a copy as of the last load or getGraphMeta call, use getGraphMeta()
+	 */
+	@Deprecated
 	protected GraphMeta graphMeta = null;
+	
+	/**
+	 * @deprecated use getMetaFile()
+	 */
+	@Deprecated
 	protected String metaFile = null;
-	protected static String metasync = "mutex";
+	
+	/**
+	 * @deprecated meta is locked per graph by its GraphMetaStore, nothing synchronizes on this anymore
+	 */
+	@Deprecated
+	protected static String metasync = new String("mutex");
 	
 	public BaseGraphManager()
 	{
-		
-		graphMeta = new GraphMeta();
 		NoGraphConfig config = NoGraph.getInstance().getConfig();
-		String metaDir  = config.getProperty(PROP_MD);
+		metaDir  = config.getProperty(PROP_MD);
 		try
 		{
 			if(metaDir == null) metaDir = "";
@@ -79,14 +132,70 @@ public abstract class BaseGraphManager implements GraphManager
 			logger.log(Level.WARNING,"Error creating meta dir");
 		}
 		
-		metaFile = metaDir+"graphmeta.json";
+		parallelDecorate = ConfigUtil.getBooleanProperty(PROP_DECORATE_PARALLEL,false);
+		pipelineDecorate = ConfigUtil.getBooleanProperty(PROP_DECORATE_PIPELINE,false);
+		decorateChunk = Math.max(1,ConfigUtil.getIntProperty(PROP_DECORATE_CHUNK,64));
+		pathRootMax = Math.max(1,ConfigUtil.getIntProperty(PROP_PATH_ROOTS,10000));
+		optimizeQueries = ConfigUtil.getBooleanProperty(PROP_QUERY_OPTIMIZE,true);
+		queryStatsMillis = ConfigUtil.getLongProperty(PROP_QUERY_STATS_MS,60000);
+		
 		loadGraphMeta();
 	}
 	
+	/**
+	 * Each named graph gets its own meta file, unnamed graphs share the original graphmeta.json.
+	 * 
+	 * Named graphs used to share graphmeta.json too, so it mixes every graph's types.  It stays with the
+	 * unnamed graph and a named graph starts empty, filling its meta from its own writes, rather than
+	 * inheriting types and properties it never had.
+	 * 
+	 * @return
+	 */
+	protected String getMetaFile()
+	{
+		if(name == null || name.trim().length() == 0)
+		{
+			return metaDir+"graphmeta.json";
+		}
+		
+		String safeName = name.trim().replaceAll("[^A-Za-z0-9_.-]", "_");
+		return metaDir+safeName+"_graphmeta.json";
+	}
+	
 	@Override
 	public void setName(String str) 
 	{
 		name = str;
+		
+		// meta and metrics are keyed by graph name
+		loadGraphMeta();
+		metrics = null;
+	}
+	
+	/**
+	 * Name metrics are reported under, the implementation class by default.
+	 * 
+	 * @return
+	 */
+	protected String getBackendName()
+	{
+		return getClass().getSimpleName();
+	}
+	
+	/**
+	 * Latency and counters per operation for this backend and graph, also published over JMX.
+	 * 
+	 * @return
+	 */
+	public GraphMetrics getMetrics()
+	{
+		GraphMetrics gm = metrics;
+		if(gm == null)
+		{
+			gm = GraphMetrics.forBackend(getBackendName(), name);
+			metrics = gm;
+		}
+		return gm;
 	}
 
 	@Override
@@ -202,16 +311,184 @@ public abstract class BaseGraphManager implements GraphManager
 	}
 	
 	/**
-	 * Implement this method to do a bulk query by node ids
+	 * Walk every matching node without holding them all in memory.  Backends that can page 
+	 * through results override this, the default asks findNodes for every match at once so
+	 * nothing is cut off at the backend's default limit.
 	 * 
-	 * @param ids
+	 * @param type
+	 * @param key
+	 * @param val
 	 * @return
+	 * @throws NoGraphException
+	 */
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		return new ListCursor<Node>(findNodes(type,key,val,Integer.MAX_VALUE));
+	}
+	
+	public GraphCursor<Node> iterateNodes(GraphQuery query) throws NoGraphException
+	{
+		return new ListCursor<Node>(findNodes(unbounded(query)));
+	}
+	
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		return new ListCursor<Relationship>(findRelationships(type,key,val,fetchNodes,Integer.MAX_VALUE));
+	}
+	
+	public GraphCursor<Relationship> iterateRelationships(GraphQuery query) throws NoGraphException
+	{
+		return new ListCursor<Relationship>(findRelationships(unbounded(query)));
+	}
+	
+	/**
+	 * The query with no limit when it didn't set one, a limit it did set is kept.
+	 */
+	protected GraphQuery unbounded(GraphQuery query)
+	{
+		if(query == null || query.getMaxResults() > 0) return query;
+		
+		GraphQuery q = new GraphQuery();
+		q.setCriterion(query.getCriterion());
+		q.setMaxResults(Integer.MAX_VALUE);
+		q.setFetchNodesForRelationships(query.getFetchNodesForRelationships());
+		return q;
+	}
+	
+	/**
+	 * Implement this method to do a bulk query by node ids.  Ids left out of the map don't exist.
+	 * 
+	 * @param ids
+	 * @return null if the backend can't look nodes up in bulk or the lookup failed
 	 */
 	protected Map<String,Node> buildNodeMap(List<String> ids)
 	{
 		return null;
 	}
 	
+	/**
+	 * Split a list into sublists of at most batchSize.
+	 * 
+	 * @param list
+	 * @param batchSize
+	 * @return
+	 */
+	protected static <T> List<List<T>> chunk(List<T> list, int batchSize)
+	{
+		List<List<T>> out = new ArrayList<List<T>>();
+		if(list == null) return out;
+		if(batchSize < 1) batchSize = 1;
+		
+		int size = list.size();
+		for(int i=0; i<size; i+=batchSize)
+		{
+			out.add(list.subList(i, Math.min(size, i+batchSize)));
+		}
+		return out;
+	}
+	
+	/**
+	 * Fetch nodes with getNode, spreading bounded batches of ids across the shared io pool.
+	 * 
+	 * @param ids
+	 * @return
+	 * @throws NoGraphException
+	 */
+	protected Map<String,Node> fetchNodesInParallel(List<String> ids) throws NoGraphException
+	{
+		return mapInParallel(ids, this::getNode);
+	}
+	
+	/**
+	 * Run a single id lookup for every id, spreading bounded batches of ids across the shared io pool.
+	 * 
+	 * @param ids
+	 * @param lookup
+	 * @return map of id to result
+	 * @throws NoGraphException
+	 */
+	protected <V> Map<String,V> mapInParallel(List<String> ids, IdLookup<V> lookup) throws NoGraphException
+	{
+		Map<String,V> out = new HashMap<String,V>();
+		if(ids == null || ids.size() == 0) return out;
+		
+		List<List<String>> batches = chunk(ids, parallelBatchSize);
+		int nb = batches.size();
+		
+		if(nb == 1 || GraphExecutors.isPoolThread())
+		{
+			for(int i=0; i<nb; i++)
+			{
+				out.putAll(lookupAll(batches.get(i), lookup));
+			}
+			return out;
+		}
+		
+		ExecutorService executor = GraphExecutors.getIOExecutor();
+		List<Future<Map<String,V>>> futures = new ArrayList<Future<Map<String,V>>>(nb);
+		for(int i=0; i<nb; i++)
+		{
+			final List<String> batch = batches.get(i);
+			futures.add(executor.submit(() -> lookupAll(batch, lookup)));
+		}
+		
+		try
+		{
+			for(int i=0; i<nb; i++)
+			{
+				out.putAll(futures.get(i).get());
+			}
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new NoGraphException("Interrupted fetching by id",ex);
+		}
+		catch(ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if(cause instanceof NoGraphException) throw (NoGraphException)cause;
+			throw new NoGraphException("Error fetching by id",cause);
+		}
+		
+		return out;
+	}
+	
+	private <V> Map<String,V> lookupAll(List<String> ids, IdLookup<V> lookup) throws NoGraphException
+	{
+		Map<String,V> out = new HashMap<String,V>();
+		int size = ids.size();
+		String id = null;
+		for(int i=0; i<size; i++)
+		{
+			id = ids.get(i);
+			out.put(id, lookup.lookup(id));
+		}
+		return out;
+	}
+	
+	/**
+	 * One call per id for mapInParallel.
+	 */
+	protected static interface IdLookup<V>
+	{
+		public V lookup(String id) throws NoGraphException;
+	}
+	
+	/**
+	 * Relationships touching each node, either direction, keyed by node id.  Only the node ids need to be
+	 * set on the relationships.  The default calls findRelatedNodes for the ids in parallel, backends that
+	 * can answer for many nodes in one query should override this.
+	 * 
+	 * @param ids
+	 * @return
+	 * @throws NoGraphException
+	 */
+	protected Map<String,List<Relationship>> findRelationshipsForNodes(List<String> ids) throws NoGraphException
+	{
+		return mapInParallel(ids, this::findRelatedNodes);
+	}
+	
 	/**
 	 * The relationships have node ids, now let's turn them into full nodes.
 	 * 
@@ -222,10 +499,9 @@ public abstract class BaseGraphManager implements GraphManager
 	{
 		if(rels == null || rels.size() == 0) return;
 		
-		Map<String,Node> nodeMap = new HashMap<String,Node>();
+		Map<String,Node> nodeMap = null;
 		
 		int size = rels.size();
-		Node n = null;
 		String id = null;
 		Relationship r = null;
 		
@@ -237,39 +513,25 @@ public abstract class BaseGraphManager implements GraphManager
         for(int i=0; i<size; i++)
         {
         	r = rels.get(i);
-        	mids.put(r.getNode1ID(),hold);
-        	mids.put(r.getNode2ID(),hold);
+        	id = r.getNode1ID();
+        	if(id != null) mids.put(id,hold);
+        	id = r.getNode2ID();
+        	if(id != null) mids.put(id,hold);
         }
         
         List<String> ids = new ArrayList<String>(mids.keySet());
         nodeMap = buildNodeMap(ids);
         if(nodeMap == null)
         {
-        	nodeMap = new HashMap<String,Node>();
+        	// no bulk lookup, so one get per id spread over the io pool
+        	nodeMap = fetchNodesInParallel(ids);
         }
         
         for(int i=0; i<size; i++)
         {
         	r = rels.get(i);
-
-        	// we should do a bulk query, which is what buildNodeMap does, but slow and steady will win the race for now
-        	id = r.getNode1ID();
-        	n = nodeMap.get(id);
-        	if(n == null)
-        	{
-        		n = getNode(id);
-        		nodeMap.put(id, n);
-        	}
-        	r.setNode1(n);
-        	
-        	id = r.getNode2ID();
-        	n = nodeMap.get(id);
-        	if(n == null)
-        	{
-        		n = getNode(id);
-        		nodeMap.put(id, n);
-        	}
-        	r.setNode2(n);
+        	r.setNode1(nodeMap.get(r.getNode1ID()));
+        	r.setNode2(nodeMap.get(r.getNode2ID()));
         }
 	}
 
@@ -309,9 +571,28 @@ public abstract class BaseGraphManager implements GraphManager
 		decorator.decorateRelationship(r);
 	}
 
+	/**
+	 * Is this batch big enough, and the decorator safe enough, to split across the decoration pool.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	protected boolean useParallelDecorate(int size)
+	{
+		return parallelDecorate && size >= 2*decorateChunk && decorator instanceof ThreadSafeDecorator;
+	}
+	
 	protected void decorateNodes(List<Node> nodes)
 	{
 		if(!decorateNodes) return;
+		
+		if(useParallelDecorate(nodes.size()))
+		{
+			DataDecorator dd = decorator;
+			GraphExecutors.getDecoratePool().invoke(new DecorateTask<Node>(nodes, 0, nodes.size(), decorateChunk, dd::decorateNode));
+			return;
+		}
+		
 		Node n = null;
 		int size = nodes.size();
 		for(int i=0; i<size; i++)
@@ -324,6 +605,14 @@ public abstract class BaseGraphManager implements GraphManager
 	protected void decorateRels(List<Relationship> rels)
 	{
 		if(!decorateRels) return;
+		
+		if(useParallelDecorate(rels.size()))
+		{
+			DataDecorator dd = decorator;
+			GraphExecutors.getDecoratePool().invoke(new DecorateTask<Relationship>(rels, 0, rels.size(), decorateChunk, dd::decorateRelationship));
+			return;
+		}
+		
 		Relationship r = null;
 		int size = rels.size();
 		for(int i=0; i<size; i++)
@@ -333,6 +622,122 @@ public abstract class BaseGraphManager implements GraphManager
 		}
 	}
 	
+	/**
+	 * Write a big list in batches.  With decorate.pipeline=true the next batch is prepared on the decoration
+	 * pool while the current one is being written so cpu work and network io overlap.  Batches are still
+	 * prepared one at a time in order, so the decorator doesn't need to be thread safe for this.
+	 * 
+	 * @param items
+	 * @param batchSize
+	 * @param prepare decoration and anything else cpu bound, like building the request body
+	 * @param writer sends a batch and what was prepared for it to the backend
+	 * @throws Exception from either step
+	 */
+	protected <T,P> void pipelineBatches(List<T> items, int batchSize, Function<List<T>,P> prepare, BatchWriter<T,P> writer) throws Exception
+	{
+		List<List<T>> batches = chunk(items, batchSize);
+		int nb = batches.size();
+		
+		if(!pipelineDecorate || nb < 2)
+		{
+			List<T> batch = null;
+			for(int i=0; i<nb; i++)
+			{
+				batch = batches.get(i);
+				writer.write(batch, prepare.apply(batch));
+			}
+			return;
+		}
+		
+		ForkJoinPool pool = GraphExecutors.getDecoratePool();
+		List<T> first = batches.get(0);
+		CompletableFuture<P> next = CompletableFuture.supplyAsync(() -> prepare.apply(first), pool);
+		P prepared = null;
+		try
+		{
+			for(int i=0; i<nb; i++)
+			{
+				try
+				{
+					prepared = next.join();
+				}
+				catch(CompletionException ex)
+				{
+					Throwable t = ex.getCause();
+					if(t instanceof RuntimeException) throw (RuntimeException)t;
+					throw ex;
+				}
+				
+				if(i+1 < nb)
+				{
+					List<T> following = batches.get(i+1);
+					next = CompletableFuture.supplyAsync(() -> prepare.apply(following), pool);
+				}
+				
+				writer.write(batches.get(i), prepared);
+			}
+		}
+		finally
+		{
+			// don't leave a batch being decorated behind us
+			try
+			{
+				next.join();
+			}
+			catch(Exception ex)
+			{
+				// already reported or we are failing anyway
+			}
+		}
+	}
+	
+	/**
+	 * Sends one prepared batch to the backend.
+	 */
+	protected static interface BatchWriter<T,P>
+	{
+		public void write(List<T> batch, P prepared) throws Exception;
+	}
+	
+	/**
+	 * Splits a list in halves until the pieces are small enough to decorate directly.
+	 */
+	protected static class DecorateTask<T> extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		protected List<T> items = null;
+		protected int lo = 0;
+		protected int hi = 0;
+		protected int chunk = 0;
+		protected Consumer<T> action = null;
+		
+		public DecorateTask(List<T> items, int lo, int hi, int chunk, Consumer<T> action)
+		{
+			this.items = items;
+			this.lo = lo;
+			this.hi = hi;
+			this.chunk = chunk;
+			this.action = action;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(hi-lo <= chunk)
+			{
+				for(int i=lo; i<hi; i++)
+				{
+					action.accept(items.get(i));
+				}
+				return;
+			}
+			
+			int mid = (lo+hi) >>> 1;
+			invokeAll(new DecorateTask<T>(items, lo, mid, chunk, action), new DecorateTask<T>(items, mid, hi, chunk, action));
+		}
+	}
+	
 	/**
 	 * Separate a list of ID objects into new (ID=null) and existing (ID!=null).
 	 * 
@@ -373,9 +778,30 @@ public abstract class BaseGraphManager implements GraphManager
 		return out;
 	}
 	
+	/**
+	 * Wrap an ordered list of relationships as a path.
+	 * 
+	 * @param rels
+	 * @return
+	 */
+	protected Path buildPath(List<Relationship> rels)
+	{
+		Path p = new Path();
+		int size = rels.size();
+		for(int i=0; i<size; i++)
+		{
+			p.addRelationship(rels.get(i));
+		}
+		return p;
+	}
+	
     /**
      * Search for paths that link one node to other nodes.
      * 
+     * Runs a breadth first search from both ends with one findRelationshipsForNodes call per batch of
+     * frontier nodes, so round trips grow with the path length rather than the number of nodes visited.
+     * Either the start or end criterion may be null to mean any node.
+     * 
      * @param startCriterion
      * @param relationshipCriterion
      * @param endCriterion
@@ -387,22 +813,155 @@ public abstract class BaseGraphManager implements GraphManager
     public List<Path> findPaths(Criterion startCriterion, Criterion relationshipCriterion, Criterion endCriterion,
     		                    int maxLength, int maxHits) throws NoGraphException
     {
-    	throw new NoGraphException("Path query not implemented");
+    	if(startCriterion == null && endCriterion == null)
+    	{
+    		throw new NoGraphException("Path query needs a start or end criterion");
+    	}
+    	
+    	if(maxLength < 1) return new ArrayList<Path>();
+    	if(maxHits <= 0) maxHits = pathRootMax;
+    	
+    	PathSearch search = new PathSearch(this, relationshipCriterion, maxLength, maxHits, nodeMapBatchSize);
+    	
+    	// with only an end, search out from the ends and flip the paths
+    	boolean reverse = startCriterion == null;
+    	List<Node> roots = findPathRoots(reverse?endCriterion:startCriterion);
+    	if(roots == null || roots.size() == 0) return new ArrayList<Path>();
+    	search.seedStarts(roots);
+    	
+    	if(!reverse && endCriterion != null)
+    	{
+    		roots = findPathRoots(endCriterion);
+    		if(roots == null || roots.size() == 0) return new ArrayList<Path>();
+    		search.seedEnds(roots);
+    	}
+    	
+    	search.run();
+    	return search.getPaths(reverse);
     }
     
-
-	protected void loadGraphMeta()
+    protected List<Node> findPathRoots(Criterion crit) throws NoGraphException
+    {
+    	GraphQuery query = new GraphQuery();
+    	query.setCriterion(crit);
+    	query.setMaxResults(pathRootMax);
+    	return findNodes(query);
+    }
+    
+	/**
+	 * The query with its criterion rewritten by the QueryOptimizer.
+	 * 
+	 * @param query
+	 * @param rels true if the query is for relationships
+	 * @return the query to run, null if nothing can match
+	 */
+	protected GraphQuery optimizeQuery(GraphQuery query, boolean rels)
 	{
-		synchronized(metasync)
+		if(!optimizeQueries || query == null || query.getCriterion() == null) return query;
+		
+		GraphQuery out = getQueryOptimizer(rels).optimize(query);
+		if(QueryOptimizer.matchesNothing(out.getCriterion())) return null;
+		return out;
+	}
+	
+	/**
+	 * Stale stats are rebuilt on the async pool, queries keep using the old ones until then.
+	 * 
+	 * @param rels
+	 * @return
+	 */
+	protected QueryOptimizer getQueryOptimizer(boolean rels)
+	{
+		if(nodeOptimizer == null)
+		{
+			QueryOptimizer qo = new QueryOptimizer();
+			qo.setSingleValued(!multiValuedProperties);
+			relOptimizer = qo;
+			nodeOptimizer = qo;
+		}
+		
+		if(System.currentTimeMillis() - optimizerBuilt > queryStatsMillis && optimizerRefreshing.compareAndSet(false, true))
 		{
-			graphMeta = new GraphMeta();
-			File f = new File(metaFile);
-			if(f.exists())
+			try
+			{
+				GraphExecutors.getAsyncExecutor().execute(() -> {
+					try
+					{
+						relOptimizer = buildQueryOptimizer(true);
+						nodeOptimizer = buildQueryOptimizer(false);
+					}
+					finally
+					{
+						optimizerBuilt = System.currentTimeMillis();
+						optimizerRefreshing.set(false);
+					}
+				});
+			}
+			catch(Exception ex)
 			{
-				String json = FileUtil.getStringFromFile(metaFile);
-				graphMeta.fromJSONString(json);
-			}	
-		}		
+				optimizerRefreshing.set(false);
+				logger.log(Level.FINE,"Unable to refresh query stats",ex);
+			}
+		}
+		
+		return rels?relOptimizer:nodeOptimizer;
+	}
+	
+	/**
+	 * An optimizer using the counts per type and the property names sampled into the graph meta.
+	 * 
+	 * @param rels
+	 * @return
+	 */
+	protected QueryOptimizer buildQueryOptimizer(boolean rels)
+	{
+		Map<String,Long> counts = null;
+		Map<String,List<String>> props = new HashMap<String,List<String>>();
+		try
+		{
+			counts = rels?getRelationshipCountsByType():getNodeCountsByType();
+			if(counts != null && metaStore != null)
+			{
+				List<String> names = null;
+				for(String type : counts.keySet())
+				{
+					names = rels?metaStore.getPropertiesForRelationshipType(type):metaStore.getPropertiesForNodeType(type);
+					if(names != null) props.put(type, names);
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.FINE,"No stats for the query optimizer",ex);
+		}
+		
+		QueryOptimizer qo = new QueryOptimizer(new QueryOptimizer.StatsSelectivity(counts, props.size() > 0?props:null));
+		qo.setSingleValued(!multiValuedProperties);
+		return qo;
+	}
+	
+	/**
+	 * Attach to the shared meta store for this graph.
+	 */
+	@SuppressWarnings("deprecation")
+	protected void loadGraphMeta()
+	{
+		metaFile = getMetaFile();
+		metaStore = GraphMetaStore.getStore(metaFile);
+		graphMeta = metaStore.getGraphMeta();
+	}
+	
+	/**
+	 * A copy of the meta for this graph with all sampled updates applied.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("deprecation")
+	public GraphMeta getGraphMeta()
+	{
+		GraphMeta gm = metaStore.getGraphMeta();
+		graphMeta = gm;
+		return gm;
 	}
 	
 	/**
@@ -419,18 +978,18 @@ public abstract class BaseGraphManager implements GraphManager
 		{
 			for(int i=0; i<size; i++)
 			{
-				graphMeta.updateNodeMeta(nodes.get(i));
+				metaStore.sampleNode(nodes.get(i));
 			}
 		}
 		else
 		{
-			graphMeta.updateNodeMeta(nodes.get(0));
-			graphMeta.updateNodeMeta(nodes.get(size-1));
-			graphMeta.updateNodeMeta(nodes.get(size/2));
-			graphMeta.updateNodeMeta(nodes.get(size/4));
-			graphMeta.updateNodeMeta(nodes.get(3*size/4));
+			metaStore.sampleNode(nodes.get(0));
+			metaStore.sampleNode(nodes.get(size-1));
+			metaStore.sampleNode(nodes.get(size/2));
+			metaStore.sampleNode(nodes.get(size/4));
+			metaStore.sampleNode(nodes.get(3*size/4));
 		}
-		writeGraphMeta();
+		markGraphMetaDirty();
 	}
 
 	protected void sampleRelMeta(List<Relationship> rels) 
@@ -442,58 +1001,54 @@ public abstract class BaseGraphManager implements GraphManager
 		{
 			for(int i=0; i<size; i++)
 			{
-				graphMeta.updateRelationshipMeta(rels.get(i));
+				metaStore.sampleRelationship(rels.get(i));
 			}
 		}
 		else
 		{
-			graphMeta.updateRelationshipMeta(rels.get(0));
-			graphMeta.updateRelationshipMeta(rels.get(size-1));
-			graphMeta.updateRelationshipMeta(rels.get(size/2));
+			metaStore.sampleRelationship(rels.get(0));
+			metaStore.sampleRelationship(rels.get(size-1));
+			metaStore.sampleRelationship(rels.get(size/2));
 		}
-		writeGraphMeta();
+		markGraphMetaDirty();
 	}
 
 	
+	/**
+	 * Queue the meta to be written by the background writer instead of rewriting the file on every batch.
+	 */
+	protected void markGraphMetaDirty()
+	{
+		GraphMetaWriter.getInstance().markDirty(metaStore);
+	}
+	
+	/**
+	 * Write any pending meta changes to disk now.
+	 */
+	public void flushGraphMeta()
+	{
+		GraphMetaWriter.getInstance().flush(metaStore);
+	}
+	
 	protected void writeGraphMeta()
 	{
-		synchronized(metasync)
-		{
-			FileWriter fw = null;
-			try
-			{
-				fw = new FileWriter(metaFile);
-				fw.write(graphMeta.toJSONString());
-				fw.flush();
-				fw.close();
-				fw = null;
-			}
-			catch(Exception ex)
-			{
-				logger.log(Level.SEVERE, "Error commiting meta to disk", ex);
-			}
-			finally
-			{
-				if(fw != null)try{fw.close();}catch(Exception ex){};
-			}
-			
-		} // end sync
+		metaStore.write();
 	}
 	
 	@Override
 	public List<String> getPropertyNamesForNodeType(String type) throws NoGraphException 
 	{
-		if(graphMeta == null) return null;
+		if(metaStore == null) return null;
 		
-		return graphMeta.getPropertiesForNodeType(type);
+		return metaStore.getPropertiesForNodeType(type);
 	}
 
 	@Override
 	public List<String> getPropertyNamesForRelationshipType(String type) throws NoGraphException 
 	{
-		if(graphMeta == null) return null;
+		if(metaStore == null) return null;
 		
-		return graphMeta.getPropertiesForRelationshipType(type);
+		return metaStore.getPropertiesForRelationshipType(type);
 	}
 
 	@Override
@@ -502,7 +1057,7 @@ public abstract class BaseGraphManager implements GraphManager
 		Map<String,List<String>> out = new HashMap<String,List<String>>();
 		
 		List<String> types = this.getNodeTypes();
-		if(types != null && graphMeta != null)
+		if(types != null && metaStore != null)
 		{
 			List<String> props = null;
 			String type = null;
@@ -510,7 +1065,7 @@ public abstract class BaseGraphManager implements GraphManager
 			for(int i=0; i<size; i++)
 			{
 				type = types.get(i);
-				props = graphMeta.getPropertiesForNodeType(type);
+				props = metaStore.getPropertiesForNodeType(type);
 				out.put(type, props);
 			}
 		}
@@ -523,7 +1078,7 @@ public abstract class BaseGraphManager implements GraphManager
 		Map<String,List<String>> out = new HashMap<String,List<String>>();
 		
 		List<String> types = this.getRelationshipTypes();
-		if(types != null && graphMeta != null)
+		if(types != null && metaStore != null)
 		{
 			List<String> props = null;
 			String type = null;
@@ -531,7 +1086,7 @@ public abstract class BaseGraphManager implements GraphManager
 			for(int i=0; i<size; i++)
 			{
 				type = types.get(i);
-				props = graphMeta.getPropertiesForRelationshipType(type);
+				props = metaStore.getPropertiesForRelationshipType(type);
 				out.put(type, props);
 			}
 		}
@@ -548,12 +1103,8 @@ public abstract class BaseGraphManager implements GraphManager
 	{
 		try
 		{
-			synchronized(metasync)
-			{
-				graphMeta = gm;
-				writeGraphMeta();
-				loadGraphMeta();
-			}
+			GraphMetaWriter.getInstance().discard(metaStore);
+			metaStore.replace(gm);
 		}
 		catch(Exception ex)
 		{
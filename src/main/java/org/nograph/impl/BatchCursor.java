@@ -0,0 +1,83 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor that pulls one page of results at a time, only the current page is held in memory.
+ * 
+ * @author aholinch
+ *
+ * @param <T>
+ */
+public abstract class BatchCursor<T> implements GraphCursor<T> 
+{
+	protected List<T> batch = null;
+	protected int ind = 0;
+	protected boolean done = false;
+	protected boolean closed = false;
+	
+	/**
+	 * Fetch the next page.
+	 * 
+	 * @return null or empty when there are no more results
+	 */
+	protected abstract List<T> nextBatch();
+	
+	/**
+	 * Release backend resources, called once.
+	 */
+	protected abstract void release();
+	
+	@Override
+	public boolean hasNext() 
+	{
+		while(!done && (batch == null || ind >= batch.size()))
+		{
+			batch = nextBatch();
+			ind = 0;
+			if(batch == null || batch.size() == 0)
+			{
+				batch = null;
+				close();
+			}
+		}
+		return !done;
+	}
+
+	@Override
+	public T next() 
+	{
+		if(!hasNext()) throw new NoSuchElementException();
+		
+		T obj = batch.get(ind);
+		ind++;
+		return obj;
+	}
+
+	@Override
+	public void close() 
+	{
+		done = true;
+		if(closed) return;
+		closed = true;
+		release();
+	}
+}
@@ -0,0 +1,612 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.GraphManager;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+/**
+ * Collects single saves and writes them to the backend in bulk.
+ * 
+ * New objects go out through ingestNodes and ingestRelationships, objects that already have an id through
+ * saveNodes and saveRelationships.  Saving the same id again before a flush just replaces the pending copy.
+ * A flush happens when buffer.max writes are waiting, every buffer.flush.ms, on flush() or close(), and before
+ * anything that has to see the writes in order like deletes and the bulk calls.  Nodes are always written
+ * before relationships so a relationship can point at a node saved in the same window.
+ * 
+ * The buffer never holds more than buffer.max writes, a save that finds it full flushes on the caller's
+ * thread so writers can't outrun the backend.  Timed flushes run on the shared io pool and buffers that
+ * haven't been closed are flushed once at JVM shutdown.
+ * 
+ * saveNode returns right away and the id is set on the object when the flush happens, use bufferNode to
+ * get a future for the id.  Finds don't see pending writes until they are flushed, gets by id do.
+ * 
+ * @author aholinch
+ *
+ */
+public class BufferedGraphManager extends DelegatingGraphManager 
+{
+	private static final Logger logger = Logger.getLogger(BufferedGraphManager.class.getName());
+
+	public static final String PROP_BUFFER_MAX = "buffer.max";
+	public static final String PROP_FLUSH_MS = "buffer.flush.ms";
+	
+	protected int maxPending = 1000;
+	protected long flushMillis = 1000;
+	
+	protected final Object bufferSync = new Object();
+	protected final Object flushSync = new Object();
+	
+	protected Map<Node,Pending<Node>> nodeInserts = new IdentityHashMap<Node,Pending<Node>>();
+	protected Map<String,Pending<Node>> nodeUpdates = new LinkedHashMap<String,Pending<Node>>();
+	protected Map<Relationship,Pending<Relationship>> relInserts = new IdentityHashMap<Relationship,Pending<Relationship>>();
+	protected Map<String,Pending<Relationship>> relUpdates = new LinkedHashMap<String,Pending<Relationship>>();
+	protected int pendingCount = 0;
+	
+	protected AtomicBoolean flushQueued = new AtomicBoolean(false);
+	protected ScheduledFuture<?> timer = null;
+	protected volatile boolean closed = false;
+	
+	/**
+	 * Buffers that haven't been closed, flushed by one shared shutdown hook.
+	 */
+	protected static final Set<BufferedGraphManager> open = ConcurrentHashMap.newKeySet();
+	private static final AtomicBoolean hookAdded = new AtomicBoolean(false);
+	
+	public BufferedGraphManager(GraphManager delegate)
+	{
+		this(delegate, ConfigUtil.getIntProperty(PROP_BUFFER_MAX,1000), ConfigUtil.getLongProperty(PROP_FLUSH_MS,1000));
+	}
+	
+	public BufferedGraphManager(GraphManager delegate, int maxPending, long flushMillis)
+	{
+		super(delegate);
+		
+		if(maxPending < 1) maxPending = 1;
+		if(flushMillis < 10) flushMillis = 10;
+		this.maxPending = maxPending;
+		this.flushMillis = flushMillis;
+		
+		timer = GraphExecutors.getScheduler().scheduleWithFixedDelay(this::requestFlush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		
+		open.add(this);
+		if(hookAdded.compareAndSet(false, true))
+		{
+			Runtime.getRuntime().addShutdownHook(new Thread(BufferedGraphManager::flushOpen,"nograph-write-buffer-shutdown"));
+		}
+	}
+	
+	protected static void flushOpen()
+	{
+		for(BufferedGraphManager bgm : open)
+		{
+			bgm.flushQuietly();
+		}
+	}
+	
+	/**
+	 * Queue a node to be saved.
+	 * 
+	 * @param n
+	 * @return completes with the node id once it has been written
+	 */
+	public CompletableFuture<String> bufferNode(Node n)
+	{
+		if(n == null) return CompletableFuture.completedFuture(null);
+		
+		Pending<Node> p = null;
+		boolean full = false;
+		while(p == null)
+		{
+			synchronized(bufferSync)
+			{
+				String id = n.getID();
+				if(id == null)
+				{
+					p = nodeInserts.get(n);
+					if(p == null && pendingCount < maxPending)
+					{
+						p = new Pending<Node>(n);
+						nodeInserts.put(n, p);
+						pendingCount++;
+					}
+				}
+				else
+				{
+					p = nodeUpdates.get(id);
+					if(p != null)
+					{
+						// last save wins
+						p.item = n;
+					}
+					else if(pendingCount < maxPending)
+					{
+						p = new Pending<Node>(n);
+						nodeUpdates.put(id, p);
+						pendingCount++;
+					}
+				}
+				full = pendingCount >= maxPending;
+			}
+			
+			// no room, write it out on this thread
+			if(p == null) flushQuietly();
+		}
+		
+		afterBuffer(full);
+		return p.future;
+	}
+	
+	/**
+	 * Queue a relationship to be saved.
+	 * 
+	 * @param r
+	 * @return completes with the relationship id once it has been written
+	 */
+	public CompletableFuture<String> bufferRelationship(Relationship r)
+	{
+		if(r == null) return CompletableFuture.completedFuture(null);
+		
+		Pending<Relationship> p = null;
+		boolean full = false;
+		while(p == null)
+		{
+			synchronized(bufferSync)
+			{
+				String id = r.getID();
+				if(id == null)
+				{
+					p = relInserts.get(r);
+					if(p == null && pendingCount < maxPending)
+					{
+						p = new Pending<Relationship>(r);
+						relInserts.put(r, p);
+						pendingCount++;
+					}
+				}
+				else
+				{
+					p = relUpdates.get(id);
+					if(p != null)
+					{
+						p.item = r;
+					}
+					else if(pendingCount < maxPending)
+					{
+						p = new Pending<Relationship>(r);
+						relUpdates.put(id, p);
+						pendingCount++;
+					}
+				}
+				full = pendingCount >= maxPending;
+			}
+			
+			if(p == null) flushQuietly();
+		}
+		
+		afterBuffer(full);
+		return p.future;
+	}
+	
+	/**
+	 * Start writing a full buffer in the background so the next save usually finds room, once closed
+	 * there's no timer so write right away.
+	 */
+	protected void afterBuffer(boolean full)
+	{
+		if(closed)
+		{
+			flushQuietly();
+		}
+		else if(full)
+		{
+			requestFlush();
+		}
+	}
+	
+	public int getPendingCount()
+	{
+		synchronized(bufferSync)
+		{
+			return pendingCount;
+		}
+	}
+	
+	protected void requestFlush()
+	{
+		if(flushQueued.compareAndSet(false, true))
+		{
+			try
+			{
+				GraphExecutors.getIOExecutor().execute(() -> {
+					flushQueued.set(false);
+					flushQuietly();
+				});
+			}
+			catch(Exception ex)
+			{
+				// rejected, the next save or timer tick tries again
+				flushQueued.set(false);
+			}
+		}
+	}
+	
+	protected void flushQuietly()
+	{
+		try
+		{
+			flush();
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error flushing buffered writes",ex);
+		}
+	}
+	
+	/**
+	 * Write everything that is pending.  The futures of anything that failed complete exceptionally.
+	 * 
+	 * @throws NoGraphException the first error seen
+	 */
+	public void flush() throws NoGraphException
+	{
+		// one flush at a time so two saves of the same id land in order
+		synchronized(flushSync)
+		{
+			List<Pending<Node>> ni = null;
+			List<Pending<Node>> nu = null;
+			List<Pending<Relationship>> ri = null;
+			List<Pending<Relationship>> ru = null;
+			
+			synchronized(bufferSync)
+			{
+				if(pendingCount == 0) return;
+				
+				ni = new ArrayList<Pending<Node>>(nodeInserts.values());
+				nu = new ArrayList<Pending<Node>>(nodeUpdates.values());
+				ri = new ArrayList<Pending<Relationship>>(relInserts.values());
+				ru = new ArrayList<Pending<Relationship>>(relUpdates.values());
+				
+				nodeInserts.clear();
+				nodeUpdates.clear();
+				relInserts.clear();
+				relUpdates.clear();
+				pendingCount = 0;
+			}
+			
+			NoGraphException err = null;
+			
+			if(ni.size() > 0)
+			{
+				try
+				{
+					delegate.ingestNodes(items(ni));
+					completeNodes(ni);
+				}
+				catch(Exception ex)
+				{
+					err = fail(ni,ex,err);
+				}
+			}
+			
+			if(nu.size() > 0)
+			{
+				try
+				{
+					delegate.saveNodes(items(nu));
+					completeNodes(nu);
+				}
+				catch(Exception ex)
+				{
+					err = fail(nu,ex,err);
+				}
+			}
+			
+			if(ri.size() > 0)
+			{
+				try
+				{
+					delegate.ingestRelationships(items(ri));
+					completeRels(ri);
+				}
+				catch(Exception ex)
+				{
+					err = fail(ri,ex,err);
+				}
+			}
+			
+			if(ru.size() > 0)
+			{
+				try
+				{
+					delegate.saveRelationships(items(ru));
+					completeRels(ru);
+				}
+				catch(Exception ex)
+				{
+					err = fail(ru,ex,err);
+				}
+			}
+			
+			if(err != null) throw err;
+		}
+	}
+	
+	protected static <T> List<T> items(List<Pending<T>> list)
+	{
+		int size = list.size();
+		List<T> out = new ArrayList<T>(size);
+		for(int i=0; i<size; i++)
+		{
+			out.add(list.get(i).item);
+		}
+		return out;
+	}
+	
+	protected void completeNodes(List<Pending<Node>> list)
+	{
+		int size = list.size();
+		Pending<Node> p = null;
+		String id = null;
+		for(int i=0; i<size; i++)
+		{
+			p = list.get(i);
+			id = p.item.getID();
+			if(id == null)
+			{
+				// some backends log and skip on error
+				p.future.completeExceptionally(new NoGraphException("Node was not saved"));
+			}
+			else
+			{
+				p.future.complete(id);
+			}
+		}
+	}
+	
+	protected void completeRels(List<Pending<Relationship>> list)
+	{
+		int size = list.size();
+		Pending<Relationship> p = null;
+		String id = null;
+		for(int i=0; i<size; i++)
+		{
+			p = list.get(i);
+			id = p.item.getID();
+			if(id == null)
+			{
+				p.future.completeExceptionally(new NoGraphException("Relationship was not saved"));
+			}
+			else
+			{
+				p.future.complete(id);
+			}
+		}
+	}
+	
+	protected <T> NoGraphException fail(List<Pending<T>> list, Exception ex, NoGraphException err)
+	{
+		NoGraphException nge = null;
+		if(ex instanceof NoGraphException)
+		{
+			nge = (NoGraphException)ex;
+		}
+		else
+		{
+			nge = new NoGraphException(ex);
+		}
+		
+		int size = list.size();
+		for(int i=0; i<size; i++)
+		{
+			list.get(i).future.completeExceptionally(nge);
+		}
+		
+		if(err == null) err = nge;
+		return err;
+	}
+	
+	/**
+	 * Flush and stop the timer.  Saves after this are written right away.
+	 * 
+	 * @throws NoGraphException
+	 */
+	public void close() throws NoGraphException
+	{
+		closed = true;
+		timer.cancel(false);
+		open.remove(this);
+		flush();
+	}
+	
+	@Override
+	public void saveNode(Node n) throws NoGraphException
+	{
+		bufferNode(n);
+	}
+	
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException
+	{
+		bufferRelationship(r);
+	}
+	
+	@Override
+	public Node getNode(String id) throws NoGraphException
+	{
+		if(id == null) return null;
+		
+		synchronized(bufferSync)
+		{
+			Pending<Node> p = nodeUpdates.get(id);
+			if(p != null) return p.item;
+		}
+		return delegate.getNode(id);
+	}
+	
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException
+	{
+		if(id == null) return null;
+		
+		synchronized(bufferSync)
+		{
+			Pending<Relationship> p = relUpdates.get(id);
+			if(p != null) return p.item;
+		}
+		return delegate.getRelationship(id, fetchNodes);
+	}
+	
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException
+	{
+		flush();
+		delegate.ingestNodes(nodes);
+	}
+	
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException
+	{
+		flush();
+		delegate.saveNodes(nodes);
+	}
+	
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException
+	{
+		flush();
+		delegate.deleteNodesByID(ids);
+	}
+	
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		flush();
+		delegate.ingestRelationships(rels);
+	}
+	
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		flush();
+		delegate.saveRelationships(rels);
+	}
+	
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException
+	{
+		flush();
+		delegate.deleteRelationshipsByID(ids);
+	}
+	
+	/*
+	 * Async
+	 */
+	
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		return bufferNode(n).thenApply(id -> null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		return bufferRelationship(r).thenApply(id -> null);
+	}
+	
+	@Override
+	public CompletableFuture<Node> getNodeAsync(String id)
+	{
+		if(id == null) return CompletableFuture.completedFuture(null);
+		
+		synchronized(bufferSync)
+		{
+			Pending<Node> p = nodeUpdates.get(id);
+			if(p != null) return CompletableFuture.completedFuture(p.item);
+		}
+		return super.getNodeAsync(id);
+	}
+	
+	@Override
+	public CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		if(id == null) return CompletableFuture.completedFuture(null);
+		
+		synchronized(bufferSync)
+		{
+			Pending<Relationship> p = relUpdates.get(id);
+			if(p != null) return CompletableFuture.completedFuture(p.item);
+		}
+		return super.getRelationshipAsync(id, fetchNodes);
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		return GraphExecutors.runAsync(this::flush).thenCompose(v -> super.saveNodesAsync(nodes));
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return GraphExecutors.runAsync(this::flush).thenCompose(v -> super.deleteNodesByIDAsync(ids));
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		return GraphExecutors.runAsync(this::flush).thenCompose(v -> super.saveRelationshipsAsync(rels));
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return GraphExecutors.runAsync(this::flush).thenCompose(v -> super.deleteRelationshipsByIDAsync(ids));
+	}
+	
+	/**
+	 * A write waiting for the next flush.
+	 */
+	protected static class Pending<T>
+	{
+		protected T item = null;
+		protected CompletableFuture<String> future = new CompletableFuture<String>();
+		
+		public Pending(T item)
+		{
+			this.item = item;
+		}
+	}
+}
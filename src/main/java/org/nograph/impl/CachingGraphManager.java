@@ -0,0 +1,422 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nograph.GraphManager;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.cache.CacheStats;
+import org.nograph.impl.cache.LruCache;
+
+/**
+ * Read-through cache of nodes and relationships by id in front of any manager.
+ *
+ * Writes and deletes that go through this manager invalidate the affected entries.  Writes made
+ * directly against the backend are only picked up when the ttl runs out.  Cached objects are shared
+ * between callers so treat them as read-only.
+ *
+ * @author aholinch
+ *
+ */
+public class CachingGraphManager extends DelegatingGraphManager
+{
+	public static final String PROP_NODE_MAX = "cache.nodes.max";
+	public static final String PROP_REL_MAX = "cache.rels.max";
+	public static final String PROP_TTL_MS = "cache.ttl.ms";
+
+	protected LruCache<String,Node> nodeCache = null;
+	protected LruCache<String,Relationship> relCache = null;
+
+	/**
+	 * Bumped on every write so a read that raced with a write doesn't cache what it saw.
+	 */
+	protected AtomicLong writeStamp = new AtomicLong();
+
+	public CachingGraphManager(GraphManager delegate)
+	{
+		this(delegate, ConfigUtil.getIntProperty(PROP_NODE_MAX,100000), ConfigUtil.getIntProperty(PROP_REL_MAX,100000),
+				ConfigUtil.getLongProperty(PROP_TTL_MS,60000));
+	}
+
+	public CachingGraphManager(GraphManager delegate, int maxNodes, int maxRels, long ttlMillis)
+	{
+		super(delegate);
+		nodeCache = new LruCache<String,Node>(maxNodes, ttlMillis);
+		relCache = new LruCache<String,Relationship>(maxRels, ttlMillis);
+	}
+
+	public CacheStats getNodeCacheStats()
+	{
+		return nodeCache.getStats();
+	}
+
+	public CacheStats getRelationshipCacheStats()
+	{
+		return relCache.getStats();
+	}
+
+	public void clearCache()
+	{
+		writeStamp.incrementAndGet();
+		nodeCache.invalidateAll();
+		relCache.invalidateAll();
+	}
+
+	@Override
+	public Node getNode(String id) throws NoGraphException
+	{
+		if(id == null) return null;
+
+		Node n = nodeCache.get(id);
+		if(n != null) return n;
+
+		long stamp = writeStamp.get();
+		n = delegate.getNode(id);
+		if(n != null && stamp == writeStamp.get())
+		{
+			nodeCache.put(id, n);
+		}
+		return n;
+	}
+
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException
+	{
+		if(id == null) return null;
+
+		Relationship r = relCache.get(id);
+		if(r == null)
+		{
+			long stamp = writeStamp.get();
+			r = delegate.getRelationship(id, false);
+			if(r == null) return null;
+
+			if(stamp == writeStamp.get())
+			{
+				relCache.put(id, r);
+			}
+		}
+
+		if(fetchNodes)
+		{
+			// attach endpoints to a copy, the cached instance is shared with other callers
+			r = copyRel(r);
+
+			// endpoints come from the node cache so hub nodes are only fetched once
+			Node n = getNode(r.getNode1ID());
+			if(n != null) r.setNode1(n);
+			n = getNode(r.getNode2ID());
+			if(n != null) r.setNode2(n);
+		}
+		return r;
+	}
+
+	protected Relationship copyRel(Relationship r)
+	{
+		GenericRelationship c = new GenericRelationship();
+		c.setID(r.getID());
+		c.setType(r.getType());
+		Map<String,Object> props = r.getPropertyMap();
+		c.setPropertyMap(props == null?null:new HashMap<String,Object>(props));
+		c.setNode1(r.getNode1());
+		c.setNode2(r.getNode2());
+		return c;
+	}
+
+	protected void invalidateNodes(List<Node> nodes)
+	{
+		if(nodes == null) return;
+
+		writeStamp.incrementAndGet();
+		int size = nodes.size();
+		for(int i=0; i<size; i++)
+		{
+			nodeCache.invalidate(nodes.get(i).getID());
+		}
+	}
+
+	protected void invalidateNodeIDs(List<String> ids)
+	{
+		if(ids == null) return;
+
+		writeStamp.incrementAndGet();
+		Set<String> idSet = new HashSet<String>(ids);
+		int size = ids.size();
+		for(int i=0; i<size; i++)
+		{
+			nodeCache.invalidate(ids.get(i));
+		}
+
+		// some backends take the attached relationships with the node
+		relCache.invalidateIf((k,r) -> idSet.contains(r.getNode1ID()) || idSet.contains(r.getNode2ID()));
+	}
+
+	protected void invalidateRelIDs(List<String> ids)
+	{
+		if(ids == null) return;
+
+		writeStamp.incrementAndGet();
+		int size = ids.size();
+		for(int i=0; i<size; i++)
+		{
+			relCache.invalidate(ids.get(i));
+		}
+	}
+
+	protected void invalidateRels(List<Relationship> rels)
+	{
+		if(rels == null) return;
+
+		writeStamp.incrementAndGet();
+		int size = rels.size();
+		for(int i=0; i<size; i++)
+		{
+			relCache.invalidate(rels.get(i).getID());
+		}
+	}
+
+	@Override
+	public void saveNode(Node n) throws NoGraphException
+	{
+		try
+		{
+			delegate.saveNode(n);
+		}
+		finally
+		{
+			if(n != null)
+			{
+				writeStamp.incrementAndGet();
+				nodeCache.invalidate(n.getID());
+			}
+		}
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException
+	{
+		try
+		{
+			delegate.ingestNodes(nodes);
+		}
+		finally
+		{
+			invalidateNodes(nodes);
+		}
+	}
+
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException
+	{
+		try
+		{
+			delegate.saveNodes(nodes);
+		}
+		finally
+		{
+			invalidateNodes(nodes);
+		}
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException
+	{
+		try
+		{
+			delegate.deleteNodesByID(ids);
+		}
+		finally
+		{
+			invalidateNodeIDs(ids);
+		}
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException
+	{
+		try
+		{
+			delegate.saveRelationship(r);
+		}
+		finally
+		{
+			if(r != null)
+			{
+				writeStamp.incrementAndGet();
+				relCache.invalidate(r.getID());
+			}
+		}
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		try
+		{
+			delegate.ingestRelationships(rels);
+		}
+		finally
+		{
+			invalidateRels(rels);
+		}
+	}
+
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		try
+		{
+			delegate.saveRelationships(rels);
+		}
+		finally
+		{
+			invalidateRels(rels);
+		}
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException
+	{
+		try
+		{
+			delegate.deleteRelationshipsByID(ids);
+		}
+		finally
+		{
+			invalidateRelIDs(ids);
+		}
+	}
+
+	/*
+	 * Async, the same cache in front of the delegate's async calls
+	 */
+
+	@Override
+	public CompletableFuture<Node> getNodeAsync(String id)
+	{
+		if(id == null) return CompletableFuture.completedFuture(null);
+
+		Node n = nodeCache.get(id);
+		if(n != null) return CompletableFuture.completedFuture(n);
+
+		long stamp = writeStamp.get();
+		return super.getNodeAsync(id).thenApply(res -> {
+			if(res != null && stamp == writeStamp.get())
+			{
+				nodeCache.put(id, res);
+			}
+			return res;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		if(id == null) return CompletableFuture.completedFuture(null);
+
+		CompletableFuture<Relationship> cf = null;
+		Relationship r = relCache.get(id);
+		if(r != null)
+		{
+			cf = CompletableFuture.completedFuture(r);
+		}
+		else
+		{
+			long stamp = writeStamp.get();
+			cf = super.getRelationshipAsync(id, false).thenApply(res -> {
+				if(res != null && stamp == writeStamp.get())
+				{
+					relCache.put(id, res);
+				}
+				return res;
+			});
+		}
+
+		if(!fetchNodes) return cf;
+
+		return cf.thenCompose(res -> {
+			if(res == null) return CompletableFuture.completedFuture(null);
+
+			Relationship c = copyRel(res);
+			CompletableFuture<Node> n1 = getNodeAsync(c.getNode1ID());
+			CompletableFuture<Node> n2 = getNodeAsync(c.getNode2ID());
+			return n1.thenCombine(n2, (a,b) -> {
+				if(a != null) c.setNode1(a);
+				if(b != null) c.setNode2(b);
+				return c;
+			});
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		return super.saveNodeAsync(n).whenComplete((v,ex) -> {
+			if(n != null)
+			{
+				writeStamp.incrementAndGet();
+				nodeCache.invalidate(n.getID());
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		return super.saveNodesAsync(nodes).whenComplete((v,ex) -> invalidateNodes(nodes));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return super.deleteNodesByIDAsync(ids).whenComplete((v,ex) -> invalidateNodeIDs(ids));
+	}
+
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		return super.saveRelationshipAsync(r).whenComplete((v,ex) -> {
+			if(r != null)
+			{
+				writeStamp.incrementAndGet();
+				relCache.invalidate(r.getID());
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		return super.saveRelationshipsAsync(rels).whenComplete((v,ex) -> invalidateRels(rels));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return super.deleteRelationshipsByIDAsync(ids).whenComplete((v,ex) -> invalidateRelIDs(ids));
+	}
+}
@@ -0,0 +1,91 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.NoGraph;
+import org.nograph.NoGraphConfig;
+
+/**
+ * Typed reads of the nograph config with defaults.
+ * 
+ * @author aholinch
+ *
+ */
+public class ConfigUtil 
+{
+	private static final Logger logger = Logger.getLogger(ConfigUtil.class.getName());
+
+	public static String getProperty(String key)
+	{
+		String str = null;
+		try
+		{
+			NoGraphConfig config = NoGraph.getInstance().getConfig();
+			str = config.getProperty(key);
+			if(str != null) str = str.trim();
+			if(str != null && str.length() == 0) str = null;
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error reading property " + key,ex);
+		}
+		return str;
+	}
+	
+	public static int getIntProperty(String key, int def)
+	{
+		String str = getProperty(key);
+		if(str == null) return def;
+		
+		try
+		{
+			return Integer.parseInt(str);
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Bad int for " + key + ": " + str);
+		}
+		return def;
+	}
+
+	public static long getLongProperty(String key, long def)
+	{
+		String str = getProperty(key);
+		if(str == null) return def;
+		
+		try
+		{
+			return Long.parseLong(str);
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Bad long for " + key + ": " + str);
+		}
+		return def;
+	}
+	
+	public static boolean getBooleanProperty(String key, boolean def)
+	{
+		String str = getProperty(key);
+		if(str == null) return def;
+		return Boolean.parseBoolean(str);
+	}
+}
@@ -0,0 +1,414 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.nograph.DataDecorator;
+import org.nograph.GraphManager;
+import org.nograph.GraphQuery;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Path;
+import org.nograph.Relationship;
+import org.nograph.GraphQuery.Criterion;
+
+/**
+ * Passes every call through to another manager.  Extend this to layer behavior like caching on top of any backend.
+ *
+ * The async calls go to the delegate's async calls so a backend with real async io keeps it, a delegate
+ * without them has the blocking call run on the async pool.  Subclasses that change a blocking call
+ * need to change its async twin too.
+ *
+ * @author aholinch
+ *
+ */
+public class DelegatingGraphManager extends BaseGraphManager
+{
+	protected GraphManager delegate = null;
+
+	public DelegatingGraphManager(GraphManager delegate)
+	{
+		this.delegate = delegate;
+		if(delegate.getName() != null)
+		{
+			setName(delegate.getName());
+		}
+	}
+
+	public GraphManager getDelegate()
+	{
+		return delegate;
+	}
+
+	/**
+	 * Report under the backend being wrapped.
+	 */
+	@Override
+	protected String getBackendName()
+	{
+		if(delegate instanceof BaseGraphManager)
+		{
+			return ((BaseGraphManager)delegate).getBackendName();
+		}
+		return delegate.getClass().getSimpleName();
+	}
+
+	@Override
+	public void saveNode(Node n) throws NoGraphException
+	{
+		delegate.saveNode(n);
+	}
+
+	@Override
+	public Node getNode(String id) throws NoGraphException
+	{
+		return delegate.getNode(id);
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException
+	{
+		delegate.ingestNodes(nodes);
+	}
+
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException
+	{
+		delegate.saveNodes(nodes);
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException
+	{
+		delegate.deleteNodesByID(ids);
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException
+	{
+		delegate.saveRelationship(r);
+	}
+
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException
+	{
+		return delegate.getRelationship(id, fetchNodes);
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		delegate.ingestRelationships(rels);
+	}
+
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		delegate.saveRelationships(rels);
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException
+	{
+		delegate.deleteRelationshipsByID(ids);
+	}
+
+	@Override
+	public List<Node> findNodes(String type, String key, Object val, int maxResults) throws NoGraphException
+	{
+		return delegate.findNodes(type, key, val, maxResults);
+	}
+
+	@Override
+	public List<Relationship> findRelationships(String type, String key, Object val, boolean fetchNodes, int maxResults)
+			throws NoGraphException
+	{
+		return delegate.findRelationships(type, key, val, fetchNodes, maxResults);
+	}
+
+	@Override
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException
+	{
+		return delegate.findNodes(query);
+	}
+
+	@Override
+	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException
+	{
+		return delegate.findRelationships(query);
+	}
+
+	@Override
+	public List<Relationship> findRelatedNodes(String id) throws NoGraphException
+	{
+		return delegate.findRelatedNodes(id);
+	}
+
+	@Override
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		if(delegate instanceof BaseGraphManager) return ((BaseGraphManager)delegate).iterateNodes(type, key, val);
+		return super.iterateNodes(type, key, val);
+	}
+
+	@Override
+	public GraphCursor<Node> iterateNodes(GraphQuery query) throws NoGraphException
+	{
+		if(delegate instanceof BaseGraphManager) return ((BaseGraphManager)delegate).iterateNodes(query);
+		return super.iterateNodes(query);
+	}
+
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		if(delegate instanceof BaseGraphManager) return ((BaseGraphManager)delegate).iterateRelationships(type, key, val, fetchNodes);
+		return super.iterateRelationships(type, key, val, fetchNodes);
+	}
+
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(GraphQuery query) throws NoGraphException
+	{
+		if(delegate instanceof BaseGraphManager) return ((BaseGraphManager)delegate).iterateRelationships(query);
+		return super.iterateRelationships(query);
+	}
+
+	@Override
+	public long countNodes(String type) throws NoGraphException
+	{
+		return delegate.countNodes(type);
+	}
+
+	@Override
+	public long countRelationships(String type) throws NoGraphException
+	{
+		return delegate.countRelationships(type);
+	}
+
+	@Override
+	public List<String> getNodeTypes() throws NoGraphException
+	{
+		return delegate.getNodeTypes();
+	}
+
+	@Override
+	public List<String> getRelationshipTypes() throws NoGraphException
+	{
+		return delegate.getRelationshipTypes();
+	}
+
+	@Override
+	public Map<String, Long> getNodeCountsByType() throws NoGraphException
+	{
+		return delegate.getNodeCountsByType();
+	}
+
+	@Override
+	public Map<String, Long> getRelationshipCountsByType() throws NoGraphException
+	{
+		return delegate.getRelationshipCountsByType();
+	}
+
+	@Override
+	public List<String> getPropertyNamesForNodeType(String type) throws NoGraphException
+	{
+		return delegate.getPropertyNamesForNodeType(type);
+	}
+
+	@Override
+	public List<String> getPropertyNamesForRelationshipType(String type) throws NoGraphException
+	{
+		return delegate.getPropertyNamesForRelationshipType(type);
+	}
+
+	@Override
+	public Map<String, List<String>> getPropertyNamesByNodeType() throws NoGraphException
+	{
+		return delegate.getPropertyNamesByNodeType();
+	}
+
+	@Override
+	public Map<String, List<String>> getPropertyNamesByRelationshipType() throws NoGraphException
+	{
+		return delegate.getPropertyNamesByRelationshipType();
+	}
+
+	@Override
+	public void setDataDecorator(DataDecorator decorator)
+	{
+		delegate.setDataDecorator(decorator);
+	}
+
+	@Override
+	public DataDecorator getDataDecorator()
+	{
+		return delegate.getDataDecorator();
+	}
+
+	@Override
+	public void clearDataDecorator()
+	{
+		delegate.clearDataDecorator();
+	}
+
+	@Override
+	public List<Path> findPaths(Criterion startCriterion, Criterion relationshipCriterion, Criterion endCriterion,
+			int maxLength, int maxHits) throws NoGraphException
+	{
+		if(delegate instanceof BaseGraphManager)
+		{
+			return ((BaseGraphManager)delegate).findPaths(startCriterion, relationshipCriterion, endCriterion, maxLength, maxHits);
+		}
+		return super.findPaths(startCriterion, relationshipCriterion, endCriterion, maxLength, maxHits);
+	}
+
+	/*
+	 * Async
+	 */
+
+	protected AsyncGraphManager asyncDelegate()
+	{
+		if(delegate instanceof AsyncGraphManager)
+		{
+			return (AsyncGraphManager)delegate;
+		}
+		return null;
+	}
+
+	@Override
+	public CompletableFuture<Node> getNodeAsync(String id)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.getNode(id));
+		return agm.getNodeAsync(id);
+	}
+
+	@Override
+	public CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.getRelationship(id, fetchNodes));
+		return agm.getRelationshipAsync(id, fetchNodes);
+	}
+
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(String type, String key, Object val, int maxResults)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.findNodes(type, key, val, maxResults));
+		return agm.findNodesAsync(type, key, val, maxResults);
+	}
+
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(String type, String key, Object val, boolean fetchNodes, int maxResults)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.findRelationships(type, key, val, fetchNodes, maxResults));
+		return agm.findRelationshipsAsync(type, key, val, fetchNodes, maxResults);
+	}
+
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(GraphQuery query)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.findNodes(query));
+		return agm.findNodesAsync(query);
+	}
+
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(GraphQuery query)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.findRelationships(query));
+		return agm.findRelationshipsAsync(query);
+	}
+
+	@Override
+	public CompletableFuture<List<Relationship>> findRelatedNodesAsync(String id)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.findRelatedNodes(id));
+		return agm.findRelatedNodesAsync(id);
+	}
+
+	@Override
+	public CompletableFuture<Long> countNodesAsync(String type)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.countNodes(type));
+		return agm.countNodesAsync(type);
+	}
+
+	@Override
+	public CompletableFuture<Long> countRelationshipsAsync(String type)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.supplyAsync(() -> delegate.countRelationships(type));
+		return agm.countRelationshipsAsync(type);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.runAsync(() -> delegate.saveNode(n));
+		return agm.saveNodeAsync(n);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.runAsync(() -> delegate.saveNodes(nodes));
+		return agm.saveNodesAsync(nodes);
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.runAsync(() -> delegate.deleteNodesByID(ids));
+		return agm.deleteNodesByIDAsync(ids);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.runAsync(() -> delegate.saveRelationship(r));
+		return agm.saveRelationshipAsync(r);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.runAsync(() -> delegate.saveRelationships(rels));
+		return agm.saveRelationshipsAsync(rels);
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		AsyncGraphManager agm = asyncDelegate();
+		if(agm == null) return GraphExecutors.runAsync(() -> delegate.deleteRelationshipsByID(ids));
+		return agm.deleteRelationshipsByIDAsync(ids);
+	}
+}
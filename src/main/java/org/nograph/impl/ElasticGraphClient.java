@@ -0,0 +1,404 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.jodd.client.ECException;
+import es.jodd.client.ElasticClient;
+import es.jodd.client.SearchHit;
+import es.jodd.client.SearchResults;
+import jodd.http.HttpRequest;
+import jodd.http.HttpResponse;
+import jodd.json.JsonArray;
+import jodd.json.JsonObject;
+import jodd.json.JsonParser;
+
+import org.nograph.impl.metrics.GraphMetrics;
+import org.nograph.impl.metrics.OpMetrics;
+
+/**
+ * Adds the bulk and structured calls the graph manager needs on top of the basic elastic client.
+ *
+ * @author aholinch
+ *
+ */
+public class ElasticGraphClient extends ElasticClient
+{
+	protected OpMetrics httpMetrics = null;
+
+	public ElasticGraphClient()
+	{
+		super();
+	}
+
+	public ElasticGraphClient(String url)
+	{
+		super(url);
+	}
+
+	/**
+	 * Record round trip latency and response bytes here.
+	 *
+	 * @param metrics
+	 */
+	public void setMetrics(GraphMetrics metrics)
+	{
+		if(metrics == null)
+		{
+			httpMetrics = null;
+		}
+		else
+		{
+			httpMetrics = metrics.op("http");
+		}
+	}
+
+	@Override
+	protected HttpResponse sendRequest(HttpRequest req)
+	{
+		OpMetrics om = httpMetrics;
+		if(om == null) return super.sendRequest(req);
+
+		long start = System.nanoTime();
+		HttpResponse resp = null;
+		try
+		{
+			resp = super.sendRequest(req);
+			return resp;
+		}
+		finally
+		{
+			om.record(start, 0, resp == null || resp.statusCode() >= 300);
+			if(resp != null)
+			{
+				om.addBytes(responseBytes(resp));
+			}
+		}
+	}
+
+	/**
+	 * Bytes on the wire, from the Content-Length header when the server sent one.  Otherwise the raw
+	 * body, which jodd keeps as one ISO-8859-1 char per byte received.
+	 *
+	 * @param resp
+	 * @return
+	 */
+	protected static long responseBytes(HttpResponse resp)
+	{
+		String cl = resp.contentLength();
+		if(cl != null)
+		{
+			try
+			{
+				return Long.parseLong(cl.trim());
+			}
+			catch(NumberFormatException ex)
+			{
+				// fall through to the body
+			}
+		}
+
+		String body = resp.body();
+		if(body == null) return 0;
+		return body.length();
+	}
+
+	protected String indexURL(String index)
+	{
+		String url = getBaseURL();
+		if(!url.endsWith("/")) url += "/";
+		return url + index;
+	}
+
+	/**
+	 * Fetch many documents in one round trip.  Missing ids are left out of the map.
+	 *
+	 * @param index
+	 * @param ids
+	 * @return map of id to the _source json
+	 * @throws ECException
+	 */
+	public Map<String,String> multiGetDocs(String index, List<String> ids) throws ECException
+	{
+		Map<String,String> out = new HashMap<String,String>();
+		if(ids == null || ids.size() == 0) return out;
+
+		int size = ids.size();
+		StringBuilder sb = new StringBuilder(size*24+32);
+
+		boolean wildcard = index.contains("*");
+		if(wildcard)
+		{
+			// _mget needs a concrete index so use an ids query instead
+			sb.append("{\"size\":").append(size).append(",\"query\":{\"ids\":{\"values\":[");
+		}
+		else
+		{
+			sb.append("{\"ids\":[");
+		}
+
+		for(int i=0; i<size; i++)
+		{
+			if(i > 0) sb.append(',');
+			sb.append('"').append(escapeJSON(ids.get(i))).append('"');
+		}
+
+		if(wildcard)
+		{
+			sb.append("]}}}");
+		}
+		else
+		{
+			sb.append("]}");
+		}
+
+		String url = indexURL(index) + (wildcard?"/_search":"/_mget");
+
+		HttpRequest req = HttpRequest.post(url);
+		req.bodyText(sb.toString(), "application/json");
+
+		HttpResponse resp = sendRequest(req);
+		logResponse("mget response", resp);
+
+		String body = resp.bodyText();
+
+		if(wildcard)
+		{
+			SearchResults res = parseElasticSearchResponse(body, size);
+			SearchHit hits[] = res.getHits();
+			if(hits != null)
+			{
+				for(int i=0; i<hits.length; i++)
+				{
+					out.put(hits[i].getID(), hits[i].getSource());
+				}
+			}
+		}
+		else
+		{
+			JsonParser jp = new JsonParser();
+			JsonObject obj = jp.parseAsJsonObject(body);
+			JsonArray docs = obj.getJsonArray("docs");
+
+			if(docs != null)
+			{
+				int nd = docs.size();
+				JsonObject doc = null;
+				JsonObject src = null;
+				for(int i=0; i<nd; i++)
+				{
+					doc = docs.getJsonObject(i);
+					if(!Boolean.TRUE.equals(doc.getBoolean("found"))) continue;
+
+					src = doc.getJsonObject("_source");
+					if(src != null)
+					{
+						out.put(doc.getString("_id"), src.toString());
+					}
+				}
+			}
+		}
+
+		return out;
+	}
+
+	/**
+	 * Run a query written in the query dsl.
+	 * 
+	 * @param index
+	 * @param queryJson the query object, what goes under "query"
+	 * @param size
+	 * @return
+	 * @throws ECException
+	 */
+	public SearchResults runStructuredQuery(String index, String queryJson, int size) throws ECException
+	{
+		StringBuilder sb = new StringBuilder(queryJson.length()+48);
+		sb.append("{\"size\":").append(size).append(",\"query\":").append(queryJson).append('}');
+		
+		HttpRequest req = HttpRequest.post(indexURL(index) + "/_search");
+		req.bodyText(sb.toString(), "application/json");
+		
+		HttpResponse resp = sendRequest(req);
+		logResponse("search response", resp);
+		
+		return parseElasticSearchResponse(resp.bodyText(), size);
+	}
+	
+	/**
+	 * Start a scroll over a query written in the query dsl.
+	 * 
+	 * @param index
+	 * @param queryJson the query object, what goes under "query"
+	 * @param pageSize
+	 * @param keepAlive like 1m
+	 * @return the first page
+	 * @throws ECException
+	 */
+	public ScrollPage startStructuredScroll(String index, String queryJson, int pageSize, String keepAlive) throws ECException
+	{
+		StringBuilder sb = new StringBuilder(queryJson.length()+64);
+		sb.append("{\"size\":").append(pageSize);
+		sb.append(",\"sort\":[\"_doc\"],\"query\":").append(queryJson).append('}');
+		
+		return startScrollWithBody(index, sb.toString(), keepAlive);
+	}
+
+	/**
+	 * Start a scroll over a query string query.
+	 *
+	 * @param index
+	 * @param query
+	 * @param pageSize
+	 * @param keepAlive like 1m
+	 * @return the first page
+	 * @throws ECException
+	 */
+	public ScrollPage startScroll(String index, String query, int pageSize, String keepAlive) throws ECException
+	{
+		StringBuilder sb = new StringBuilder(query.length()+80);
+		sb.append("{\"size\":").append(pageSize);
+		sb.append(",\"sort\":[\"_doc\"],\"query\":{\"query_string\":{\"query\":\"");
+		sb.append(escapeJSON(query));
+		sb.append("\"}}}");
+
+		return startScrollWithBody(index, sb.toString(), keepAlive);
+	}
+
+	/**
+	 * Start a scroll with a full search body.
+	 *
+	 * @param index
+	 * @param body
+	 * @param keepAlive
+	 * @return
+	 * @throws ECException
+	 */
+	public ScrollPage startScrollWithBody(String index, String body, String keepAlive) throws ECException
+	{
+		HttpRequest req = HttpRequest.post(indexURL(index) + "/_search?scroll=" + keepAlive);
+		req.bodyText(body, "application/json");
+
+		HttpResponse resp = sendRequest(req);
+		logResponse("scroll response", resp);
+
+		return parseScrollPage(resp.bodyText());
+	}
+
+	/**
+	 * Get the next page of a scroll.
+	 *
+	 * @param scrollId
+	 * @param keepAlive
+	 * @return
+	 * @throws ECException
+	 */
+	public ScrollPage continueScroll(String scrollId, String keepAlive) throws ECException
+	{
+		String body = "{\"scroll\":\""+keepAlive+"\",\"scroll_id\":\""+escapeJSON(scrollId)+"\"}";
+
+		HttpRequest req = HttpRequest.post(indexURL("_search/scroll"));
+		req.bodyText(body, "application/json");
+
+		HttpResponse resp = sendRequest(req);
+		logResponse("scroll response", resp);
+
+		return parseScrollPage(resp.bodyText());
+	}
+
+	/**
+	 * Free the scroll context on the server.
+	 *
+	 * @param scrollId
+	 * @throws ECException
+	 */
+	public void clearScroll(String scrollId) throws ECException
+	{
+		if(scrollId == null) return;
+
+		String body = "{\"scroll_id\":\""+escapeJSON(scrollId)+"\"}";
+
+		HttpRequest req = HttpRequest.delete(indexURL("_search/scroll"));
+		req.bodyText(body, "application/json");
+
+		HttpResponse resp = sendRequest(req);
+		logResponse("clear scroll response", resp);
+	}
+
+	protected ScrollPage parseScrollPage(String json)
+	{
+		JsonParser jp = new JsonParser();
+		JsonObject obj = jp.parseAsJsonObject(json);
+
+		ScrollPage page = new ScrollPage();
+		page.scrollId = obj.getString("_scroll_id");
+		page.hits = parseHits(obj);
+		return page;
+	}
+
+	/**
+	 * Pull the hits out of a parsed search response.
+	 *
+	 * @param obj
+	 * @return
+	 */
+	protected SearchHit[] parseHits(JsonObject obj)
+	{
+		JsonObject hitsObj = obj.getJsonObject("hits");
+		if(hitsObj == null) return new SearchHit[0];
+
+		JsonArray arr = hitsObj.getJsonArray("hits");
+		if(arr == null) return new SearchHit[0];
+
+		int size = arr.size();
+		SearchHit hits[] = new SearchHit[size];
+		JsonObject hobj = null;
+		SearchHit hit = null;
+		for(int i=0; i<size; i++)
+		{
+			hobj = arr.getJsonObject(i);
+			hit = new SearchHit();
+			hit.setID(hobj.getString("_id"));
+			hit.setSourceObject(hobj.getJsonObject("_source"));
+			hits[i] = hit;
+		}
+		return hits;
+	}
+
+	/**
+	 * One page of a scroll.
+	 */
+	public static class ScrollPage
+	{
+		protected String scrollId = null;
+		protected SearchHit hits[] = null;
+
+		public String getScrollId()
+		{
+			return scrollId;
+		}
+
+		public SearchHit[] getHits()
+		{
+			return hits;
+		}
+	}
+}
@@ -20,20 +20,22 @@ package org.nograph.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
 import org.nograph.ID;
 import org.nograph.NoGraphException;
 import org.nograph.Node;
 import org.nograph.Relationship;
-import org.nograph.impl.query.BasicStringQueryTranslator;
-import org.nograph.impl.query.QueryTranslator;
+import org.nograph.impl.query.ElasticDslQueryTranslator;
 
-import es.jodd.client.ElasticClient;
 import es.jodd.client.SearchHit;
 import es.jodd.client.SearchResults;
 import jodd.json.JsonObject;
@@ -48,18 +50,38 @@ public class ElasticGraphManager extends BaseGraphManager
 {
 	private static final Logger logger = Logger.getLogger(ElasticGraphManager.class.getName());
 	
-	protected ElasticClient client = null;
+	/**
+	 * Appended to string fields for exact matches, empty if strings are mapped as keyword.
+	 */
+	public static final String PROP_KEYWORD_SUFFIX = "elastic.keyword.suffix";
+	
+	protected ElasticGraphClient client = null;
 	protected int defaultMaxHits = 10000;
+	protected int scrollPageSize = 1000;
+	protected String scrollKeepAlive = "1m";
 	protected boolean hasMultipleNodeIndexes = false;
 	protected boolean hasMultipleRelIndexes = false;
 	
-	protected QueryTranslator queryTranslator = null;
+	protected ElasticDslQueryTranslator queryTranslator = null;
 	
     public ElasticGraphManager()
     {
-    	client = new ElasticClient();
+    	client = new ElasticGraphClient();
+    	client.setMetrics(getMetrics());
+    	
+    	// a term on an array field matches any element
+    	multiValuedProperties = true;
     	
-    	queryTranslator = new BasicStringQueryTranslator(":");
+    	String suffix = ConfigUtil.getProperty(PROP_KEYWORD_SUFFIX);
+    	if(suffix == null) suffix = ".keyword";
+    	queryTranslator = new ElasticDslQueryTranslator(suffix);
+    }
+    
+    @Override
+    public void setName(String str)
+    {
+    	super.setName(str);
+    	client.setMetrics(getMetrics());
     }
     
     protected String getNodeIndexForQuery(String type)
@@ -147,23 +169,29 @@ public class ElasticGraphManager extends BaseGraphManager
 		
 		try
 		{
-			decorateNodes(nodes);
-			
-			sampleNodeMeta(nodes);
-
-			int size = nodes.size();
-			List<String> jsons = new ArrayList<String>(size);
-			for(int i=0; i<size; i++)
-			{
-				jsons.add(nodes.get(i).toJSONString());
-			}
-			
-			List<String> ids = client.multiCreateDoc(getNodeIndexForModify(null), jsons);
+			String index = getNodeIndexForModify(null);
 			
-			for(int i=0; i<size; i++)
-			{
-				nodes.get(i).setID(ids.get(i));
-			}
+			// json is built along with the decoration so it overlaps the previous bulk write
+			pipelineBatches(nodes, client.getBulkBatchSize(), batch -> {
+				decorateNodes(batch);
+				sampleNodeMeta(batch);
+				
+				int size = batch.size();
+				List<String> jsons = new ArrayList<String>(size);
+				for(int i=0; i<size; i++)
+				{
+					jsons.add(batch.get(i).toJSONString());
+				}
+				return jsons;
+			}, (batch,jsons) -> {
+				List<String> ids = client.multiCreateDoc(index, jsons);
+				
+				int size = batch.size();
+				for(int i=0; i<size; i++)
+				{
+					batch.get(i).setID(ids.get(i));
+				}
+			});
 		}
 		catch(Exception ex)
 		{
@@ -302,23 +330,28 @@ public class ElasticGraphManager extends BaseGraphManager
 		
 		try
 		{
-			decorateRels(rels);
+			String index = getRelIndexForModify(null);
 			
-			sampleRelMeta(rels);
-
-			int size = rels.size();
-			List<String> jsons = new ArrayList<String>(size);
-			for(int i=0; i<size; i++)
-			{
-				jsons.add(relToJSON(rels.get(i)));
-			}
-			
-			List<String> ids = client.multiCreateDoc(getRelIndexForModify(null), jsons);
-			
-			for(int i=0; i<size; i++)
-			{
-				rels.get(i).setID(ids.get(i));
-			}
+			pipelineBatches(rels, client.getBulkBatchSize(), batch -> {
+				decorateRels(batch);
+				sampleRelMeta(batch);
+				
+				int size = batch.size();
+				List<String> jsons = new ArrayList<String>(size);
+				for(int i=0; i<size; i++)
+				{
+					jsons.add(relToJSON(batch.get(i)));
+				}
+				return jsons;
+			}, (batch,jsons) -> {
+				List<String> ids = client.multiCreateDoc(index, jsons);
+				
+				int size = batch.size();
+				for(int i=0; i<size; i++)
+				{
+					batch.get(i).setID(ids.get(i));
+				}
+			});
 		}
 		catch(Exception ex)
 		{
@@ -394,8 +427,11 @@ public class ElasticGraphManager extends BaseGraphManager
 
 	protected List<Node> resToNodes(SearchResults res)
 	{
-		SearchHit hits[] = res.getHits();
-		
+		return hitsToNodes(res.getHits());
+	}
+	
+	protected List<Node> hitsToNodes(SearchHit hits[])
+	{
 		int size = hits.length;
 		
 		List<Node> nodes = new ArrayList<Node>(size);
@@ -414,6 +450,43 @@ public class ElasticGraphManager extends BaseGraphManager
 		return nodes;
 	}
 	
+	/**
+	 * Builds the filter query for the simple type/key/value finders.
+	 * 
+	 * @param type
+	 * @param key
+	 * @param val
+	 * @return
+	 */
+	protected String buildQuery(String type, String key, Object val)
+	{
+		SetCriterion crit = new SetCriterion(SetCriterion.COMB_AND);
+		
+		if(type != null)
+		{
+			crit.addCriterion(new SimpleCriterion(GenericNode.TYPE_KEY, type));
+		}
+		
+		if(key != null && val != null)
+		{
+			crit.addCriterion(new SimpleCriterion(key, val));
+		}
+		
+		return queryTranslator.queryToNative("", crit);
+	}
+	
+	protected String buildQuery(Criterion crit)
+	{
+		return queryTranslator.queryToNative("", crit);
+	}
+	
+	protected int maxHits(GraphQuery query)
+	{
+		int max = query.getMaxResults();
+		if(max <= 0) max = defaultMaxHits;
+		return max;
+	}
+	
 	@Override
 	public List<Node> findNodes(String type, String key, Object val, int maxResults) throws NoGraphException {
 		if(key == null && type == null)
@@ -422,25 +495,15 @@ public class ElasticGraphManager extends BaseGraphManager
 			return null;
 		}
 		
-		String query = "";
-		
 		List<Node> nodes = null;
 		
 		if(maxResults <= 0) maxResults = defaultMaxHits;
 		
 		try
 		{
-			if(type != null)
-			{
-				query="type:("+type+")";
-			}
+			String query = buildQuery(type,key,val);
 			
-			if(key != null && val != null)
-			{
-				if(query.length()>0)query+= " AND ";
-				query+=key+":("+val.toString()+")";
-			}
-			SearchResults res = client.runQueryStringQuery(getNodeIndexForQuery(null), query, maxResults);
+			SearchResults res = client.runStructuredQuery(getNodeIndexForQuery(null), query, maxResults);
 			
 			nodes = resToNodes(res);	
 		}
@@ -462,26 +525,15 @@ public class ElasticGraphManager extends BaseGraphManager
 			return null;
 		}
 		
-		String query = "";
-		
 		List<Relationship> rels = null;
 		
 		if(maxResults <= 0) maxResults = defaultMaxHits;
 		
 		try
 		{
-			if(type != null)
-			{
-				query="type:("+type+")";
-			}
-			
-			if(key != null && val != null)
-			{
-				if(query.length()>0)query+= " AND ";
-				query+=key+":("+val.toString()+")";
-			}
+			String query = buildQuery(type,key,val);
 			
-			SearchResults res = client.runQueryStringQuery(getRelIndexForQuery(null), query, maxResults);
+			SearchResults res = client.runStructuredQuery(getRelIndexForQuery(null), query, maxResults);
 			
 			rels = resToRels(res,fetchNodes);	
 		}
@@ -495,16 +547,19 @@ public class ElasticGraphManager extends BaseGraphManager
 	}
 
 	@Override
-	public List<Node> findNodes(GraphQuery query) throws NoGraphException {		
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException {
+		query = optimizeQuery(query,false);
+		if(query == null) return new ArrayList<Node>();
+		
 		List<Node> nodes = null;
 		
 		try
 		{
-			String queryStr = queryTranslator.graphQueryToNativeNode("", query).toString();
+			String queryStr = buildQuery(query.getCriterion());
 			
-			logger.info(queryStr);
+			logger.fine(queryStr);
 		
-			SearchResults res = client.runQueryStringQuery(getNodeIndexForQuery(null), queryStr, query.getMaxResults());
+			SearchResults res = client.runStructuredQuery(getNodeIndexForQuery(null), queryStr, maxHits(query));
 			
 			nodes = resToNodes(res);
 		}
@@ -519,15 +574,18 @@ public class ElasticGraphManager extends BaseGraphManager
 
 	@Override
 	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException {
+		query = optimizeQuery(query,true);
+		if(query == null) return new ArrayList<Relationship>();
+		
 		List<Relationship> rels = null;
 		
 		try
 		{
-			String queryStr = queryTranslator.graphQueryToNativeRel("", query).toString();
+			String queryStr = buildQuery(query.getCriterion());
 			
-			logger.info(queryStr);
+			logger.fine(queryStr);
 		
-			SearchResults res = client.runQueryStringQuery(getRelIndexForQuery(null), queryStr, query.getMaxResults());
+			SearchResults res = client.runStructuredQuery(getRelIndexForQuery(null), queryStr, maxHits(query));
 			
 			rels = resToRels(res, query.getFetchNodesForRelationships());
 		}
@@ -560,10 +618,120 @@ public class ElasticGraphManager extends BaseGraphManager
 		return rels;
 	}
 	
-	protected List<Relationship> resToRels(SearchResults res, boolean fetchNodes) throws NoGraphException
+	/**
+	 * Scrolls one query_string query over node1.id and node2.id per batch of nodes.
+	 */
+	@Override
+	protected Map<String,List<Relationship>> findRelationshipsForNodes(List<String> ids) throws NoGraphException
 	{
-		SearchHit hits[] = res.getHits();
+		Map<String,List<Relationship>> out = new HashMap<String,List<Relationship>>();
+		if(ids == null || ids.size() == 0) return out;
+		
+		// two clauses per id, stay under the default max clause count
+		List<List<String>> batches = chunk(ids, 500);
+		int nb = batches.size();
+		String index = getRelIndexForQuery(null);
+		for(int i=0; i<nb; i++)
+		{
+			List<String> batch = batches.get(i);
+			StringBuilder sb = new StringBuilder(batch.size()*24);
+			int size = batch.size();
+			for(int j=0; j<size; j++)
+			{
+				if(j > 0) sb.append(' ');
+				sb.append('"').append(batch.get(j).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+			}
+			String terms = sb.toString();
+			String query = "node1.id:("+terms+") OR node2.id:("+terms+")";
+			
+			try(ScrollCursor<Relationship> cursor = new ScrollCursor<Relationship>(index, query, true, false))
+			{
+				Relationship r = null;
+				while(cursor.hasNext())
+				{
+					r = cursor.next();
+					addRelForNode(out, r.getNode1ID(), r);
+					if(r.getNode2ID() != null && !r.getNode2ID().equals(r.getNode1ID()))
+					{
+						addRelForNode(out, r.getNode2ID(), r);
+					}
+				}
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.WARNING,"Error getting rels",ex);
+				throw new NoGraphException("Error getting rels",ex);
+			}
+		}
 		
+		// the query can match ids outside this call, only hand back the ones asked for
+		out.keySet().retainAll(new HashSet<String>(ids));
+		return out;
+	}
+	
+	private void addRelForNode(Map<String,List<Relationship>> out, String id, Relationship r)
+	{
+		if(id == null) return;
+		List<Relationship> rels = out.get(id);
+		if(rels == null)
+		{
+			rels = new ArrayList<Relationship>();
+			out.put(id, rels);
+		}
+		rels.add(r);
+	}
+	
+	/**
+	 * Uses _mget to pull the nodes back in batches instead of one GET per id.
+	 */
+	@Override
+	protected Map<String,Node> buildNodeMap(List<String> ids)
+	{
+		Map<String,Node> nodeMap = new HashMap<String,Node>();
+		if(ids == null || ids.size() == 0) return nodeMap;
+		
+		String index = getNodeIndexForQuery(null);
+		List<List<String>> batches = chunk(ids, nodeMapBatchSize);
+		int nb = batches.size();
+		
+		try
+		{
+			Map<String,String> docs = null;
+			List<String> docIds = null;
+			String id = null;
+			GenericNode n = null;
+			for(int i=0; i<nb; i++)
+			{
+				docs = client.multiGetDocs(index, batches.get(i));
+				docIds = new ArrayList<String>(docs.keySet());
+				int nd = docIds.size();
+				for(int j=0; j<nd; j++)
+				{
+					id = docIds.get(j);
+					n = new GenericNode();
+					n.fromJSONString(docs.get(id));
+					n.setID(id);
+					nodeMap.put(id, n);
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			// a partial map would read as not found, let them be fetched individually
+			logger.log(Level.WARNING,"Error getting nodes in bulk",ex);
+			return null;
+		}
+		
+		return nodeMap;
+	}
+	
+	protected List<Relationship> resToRels(SearchResults res, boolean fetchNodes) throws NoGraphException
+	{
+		return hitsToRels(res.getHits(), fetchNodes);
+	}
+	
+	protected List<Relationship> hitsToRels(SearchHit hits[], boolean fetchNodes) throws NoGraphException
+	{
 		int size = hits.length;
 		
 		List<Relationship> rels = new ArrayList<Relationship>(size);
@@ -595,6 +763,141 @@ public class ElasticGraphManager extends BaseGraphManager
 		return rels;
 	}
 
+	@Override
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		if(key == null && type == null)
+		{
+			logger.warning("Query cannot be null");
+			return new ListCursor<Node>(null);
+		}
+		
+		return new ScrollCursor<Node>(getNodeIndexForQuery(null), buildQuery(type,key,val), true, false, false);
+	}
+
+	@Override
+	public GraphCursor<Node> iterateNodes(GraphQuery query) throws NoGraphException
+	{
+		query = optimizeQuery(query,false);
+		if(query == null) return new ListCursor<Node>(null);
+		
+		return new ScrollCursor<Node>(getNodeIndexForQuery(null), buildQuery(query.getCriterion()), true, false, false);
+	}
+
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		if(key == null && type == null)
+		{
+			logger.warning("Query cannot be null");
+			return new ListCursor<Relationship>(null);
+		}
+		
+		return new ScrollCursor<Relationship>(getRelIndexForQuery(null), buildQuery(type,key,val), true, true, fetchNodes);
+	}
+
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(GraphQuery query) throws NoGraphException
+	{
+		query = optimizeQuery(query,true);
+		if(query == null) return new ListCursor<Relationship>(null);
+		
+		return new ScrollCursor<Relationship>(getRelIndexForQuery(null), buildQuery(query.getCriterion()), true, true, query.getFetchNodesForRelationships());
+	}
+	
+	/**
+	 * Pages through a query with the scroll api, one page of hits in memory at a time.
+	 * Relationship endpoints are filled in a page at a time.
+	 */
+	protected class ScrollCursor<T> extends BatchCursor<T>
+	{
+		protected String index = null;
+		protected String query = null;
+		protected boolean structured = false;
+		protected boolean rels = false;
+		protected boolean fetchNodes = false;
+		protected String scrollId = null;
+		protected boolean started = false;
+		
+		public ScrollCursor(String index, String query, boolean rels, boolean fetchNodes)
+		{
+			this(index, query, false, rels, fetchNodes);
+		}
+		
+		/**
+		 * 
+		 * @param index
+		 * @param query
+		 * @param structured true if the query is dsl json instead of a query string
+		 * @param rels
+		 * @param fetchNodes
+		 */
+		public ScrollCursor(String index, String query, boolean structured, boolean rels, boolean fetchNodes)
+		{
+			this.index = index;
+			this.structured = structured;
+			this.query = query;
+			this.rels = rels;
+			this.fetchNodes = fetchNodes;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected List<T> nextBatch() 
+		{
+			try
+			{
+				ElasticGraphClient.ScrollPage page = null;
+				if(!started)
+				{
+					started = true;
+					if(structured)
+					{
+						page = client.startStructuredScroll(index, query, scrollPageSize, scrollKeepAlive);
+					}
+					else
+					{
+						page = client.startScroll(index, query, scrollPageSize, scrollKeepAlive);
+					}
+				}
+				else
+				{
+					if(scrollId == null) return null;
+					page = client.continueScroll(scrollId, scrollKeepAlive);
+				}
+				
+				scrollId = page.getScrollId();
+				
+				SearchHit hits[] = page.getHits();
+				if(hits == null || hits.length == 0) return null;
+				
+				if(rels)
+				{
+					return (List<T>)hitsToRels(hits, fetchNodes);
+				}
+				return (List<T>)hitsToNodes(hits);
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.WARNING,"Error scrolling results",ex);
+				throw new RuntimeException("Error scrolling results",ex);
+			}
+		}
+
+		@Override
+		protected void release() 
+		{
+			try
+			{
+				client.clearScroll(scrollId);
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.FINE,"Error clearing scroll",ex);
+			}
+		}
+	}
+	
 	@Override
 	public long countNodes(String type) throws NoGraphException {
 		long out = 0;
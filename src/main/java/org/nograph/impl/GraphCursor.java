@@ -0,0 +1,91 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.nograph.GraphManager;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+/**
+ * Results pulled from the backend as they are consumed.  Cursors may hold a session or scroll
+ * open on the backend so close them, try-with-resources works.  Running off the end also closes.
+ * 
+ * @author aholinch
+ *
+ * @param <T>
+ */
+public interface GraphCursor<T> extends Iterator<T>, AutoCloseable 
+{
+	/**
+	 * Release any backend resources, never throws.
+	 */
+	@Override
+	public void close();
+	
+	/**
+	 * View the rest of the cursor as a sequential stream, closing the stream closes the cursor.
+	 * 
+	 * @return
+	 */
+	public default Stream<T> stream()
+	{
+		Spliterator<T> split = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED|Spliterator.NONNULL);
+		return StreamSupport.stream(split, false).onClose(this::close);
+	}
+	
+	/**
+	 * Every node of a type from any manager, streamed when the manager can.
+	 * 
+	 * @param gm
+	 * @param type
+	 * @return
+	 * @throws NoGraphException
+	 */
+	public static GraphCursor<Node> allNodes(GraphManager gm, String type) throws NoGraphException
+	{
+		if(gm instanceof BaseGraphManager)
+		{
+			return ((BaseGraphManager)gm).iterateNodes(type, null, null);
+		}
+		return new ListCursor<Node>(gm.findNodes(type, null, null, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Every relationship of a type from any manager, without their nodes.
+	 * 
+	 * @param gm
+	 * @param type
+	 * @return
+	 * @throws NoGraphException
+	 */
+	public static GraphCursor<Relationship> allRelationships(GraphManager gm, String type) throws NoGraphException
+	{
+		if(gm instanceof BaseGraphManager)
+		{
+			return ((BaseGraphManager)gm).iterateRelationships(type, null, null, false);
+		}
+		return new ListCursor<Relationship>(gm.findRelationships(type, null, null, false, Integer.MAX_VALUE));
+	}
+}
@@ -0,0 +1,239 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared, bounded thread pool for backend calls that the managers issue in parallel.
+ *
+ * @author aholinch
+ *
+ */
+public class GraphExecutors
+{
+	public static final String PROP_IO_THREADS = "io.threads";
+	public static final String PROP_ASYNC_THREADS = "async.threads";
+	public static final String PROP_DECORATE_THREADS = "decorate.threads";
+
+	private static ExecutorService ioExecutor = null;
+	private static final Object ioSync = new Object();
+
+	private static ExecutorService asyncExecutor = null;
+	private static final Object asyncSync = new Object();
+
+	private static ForkJoinPool decoratePool = null;
+	private static final Object decorateSync = new Object();
+
+	private static ScheduledThreadPoolExecutor scheduler = null;
+	private static final Object schedulerSync = new Object();
+
+	/**
+	 * Get the shared pool for parallel backend lookups.  Size comes from io.threads, default 16.
+	 *
+	 * @return
+	 */
+	public static ExecutorService getIOExecutor()
+	{
+		if(ioExecutor != null) return ioExecutor;
+
+		synchronized(ioSync)
+		{
+			if(ioExecutor == null)
+			{
+				int threads = ConfigUtil.getIntProperty(PROP_IO_THREADS,16);
+				ioExecutor = newFixedPool("nograph-io",threads);
+			}
+		}
+		return ioExecutor;
+	}
+
+	/**
+	 * Get the pool that runs blocking calls for the async api.  Size comes from async.threads, default 32.
+	 *
+	 * Kept apart from the io pool so async callers can't starve the parallel lookups their calls make.
+	 *
+	 * @return
+	 */
+	public static ExecutorService getAsyncExecutor()
+	{
+		if(asyncExecutor != null) return asyncExecutor;
+
+		synchronized(asyncSync)
+		{
+			if(asyncExecutor == null)
+			{
+				int threads = ConfigUtil.getIntProperty(PROP_ASYNC_THREADS,32);
+				asyncExecutor = newFixedPool("nograph-async",threads);
+			}
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * Get the pool for cpu bound decoration.  Size comes from decorate.threads, default the number of cores.
+	 *
+	 * @return
+	 */
+	public static ForkJoinPool getDecoratePool()
+	{
+		if(decoratePool != null) return decoratePool;
+
+		synchronized(decorateSync)
+		{
+			if(decoratePool == null)
+			{
+				int threads = ConfigUtil.getIntProperty(PROP_DECORATE_THREADS,Runtime.getRuntime().availableProcessors());
+				if(threads < 1) threads = 1;
+				decoratePool = new ForkJoinPool(threads);
+			}
+		}
+		return decoratePool;
+	}
+
+	/**
+	 * Get the one timer thread shared by everything that runs on a schedule.  Scheduled tasks should only
+	 * hand work to one of the pools, a task that blocks here holds up every other timer.
+	 *
+	 * @return
+	 */
+	public static ScheduledExecutorService getScheduler()
+	{
+		if(scheduler != null) return scheduler;
+
+		synchronized(schedulerSync)
+		{
+			if(scheduler == null)
+			{
+				ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, r -> {
+					Thread t = new Thread(r,"nograph-timer");
+					t.setDaemon(true);
+					return t;
+				});
+				// cancelled timers of closed managers shouldn't pile up in the queue
+				stpe.setRemoveOnCancelPolicy(true);
+				scheduler = stpe;
+			}
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Run a blocking call on the async pool.  Whatever it throws completes the future exceptionally.
+	 *
+	 * @param call
+	 * @return
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(Callable<T> call)
+	{
+		CompletableFuture<T> cf = new CompletableFuture<T>();
+		try
+		{
+			getAsyncExecutor().execute(() -> {
+				try
+				{
+					cf.complete(call.call());
+				}
+				catch(Throwable t)
+				{
+					cf.completeExceptionally(t);
+				}
+			});
+		}
+		catch(Exception ex)
+		{
+			// rejected
+			cf.completeExceptionally(ex);
+		}
+		return cf;
+	}
+
+	/**
+	 * Run a blocking call with no result on the async pool.
+	 *
+	 * @param call
+	 * @return
+	 */
+	public static CompletableFuture<Void> runAsync(AsyncCall call)
+	{
+		return supplyAsync(() -> {
+			call.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Like Runnable but allowed to throw.
+	 */
+	public static interface AsyncCall
+	{
+		public void run() throws Exception;
+	}
+
+	/**
+	 * Tasks that block on other tasks in the same pool can starve it, so callers check this
+	 * and run inline when already on a pool thread.
+	 *
+	 * @return
+	 */
+	public static boolean isPoolThread()
+	{
+		return Thread.currentThread() instanceof GraphThread;
+	}
+
+	/**
+	 * A fixed size pool of daemon threads.
+	 *
+	 * @param prefix
+	 * @param threads
+	 * @return
+	 */
+	public static ExecutorService newFixedPool(String prefix, int threads)
+	{
+		if(threads < 1) threads = 1;
+
+		final AtomicInteger cnt = new AtomicInteger();
+		ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new GraphThread(r,prefix+"-"+cnt.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		tpe.allowCoreThreadTimeOut(true);
+		return tpe;
+	}
+
+	/**
+	 * Marks threads owned by these pools.
+	 */
+	protected static class GraphThread extends Thread
+	{
+		public GraphThread(Runnable r, String name)
+		{
+			super(r,name);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.util.FileUtil;
+
+/**
+ * Holds the meta data for one graph along with its own file and locks.  Every manager working
+ * on the same graph shares a single store, and managers for different graphs never wait on each other.
+ *
+ * Samples from ingest threads go on a lock-free queue and are folded into the GraphMeta the next time
+ * it is read or written, so sampling never blocks.
+ *
+ * @author aholinch
+ *
+ */
+public class GraphMetaStore
+{
+	private static final Logger logger = Logger.getLogger(GraphMetaStore.class.getName());
+
+	private static final Map<String,GraphMetaStore> stores = new ConcurrentHashMap<String,GraphMetaStore>();
+
+	protected final String metaFile;
+
+	/**
+	 * Guards the GraphMeta object.
+	 */
+	protected final Object metaSync = new Object();
+
+	/**
+	 * Guards the file, held while writing so the meta lock is not held during io.
+	 */
+	protected final Object fileSync = new Object();
+
+	protected GraphMeta graphMeta = null;
+
+	protected Queue<Node> pendingNodes = new ConcurrentLinkedQueue<Node>();
+	protected Queue<Relationship> pendingRels = new ConcurrentLinkedQueue<Relationship>();
+
+	/**
+	 * Get the shared store for the meta file, loading it the first time.
+	 *
+	 * @param metaFile
+	 * @return
+	 */
+	public static GraphMetaStore getStore(String metaFile)
+	{
+		String key = new File(metaFile).getAbsolutePath();
+		return stores.computeIfAbsent(key, k -> {
+			GraphMetaStore store = new GraphMetaStore(metaFile);
+			store.load();
+			return store;
+		});
+	}
+
+	protected GraphMetaStore(String metaFile)
+	{
+		this.metaFile = metaFile;
+		graphMeta = new GraphMeta();
+	}
+
+	public String getMetaFile()
+	{
+		return metaFile;
+	}
+
+	/**
+	 * Queue a node to be folded into the meta.
+	 *
+	 * @param n
+	 */
+	public void sampleNode(Node n)
+	{
+		if(n != null) pendingNodes.offer(n);
+	}
+
+	/**
+	 * Queue a relationship to be folded into the meta.
+	 *
+	 * @param r
+	 */
+	public void sampleRelationship(Relationship r)
+	{
+		if(r != null) pendingRels.offer(r);
+	}
+
+	/**
+	 * Must hold metaSync.
+	 */
+	protected void drainPending()
+	{
+		Node n = null;
+		while((n = pendingNodes.poll()) != null)
+		{
+			graphMeta.updateNodeMeta(n);
+		}
+
+		Relationship r = null;
+		while((r = pendingRels.poll()) != null)
+		{
+			graphMeta.updateRelationshipMeta(r);
+		}
+	}
+
+	/**
+	 * A copy of the current meta with all queued samples applied.  The copy is taken under the lock so
+	 * callers can read it while ingest threads keep sampling.
+	 *
+	 * @return
+	 */
+	public GraphMeta getGraphMeta()
+	{
+		String json = null;
+		synchronized(metaSync)
+		{
+			drainPending();
+			json = graphMeta.toJSONString();
+		}
+
+		GraphMeta gm = new GraphMeta();
+		if(json != null) gm.fromJSONString(json);
+		return gm;
+	}
+
+	public List<String> getPropertiesForNodeType(String type)
+	{
+		synchronized(metaSync)
+		{
+			drainPending();
+			return graphMeta.getPropertiesForNodeType(type);
+		}
+	}
+
+	public List<String> getPropertiesForRelationshipType(String type)
+	{
+		synchronized(metaSync)
+		{
+			drainPending();
+			return graphMeta.getPropertiesForRelationshipType(type);
+		}
+	}
+
+	public void load()
+	{
+		synchronized(fileSync)
+		{
+			GraphMeta gm = new GraphMeta();
+			File f = new File(metaFile);
+			if(f.exists())
+			{
+				String json = FileUtil.getStringFromFile(metaFile);
+				gm.fromJSONString(json);
+			}
+
+			synchronized(metaSync)
+			{
+				pendingNodes.clear();
+				pendingRels.clear();
+				graphMeta = gm;
+			}
+		}
+	}
+
+	/**
+	 * Writes the meta to a temp file and renames it over the old one so readers never see a partial file.
+	 */
+	public void write()
+	{
+		synchronized(fileSync)
+		{
+			String json = null;
+			synchronized(metaSync)
+			{
+				drainPending();
+				json = graphMeta.toJSONString();
+			}
+
+			File target = new File(metaFile);
+			File tmp = new File(metaFile+".tmp");
+			FileWriter fw = null;
+			try
+			{
+				fw = new FileWriter(tmp);
+				fw.write(json);
+				fw.flush();
+				fw.close();
+				fw = null;
+
+				try
+				{
+					Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch(AtomicMoveNotSupportedException ex)
+				{
+					Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.SEVERE, "Error commiting meta to disk", ex);
+			}
+			finally
+			{
+				if(fw != null)try{fw.close();}catch(Exception ex){};
+			}
+		}
+	}
+
+	/**
+	 * Swap in new meta, write it, and read it back.
+	 *
+	 * @param gm
+	 */
+	public void replace(GraphMeta gm)
+	{
+		synchronized(fileSync)
+		{
+			synchronized(metaSync)
+			{
+				pendingNodes.clear();
+				pendingRels.clear();
+				graphMeta = gm;
+			}
+			write();
+			load();
+		}
+	}
+}
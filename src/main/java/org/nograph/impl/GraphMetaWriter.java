@@ -0,0 +1,185 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.NoGraph;
+import org.nograph.NoGraphConfig;
+
+/**
+ * Write-behind persistence for graph meta data.  Managers mark their store as dirty after sampling
+ * and a single background thread coalesces the changes, flushing on an interval, when enough
+ * changes have piled up, or when the jvm shuts down.
+ *
+ * @author aholinch
+ *
+ */
+public class GraphMetaWriter
+{
+	private static final Logger logger = Logger.getLogger(GraphMetaWriter.class.getName());
+
+	public static final String PROP_FLUSH_MS = "meta.flush.ms";
+	public static final String PROP_FLUSH_COUNT = "meta.flush.count";
+
+	private static GraphMetaWriter instance = null;
+	private static final Object instanceSync = new Object();
+
+	protected long flushMillis = 5000;
+	protected int flushCount = 1000;
+
+	/**
+	 * Stores with unflushed changes and the number of changes since the last flush.
+	 */
+	protected Map<GraphMetaStore,AtomicInteger> dirty = null;
+
+	protected ScheduledExecutorService executor = null;
+
+	public static GraphMetaWriter getInstance()
+	{
+		if(instance != null) return instance;
+
+		synchronized(instanceSync)
+		{
+			if(instance == null)
+			{
+				instance = new GraphMetaWriter();
+			}
+		}
+		return instance;
+	}
+
+	protected GraphMetaWriter()
+	{
+		dirty = new ConcurrentHashMap<GraphMetaStore,AtomicInteger>();
+
+		try
+		{
+			NoGraphConfig config = NoGraph.getInstance().getConfig();
+			String str = config.getProperty(PROP_FLUSH_MS);
+			if(str != null) flushMillis = Long.parseLong(str.trim());
+			str = config.getProperty(PROP_FLUSH_COUNT);
+			if(str != null) flushCount = Integer.parseInt(str.trim());
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error reading meta flush config",ex);
+		}
+
+		if(flushMillis < 10) flushMillis = 10;
+		if(flushCount < 1) flushCount = 1;
+
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r,"nograph-meta-writer");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flushAll,"nograph-meta-shutdown"));
+	}
+
+	public long getFlushMillis()
+	{
+		return flushMillis;
+	}
+
+	public int getFlushCount()
+	{
+		return flushCount;
+	}
+
+	/**
+	 * Note that the store has meta changes to persist.  This is cheap enough to call on every batch.
+	 *
+	 * @param store
+	 */
+	public void markDirty(GraphMetaStore store)
+	{
+		if(store == null) return;
+
+		AtomicInteger cnt = dirty.computeIfAbsent(store, k -> new AtomicInteger());
+		if(cnt.incrementAndGet() == flushCount)
+		{
+			// too many changes waiting, don't wait for the timer
+			try
+			{
+				executor.execute(() -> flush(store));
+			}
+			catch(Exception ex)
+			{
+				// executor is gone, we are shutting down and the hook will pick it up
+			}
+		}
+	}
+
+	/**
+	 * Write the store now if it has pending changes.
+	 *
+	 * @param store
+	 */
+	public void flush(GraphMetaStore store)
+	{
+		if(store == null) return;
+
+		if(dirty.remove(store) != null)
+		{
+			store.write();
+		}
+	}
+
+	/**
+	 * Write every store with pending changes.
+	 */
+	public void flushAll()
+	{
+		try
+		{
+			List<GraphMetaStore> stores = new ArrayList<GraphMetaStore>(dirty.keySet());
+			int size = stores.size();
+			for(int i=0; i<size; i++)
+			{
+				flush(stores.get(i));
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.SEVERE,"Error flushing meta",ex);
+		}
+	}
+
+	/**
+	 * Drop any pending changes for this store without writing them.
+	 *
+	 * @param store
+	 */
+	public void discard(GraphMetaStore store)
+	{
+		if(store == null) return;
+		dirty.remove(store);
+	}
+}
@@ -0,0 +1,1116 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.ID;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Path;
+import org.nograph.Relationship;
+import org.nograph.impl.memory.ColumnStore;
+import org.nograph.impl.memory.CsrIndex;
+import org.nograph.impl.memory.IntList;
+import org.nograph.impl.query.CriterionMatcher;
+
+/**
+ * Keeps the whole graph in the jvm.  Useful as a fast tier for small hot graphs and as a no-network
+ * baseline when benchmarking the other backends.
+ * 
+ * Nodes and relationships get dense int ids, handed out as strings.  Properties live in per key
+ * column stores and adjacency in compressed sparse row arrays for both directions.  Relationships added
+ * since the last compaction sit in a small delta index that a background task folds into the arrays
+ * once memory.compact.delta of them have piled up.  Deleted ids are not reused.
+ * 
+ * Deleting a node deletes its relationships.  Nodes and relationships handed out are copies.
+ * 
+ * @author aholinch
+ *
+ */
+public class InMemoryGraphManager extends BaseGraphManager 
+{
+	private static final Logger logger = Logger.getLogger(InMemoryGraphManager.class.getName());
+	
+	public static final String PROP_COMPACT_DELTA = "memory.compact.delta";
+	
+	protected int defaultMaxHits = 10000;
+	protected int compactDelta = 10000;
+	
+	protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	// nodes
+	protected int nodeCount = 0;
+	protected int nodeType[] = new int[16];
+	protected BitSet nodeLive = new BitSet();
+	protected ColumnStore nodeProps = new ColumnStore();
+	protected TypeIndex nodeTypes = new TypeIndex();
+	
+	// relationships
+	protected int relCount = 0;
+	protected int relSrc[] = new int[16];
+	protected int relDst[] = new int[16];
+	protected int relType[] = new int[16];
+	protected BitSet relLive = new BitSet();
+	protected ColumnStore relProps = new ColumnStore();
+	protected TypeIndex relTypes = new TypeIndex();
+	
+	// adjacency
+	protected CsrIndex outIndex = CsrIndex.empty();
+	protected CsrIndex inIndex = CsrIndex.empty();
+	protected int csrRelCount = 0;
+	protected Map<Integer,IntList> deltaOut = new HashMap<Integer,IntList>();
+	protected Map<Integer,IntList> deltaIn = new HashMap<Integer,IntList>();
+	
+	/**
+	 * Bumped whenever the adjacency is rebuilt in place so a background compaction started before knows it is stale.
+	 */
+	protected int structureVersion = 0;
+	protected AtomicBoolean compactQueued = new AtomicBoolean(false);
+	
+	public InMemoryGraphManager()
+	{
+		compactDelta = Math.max(1, ConfigUtil.getIntProperty(PROP_COMPACT_DELTA,10000));
+	}
+	
+	/**
+	 * Type names to small ints and the rows of each type.
+	 */
+	protected static class TypeIndex
+	{
+		protected List<String> names = new ArrayList<String>();
+		protected Map<String,Integer> ids = new HashMap<String,Integer>();
+		protected List<BitSet> rows = new ArrayList<BitSet>();
+		
+		public int idFor(String type)
+		{
+			if(type == null) type = "";
+			Integer id = ids.get(type);
+			if(id == null)
+			{
+				id = names.size();
+				names.add(type);
+				ids.put(type, id);
+				rows.add(new BitSet());
+			}
+			return id;
+		}
+		
+		public int find(String type)
+		{
+			Integer id = ids.get(type);
+			if(id == null) return -1;
+			return id;
+		}
+		
+		public String name(int id)
+		{
+			String str = names.get(id);
+			if(str.length() == 0) return null;
+			return str;
+		}
+	}
+	
+	protected static int parseID(String id)
+	{
+		if(id == null) return -1;
+		try
+		{
+			return Integer.parseInt(id.trim());
+		}
+		catch(NumberFormatException ex)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Lock must be held.
+	 * 
+	 * @param id
+	 * @return internal id or -1
+	 */
+	protected int resolveNode(String id)
+	{
+		int ind = parseID(id);
+		if(ind < 0 || ind >= nodeCount || !nodeLive.get(ind)) return -1;
+		return ind;
+	}
+	
+	protected int resolveRel(String id)
+	{
+		int ind = parseID(id);
+		if(ind < 0 || ind >= relCount || !relLive.get(ind)) return -1;
+		return ind;
+	}
+	
+	protected Node toNode(int ind)
+	{
+		GenericNode n = new GenericNode();
+		n.setID(String.valueOf(ind));
+		n.setType(nodeTypes.name(nodeType[ind]));
+		n.setPropertyMap(nodeProps.getRow(ind));
+		return n;
+	}
+	
+	protected Relationship toRel(int ind, boolean fetchNodes)
+	{
+		GenericRelationship r = new GenericRelationship();
+		r.setID(String.valueOf(ind));
+		r.setType(relTypes.name(relType[ind]));
+		r.setPropertyMap(relProps.getRow(ind));
+		
+		if(fetchNodes)
+		{
+			r.setNode1(toNode(relSrc[ind]));
+			r.setNode2(toNode(relDst[ind]));
+		}
+		else
+		{
+			GenericNode n = new GenericNode();
+			n.setID(String.valueOf(relSrc[ind]));
+			r.setNode1(n);
+			n = new GenericNode();
+			n.setID(String.valueOf(relDst[ind]));
+			r.setNode2(n);
+		}
+		return r;
+	}
+	
+	protected CriterionMatcher.ValueSource nodeSource(int ind)
+	{
+		return key -> {
+			if(GenericNode.TYPE_KEY.equals(key)) return nodeTypes.name(nodeType[ind]);
+			if(GenericNode.ID_KEY.equals(key)) return String.valueOf(ind);
+			return nodeProps.get(ind, key);
+		};
+	}
+	
+	protected CriterionMatcher.ValueSource relSource(int ind)
+	{
+		return key -> {
+			if(GenericNode.TYPE_KEY.equals(key)) return relTypes.name(relType[ind]);
+			if(GenericNode.ID_KEY.equals(key)) return String.valueOf(ind);
+			return relProps.get(ind, key);
+		};
+	}
+	
+	/*
+	 * Writes
+	 */
+	
+	protected void addNode(Node n)
+	{
+		int ind = nodeCount++;
+		if(ind >= nodeType.length)
+		{
+			nodeType = Arrays.copyOf(nodeType, nodeType.length*2);
+		}
+		
+		int tid = nodeTypes.idFor(n.getType());
+		nodeType[ind] = tid;
+		nodeTypes.rows.get(tid).set(ind);
+		nodeLive.set(ind);
+		nodeProps.setRow(ind, n.getPropertyMap());
+		
+		n.setID(String.valueOf(ind));
+	}
+	
+	protected void updateNode(int ind, Node n)
+	{
+		nodeTypes.rows.get(nodeType[ind]).clear(ind);
+		int tid = nodeTypes.idFor(n.getType());
+		nodeType[ind] = tid;
+		nodeTypes.rows.get(tid).set(ind);
+		nodeProps.setRow(ind, n.getPropertyMap());
+	}
+	
+	protected int endpoint(Relationship r, boolean first) throws NoGraphException
+	{
+		String id = first?r.getNode1ID():r.getNode2ID();
+		int ind = resolveNode(id);
+		if(ind < 0) throw new NoGraphException("Unknown node id " + id);
+		return ind;
+	}
+	
+	protected void addRel(Relationship r) throws NoGraphException
+	{
+		int src = endpoint(r,true);
+		int dst = endpoint(r,false);
+		
+		int ind = relCount++;
+		if(ind >= relSrc.length)
+		{
+			int nl = relSrc.length*2;
+			relSrc = Arrays.copyOf(relSrc, nl);
+			relDst = Arrays.copyOf(relDst, nl);
+			relType = Arrays.copyOf(relType, nl);
+		}
+		
+		int tid = relTypes.idFor(r.getType());
+		relSrc[ind] = src;
+		relDst[ind] = dst;
+		relType[ind] = tid;
+		relTypes.rows.get(tid).set(ind);
+		relLive.set(ind);
+		relProps.setRow(ind, r.getPropertyMap());
+		
+		deltaOut.computeIfAbsent(src, k -> new IntList(4)).add(ind);
+		deltaIn.computeIfAbsent(dst, k -> new IntList(4)).add(ind);
+		
+		r.setID(String.valueOf(ind));
+	}
+	
+	/**
+	 * 
+	 * @param ind
+	 * @param r
+	 * @return true if the endpoints moved
+	 * @throws NoGraphException
+	 */
+	protected boolean updateRel(int ind, Relationship r) throws NoGraphException
+	{
+		int src = endpoint(r,true);
+		int dst = endpoint(r,false);
+		
+		relTypes.rows.get(relType[ind]).clear(ind);
+		int tid = relTypes.idFor(r.getType());
+		relType[ind] = tid;
+		relTypes.rows.get(tid).set(ind);
+		relProps.setRow(ind, r.getPropertyMap());
+		
+		boolean moved = src != relSrc[ind] || dst != relDst[ind];
+		relSrc[ind] = src;
+		relDst[ind] = dst;
+		return moved;
+	}
+	
+	protected void removeRel(int ind)
+	{
+		if(!relLive.get(ind)) return;
+		relLive.clear(ind);
+		relTypes.rows.get(relType[ind]).clear(ind);
+		relProps.clearRow(ind);
+	}
+	
+	@Override
+	public void saveNode(Node n) throws NoGraphException 
+	{
+		if(n == null) return;
+		
+		List<Node> nodes = new ArrayList<Node>(1);
+		nodes.add(n);
+		saveNodes(nodes);
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException 
+	{
+		if(nodes == null || nodes.size() == 0) return;
+		
+		decorateNodes(nodes);
+		sampleNodeMeta(nodes);
+		
+		lock.writeLock().lock();
+		try
+		{
+			int size = nodes.size();
+			for(int i=0; i<size; i++)
+			{
+				addNode(nodes.get(i));
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException 
+	{
+		if(nodes == null || nodes.size() == 0) return;
+		
+		List<List<? extends ID>> lists = separateNewVsExisting(nodes,null);
+		List<Node> newl = (List<Node>) lists.get(0);
+		List<Node> existl = (List<Node>) lists.get(1);
+		
+		ingestNodes(newl);
+		
+		if(existl.size() == 0) return;
+		
+		decorateNodes(existl);
+		sampleNodeMeta(existl);
+		
+		lock.writeLock().lock();
+		try
+		{
+			int size = existl.size();
+			Node n = null;
+			int ind = 0;
+			for(int i=0; i<size; i++)
+			{
+				n = existl.get(i);
+				ind = resolveNode(n.getID());
+				if(ind < 0) throw new NoGraphException("Unknown node id " + n.getID());
+				updateNode(ind, n);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException 
+	{
+		if(ids == null || ids.size() == 0) return;
+		
+		lock.writeLock().lock();
+		try
+		{
+			int size = ids.size();
+			int ind = 0;
+			for(int i=0; i<size; i++)
+			{
+				ind = resolveNode(ids.get(i));
+				if(ind < 0) continue;
+				
+				// take the relationships with it
+				IntList rels = relsOf(ind, true, true);
+				int nr = rels.size();
+				for(int j=0; j<nr; j++)
+				{
+					removeRel(rels.get(j));
+				}
+				
+				nodeLive.clear(ind);
+				nodeTypes.rows.get(nodeType[ind]).clear(ind);
+				nodeProps.clearRow(ind);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException 
+	{
+		if(r == null) return;
+		
+		List<Relationship> rels = new ArrayList<Relationship>(1);
+		rels.add(r);
+		saveRelationships(rels);
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException 
+	{
+		if(rels == null || rels.size() == 0) return;
+		
+		decorateRels(rels);
+		sampleRelMeta(rels);
+		
+		lock.writeLock().lock();
+		try
+		{
+			// check every endpoint first so a bad one doesn't leave half a batch behind
+			int size = rels.size();
+			for(int i=0; i<size; i++)
+			{
+				endpoint(rels.get(i),true);
+				endpoint(rels.get(i),false);
+			}
+			
+			for(int i=0; i<size; i++)
+			{
+				addRel(rels.get(i));
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		maybeCompact();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException 
+	{
+		if(rels == null || rels.size() == 0) return;
+		
+		List<List<? extends ID>> lists = separateNewVsExisting(rels,null);
+		List<Relationship> newl = (List<Relationship>) lists.get(0);
+		List<Relationship> existl = (List<Relationship>) lists.get(1);
+		
+		ingestRelationships(newl);
+		
+		if(existl.size() == 0) return;
+		
+		decorateRels(existl);
+		sampleRelMeta(existl);
+		
+		lock.writeLock().lock();
+		try
+		{
+			int size = existl.size();
+			Relationship r = null;
+			int ind = 0;
+			boolean moved = false;
+			for(int i=0; i<size; i++)
+			{
+				r = existl.get(i);
+				ind = resolveRel(r.getID());
+				if(ind < 0) throw new NoGraphException("Unknown relationship id " + r.getID());
+				if(updateRel(ind, r)) moved = true;
+			}
+			
+			// rare enough to just rebuild
+			if(moved) rebuildAdjacency();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException 
+	{
+		if(ids == null || ids.size() == 0) return;
+		
+		lock.writeLock().lock();
+		try
+		{
+			int size = ids.size();
+			int ind = 0;
+			for(int i=0; i<size; i++)
+			{
+				ind = resolveRel(ids.get(i));
+				if(ind >= 0) removeRel(ind);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * Adjacency
+	 */
+	
+	/**
+	 * Live relationships touching a node.  Lock must be held.
+	 * 
+	 * @param node
+	 * @param out
+	 * @param in
+	 * @return
+	 */
+	protected IntList relsOf(int node, boolean out, boolean in)
+	{
+		IntList list = new IntList();
+		if(out) collect(node, outIndex, deltaOut, list, -1);
+		
+		// self loops are already in from the out side
+		if(in) collect(node, inIndex, deltaIn, list, out?node:-1);
+		return list;
+	}
+	
+	protected void collect(int node, CsrIndex index, Map<Integer,IntList> delta, IntList list, int skipSrc)
+	{
+		int end = index.end(node);
+		int r = 0;
+		for(int i=index.start(node); i<end; i++)
+		{
+			r = index.rel(i);
+			if(relLive.get(r) && relSrc[r] != skipSrc) list.add(r);
+		}
+		
+		IntList dl = delta.get(node);
+		if(dl != null)
+		{
+			int size = dl.size();
+			for(int i=0; i<size; i++)
+			{
+				r = dl.get(i);
+				if(relLive.get(r) && relSrc[r] != skipSrc) list.add(r);
+			}
+		}
+	}
+	
+	/**
+	 * Rebuild the arrays right now.  Write lock must be held.
+	 */
+	protected void rebuildAdjacency()
+	{
+		outIndex = CsrIndex.build(nodeCount, relCount, relSrc, relLive);
+		inIndex = CsrIndex.build(nodeCount, relCount, relDst, relLive);
+		csrRelCount = relCount;
+		deltaOut.clear();
+		deltaIn.clear();
+		structureVersion++;
+	}
+	
+	protected void maybeCompact()
+	{
+		int pending = 0;
+		lock.readLock().lock();
+		try
+		{
+			pending = relCount - csrRelCount;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		
+		if(pending >= compactDelta && compactQueued.compareAndSet(false, true))
+		{
+			try
+			{
+				GraphExecutors.getAsyncExecutor().execute(this::compact);
+			}
+			catch(Exception ex)
+			{
+				compactQueued.set(false);
+				logger.log(Level.WARNING,"Unable to schedule compaction",ex);
+			}
+		}
+	}
+	
+	/**
+	 * Fold the delta into new arrays.  The arrays are built from a snapshot without blocking readers or writers
+	 * and swapped in under the write lock.
+	 */
+	public void compact()
+	{
+		try
+		{
+			int numNodes = 0;
+			int numRels = 0;
+			int version = 0;
+			int src[] = null;
+			int dst[] = null;
+			BitSet live = null;
+			
+			lock.readLock().lock();
+			try
+			{
+				numNodes = nodeCount;
+				numRels = relCount;
+				version = structureVersion;
+				src = Arrays.copyOf(relSrc, numRels);
+				dst = Arrays.copyOf(relDst, numRels);
+				live = (BitSet)relLive.clone();
+			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+			
+			CsrIndex out = CsrIndex.build(numNodes, numRels, src, live);
+			CsrIndex in = CsrIndex.build(numNodes, numRels, dst, live);
+			
+			lock.writeLock().lock();
+			try
+			{
+				if(version != structureVersion || numRels < csrRelCount) return;
+				
+				outIndex = out;
+				inIndex = in;
+				csrRelCount = numRels;
+				
+				// whatever came in while we were building stays in the delta
+				deltaOut.clear();
+				deltaIn.clear();
+				for(int r=numRels; r<relCount; r++)
+				{
+					deltaOut.computeIfAbsent(relSrc[r], k -> new IntList(4)).add(r);
+					deltaIn.computeIfAbsent(relDst[r], k -> new IntList(4)).add(r);
+				}
+				structureVersion++;
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error compacting adjacency",ex);
+		}
+		finally
+		{
+			compactQueued.set(false);
+		}
+	}
+	
+	/*
+	 * Reads
+	 */
+
+	@Override
+	public Node getNode(String id) throws NoGraphException 
+	{
+		lock.readLock().lock();
+		try
+		{
+			int ind = resolveNode(id);
+			if(ind < 0) return null;
+			return toNode(ind);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	protected Map<String,Node> buildNodeMap(List<String> ids)
+	{
+		Map<String,Node> nodeMap = new HashMap<String,Node>();
+		if(ids == null) return nodeMap;
+		
+		lock.readLock().lock();
+		try
+		{
+			int size = ids.size();
+			int ind = 0;
+			for(int i=0; i<size; i++)
+			{
+				ind = resolveNode(ids.get(i));
+				if(ind >= 0) nodeMap.put(ids.get(i), toNode(ind));
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		return nodeMap;
+	}
+
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException 
+	{
+		lock.readLock().lock();
+		try
+		{
+			int ind = resolveRel(id);
+			if(ind < 0) return null;
+			return toRel(ind, fetchNodes);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Scan rows of one type, or all live rows, for matches.  Lock must be held.
+	 * 
+	 * @param nodes
+	 * @param type
+	 * @param matcher
+	 * @param maxResults
+	 * @return
+	 */
+	protected IntList scan(boolean nodes, String type, CriterionMatcher matcher, int maxResults)
+	{
+		IntList hits = new IntList();
+		
+		BitSet rows = null;
+		TypeIndex ti = nodes?nodeTypes:relTypes;
+		if(type != null)
+		{
+			int tid = ti.find(type);
+			if(tid < 0) return hits;
+			rows = ti.rows.get(tid);
+		}
+		else
+		{
+			rows = nodes?nodeLive:relLive;
+		}
+		
+		for(int i=rows.nextSetBit(0); i>=0 && hits.size()<maxResults; i=rows.nextSetBit(i+1))
+		{
+			if(matcher == null || matcher.matches(nodes?nodeSource(i):relSource(i)))
+			{
+				hits.add(i);
+			}
+		}
+		return hits;
+	}
+	
+	protected CriterionMatcher keyMatcher(String key, Object val)
+	{
+		if(key == null) return null;
+		
+		return new CriterionMatcher(null) {
+			@Override
+			public boolean matches(ValueSource src)
+			{
+				return valuesEqual(src.getValue(key), val);
+			}
+		};
+	}
+
+	@Override
+	public List<Node> findNodes(String type, String key, Object val, int maxResults) throws NoGraphException 
+	{
+		if(type == null && key == null) return null;
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return null;
+		}
+		
+		if(maxResults <= 0) maxResults = defaultMaxHits;
+		
+		lock.readLock().lock();
+		try
+		{
+			IntList hits = scan(true, type, keyMatcher(key,val), maxResults);
+			return toNodes(hits);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Relationship> findRelationships(String type, String key, Object val, boolean fetchNodes, int maxResults) throws NoGraphException 
+	{
+		if(type == null && key == null) return null;
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return null;
+		}
+		
+		if(maxResults <= 0) maxResults = defaultMaxHits;
+		
+		lock.readLock().lock();
+		try
+		{
+			IntList hits = scan(false, type, keyMatcher(key,val), maxResults);
+			return toRels(hits, fetchNodes);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Cursors return every match rather than stopping at the default max.
+	 */
+	@Override
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		return new ListCursor<Node>(findNodes(type,key,val,Integer.MAX_VALUE));
+	}
+	
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		return new ListCursor<Relationship>(findRelationships(type,key,val,fetchNodes,Integer.MAX_VALUE));
+	}
+
+	@Override
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException 
+	{
+		query = optimizeQuery(query,false);
+		if(query == null) return new ArrayList<Node>();
+		
+		int maxResults = query.getMaxResults();
+		if(maxResults <= 0) maxResults = defaultMaxHits;
+		
+		CriterionMatcher matcher = new CriterionMatcher(query.getCriterion());
+		
+		lock.readLock().lock();
+		try
+		{
+			return toNodes(scan(true, null, matcher, maxResults));
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException 
+	{
+		query = optimizeQuery(query,true);
+		if(query == null) return new ArrayList<Relationship>();
+		
+		int maxResults = query.getMaxResults();
+		if(maxResults <= 0) maxResults = defaultMaxHits;
+		
+		CriterionMatcher matcher = new CriterionMatcher(query.getCriterion());
+		
+		lock.readLock().lock();
+		try
+		{
+			return toRels(scan(false, null, matcher, maxResults), query.getFetchNodesForRelationships());
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	protected List<Node> toNodes(IntList inds)
+	{
+		int size = inds.size();
+		List<Node> nodes = new ArrayList<Node>(size);
+		for(int i=0; i<size; i++)
+		{
+			nodes.add(toNode(inds.get(i)));
+		}
+		return nodes;
+	}
+	
+	protected List<Relationship> toRels(IntList inds, boolean fetchNodes)
+	{
+		int size = inds.size();
+		List<Relationship> rels = new ArrayList<Relationship>(size);
+		for(int i=0; i<size; i++)
+		{
+			rels.add(toRel(inds.get(i), fetchNodes));
+		}
+		return rels;
+	}
+
+	@Override
+	public List<Relationship> findRelatedNodes(String id) throws NoGraphException 
+	{
+		lock.readLock().lock();
+		try
+		{
+			int ind = resolveNode(id);
+			if(ind < 0) return new ArrayList<Relationship>();
+			return toRels(relsOf(ind, true, true), true);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Shortest path from each matching start node to each matching end node, following relationships
+	 * either way, breadth first from every start.
+	 */
+	@Override
+	public List<Path> findPaths(Criterion startCriterion, Criterion relationshipCriterion, Criterion endCriterion,
+			int maxLength, int maxHits) throws NoGraphException 
+	{
+		List<Path> paths = new ArrayList<Path>();
+		if(maxLength < 1) return paths;
+		if(maxHits <= 0) maxHits = defaultMaxHits;
+		
+		CriterionMatcher startMatcher = new CriterionMatcher(startCriterion);
+		CriterionMatcher relMatcher = new CriterionMatcher(relationshipCriterion);
+		CriterionMatcher endMatcher = new CriterionMatcher(endCriterion);
+		
+		lock.readLock().lock();
+		try
+		{
+			IntList starts = scan(true, null, startMatcher, Integer.MAX_VALUE);
+			int ns = starts.size();
+			
+			// reset per start with the list of touched nodes instead of reallocating
+			int parentRel[] = new int[nodeCount];
+			int depth[] = new int[nodeCount];
+			Arrays.fill(depth, -1);
+			IntList touched = new IntList();
+			ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+			
+			for(int s=0; s<ns && paths.size()<maxHits; s++)
+			{
+				int start = starts.get(s);
+				
+				for(int i=0; i<touched.size(); i++) depth[touched.get(i)] = -1;
+				touched.clear();
+				queue.clear();
+				
+				depth[start] = 0;
+				touched.add(start);
+				queue.add(start);
+				
+				while(!queue.isEmpty() && paths.size()<maxHits)
+				{
+					int cur = queue.poll();
+					if(depth[cur] >= maxLength) continue;
+					
+					IntList rels = relsOf(cur, true, true);
+					int nr = rels.size();
+					for(int i=0; i<nr && paths.size()<maxHits; i++)
+					{
+						int r = rels.get(i);
+						int next = relSrc[r] == cur?relDst[r]:relSrc[r];
+						if(depth[next] >= 0) continue;
+						if(!relMatcher.matches(relSource(r))) continue;
+						
+						depth[next] = depth[cur]+1;
+						parentRel[next] = r;
+						touched.add(next);
+						queue.add(next);
+						
+						if(endMatcher.matches(nodeSource(next)))
+						{
+							paths.add(tracePath(start, next, parentRel));
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		
+		return paths;
+	}
+	
+	protected Path tracePath(int start, int end, int parentRel[])
+	{
+		List<Relationship> rels = new ArrayList<Relationship>();
+		int cur = end;
+		int r = 0;
+		while(cur != start)
+		{
+			r = parentRel[cur];
+			rels.add(0, toRel(r, true));
+			cur = relSrc[r] == cur?relDst[r]:relSrc[r];
+		}
+		return buildPath(rels);
+	}
+	
+	/*
+	 * Counts
+	 */
+
+	@Override
+	public long countNodes(String type) throws NoGraphException 
+	{
+		lock.readLock().lock();
+		try
+		{
+			if(type == null) return nodeLive.cardinality();
+			int tid = nodeTypes.find(type);
+			if(tid < 0) return 0;
+			return nodeTypes.rows.get(tid).cardinality();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long countRelationships(String type) throws NoGraphException 
+	{
+		lock.readLock().lock();
+		try
+		{
+			if(type == null) return relLive.cardinality();
+			int tid = relTypes.find(type);
+			if(tid < 0) return 0;
+			return relTypes.rows.get(tid).cardinality();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	protected Map<String,Long> countsByType(TypeIndex ti)
+	{
+		Map<String,Long> counts = new LinkedHashMap<String,Long>();
+		
+		lock.readLock().lock();
+		try
+		{
+			int nt = ti.names.size();
+			int cnt = 0;
+			for(int i=0; i<nt; i++)
+			{
+				cnt = ti.rows.get(i).cardinality();
+				if(cnt > 0 && ti.name(i) != null)
+				{
+					counts.put(ti.name(i), (long)cnt);
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		return counts;
+	}
+
+	@Override
+	public List<String> getNodeTypes() throws NoGraphException 
+	{
+		return new ArrayList<String>(countsByType(nodeTypes).keySet());
+	}
+
+	@Override
+	public List<String> getRelationshipTypes() throws NoGraphException 
+	{
+		return new ArrayList<String>(countsByType(relTypes).keySet());
+	}
+
+	@Override
+	public Map<String, Long> getNodeCountsByType() throws NoGraphException 
+	{
+		return countsByType(nodeTypes);
+	}
+
+	@Override
+	public Map<String, Long> getRelationshipCountsByType() throws NoGraphException 
+	{
+		return countsByType(relTypes);
+	}
+}
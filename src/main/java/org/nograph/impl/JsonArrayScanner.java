@@ -0,0 +1,195 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Walks the top level objects of a json array one at a time without parsing the whole array,
+ * so each element can be mapped and dropped before the next is looked at.  Given a reader only
+ * a buffer and the current element are held, the rest of the array is read as it is asked for.
+ * 
+ * @author aholinch
+ *
+ */
+public class JsonArrayScanner implements AutoCloseable
+{
+	protected Reader in = null;
+	protected char buf[] = null;
+	protected int pos = 0;
+	protected int len = 0;
+	protected boolean started = false;
+	protected boolean done = false;
+	
+	public JsonArrayScanner(String json)
+	{
+		if(json == null)
+		{
+			done = true;
+		}
+		else
+		{
+			buf = json.toCharArray();
+			len = buf.length;
+		}
+	}
+	
+	/**
+	 * Scan the array as it is read, the reader is closed at the end of the array or on close.
+	 * 
+	 * @param in
+	 */
+	public JsonArrayScanner(Reader in)
+	{
+		this.in = in;
+		buf = new char[8192];
+		if(in == null) done = true;
+	}
+	
+	/**
+	 * 
+	 * @return the next char or -1 at the end of input
+	 */
+	protected int read()
+	{
+		if(pos >= len)
+		{
+			if(in == null) return -1;
+			try
+			{
+				len = in.read(buf, 0, buf.length);
+			}
+			catch(IOException ex)
+			{
+				throw new RuntimeException(ex);
+			}
+			pos = 0;
+			if(len <= 0)
+			{
+				len = 0;
+				return -1;
+			}
+		}
+		return buf[pos++];
+	}
+	
+	/**
+	 * 
+	 * @return the next top level object as a string or null at the end of the array
+	 */
+	public String nextObject()
+	{
+		if(done) return null;
+		
+		int c = 0;
+		if(!started)
+		{
+			// skip to the opening bracket
+			started = true;
+			while((c = read()) != -1 && c != '[');
+			if(c == -1)
+			{
+				close();
+				return null;
+			}
+		}
+		
+		// find the start of the next element
+		while((c = read()) != -1)
+		{
+			if(c == '{') break;
+			if(c == ']')
+			{
+				close();
+				return null;
+			}
+		}
+		if(c == -1)
+		{
+			close();
+			return null;
+		}
+		
+		StringBuilder sb = new StringBuilder(256);
+		sb.append('{');
+		int depth = 1;
+		boolean inString = false;
+		
+		while((c = read()) != -1)
+		{
+			sb.append((char)c);
+			if(inString)
+			{
+				if(c == '\\')
+				{
+					c = read();
+					if(c == -1) break;
+					sb.append((char)c);
+				}
+				else if(c == '"')
+				{
+					inString = false;
+				}
+			}
+			else if(c == '"')
+			{
+				inString = true;
+			}
+			else if(c == '{' || c == '[')
+			{
+				depth++;
+			}
+			else if(c == '}' || c == ']')
+			{
+				depth--;
+				if(depth == 0)
+				{
+					return sb.toString();
+				}
+			}
+		}
+		
+		// unbalanced
+		close();
+		return null;
+	}
+	
+	/**
+	 * Stop scanning and close the reader if there is one.
+	 */
+	@Override
+	public void close()
+	{
+		done = true;
+		buf = null;
+		len = 0;
+		if(in != null)
+		{
+			try
+			{
+				in.close();
+			}
+			catch(IOException ex)
+			{
+				// nothing left to read anyway
+			}
+			in = null;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over results that are already in memory, used by backends that can't stream.
+ * 
+ * @author aholinch
+ *
+ * @param <T>
+ */
+public class ListCursor<T> implements GraphCursor<T> 
+{
+	protected List<T> list = null;
+	protected int ind = 0;
+	protected int size = 0;
+	
+	public ListCursor(List<T> list)
+	{
+		this.list = list;
+		if(list != null) size = list.size();
+	}
+	
+	@Override
+	public boolean hasNext() 
+	{
+		return ind < size;
+	}
+
+	@Override
+	public T next() 
+	{
+		if(ind >= size) throw new NoSuchElementException();
+		
+		T obj = list.get(ind);
+		ind++;
+		return obj;
+	}
+
+	@Override
+	public void close() 
+	{
+		list = null;
+		ind = size;
+	}
+}
@@ -0,0 +1,570 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import org.nograph.GraphManager;
+import org.nograph.GraphQuery;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.metrics.OpMetrics;
+
+/**
+ * Times every call into the wrapped manager and counts calls, errors and the nodes or relationships
+ * that went through.  Results go to the backend's GraphMetrics so they show up next to what the
+ * backend records itself, like http round trips and payload bytes.
+ *
+ * The time is everything below this wrapper, the backend and any decorators in between.  To tell them
+ * apart meter twice under different layers, one wrapping the backend directly and one on top of the
+ * stack, see meterStack.  Ops are recorded as layer.name so the two sit side by side and the difference
+ * is what the decorators cost.
+ *
+ * @author aholinch
+ *
+ */
+public class MeteredGraphManager extends DelegatingGraphManager
+{
+	public static final String LAYER_BACKEND = "backend";
+	public static final String LAYER_CLIENT = "client";
+
+	protected String prefix = "";
+
+	public MeteredGraphManager(GraphManager delegate)
+	{
+		this(delegate, null);
+	}
+
+	/**
+	 *
+	 * @param delegate
+	 * @param layer prefix for the op names, null for none
+	 */
+	public MeteredGraphManager(GraphManager delegate, String layer)
+	{
+		super(delegate);
+		if(layer != null && layer.length() > 0)
+		{
+			prefix = layer + ".";
+		}
+	}
+
+	/**
+	 * Meter the backend and the decorated stack on top of it separately.
+	 *
+	 * @param backend
+	 * @param decorate wraps the metered backend in whatever decorators are wanted
+	 * @return the client layer on top of the decorators
+	 */
+	public static MeteredGraphManager meterStack(GraphManager backend, Function<GraphManager,GraphManager> decorate)
+	{
+		GraphManager stack = decorate.apply(new MeteredGraphManager(backend, LAYER_BACKEND));
+		return new MeteredGraphManager(stack, LAYER_CLIENT);
+	}
+
+	protected OpMetrics op(String name)
+	{
+		return getMetrics().op(prefix + name);
+	}
+
+	protected static int size(Collection<?> c)
+	{
+		if(c == null) return 0;
+		return c.size();
+	}
+
+	@Override
+	public void saveNode(Node n) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.saveNode(n);
+			err = false;
+		}
+		finally
+		{
+			op("saveNode").record(start, err?0:1, err);
+		}
+	}
+
+	@Override
+	public Node getNode(String id) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		Node res = null;
+		try
+		{
+			res = delegate.getNode(id);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("getNode").record(start, res==null?0:1, err);
+		}
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.ingestNodes(nodes);
+			err = false;
+		}
+		finally
+		{
+			op("ingestNodes").record(start, err?0:size(nodes), err);
+		}
+	}
+
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.saveNodes(nodes);
+			err = false;
+		}
+		finally
+		{
+			op("saveNodes").record(start, err?0:size(nodes), err);
+		}
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.deleteNodesByID(ids);
+			err = false;
+		}
+		finally
+		{
+			op("deleteNodesByID").record(start, err?0:size(ids), err);
+		}
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.saveRelationship(r);
+			err = false;
+		}
+		finally
+		{
+			op("saveRelationship").record(start, err?0:1, err);
+		}
+	}
+
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		Relationship res = null;
+		try
+		{
+			res = delegate.getRelationship(id, fetchNodes);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("getRelationship").record(start, res==null?0:1, err);
+		}
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.ingestRelationships(rels);
+			err = false;
+		}
+		finally
+		{
+			op("ingestRelationships").record(start, err?0:size(rels), err);
+		}
+	}
+
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.saveRelationships(rels);
+			err = false;
+		}
+		finally
+		{
+			op("saveRelationships").record(start, err?0:size(rels), err);
+		}
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		try
+		{
+			delegate.deleteRelationshipsByID(ids);
+			err = false;
+		}
+		finally
+		{
+			op("deleteRelationshipsByID").record(start, err?0:size(ids), err);
+		}
+	}
+
+	@Override
+	public List<Node> findNodes(String type, String key, Object val, int maxResults) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<Node> res = null;
+		try
+		{
+			res = delegate.findNodes(type, key, val, maxResults);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("findNodes").record(start, size(res), err);
+		}
+	}
+
+	@Override
+	public List<Relationship> findRelationships(String type, String key, Object val, boolean fetchNodes, int maxResults) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<Relationship> res = null;
+		try
+		{
+			res = delegate.findRelationships(type, key, val, fetchNodes, maxResults);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("findRelationships").record(start, size(res), err);
+		}
+	}
+
+	@Override
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<Node> res = null;
+		try
+		{
+			res = delegate.findNodes(query);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("findNodesByQuery").record(start, size(res), err);
+		}
+	}
+
+	@Override
+	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<Relationship> res = null;
+		try
+		{
+			res = delegate.findRelationships(query);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("findRelationshipsByQuery").record(start, size(res), err);
+		}
+	}
+
+	@Override
+	public List<Relationship> findRelatedNodes(String id) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<Relationship> res = null;
+		try
+		{
+			res = delegate.findRelatedNodes(id);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("findRelatedNodes").record(start, size(res), err);
+		}
+	}
+
+	@Override
+	public long countNodes(String type) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		long res = 0;
+		try
+		{
+			res = delegate.countNodes(type);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("countNodes").record(start, 0, err);
+		}
+	}
+
+	@Override
+	public long countRelationships(String type) throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		long res = 0;
+		try
+		{
+			res = delegate.countRelationships(type);
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("countRelationships").record(start, 0, err);
+		}
+	}
+
+	@Override
+	public List<String> getNodeTypes() throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<String> res = null;
+		try
+		{
+			res = delegate.getNodeTypes();
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("getNodeTypes").record(start, 0, err);
+		}
+	}
+
+	@Override
+	public List<String> getRelationshipTypes() throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		List<String> res = null;
+		try
+		{
+			res = delegate.getRelationshipTypes();
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("getRelationshipTypes").record(start, 0, err);
+		}
+	}
+
+	@Override
+	public Map<String, Long> getNodeCountsByType() throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		Map<String, Long> res = null;
+		try
+		{
+			res = delegate.getNodeCountsByType();
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("getNodeCountsByType").record(start, 0, err);
+		}
+	}
+
+	@Override
+	public Map<String, Long> getRelationshipCountsByType() throws NoGraphException
+	{
+		long start = System.nanoTime();
+		boolean err = true;
+		Map<String, Long> res = null;
+		try
+		{
+			res = delegate.getRelationshipCountsByType();
+			err = false;
+			return res;
+		}
+		finally
+		{
+			op("getRelationshipCountsByType").record(start, 0, err);
+		}
+	}
+
+	/*
+	 * Async, timed from the call until the future completes
+	 */
+
+	protected <T> CompletableFuture<T> metered(String name, Supplier<CompletableFuture<T>> call, ToIntFunction<T> count)
+	{
+		long start = System.nanoTime();
+		CompletableFuture<T> cf = null;
+		try
+		{
+			cf = call.get();
+		}
+		catch(RuntimeException ex)
+		{
+			op(name).record(start, 0, true);
+			throw ex;
+		}
+
+		return cf.whenComplete((res,ex) -> op(name).record(start, ex == null?count.applyAsInt(res):0, ex != null));
+	}
+
+	@Override
+	public CompletableFuture<Node> getNodeAsync(String id)
+	{
+		return metered("getNode", () -> super.getNodeAsync(id), res -> res==null?0:1);
+	}
+
+	@Override
+	public CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		return metered("getRelationship", () -> super.getRelationshipAsync(id, fetchNodes), res -> res==null?0:1);
+	}
+
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(String type, String key, Object val, int maxResults)
+	{
+		return metered("findNodes", () -> super.findNodesAsync(type, key, val, maxResults), MeteredGraphManager::size);
+	}
+
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(String type, String key, Object val, boolean fetchNodes, int maxResults)
+	{
+		return metered("findRelationships", () -> super.findRelationshipsAsync(type, key, val, fetchNodes, maxResults), MeteredGraphManager::size);
+	}
+
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(GraphQuery query)
+	{
+		return metered("findNodesByQuery", () -> super.findNodesAsync(query), MeteredGraphManager::size);
+	}
+
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(GraphQuery query)
+	{
+		return metered("findRelationshipsByQuery", () -> super.findRelationshipsAsync(query), MeteredGraphManager::size);
+	}
+
+	@Override
+	public CompletableFuture<List<Relationship>> findRelatedNodesAsync(String id)
+	{
+		return metered("findRelatedNodes", () -> super.findRelatedNodesAsync(id), MeteredGraphManager::size);
+	}
+
+	@Override
+	public CompletableFuture<Long> countNodesAsync(String type)
+	{
+		return metered("countNodes", () -> super.countNodesAsync(type), res -> 0);
+	}
+
+	@Override
+	public CompletableFuture<Long> countRelationshipsAsync(String type)
+	{
+		return metered("countRelationships", () -> super.countRelationshipsAsync(type), res -> 0);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		return metered("saveNode", () -> super.saveNodeAsync(n), res -> 1);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		return metered("saveNodes", () -> super.saveNodesAsync(nodes), res -> size(nodes));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return metered("deleteNodesByID", () -> super.deleteNodesByIDAsync(ids), res -> size(ids));
+	}
+
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		return metered("saveRelationship", () -> super.saveRelationshipAsync(r), res -> 1);
+	}
+
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		return metered("saveRelationships", () -> super.saveRelationshipsAsync(rels), res -> size(rels));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return metered("deleteRelationshipsByID", () -> super.deleteRelationshipsByIDAsync(ids), res -> size(ids));
+	}
+}
@@ -17,17 +17,32 @@ limitations under the License.
 */
 package org.nograph.impl;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
 import org.nograph.NoGraphException;
 import org.nograph.Node;
 import org.nograph.Relationship;
+import org.nograph.impl.metrics.OpMetrics;
+import org.nograph.impl.query.CriterionKey;
+import org.nograph.impl.query.CriterionMatcher;
 
 import jodd.http.HttpBrowser;
 import jodd.http.HttpRequest;
@@ -47,6 +62,8 @@ public class NGWebGraphManager extends BaseGraphManager
     
     protected String baseURL;
     
+    protected int defaultMaxHits = 10000;
+    
     public NGWebGraphManager()
     {
     	init();
@@ -59,6 +76,134 @@ public class NGWebGraphManager extends BaseGraphManager
     	httpClient = new HttpBrowser();
     }
     
+    /**
+     * Open a GET for reading as the body arrives.  The browser reads the whole body before returning
+     * so cursors use a plain connection instead, closing the reader disconnects.
+     * 
+     * @param url
+     * @return
+     * @throws NoGraphException
+     */
+    protected Reader openStream(String url) throws NoGraphException
+    {
+    	OpMetrics om = getMetrics().op("http");
+    	long start = System.nanoTime();
+    	boolean failed = true;
+    	HttpURLConnection conn = null;
+    	try
+    	{
+    		conn = (HttpURLConnection)new URL(url).openConnection();
+    		conn.setRequestMethod("GET");
+    		
+    		int code = conn.getResponseCode();
+    		if(code >= 300)
+    		{
+    			throw new NoGraphException("Error getting " + url + ", status " + code);
+    		}
+    		
+    		Reader reader = new InputStreamReader(new CountingInputStream(conn.getInputStream(), om), StandardCharsets.UTF_8);
+    		failed = false;
+    		return reader;
+    	}
+    	catch(NoGraphException ex)
+    	{
+    		throw ex;
+    	}
+    	catch(Exception ex)
+    	{
+    		logger.log(Level.SEVERE,"Error opening " + url,ex);
+    		throw new NoGraphException(ex);
+    	}
+    	finally
+    	{
+    		om.record(start, 0, failed);
+    		if(failed && conn != null) conn.disconnect();
+    	}
+    }
+    
+    /**
+     * Adds the bytes read to the http metrics as they're read.
+     */
+    protected static class CountingInputStream extends FilterInputStream
+    {
+    	protected OpMetrics om = null;
+    	
+    	public CountingInputStream(InputStream in, OpMetrics om)
+    	{
+    		super(in);
+    		this.om = om;
+    	}
+    	
+    	@Override
+    	public int read() throws IOException
+    	{
+    		int b = super.read();
+    		if(b != -1) om.addBytes(1);
+    		return b;
+    	}
+    	
+    	@Override
+    	public int read(byte b[], int off, int len) throws IOException
+    	{
+    		int n = super.read(b, off, len);
+    		om.addBytes(n);
+    		return n;
+    	}
+    }
+    
+    /**
+     * Send through the browser recording the round trip and response size.
+     * 
+     * @param req
+     * @return
+     */
+    protected HttpResponse send(HttpRequest req)
+    {
+    	OpMetrics om = getMetrics().op("http");
+    	long start = System.nanoTime();
+    	HttpResponse resp = null;
+    	try
+    	{
+    		resp = httpClient.sendRequest(req);
+    		return resp;
+    	}
+    	finally
+    	{
+    		om.record(start, 0, resp == null || resp.statusCode() >= 300);
+    		if(resp != null)
+    		{
+    			om.addBytes(responseBytes(resp));
+    		}
+    	}
+    }
+    
+    /**
+     * Bytes on the wire, from the Content-Length header when the server sent one.  Otherwise the raw
+     * body, which the browser keeps as one ISO-8859-1 char per byte received.
+     * 
+     * @param resp
+     * @return
+     */
+    protected static long responseBytes(HttpResponse resp)
+    {
+    	String cl = resp.contentLength();
+    	if(cl != null)
+    	{
+    		try
+    		{
+    			return Long.parseLong(cl.trim());
+    		}
+    		catch(NumberFormatException ex)
+    		{
+    			// fall through to the body
+    		}
+    	}
+    	
+    	String body = resp.body();
+    	if(body == null) return 0;
+    	return body.length();
+    }
+    
 	@Override
 	public void saveNode(Node n) throws NoGraphException
 	{
@@ -75,7 +220,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	n = jsonToNode(resp.body());
 		}
@@ -87,6 +232,23 @@ public class NGWebGraphManager extends BaseGraphManager
 		return n;
 	}
 
+	/**
+	 * The web api has no bulk node lookup, so spread bounded batches of gets over the io pool.
+	 */
+	@Override
+	protected Map<String,Node> buildNodeMap(List<String> ids)
+	{
+		try
+		{
+			return fetchNodesInParallel(ids);
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.SEVERE,"Error getting nodes",ex);
+		}
+		return null;
+	}
+
 	@Override
 	public void ingestNodes(List<Node> nodes) throws NoGraphException {
 		throw new NoGraphException("Read-only Implementation");
@@ -116,7 +278,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 	    	String body = resp.body();
 	    	r = jsonToRel(body,fetchNodes);
 		}
@@ -160,35 +322,11 @@ public class NGWebGraphManager extends BaseGraphManager
 		List<Node> nodes = null;
 		try
 		{
-			String url = baseURL+"/nodes";
-			
-			if(!tnull)
-			{
-				url += "/"+type;
-			}
-			
-			if(maxResults > 0)
-			{
-				if(!url.contains("?"))url+="?";
-				url+="max="+maxResults;
-			}
-			
-			if(!knull)
-			{
-				if(maxResults > 0)
-				{
-					url+="&";
-				}
-				else
-				{
-					url+="?";
-				}
-				url+=key+"="+String.valueOf(val);
-			}
+			String url = buildFindURL("/nodes",type,key,val,maxResults);
 			
 	    	HttpRequest req = HttpRequest.get(url);
 			
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	nodes = jsonToNodes(resp.body());
 		}
@@ -219,35 +357,11 @@ public class NGWebGraphManager extends BaseGraphManager
 		List<Relationship> rels = null;
 		try
 		{
-			String url = baseURL+"/rels";
-			
-			if(!tnull)
-			{
-				url += "/"+type;
-			}
-			
-			if(maxResults > 0)
-			{
-				if(!url.contains("?"))url+="?";
-				url+="max="+maxResults;
-			}
-			
-			if(!knull)
-			{
-				if(maxResults > 0)
-				{
-					url+="&";
-				}
-				else
-				{
-					url+="?";
-				}
-				url+=key+"="+String.valueOf(val);
-			}
+			String url = buildFindURL("/rels",type,key,val,maxResults);
 			
 	    	HttpRequest req = HttpRequest.get(url);
 			
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	rels = jsonToRels(resp.body(),fetchNodes);
 		}
@@ -260,16 +374,206 @@ public class NGWebGraphManager extends BaseGraphManager
 		return rels;
 	}
 
+	protected String buildFindURL(String path, String type, String key, Object val, int maxResults)
+	{
+		String url = baseURL+path;
+		
+		if(type != null)
+		{
+			url += "/"+type;
+		}
+		
+		if(maxResults > 0)
+		{
+			if(!url.contains("?"))url+="?";
+			url+="max="+maxResults;
+		}
+		
+		if(key != null)
+		{
+			if(maxResults > 0)
+			{
+				url+="&";
+			}
+			else
+			{
+				url+="?";
+			}
+			url+=key+"="+String.valueOf(val);
+		}
+		
+		return url;
+	}
+	
+	@Override
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		if(type == null && key == null) return new ListCursor<Node>(null);
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return new ListCursor<Node>(null);
+		}
+		
+		final JsonArrayScanner scanner = new JsonArrayScanner(openStream(buildFindURL("/nodes",type,key,val,0)));
+		final JsonParser jp = new JsonParser();
+		return new ScannerCursor<Node>(scanner, str -> jsonToNode(str,true,jp));
+	}
+	
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		if(type == null && key == null) return new ListCursor<Relationship>(null);
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return new ListCursor<Relationship>(null);
+		}
+		
+		final JsonArrayScanner scanner = new JsonArrayScanner(openStream(buildFindURL("/rels",type,key,val,0)));
+		final JsonParser jp = new JsonParser();
+		return new ScannerCursor<Relationship>(scanner, str -> jsonToRel(str,fetchNodes,jp));
+	}
+	
+	/**
+	 * Parses each array element only when it is asked for.
+	 */
+	protected static class ScannerCursor<T> implements GraphCursor<T>
+	{
+		protected JsonArrayScanner scanner = null;
+		protected Function<String,T> mapper = null;
+		protected String nextStr = null;
+		
+		public ScannerCursor(JsonArrayScanner scanner, Function<String,T> mapper)
+		{
+			this.scanner = scanner;
+			this.mapper = mapper;
+		}
+		
+		@Override
+		public boolean hasNext() 
+		{
+			if(nextStr == null && scanner != null)
+			{
+				nextStr = scanner.nextObject();
+				if(nextStr == null) close();
+			}
+			return nextStr != null;
+		}
+
+		@Override
+		public T next() 
+		{
+			if(!hasNext()) throw new NoSuchElementException();
+			String str = nextStr;
+			nextStr = null;
+			return mapper.apply(str);
+		}
+
+		@Override
+		public void close() 
+		{
+			if(scanner != null) scanner.close();
+			scanner = null;
+		}
+	}
+
+	/**
+	 * The server has no query endpoint so a query streams every node of the types it can return and keeps
+	 * the ones that match.  Without a type in the criterion that's every type, so pin one where possible.
+	 */
 	@Override
 	public List<Node> findNodes(GraphQuery query) throws NoGraphException {
-		// TODO Auto-generated method stub
-		return null;
+		query = optimizeQuery(query,false);
+		List<Node> nodes = new ArrayList<Node>();
+		if(query == null) return nodes;
+		
+		int max = query.getMaxResults();
+		if(max <= 0) max = defaultMaxHits;
+		
+		CriterionMatcher matcher = new CriterionMatcher(query.getCriterion());
+		List<String> types = scanTypes(query.getCriterion(), false);
+		Node n = null;
+		int nt = types.size();
+		for(int i=0; i<nt && nodes.size() < max; i++)
+		{
+			try(GraphCursor<Node> cursor = iterateNodes(types.get(i),null,null))
+			{
+				while(nodes.size() < max && cursor.hasNext())
+				{
+					n = cursor.next();
+					if(matcher.matches(valueSource(n))) nodes.add(n);
+				}
+			}
+		}
+		
+		return nodes;
 	}
 
+	/**
+	 * Streams the relationship types like findNodes, endpoints are fetched only for the matches.
+	 */
 	@Override
 	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException {
-		// TODO Auto-generated method stub
-		return null;
+		query = optimizeQuery(query,true);
+		List<Relationship> rels = new ArrayList<Relationship>();
+		if(query == null) return rels;
+		
+		int max = query.getMaxResults();
+		if(max <= 0) max = defaultMaxHits;
+		
+		CriterionMatcher matcher = new CriterionMatcher(query.getCriterion());
+		List<String> types = scanTypes(query.getCriterion(), true);
+		Relationship r = null;
+		int nt = types.size();
+		for(int i=0; i<nt && rels.size() < max; i++)
+		{
+			try(GraphCursor<Relationship> cursor = iterateRelationships(types.get(i),null,null,false))
+			{
+				while(rels.size() < max && cursor.hasNext())
+				{
+					r = cursor.next();
+					if(matcher.matches(valueSource(r))) rels.add(r);
+				}
+			}
+		}
+		
+		if(query.getFetchNodesForRelationships()) populateNodesForRels(rels);
+		
+		return rels;
+	}
+	
+	/**
+	 * The types a query has to look at, the ones it pins or else all of them.
+	 */
+	protected List<String> scanTypes(Criterion crit, boolean rels) throws NoGraphException
+	{
+		Set<String> pinned = CriterionKey.typesOf(crit);
+		if(pinned != null) return new ArrayList<String>(pinned);
+		
+		List<String> types = rels?getRelationshipTypes():getNodeTypes();
+		if(types == null) return new ArrayList<String>();
+		return types;
+	}
+	
+	protected static CriterionMatcher.ValueSource valueSource(Node n)
+	{
+		return key -> {
+			if(GenericNode.TYPE_KEY.equals(key)) return n.getType();
+			if(GenericNode.ID_KEY.equals(key)) return n.getID();
+			return n.getProperty(key);
+		};
+	}
+	
+	protected static CriterionMatcher.ValueSource valueSource(Relationship r)
+	{
+		return key -> {
+			if(GenericNode.TYPE_KEY.equals(key)) return r.getType();
+			if(GenericNode.ID_KEY.equals(key)) return r.getID();
+			return r.getProperty(key);
+		};
 	}
 
 	@Override
@@ -281,7 +585,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 	    	String body = resp.body();
 	    	
 	    	JsonParser jp = new JsonParser();
@@ -377,7 +681,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	JsonParser jp = new JsonParser();
 	    	
@@ -407,7 +711,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	JsonParser jp = new JsonParser();
 	    	
@@ -437,7 +741,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	JsonParser jp = new JsonParser();
 	    	
@@ -473,7 +777,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	JsonParser jp = new JsonParser();
 	    	
@@ -509,7 +813,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	JsonParser jp = new JsonParser();
 	    	
@@ -539,7 +843,7 @@ public class NGWebGraphManager extends BaseGraphManager
 			
 	    	HttpRequest req = HttpRequest.get(url);
 	    	
-	    	HttpResponse resp = httpClient.sendRequest(req);
+	    	HttpResponse resp = send(req);
 
 	    	JsonParser jp = new JsonParser();
 	    	
@@ -0,0 +1,507 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.GraphManager;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.cache.CacheStats;
+import org.nograph.impl.cache.LruCache;
+import org.nograph.impl.cache.ScalableBloomFilter;
+
+/**
+ * Answers gets for ids that don't exist without going to the backend.
+ * 
+ * Bloom filters of the known node and relationship ids are filled by a scan of the backend, in the background
+ * at startup and every negative.rebuild.ms after that, and kept current from the writes that go through this
+ * manager.  Until the first scan finishes every get goes through.  An id the filter has never seen is a miss,
+ * anything else goes to the backend and a miss there is remembered for negative.miss.ttl.ms.  Deleted ids stay
+ * in the filters until the next rebuild so they rely on the miss cache.
+ * 
+ * Only use this when all writes to the graph go through it, a node written straight to the backend reads as
+ * missing until the next rebuild.  The scan has to stream, a backend that can only hand back its ids as one
+ * list never gets filters and every get goes through.
+ * 
+ * @author aholinch
+ *
+ */
+public class NegativeLookupGraphManager extends DelegatingGraphManager 
+{
+	private static final Logger logger = Logger.getLogger(NegativeLookupGraphManager.class.getName());
+	
+	public static final String PROP_EXPECTED = "negative.expected";
+	public static final String PROP_FPP = "negative.fpp";
+	public static final String PROP_MISS_MAX = "negative.miss.max";
+	public static final String PROP_MISS_TTL_MS = "negative.miss.ttl.ms";
+	public static final String PROP_REBUILD_MS = "negative.rebuild.ms";
+	
+	protected long expected = 1000000;
+	protected double fpp = 0.01;
+	
+	protected volatile ScalableBloomFilter nodeFilter = null;
+	protected volatile ScalableBloomFilter relFilter = null;
+	
+	// the next generation, written to since the last swap so a write the scan can't see yet isn't lost
+	protected volatile ScalableBloomFilter nextNodeFilter = null;
+	protected volatile ScalableBloomFilter nextRelFilter = null;
+	
+	protected LruCache<String,Boolean> nodeMisses = null;
+	protected LruCache<String,Boolean> relMisses = null;
+	
+	protected LongAdder filtered = new LongAdder();
+	protected AtomicBoolean rebuilding = new AtomicBoolean(false);
+	protected ScheduledExecutorService scheduler = null;
+	
+	public NegativeLookupGraphManager(GraphManager delegate)
+	{
+		this(delegate, ConfigUtil.getLongProperty(PROP_REBUILD_MS, 0));
+	}
+	
+	/**
+	 * 
+	 * @param delegate
+	 * @param rebuildMillis how often to rescan the backend, zero or less for just once at startup
+	 */
+	public NegativeLookupGraphManager(GraphManager delegate, long rebuildMillis)
+	{
+		super(delegate);
+		
+		expected = Math.max(1000, ConfigUtil.getLongProperty(PROP_EXPECTED, 1000000));
+		String str = ConfigUtil.getProperty(PROP_FPP);
+		if(str != null)
+		{
+			try
+			{
+				fpp = Double.parseDouble(str.trim());
+			}
+			catch(Exception ex)
+			{
+				logger.warning("Bad value for " + PROP_FPP + ": " + str);
+			}
+		}
+		
+		int missMax = ConfigUtil.getIntProperty(PROP_MISS_MAX, 100000);
+		long missTTL = ConfigUtil.getLongProperty(PROP_MISS_TTL_MS, 60000);
+		nodeMisses = new LruCache<String,Boolean>(missMax, missTTL);
+		relMisses = new LruCache<String,Boolean>(missMax, missTTL);
+		
+		nextNodeFilter = new ScalableBloomFilter(expected, fpp);
+		nextRelFilter = new ScalableBloomFilter(expected, fpp);
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r,"nograph-negative-rebuild");
+			t.setDaemon(true);
+			return t;
+		});
+		
+		if(rebuildMillis > 0)
+		{
+			scheduler.scheduleWithFixedDelay(this::rebuildQuietly, 0, rebuildMillis, TimeUnit.MILLISECONDS);
+		}
+		else
+		{
+			scheduler.execute(this::rebuildQuietly);
+		}
+	}
+	
+	/**
+	 * True once a scan has filled the filters and misses can be answered locally.
+	 * 
+	 * @return
+	 */
+	public boolean isReady()
+	{
+		return nodeFilter != null;
+	}
+	
+	/**
+	 * Gets answered by the filters without a round trip.
+	 * 
+	 * @return
+	 */
+	public long getFilteredCount()
+	{
+		return filtered.sum();
+	}
+	
+	public CacheStats getNodeMissStats()
+	{
+		return nodeMisses.getStats();
+	}
+	
+	public CacheStats getRelationshipMissStats()
+	{
+		return relMisses.getStats();
+	}
+	
+	protected void rebuildQuietly()
+	{
+		try
+		{
+			rebuild();
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error rebuilding id filters",ex);
+		}
+	}
+	
+	/**
+	 * Scan every id out of the backend into the next generation of filters and swap them in.  The next
+	 * generation has been taking writes since the last swap, so an id written just before the scan but not
+	 * yet visible to it is still there.
+	 * 
+	 * @throws NoGraphException if the backend can't stream its ids, the filters are then never enabled
+	 */
+	public void rebuild() throws NoGraphException
+	{
+		if(!rebuilding.compareAndSet(false, true)) return;
+		
+		try
+		{
+			ScalableBloomFilter nodes = nextNodeFilter;
+			ScalableBloomFilter rels = nextRelFilter;
+			if(nodes == null || rels == null) return;
+			
+			long start = System.currentTimeMillis();
+			
+			List<String> types = delegate.getNodeTypes();
+			int nt = types == null?0:types.size();
+			for(int i=0; i<nt; i++)
+			{
+				try(GraphCursor<Node> cursor = GraphCursor.allNodes(delegate, types.get(i)))
+				{
+					checkStreaming(cursor);
+					while(cursor.hasNext())
+					{
+						nodes.add(cursor.next().getID());
+					}
+				}
+			}
+			
+			types = delegate.getRelationshipTypes();
+			nt = types == null?0:types.size();
+			for(int i=0; i<nt; i++)
+			{
+				try(GraphCursor<Relationship> cursor = GraphCursor.allRelationships(delegate, types.get(i)))
+				{
+					checkStreaming(cursor);
+					while(cursor.hasNext())
+					{
+						rels.add(cursor.next().getID());
+					}
+				}
+			}
+			
+			// current before next so a write in between still lands in the filter being swapped in
+			nodeFilter = nodes;
+			relFilter = rels;
+			nextNodeFilter = new ScalableBloomFilter(expected, fpp);
+			nextRelFilter = new ScalableBloomFilter(expected, fpp);
+			
+			logger.fine("Rebuilt id filters with " + nodes.getCount() + " nodes and " + rels.getCount() + 
+					" relationships in " + (System.currentTimeMillis()-start) + " ms");
+		}
+		finally
+		{
+			rebuilding.set(false);
+		}
+	}
+	
+	/**
+	 * A list cursor means the ids came back in one capped call, a filter built from it would turn real ids into misses.
+	 */
+	protected void checkStreaming(GraphCursor<?> cursor) throws NoGraphException
+	{
+		if(!(cursor instanceof ListCursor)) return;
+		
+		nextNodeFilter = null;
+		nextRelFilter = null;
+		scheduler.shutdown();
+		throw new NoGraphException("Backend can't stream its ids, not enabling the id filters");
+	}
+	
+	public void close()
+	{
+		scheduler.shutdownNow();
+	}
+	
+	protected void addNodeID(String id)
+	{
+		if(id == null) return;
+		
+		// next first, the rebuild swaps it in before replacing it
+		ScalableBloomFilter f = nextNodeFilter;
+		if(f != null) f.add(id);
+		f = nodeFilter;
+		if(f != null) f.add(id);
+		nodeMisses.invalidate(id);
+	}
+	
+	protected void addRelID(String id)
+	{
+		if(id == null) return;
+		
+		ScalableBloomFilter f = nextRelFilter;
+		if(f != null) f.add(id);
+		f = relFilter;
+		if(f != null) f.add(id);
+		relMisses.invalidate(id);
+	}
+	
+	protected void addNodeIDs(List<Node> nodes)
+	{
+		if(nodes == null) return;
+		int size = nodes.size();
+		for(int i=0; i<size; i++)
+		{
+			addNodeID(nodes.get(i).getID());
+		}
+	}
+	
+	protected void addRelIDs(List<Relationship> rels)
+	{
+		if(rels == null) return;
+		int size = rels.size();
+		for(int i=0; i<size; i++)
+		{
+			addRelID(rels.get(i).getID());
+		}
+	}
+
+	@Override
+	public Node getNode(String id) throws NoGraphException
+	{
+		if(id == null) return null;
+		
+		ScalableBloomFilter f = nodeFilter;
+		if(f != null && !f.mightContain(id))
+		{
+			filtered.increment();
+			return null;
+		}
+		if(nodeMisses.get(id) != null) return null;
+		
+		Node n = delegate.getNode(id);
+		if(n == null) nodeMisses.put(id, Boolean.TRUE);
+		return n;
+	}
+
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException
+	{
+		if(id == null) return null;
+		
+		ScalableBloomFilter f = relFilter;
+		if(f != null && !f.mightContain(id))
+		{
+			filtered.increment();
+			return null;
+		}
+		if(relMisses.get(id) != null) return null;
+		
+		Relationship r = delegate.getRelationship(id, fetchNodes);
+		if(r == null) relMisses.put(id, Boolean.TRUE);
+		return r;
+	}
+
+	@Override
+	public void saveNode(Node n) throws NoGraphException
+	{
+		delegate.saveNode(n);
+		if(n != null) addNodeID(n.getID());
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException
+	{
+		try
+		{
+			delegate.ingestNodes(nodes);
+		}
+		finally
+		{
+			// a partial failure may still have written some
+			addNodeIDs(nodes);
+		}
+	}
+
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException
+	{
+		try
+		{
+			delegate.saveNodes(nodes);
+		}
+		finally
+		{
+			addNodeIDs(nodes);
+		}
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException
+	{
+		delegate.deleteNodesByID(ids);
+		addMisses(nodeMisses, ids);
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException
+	{
+		delegate.saveRelationship(r);
+		if(r != null) addRelID(r.getID());
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		try
+		{
+			delegate.ingestRelationships(rels);
+		}
+		finally
+		{
+			addRelIDs(rels);
+		}
+	}
+
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		try
+		{
+			delegate.saveRelationships(rels);
+		}
+		finally
+		{
+			addRelIDs(rels);
+		}
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException
+	{
+		delegate.deleteRelationshipsByID(ids);
+		addMisses(relMisses, ids);
+	}
+	
+	protected static void addMisses(LruCache<String,Boolean> misses, List<String> ids)
+	{
+		if(ids == null) return;
+		
+		int size = ids.size();
+		for(int i=0; i<size; i++)
+		{
+			if(ids.get(i) != null) misses.put(ids.get(i), Boolean.TRUE);
+		}
+	}
+	
+	/*
+	 * Async, the same filters in front of the delegate's async calls
+	 */
+	
+	@Override
+	public CompletableFuture<Node> getNodeAsync(String id)
+	{
+		if(id == null) return CompletableFuture.completedFuture(null);
+		
+		ScalableBloomFilter f = nodeFilter;
+		if(f != null && !f.mightContain(id))
+		{
+			filtered.increment();
+			return CompletableFuture.completedFuture(null);
+		}
+		if(nodeMisses.get(id) != null) return CompletableFuture.completedFuture(null);
+		
+		return super.getNodeAsync(id).thenApply(n -> {
+			if(n == null) nodeMisses.put(id, Boolean.TRUE);
+			return n;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		if(id == null) return CompletableFuture.completedFuture(null);
+		
+		ScalableBloomFilter f = relFilter;
+		if(f != null && !f.mightContain(id))
+		{
+			filtered.increment();
+			return CompletableFuture.completedFuture(null);
+		}
+		if(relMisses.get(id) != null) return CompletableFuture.completedFuture(null);
+		
+		return super.getRelationshipAsync(id, fetchNodes).thenApply(r -> {
+			if(r == null) relMisses.put(id, Boolean.TRUE);
+			return r;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		return super.saveNodeAsync(n).thenRun(() -> {
+			if(n != null) addNodeID(n.getID());
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		return super.saveNodesAsync(nodes).whenComplete((v,ex) -> addNodeIDs(nodes));
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return super.deleteNodesByIDAsync(ids).thenRun(() -> addMisses(nodeMisses, ids));
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		return super.saveRelationshipAsync(r).thenRun(() -> {
+			if(r != null) addRelID(r.getID());
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		return super.saveRelationshipsAsync(rels).whenComplete((v,ex) -> addRelIDs(rels));
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return super.deleteRelationshipsByIDAsync(ids).thenRun(() -> addMisses(relMisses, ids));
+	}
+}
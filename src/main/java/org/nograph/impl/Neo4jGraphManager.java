@@ -19,10 +19,23 @@ package org.nograph.impl;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,13 +45,21 @@ import org.neo4j.driver.v1.GraphDatabase;
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementResultCursor;
+import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.TransactionConfig;
+import org.neo4j.driver.v1.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.v1.exceptions.SessionExpiredException;
+import org.neo4j.driver.v1.exceptions.TransientException;
 import org.nograph.GraphQuery;
-import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.GraphQuery.Criterion;
 import org.nograph.ID;
 import org.nograph.NoGraphException;
 import org.nograph.Node;
+import org.nograph.Path;
 import org.nograph.Relationship;
+import org.nograph.impl.query.CypherClause;
+import org.nograph.impl.query.CypherQueryTranslator;
 import org.nograph.util.GraphUtil;
 
 /**
@@ -50,13 +71,36 @@ import org.nograph.util.GraphUtil;
 public class Neo4jGraphManager extends BaseGraphManager 
 {
 	private static final Logger logger = Logger.getLogger(Neo4jGraphManager.class.getName());
+	
+	public static final String PROP_INGEST_BATCH = "neo4j.ingest.batch";
+	public static final String PROP_INGEST_THREADS = "neo4j.ingest.threads";
+	public static final String PROP_INGEST_RETRIES = "neo4j.ingest.retries";
+	public static final String PROP_INGEST_TIMEOUT_MS = "neo4j.ingest.timeout.ms";
+	public static final String PROP_STATS_TTL_MS = "neo4j.stats.ttl.ms";
 
 	protected String url;
 	protected String username;
 	protected String password;
 	protected Driver driver = null;
 	
-	private static final String driverSync = "mutex";
+	private final Object driverSync = new Object();
+	
+	protected static final String RELATED_CYPHER = "MATCH (a)-[r]-() WHERE id(a)=$id RETURN r,startNode(r),endNode(r)";
+	
+	protected CypherQueryTranslator queryTranslator = new CypherQueryTranslator();
+	
+	protected Neo4jIndexManager indexManager = null;
+	
+	// bulk writes
+	protected int ingestBatchSize = 5000;
+	protected int ingestThreads = 4;
+	protected int ingestRetries = 3;
+	protected long ingestTimeoutMillis = 60000;
+	
+	// counts per type are served from here until they are older than the ttl
+	protected long statsTtlMillis = 5000;
+	protected volatile TypeCounts nodeTypeCounts = null;
+	protected volatile TypeCounts relTypeCounts = null;
 	
 	public Neo4jGraphManager()
 	{
@@ -69,6 +113,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 		url = "bolt://localhost:7687";
 		username = null;
 		password = null;
+		
+		ingestBatchSize = Math.max(1,ConfigUtil.getIntProperty(PROP_INGEST_BATCH,5000));
+		ingestThreads = Math.max(1,ConfigUtil.getIntProperty(PROP_INGEST_THREADS,4));
+		ingestRetries = Math.max(0,ConfigUtil.getIntProperty(PROP_INGEST_RETRIES,3));
+		ingestTimeoutMillis = ConfigUtil.getLongProperty(PROP_INGEST_TIMEOUT_MS,60000);
+		statsTtlMillis = ConfigUtil.getLongProperty(PROP_STATS_TTL_MS,5000);
+		
+		indexManager = new Neo4jIndexManager(this);
 	}
 	
 	protected Driver getDriver()
@@ -82,6 +134,7 @@ public class Neo4jGraphManager extends BaseGraphManager
 				try
 				{
 					driver = GraphDatabase.driver(url, AuthTokens.basic(username, password));
+					indexManager.start();
 				}
 				catch(Exception ex)
 				{
@@ -126,6 +179,46 @@ public class Neo4jGraphManager extends BaseGraphManager
 		return str;
 	}
 	
+	/**
+	 * The numeric id neo4j uses, or null if the string isn't one.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	protected Long toNeoID(String id)
+	{
+		if(id == null) return null;
+		try
+		{
+			return Long.parseLong(id.trim());
+		}
+		catch(Exception ex)
+		{
+			// not a neo4j id, can't be found
+		}
+		return null;
+	}
+	
+	protected List<Long> toNeoIDs(List<String> ids)
+	{
+		List<Long> lids = new ArrayList<Long>(ids.size());
+		int size = ids.size();
+		Long lid = null;
+		for(int i=0; i<size; i++)
+		{
+			lid = toNeoID(ids.get(i));
+			if(lid != null) lids.add(lid);
+		}
+		return lids;
+	}
+	
+	protected Map<String,Object> idParams(Object id)
+	{
+		Map<String,Object> params = new HashMap<String,Object>();
+		params.put("id", id);
+		return params;
+	}
+	
 	protected Relationship recToRel(Record r, int indr, int indn1, int indn2, boolean fetchNodes)
 	{
 		GenericRelationship rel = new GenericRelationship();
@@ -177,11 +270,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 	}
 	
 	protected Node recToNode(Record r, int ind, boolean doProps)
+	{
+		return toNode(r.get(ind).asNode(), doProps);
+	}
+	
+	protected Node toNode(org.neo4j.driver.v1.types.Node node, boolean doProps)
 	{
 		GenericNode n = new GenericNode();
 		
-		org.neo4j.driver.v1.types.Node node = r.get(ind).asNode();
-		
 		n.setLongID(node.id());
 		
 		if(node.labels() != null)
@@ -198,6 +294,22 @@ public class Neo4jGraphManager extends BaseGraphManager
 		return n;
 	}
 	
+	/**
+	 * Sample written nodes into the graph meta, which the index manager reads, and note list values per label.
+	 */
+	protected void noteNodes(List<Node> nodes)
+	{
+		sampleNodeMeta(nodes);
+		
+		int size = nodes.size();
+		Node n = null;
+		for(int i=0; i<size; i++)
+		{
+			n = nodes.get(i);
+			if(n.getType() != null) indexManager.noteValues(scrubCypher(n.getType()), n.getPropertyMap());
+		}
+	}
+	
 	protected Map<String,Object> toNeo4jValues(Map<String,Object> m)
 	{
 		if(m != null)
@@ -219,9 +331,59 @@ public class Neo4jGraphManager extends BaseGraphManager
 		return m;
 	}
 	
+	/**
+	 * Create or update one node, returning its id.
+	 * 
+	 * @param n
+	 * @param params filled with the query parameters
+	 * @return
+	 */
+	protected String buildSaveNodeCypher(Node n, Map<String,Object> params)
+	{
+		noteNodes(Collections.singletonList(n));
+		params.put("props",toNeo4jValues(n.getPropertyMap()));
+		
+		String type = scrubCypher(n.getType());
+		
+		String nid = n.getID();
+		if(nid == null)
+		{
+			return "CREATE (n:"+type+" $props) RETURN id(n)";
+		}
+		
+		params.put("nid", toNeoID(nid));
+		return "MATCH (n:"+type+") WHERE id(n)=$nid SET n = $props RETURN id(n)";
+	}
+	
+	/**
+	 * Create or update one relationship, returning its id.
+	 * 
+	 * @param rel
+	 * @param params filled with the query parameters
+	 * @return
+	 */
+	protected String buildSaveRelCypher(Relationship rel, Map<String,Object> params)
+	{
+		sampleRelMeta(Collections.singletonList(rel));
+		params.put("props",toNeo4jValues(rel.getPropertyMap()));
+		
+		String rid = rel.getID();
+		if(rid == null)
+		{
+			params.put("id1", rel.getNode1().getLongID());
+			params.put("id2", rel.getNode2().getLongID());
+			return "MATCH (a),(b) WHERE id(a)=$id1 AND id(b)=$id2 CREATE (a)-[r:"+scrubCypher(rel.getType())+"]->(b) SET r=$props RETURN id(r)";
+		}
+		
+		params.put("rid", toNeoID(rid));
+		return "MATCH ()-[r]->() WHERE id(r)=$rid SET r = $props RETURN id(r)";
+	}
+	
 	@Override
 	public void saveNode(Node n) throws NoGraphException 
 	{
+		invalidateStats();
+		
 		Driver driver = getDriver();
 		Session session = null;
 		StatementResult res = null;
@@ -230,27 +392,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 		{
 			session = driver.session();
 			
-			Map<String,Object> map = toNeo4jValues(n.getPropertyMap());
 			Map<String,Object> props = new HashMap<String,Object>();
-			props.put("props",map);
-			
-			String type = n.getType();
-			type = scrubCypher(type);
+			String cypher = buildSaveNodeCypher(n,props);
 
 			TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
 			
-			String cypher = "CREATE (n:"+type+" $props) RETURN id(n)";
-
-			String nid = n.getID();
-			
-			if(nid != null)
-			{
-				cypher = "MATCH (n:"+type+") where id(n)="+nid+" set n = $props return id(n)";
-			}
-			
 			res = session.run(cypher,props,config);
 			
-			if(nid == null)
+			if(n.getID() == null)
 			{
 				Record r = null;
 				while(res.hasNext())
@@ -281,17 +430,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 		Session session = null;
 		StatementResult res = null;
 		
+		Long lid = toNeoID(id);
+		if(lid == null) return null;
+		
 		try
 		{
 			session = driver.session();
-			id = scrubCypher(id);
 
-			//Map<String,Object> params = new HashMap<String,Object>();
-			//params.put("idval", scrubCypher(id));
-			//TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
-			
-			//res = session.run("MATCH (n) where id(n)={idval} return n;",params,config);
-			res = session.run("MATCH (n) where id(n)="+id+" return n;");
+			res = session.run("MATCH (n) WHERE id(n)=$id RETURN n",idParams(lid));
 			
 			Record r = null;
 			while(res.hasNext())
@@ -312,10 +458,16 @@ public class Neo4jGraphManager extends BaseGraphManager
 		return n;
 	}
 	
+	/**
+	 * Looks up the nodes with an UNWIND over batches of ids instead of one query per id.
+	 */
 	@Override
-	public void ingestNodes(List<Node> nodes) throws NoGraphException 
+	protected Map<String,Node> buildNodeMap(List<String> ids)
 	{
-		if(nodes == null || nodes.size() == 0) return;
+		Map<String,Node> nodeMap = new HashMap<String,Node>();
+		if(ids == null || ids.size() == 0) return nodeMap;
+		
+		List<Long> lids = toNeoIDs(ids);
 		
 		Driver driver = getDriver();
 		Session session = null;
@@ -325,69 +477,285 @@ public class Neo4jGraphManager extends BaseGraphManager
 		{
 			session = driver.session();
 			
-			Map<String,Object> map = null;
-			
-			Map<String,Object> props = new HashMap<String,Object>();
-			
-			Map<String,List<Node>> mm = GraphUtil.groupNodesByType(nodes);
-			List<String> types = new ArrayList<String>(mm.keySet());
-			
-			int nt = types.size();
-			String type = null;
-			TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
-			
-			String cypher = null;
-			List<Node> tmp = null;
-			int nn = 0;
+			String cypher = "UNWIND $ids AS nid MATCH (n) WHERE id(n)=nid RETURN n";
+			List<List<Long>> batches = chunk(lids, nodeMapBatchSize);
+			int nb = batches.size();
+			Map<String,Object> params = new HashMap<String,Object>();
+			Record r = null;
 			Node n = null;
+			for(int i=0; i<nb; i++)
+			{
+				params.put("ids", batches.get(i));
+				res = session.run(cypher,params);
+				while(res.hasNext())
+				{
+					r = res.next();
+					n = recToNode(r,0,true);
+					nodeMap.put(n.getID(), n);
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error getting nodes",ex);
+			return null;
+		}
+		finally
+		{
+			close(session);
+		}
+		
+		return nodeMap;
+	}
+	
+	/**
+	 * One UNWIND statement's worth of rows.  Create statements return the row index and the new id so the
+	 * ids go back to the right objects whatever order the server produces them in.  Only statements without
+	 * targets, the updates, can run twice without changing the outcome.
+	 */
+	protected static class IngestChunk
+	{
+		protected String cypher = null;
+		protected List<Map<String,Object>> rows = null;
+		protected List<? extends ID> targets = null;
+		
+		/**
+		 * 
+		 * @param cypher
+		 * @param rows bound to $rows
+		 * @param targets get the returned ids, null if the statement returns none
+		 */
+		public IngestChunk(String cypher, List<Map<String,Object>> rows, List<? extends ID> targets)
+		{
+			this.cypher = cypher;
+			this.rows = rows;
+			this.targets = targets;
+		}
+		
+		public boolean isIdempotent()
+		{
+			return targets == null;
+		}
+	}
+	
+	/**
+	 * Runs the chunks on up to ingestThreads sessions at once, each chunk in its own transaction.
+	 * 
+	 * @param chunks
+	 * @param what for messages
+	 * @throws NoGraphException if a chunk still fails after its retries, chunks already committed stay
+	 */
+	protected void runChunks(List<IngestChunk> chunks, String what) throws NoGraphException
+	{
+		int nc = chunks.size();
+		if(nc == 0) return;
+		
+		invalidateStats();
+		
+		AtomicInteger next = new AtomicInteger();
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		
+		Runnable worker = () -> {
+			int ind = 0;
+			while(failure.get() == null && (ind = next.getAndIncrement()) < nc)
+			{
+				try
+				{
+					runChunk(chunks.get(ind));
+				}
+				catch(Exception ex)
+				{
+					failure.compareAndSet(null, ex);
+				}
+			}
+		};
+		
+		int workers = Math.min(ingestThreads, nc);
+		if(workers <= 1 || GraphExecutors.isPoolThread())
+		{
+			worker.run();
+		}
+		else
+		{
+			ExecutorService executor = GraphExecutors.getIOExecutor();
+			List<Future<?>> futures = new ArrayList<Future<?>>(workers-1);
+			for(int i=1; i<workers; i++)
+			{
+				futures.add(executor.submit(worker));
+			}
 			
+			// the caller works too
+			worker.run();
 			
-			for(int i=0; i<nt; i++)
+			try
 			{
-				type = types.get(i);
+				for(int i=0; i<futures.size(); i++)
+				{
+					futures.get(i).get();
+				}
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, ex);
+			}
+			catch(ExecutionException ex)
+			{
+				failure.compareAndSet(null, ex);
+			}
+		}
+		
+		Exception ex = failure.get();
+		if(ex != null)
+		{
+			logger.log(Level.SEVERE,"Error "+what,ex);
+			if(ex instanceof NoGraphException) throw (NoGraphException)ex;
+			throw new NoGraphException("Error "+what,ex);
+		}
+	}
+	
+	/**
+	 * Runs one chunk in an explicit transaction, retrying transient failures with backoff.  Ids are only
+	 * handed out once the transaction commits.  A create that fails once the commit has been sent may have
+	 * committed, so it is not retried and the failure is left to the caller.
+	 * 
+	 * @param chunk
+	 * @throws NoGraphException
+	 */
+	protected void runChunk(IngestChunk chunk) throws NoGraphException
+	{
+		Map<String,Object> params = new HashMap<String,Object>();
+		params.put("rows", chunk.rows);
+		TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofMillis(ingestTimeoutMillis)).build();
+		
+		int attempt = 0;
+		while(true)
+		{
+			Session session = null;
+			Transaction tx = null;
+			boolean committing = false;
+			try
+			{
+				session = getDriver().session();
+				tx = session.beginTransaction(config);
 				
-				tmp = mm.get(type);
-				nn = tmp.size();
+				logger.fine(chunk.cypher);
+				List<Record> recs = tx.run(chunk.cypher, params).list();
+				tx.success();
+				committing = true;
+				tx.close();
+				tx = null;
 				
-				type = scrubCypher(type);
-					
-				List<Map<String,Object>> list = new ArrayList<Map<String,Object>>(nn);
-
-				cypher = "UNWIND $props as map CREATE (n:"+type+") SET n = map RETURN id(n)";
-	
-				for(int j=0; j<nn; j++)
+				setChunkIDs(chunk, recs);
+				return;
+			}
+			catch(Exception ex)
+			{
+				if(tx != null)
 				{
-					n = tmp.get(j);
-					map = toNeo4jValues(n.getPropertyMap());
-					list.add(map);
+					try
+					{
+						tx.failure();
+						tx.close();
+					}
+					catch(Exception cex)
+					{
+						logger.log(Level.FINE,"Error rolling back",cex);
+					}
 				}
 				
-				props.put("props", list);
-				
-				logger.info(cypher);
-				res = session.run(cypher,props,config);
+				attempt++;
+				if(committing && !chunk.isIdempotent())
+				{
+					throw new NoGraphException("Chunk of "+chunk.rows.size()+" failed during commit and may have been written",ex);
+				}
+				if(attempt > ingestRetries || !isRetryable(ex))
+				{
+					throw new NoGraphException("Chunk of "+chunk.rows.size()+" failed after "+attempt+" attempts",ex);
+				}
 				
-				Record r = null;
-				int ind = 0;
-				while(res.hasNext())
+				logger.log(Level.FINE,"Retrying chunk",ex);
+				try
 				{
-					r = res.next();
-					n = tmp.get(ind);
-					long id = r.get(0).asLong();
-					n.setLongID(id);
-					ind++;
+					Thread.sleep(Math.min(5000L, 100L << attempt));
+				}
+				catch(InterruptedException iex)
+				{
+					Thread.currentThread().interrupt();
+					throw new NoGraphException("Interrupted retrying chunk",ex);
 				}
 			}
+			finally
+			{
+				close(session);
+			}
 		}
-		catch(Exception ex)
+	}
+	
+	/**
+	 * Hand the ids a create returned back to the objects by row index.
+	 */
+	protected void setChunkIDs(IngestChunk chunk, List<Record> recs)
+	{
+		if(chunk.targets == null) return;
+		
+		int size = recs.size();
+		Record r = null;
+		for(int i=0; i<size; i++)
 		{
-			logger.log(Level.WARNING,"Error ingesting nodes",ex);
+			r = recs.get(i);
+			chunk.targets.get(r.get(0).asInt()).setLongID(r.get(1).asLong());
 		}
-		finally
+	}
+	
+	/**
+	 * Failures worth trying again, the rest would only fail the same way.
+	 */
+	protected boolean isRetryable(Exception ex)
+	{
+		return ex instanceof TransientException || ex instanceof ServiceUnavailableException || ex instanceof SessionExpiredException;
+	}
+	
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException 
+	{
+		if(nodes == null || nodes.size() == 0) return;
+		
+		List<IngestChunk> chunks = nodeIngestChunks(nodes);
+		runChunks(chunks, "ingesting nodes");
+	}
+
+	/**
+	 * One UNWIND create per type and batch, returning the row index with the new id.
+	 */
+	protected List<IngestChunk> nodeIngestChunks(List<Node> nodes)
+	{
+		noteNodes(nodes);
+		List<IngestChunk> chunks = new ArrayList<IngestChunk>();
+		Map<String,List<Node>> mm = GraphUtil.groupNodesByType(nodes);
+		for(Map.Entry<String,List<Node>> e : mm.entrySet())
 		{
-			close(session);
+			String cypher = "UNWIND $rows AS row CREATE (n:"+scrubCypher(e.getKey())+") SET n = row.props RETURN row.i, id(n)";
+			
+			List<List<Node>> batches = chunk(e.getValue(), ingestBatchSize);
+			int nb = batches.size();
+			for(int i=0; i<nb; i++)
+			{
+				List<Node> batch = batches.get(i);
+				int size = batch.size();
+				List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(size);
+				for(int j=0; j<size; j++)
+				{
+					Map<String,Object> row = new HashMap<String,Object>();
+					row.put("i", j);
+					row.put("props", toNeo4jValues(batch.get(j).getPropertyMap()));
+					rows.add(row);
+				}
+				chunks.add(new IngestChunk(cypher, rows, batch));
+			}
 		}
-
+		
+		return chunks;
 	}
 	
 	/*
@@ -467,92 +835,64 @@ public class Neo4jGraphManager extends BaseGraphManager
 	{
 		if(nodes == null || nodes.size() == 0) return;
 
-		Driver driver = getDriver();
-		Session session = null;
-		
-		try
-		{
-			List<List<? extends ID>> lists = separateNewVsExisting(nodes, null);
-			List<Node> newl = (List<Node>) lists.get(0);
-			List<Node> existl = (List<Node>) lists.get(1);
-			
-			ingestNodes(newl);
-			
-			if(existl == null || existl.size() == 0) return;
-			
-			// doesn't affect the source list
-			
-			nodes = existl;
-			 
-			session = driver.session();
-			
-			Map<String,Object> map = null;
-			
-			Map<String,Object> props = new HashMap<String,Object>();
-			
-			Map<String,List<Node>> mm = GraphUtil.groupNodesByType(nodes);
-			List<String> types = new ArrayList<String>(mm.keySet());
-			
-			int nt = types.size();
-			String type = null;
-			TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
-			
-			String cypher = null;
-			List<Node> tmp = null;
-			int nn = 0;
-			Node n = null;
-			Map<String,Object> m = null;
-			for(int i=0; i<nt; i++)
-			{
-				type = types.get(i);
-				
-				tmp = mm.get(type);
-				nn = tmp.size();
-				type = scrubCypher(type);
-					
-				List<Map<String,Object>> list = new ArrayList<Map<String,Object>>(nn);
-				
-				cypher = "UNWIND $props as row MATCH (n:"+type+") where id(n) = row.nid SET n = row.map RETURN id(n)";
-	
-				for(int j=0; j<nn; j++)
-				{
-					n = tmp.get(j);
-					map = toNeo4jValues(n.getPropertyMap());
-					m = new HashMap<String,Object>();
-					m.put("nid", n.getLongID());
-					m.put("props", map);
-					list.add(m);		
-				}
-				
-				props.put("props", list);
-				
-				logger.info(cypher);
-				session.run(cypher,props,config);
-			}
-		}
-		catch(Exception ex)
-		{
-			logger.log(Level.WARNING,"Error ingesting nodes",ex);
-		}
-		finally
-		{
-			close(session);
-		}
-	}
-
-	@Override
-	public void deleteNodesByID(List<String> ids) throws NoGraphException 
-	{
-		if(ids == null || ids.size() == 0) return;
-		
-		String idList = ids.get(0);
-		for(int i=1; i<ids.size(); i++)
-		{
-			idList +=", " + ids.get(i);
-		}
-		
-		String cypher = "match (n) where id(n) in ["+idList+"] detach delete n";
-		logger.info(cypher);
+		List<List<? extends ID>> lists = separateNewVsExisting(nodes, null);
+		List<Node> newl = (List<Node>) lists.get(0);
+		List<Node> existl = (List<Node>) lists.get(1);
+		
+		ingestNodes(newl);
+		
+		if(existl == null || existl.size() == 0) return;
+		
+		// doesn't affect the source list
+		List<IngestChunk> chunks = nodeUpdateChunks(existl);
+		runChunks(chunks, "saving nodes");
+	}
+
+	/**
+	 * One UNWIND update per type and batch for nodes that already have ids.
+	 */
+	protected List<IngestChunk> nodeUpdateChunks(List<Node> nodes)
+	{
+		noteNodes(nodes);
+		List<IngestChunk> chunks = new ArrayList<IngestChunk>();
+		Map<String,List<Node>> mm = GraphUtil.groupNodesByType(nodes);
+		for(Map.Entry<String,List<Node>> e : mm.entrySet())
+		{
+			String cypher = "UNWIND $rows AS row MATCH (n:"+scrubCypher(e.getKey())+") WHERE id(n) = row.nid SET n = row.props";
+			
+			List<List<Node>> batches = chunk(e.getValue(), ingestBatchSize);
+			int nb = batches.size();
+			for(int i=0; i<nb; i++)
+			{
+				List<Node> batch = batches.get(i);
+				int size = batch.size();
+				List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(size);
+				for(int j=0; j<size; j++)
+				{
+					Map<String,Object> row = new HashMap<String,Object>();
+					row.put("nid", batch.get(j).getLongID());
+					row.put("props", toNeo4jValues(batch.get(j).getPropertyMap()));
+					rows.add(row);
+				}
+				chunks.add(new IngestChunk(cypher, rows, null));
+			}
+		}
+		
+		return chunks;
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException 
+	{
+		if(ids == null || ids.size() == 0) return;
+		
+		List<Long> lids = toNeoIDs(ids);
+		if(lids.size() == 0) return;
+		
+		invalidateStats();
+		
+		String cypher = "MATCH (n) WHERE id(n) IN $ids DETACH DELETE n";
+		logger.fine(cypher);
 		Driver driver = getDriver();
 		Session session = null;
 		
@@ -560,7 +900,9 @@ public class Neo4jGraphManager extends BaseGraphManager
 		{
 			session = driver.session();
 			
-			session.run(cypher);			
+			Map<String,Object> params = new HashMap<String,Object>();
+			params.put("ids", lids);
+			session.run(cypher,params);
 		}
 		catch(Exception ex)
 		{
@@ -575,6 +917,8 @@ public class Neo4jGraphManager extends BaseGraphManager
 
 	@Override
 	public void saveRelationship(Relationship rel) throws NoGraphException {
+		invalidateStats();
+		
 		Driver driver = getDriver();
 		Session session = null;
 		StatementResult res = null;
@@ -583,29 +927,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 		{
 			session = driver.session();
 			
-			Map<String,Object> map = toNeo4jValues(rel.getPropertyMap());
 			Map<String,Object> props = new HashMap<String,Object>();
-			
-			props.put("id1", rel.getNode1().getLongID());
-			props.put("id2", rel.getNode2().getLongID());
-			props.put("props",map);
-			
-			String type = rel.getType();
-			type = scrubCypher(type);
+			String cypher = buildSaveRelCypher(rel,props);
 
 			TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
-			String cypher = "MATCH (a),(b) WHERE id(a)=$id1 AND id(b)=$id2 CREATE (a)-[r:"+type+"]->(b) set r=$props RETURN id(r)";
-
-			String rid = rel.getID();
-			
-			if(rid != null)
-			{
-				cypher = "MATCH ()-[r:"+type+"]-() where id(r)="+rid+" set r = $props return id(r)";
-			}
 			
 			res = session.run(cypher,props,config);
 			
-			if(rid == null)
+			if(rel.getID() == null)
 			{
 				Record r = null;
 				while(res.hasNext())
@@ -633,12 +962,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 		Session session = null;
 		StatementResult res = null;
 		Relationship rel = null;
+		Long lid = toNeoID(id);
+		if(lid == null) return null;
+		
 		try
 		{
 			session = driver.session();
-			id = scrubCypher(id);
 
-			res = session.run("MATCH (n)-[r]-(m) where id(r) = "+id+" return r,n,m;");
+			res = session.run("MATCH (n)-[r]->(m) WHERE id(r)=$id RETURN r,n,m",idParams(lid));
 			
 			Record r = null;
 			while(res.hasNext())
@@ -663,174 +994,109 @@ public class Neo4jGraphManager extends BaseGraphManager
 	public void ingestRelationships(List<Relationship> rels) throws NoGraphException {
 		if(rels == null || rels.size() == 0) return;
 		
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
-		
-		try
+		List<IngestChunk> chunks = relIngestChunks(rels);
+		runChunks(chunks, "ingesting rels");
+	}
+
+	/**
+	 * One UNWIND create per type and batch, returning the row index with the new id.
+	 */
+	protected List<IngestChunk> relIngestChunks(List<Relationship> rels)
+	{
+		sampleRelMeta(rels);
+		List<IngestChunk> chunks = new ArrayList<IngestChunk>();
+		Map<String,List<Relationship>> mm = GraphUtil.groupRelationshipsByType(rels);
+		for(Map.Entry<String,List<Relationship>> e : mm.entrySet())
 		{
-			session = driver.session();
-			
-			Map<String,Object> map = null;
-			
-			Map<String,Object> props = new HashMap<String,Object>();
-			
-			Map<String,List<Relationship>> mm = GraphUtil.groupRelationshipsByType(rels);
-			List<String> types = new ArrayList<String>(mm.keySet());
-			
-			int nt = types.size();
-			String type = null;
-			TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
+			String cypher = "UNWIND $rows AS row MATCH (a),(b) WHERE id(a)=row.id1 AND id(b)=row.id2 CREATE (a)-[r:"+scrubCypher(e.getKey())+"]->(b) SET r=row.props RETURN row.i, id(r)";
 			
-			String cypher = null;
-			List<Relationship> tmp = null;
-			int nn = 0;
-			Relationship rel = null;
-			Map<String,Object> m = null;
-			for(int i=0; i<nt; i++)
+			List<List<Relationship>> batches = chunk(e.getValue(), ingestBatchSize);
+			int nb = batches.size();
+			for(int i=0; i<nb; i++)
 			{
-				type = types.get(i);
-				
-				tmp = mm.get(type);
-				nn = tmp.size();
-				
-				type = scrubCypher(type);
-					
-				List<Map<String,Object>> list = new ArrayList<Map<String,Object>>(nn);
-				cypher = "UNWIND $props as row MATCH (a),(b) WHERE id(a)=row.id1 AND id(b)=row.id2 CREATE (a)-[r:"+type+"]->(b) set r=row.props RETURN id(r)";
-				
-				for(int j=0; j<nn; j++)
-				{
-					rel = tmp.get(j);
-					m = new HashMap<String,Object>();
-					m.put("id1",rel.getNode1().getLongID());
-					m.put("id2",rel.getNode2().getLongID());
-					map = toNeo4jValues(rel.getPropertyMap());
-					m.put("props", map);
-					list.add(m);
-				}
-				
-				props.put("props", list);
-				
-				logger.info(cypher);
-				res = session.run(cypher,props,config);
-				
-				Record r = null;
-				int ind = 0;
-				while(res.hasNext())
+				List<Relationship> batch = batches.get(i);
+				int size = batch.size();
+				List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(size);
+				Relationship rel = null;
+				for(int j=0; j<size; j++)
 				{
-					r = res.next();
-					rel = tmp.get(ind);
-					long id = r.get(0).asLong();
-					rel.setLongID(id);
-					ind++;
+					rel = batch.get(j);
+					Map<String,Object> row = new HashMap<String,Object>();
+					row.put("i", j);
+					row.put("id1", rel.getNode1().getLongID());
+					row.put("id2", rel.getNode2().getLongID());
+					row.put("props", toNeo4jValues(rel.getPropertyMap()));
+					rows.add(row);
 				}
+				chunks.add(new IngestChunk(cypher, rows, batch));
 			}
 		}
-		catch(Exception ex)
-		{
-			logger.log(Level.WARNING,"Error ingesting rels",ex);
-		}
-		finally
-		{
-			close(session);
-		}
-
+		
+		return chunks;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void saveRelationships(List<Relationship> rels) throws NoGraphException {
+		if(rels == null || rels.size() == 0) return;
 		
-		Driver driver = getDriver();
-		Session session = null;
+		List<List<? extends ID>> lists = separateNewVsExisting(rels, null);
+		List<Relationship> newl = (List<Relationship>) lists.get(0);
+		List<Relationship> existl = (List<Relationship>) lists.get(1);
 		
-		try
-		{
-			List<List<? extends ID>> lists = separateNewVsExisting(rels, null);
-			List<Relationship> newl = (List<Relationship>) lists.get(0);
-			List<Relationship> existl = (List<Relationship>) lists.get(1);
-			
-			ingestRelationships(newl);
-			
-			if(existl == null || existl.size() == 0) return;
-			
-			// doesn't affect the source list
-			
-			rels = existl;
+		ingestRelationships(newl);
+		
+		if(existl == null || existl.size() == 0) return;
+		
+		// doesn't affect the source list
+		List<IngestChunk> chunks = relUpdateChunks(existl);
+		runChunks(chunks, "saving rels");
+	}
 
-			session = driver.session();
-			
-			Map<String,Object> map = null;
-			
-			Map<String,Object> props = new HashMap<String,Object>();
-			
-			Map<String,List<Relationship>> mm = GraphUtil.groupRelationshipsByType(rels);
-			List<String> types = new ArrayList<String>(mm.keySet());
-			
-			int nt = types.size();
-			String type = null;
-			TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
+	/**
+	 * One UNWIND update per type and batch for relationships that already have ids.
+	 */
+	protected List<IngestChunk> relUpdateChunks(List<Relationship> rels)
+	{
+		sampleRelMeta(rels);
+		List<IngestChunk> chunks = new ArrayList<IngestChunk>();
+		Map<String,List<Relationship>> mm = GraphUtil.groupRelationshipsByType(rels);
+		for(Map.Entry<String,List<Relationship>> e : mm.entrySet())
+		{
+			String cypher = "UNWIND $rows AS row MATCH (a)-[r:"+scrubCypher(e.getKey())+"]->(b) WHERE id(r)=row.rid SET r=row.props";
 			
-			String cypher = null;
-			List<Relationship> tmp = null;
-			int nn = 0;
-			Relationship rel = null;
-			Map<String,Object> m = null;
-			for(int i=0; i<nt; i++)
+			List<List<Relationship>> batches = chunk(e.getValue(), ingestBatchSize);
+			int nb = batches.size();
+			for(int i=0; i<nb; i++)
 			{
-				type = types.get(i);
-				
-				tmp = mm.get(type);
-				nn = tmp.size();
-				
-				type = scrubCypher(type);
-					
-				List<Map<String,Object>> list = new ArrayList<Map<String,Object>>(nn);
-				cypher = "UNWIND $props as row MATCH (a)-[r:"+type+"]->(b) where id(r)=row.rid set r=row.props RETURN id(r)";
-			
-				for(int j=0; j<nn; j++)
+				List<Relationship> batch = batches.get(i);
+				int size = batch.size();
+				List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(size);
+				for(int j=0; j<size; j++)
 				{
-					rel = tmp.get(j);
-					m = new HashMap<String,Object>();
-					m.put("rid",rel.getLongID());
-					map = toNeo4jValues(rel.getPropertyMap());
-					m.put("props", map);
-					list.add(m);
+					Map<String,Object> row = new HashMap<String,Object>();
+					row.put("rid", batch.get(j).getLongID());
+					row.put("props", toNeo4jValues(batch.get(j).getPropertyMap()));
+					rows.add(row);
 				}
-				
-				props.put("props", list);
-				
-				logger.info(cypher);
-				
-				session.run(cypher,props,config);
-				
+				chunks.add(new IngestChunk(cypher, rows, null));
 			}
 		}
-		catch(Exception ex)
-		{
-			logger.log(Level.WARNING,"Error saving rels",ex);
-		}
-		finally
-		{
-			close(session);
-		}
-
-
+		
+		return chunks;
 	}
 
 	@Override
 	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException {
 		if(ids == null || ids.size() == 0) return;
 		
-		String idList = ids.get(0);
-		for(int i=1; i<ids.size(); i++)
-		{
-			idList +=", " + ids.get(i);
-		}
+		List<Long> lids = toNeoIDs(ids);
+		if(lids.size() == 0) return;
+		
+		invalidateStats();
 		
-		String cypher = "match ()-[r]-() where id(r) in ["+idList+"] detach delete r";
-		logger.info(cypher);
+		String cypher = "MATCH ()-[r]->() WHERE id(r) IN $ids DELETE r";
+		logger.fine(cypher);
 		Driver driver = getDriver();
 		Session session = null;
 		
@@ -838,7 +1104,9 @@ public class Neo4jGraphManager extends BaseGraphManager
 		{
 			session = driver.session();
 			
-			session.run(cypher);			
+			Map<String,Object> params = new HashMap<String,Object>();
+			params.put("ids", lids);
+			session.run(cypher,params);
 		}
 		catch(Exception ex)
 		{
@@ -873,34 +1141,16 @@ public class Neo4jGraphManager extends BaseGraphManager
 
 		try
 		{
-			String cypher = "match (n)";
-			if(!tnull)
-			{
-				type = scrubCypher(type);
-				cypher = "match (n:"+type+")";
-			}
-			
-			String limit = " LIMIT 25";
-			if(maxResults > 0)
-			{
-				limit = " LIMIT " + maxResults;
-			}
+			if(maxResults <= 0) maxResults = 25;
 			
-			Map<String,Object> params = null;
-			if(!knull)
-			{
-				params = new HashMap<String,Object>();
-				params.put("param1val", val);
-				cypher += " WHERE {param1val} in n."+key;
-			}
-			
-			cypher += " return n"+limit;
+			Map<String,Object> params = new HashMap<String,Object>();
+			String cypher = buildFindNodesCypher(type,key,val,maxResults,params);
 			
 			session = driver.session();
 			
-			logger.info(cypher);
+			logger.fine(cypher);
 
-			if(params != null)
+			if(params.size() > 0)
 			{
 				TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
 				res = session.run(cypher,params,config);
@@ -966,34 +1216,16 @@ public class Neo4jGraphManager extends BaseGraphManager
 
 		try
 		{
-			String cypher = "match (n)-[r]-(m)";
-			if(!tnull)
-			{
-				type = scrubCypher(type);
-				cypher = "match (n)-[r:"+type+"]-(m)";
-			}
-			
-			String limit = " LIMIT 25";
-			if(maxResults > 0)
-			{
-				limit = " LIMIT " + maxResults;
-			}
-			
-			Map<String,Object> params = null;
-			if(!knull)
-			{
-				params = new HashMap<String,Object>();
-				params.put("param1val", val);
-				cypher += " WHERE {param1val} in r."+key;
-			}
+			if(maxResults <= 0) maxResults = 25;
 			
-			cypher += " return r,n,m"+limit;
+			Map<String,Object> params = new HashMap<String,Object>();
+			String cypher = buildFindRelsCypher(type,key,val,true,maxResults,params);
 			
 			session = driver.session();
 			
-			logger.info(cypher);
+			logger.fine(cypher);
 			
-			if(params != null)
+			if(params.size() > 0)
 			{
 				TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
 				res = session.run(cypher,params,config);
@@ -1034,180 +1266,1312 @@ public class Neo4jGraphManager extends BaseGraphManager
 		return rels;
 	}
 	
-    protected String queryToCypher(String prefix, GraphQuery query, boolean ignoreType)
-    {
-    	return null;
-    }
-    
-	@Override
-	public List<Node> findNodes(GraphQuery query) throws NoGraphException {
-		// TODO support complicated queries
+	/**
+	 * 
+	 * @param type
+	 * @param key
+	 * @param val
+	 * @param maxResults no limit if less than 1
+	 * @param params filled with the query parameters
+	 * @return
+	 */
+	protected String buildFindNodesCypher(String type, String key, Object val, int maxResults, Map<String,Object> params)
+	{
+		String cypher = "match (n)";
+		if(type != null)
+		{
+			type = scrubCypher(type);
+			cypher = "match (n:"+type+")";
+		}
 		
-		List<Node> nodes = null;
-		Node n = null;
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
-
-		try
+		if(key != null)
 		{
-			String cypher = "match (n)";
+			params.put("param1val", val);
 			
-			if(query.getCriterion() instanceof SimpleCriterion)
+			StringBuilder sb = new StringBuilder(32);
+			CypherQueryTranslator.appendProperty(sb, "n", key);
+			if(indexManager.useEquality(type, key, val))
 			{
-				SimpleCriterion crit = (SimpleCriterion)query.getCriterion();
-				if(crit.getKey().equalsIgnoreCase("type"))
-				{
-					String type = scrubCypher(String.valueOf(crit.getValue()));
-					cypher = "match (n:"+type+")";					
-				}
+				// an index can only seek on equality
+				cypher += " WHERE "+sb+" = $param1val";
 			}
-			
-			String clause = queryToCypher("n",query,true);
-			System.out.println(clause);
-			
-			String limit = " LIMIT 25";
-			
-			int maxResults = query.getMaxResults();
-			if(maxResults > 0)
+			else
 			{
-				limit = " LIMIT " + maxResults;
+				cypher += " WHERE $param1val IN "+sb;
 			}
 			
-			
-			cypher += " return n"+limit;
-			
-			session = driver.session();
-			
-			logger.info(cypher);
-
-
-			res = session.run(cypher);
-			
-			Map<String,String> nids = new HashMap<String,String>();
-			String nid = null;
-			Record r = null;
-			
-			nodes = new ArrayList<Node>();
-			
-			while(res.hasNext())
-			{
-				r = res.next();
-				n = recToNode(r,0,true);
-				
-				nid = n.getID();
-				if(nids.get(nid)==null)
-				{
-					nodes.add(n);
-					nids.put(nid, nid);
-				}
-			}
-
+			indexManager.recordLookup(type, key);
 		}
-		catch(Exception ex)
+		
+		cypher += " return n";
+		
+		if(maxResults > 0)
 		{
-			logger.log(Level.SEVERE,"Error getting nodes",ex);
-			throw new NoGraphException(ex);
+			// a parameter so every limit shares one plan
+			params.put("limit", maxResults);
+			cypher += " LIMIT $limit";
 		}
-		finally
-		{
+		
+		return cypher;
+	}
+	
+	/**
+	 * 
+	 * @param type
+	 * @param key
+	 * @param val
+	 * @param directed a directed match returns each relationship once instead of once per direction
+	 * @param maxResults no limit if less than 1
+	 * @param params filled with the query parameters
+	 * @return
+	 */
+	protected String buildFindRelsCypher(String type, String key, Object val, boolean directed, int maxResults, Map<String,Object> params)
+	{
+		String arrow = directed?"->":"-";
+		String cypher = "match (n)-[r]"+arrow+"(m)";
+		if(type != null)
+		{
+			type = scrubCypher(type);
+			cypher = "match (n)-[r:"+type+"]"+arrow+"(m)";
+		}
+		
+		if(key != null)
+		{
+			params.put("param1val", val);
+			
+			StringBuilder sb = new StringBuilder(32);
+			CypherQueryTranslator.appendProperty(sb, "r", key);
+			cypher += " WHERE $param1val IN "+sb;
+		}
+		
+		cypher += " return r,n,m";
+		
+		if(maxResults > 0)
+		{
+			// a parameter so every limit shares one plan
+			params.put("limit", maxResults);
+			cypher += " LIMIT $limit";
+		}
+		
+		return cypher;
+	}
+	
+	@Override
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		if(type == null && key == null) return new ListCursor<Node>(null);
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return new ListCursor<Node>(null);
+		}
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = buildFindNodesCypher(type,key,val,0,params);
+		
+		return new RecordCursor<Node>(cypher, params, r -> recToNode(r,0,true));
+	}
+	
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		if(type == null && key == null) return new ListCursor<Relationship>(null);
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return new ListCursor<Relationship>(null);
+		}
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = buildFindRelsCypher(type,key,val,true,0,params);
+		
+		return new RecordCursor<Relationship>(cypher, params, r -> recToRel(r,0,1,2,fetchNodes));
+	}
+	
+	@Override
+	public GraphCursor<Node> iterateNodes(GraphQuery query) throws NoGraphException
+	{
+		query = optimizeQuery(query,false);
+		if(query == null) return new ListCursor<Node>(null);
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = queryToCypher(query,false,params);
+		
+		return new RecordCursor<Node>(cypher, params, r -> recToNode(r,0,true));
+	}
+	
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(GraphQuery query) throws NoGraphException
+	{
+		query = optimizeQuery(query,true);
+		if(query == null) return new ListCursor<Relationship>(null);
+		
+		boolean fetchNodes = query.getFetchNodesForRelationships();
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = queryToCypher(query,true,params);
+		
+		return new RecordCursor<Relationship>(cypher, params, r -> recToRel(r,0,1,2,fetchNodes));
+	}
+	
+	/**
+	 * Maps records to graph objects as the driver pulls them, keeping the session open until closed or exhausted.
+	 * The driver stops reading from the socket while its record buffer is full, so only a window of the
+	 * results is held however many match.
+	 */
+	protected class RecordCursor<T> implements GraphCursor<T>
+	{
+		protected Session session = null;
+		protected StatementResult res = null;
+		protected Function<Record,T> mapper = null;
+		protected boolean closed = false;
+		
+		public RecordCursor(String cypher, Map<String,Object> params, Function<Record,T> mapper) throws NoGraphException
+		{
+			this.mapper = mapper;
+			try
+			{
+				session = getDriver().session();
+				res = session.run(cypher,params);
+			}
+			catch(Exception ex)
+			{
+				close();
+				logger.log(Level.SEVERE,"Error running query",ex);
+				throw new NoGraphException(ex);
+			}
+		}
+
+		@Override
+		public boolean hasNext() 
+		{
+			if(closed) return false;
+			
+			boolean more = res.hasNext();
+			if(!more) close();
+			return more;
+		}
+
+		@Override
+		public T next() 
+		{
+			if(!hasNext()) throw new NoSuchElementException();
+			return mapper.apply(res.next());
+		}
+
+		@Override
+		public void close() 
+		{
+			if(closed) return;
+			closed = true;
+			Neo4jGraphManager.this.close(session);
+			session = null;
+		}
+	}
+	
+	/**
+	 * Run work against a session with the driver's async api.  The session is closed once the work's stage
+	 * finishes, no thread waits on the round trip.  Driver failures complete the future with a NoGraphException.
+	 * 
+	 * @param work
+	 * @return
+	 */
+	protected <T> CompletableFuture<T> runSessionAsync(Function<Session,CompletionStage<T>> work)
+	{
+		CompletableFuture<T> cf = new CompletableFuture<T>();
+		
+		Session session = null;
+		CompletionStage<T> stage = null;
+		try
+		{
+			session = getDriver().session();
+			stage = work.apply(session);
+		}
+		catch(Exception ex)
+		{
+			close(session);
+			cf.completeExceptionally(new NoGraphException(ex));
+			return cf;
+		}
+		
+		final Session fsession = session;
+		stage.whenComplete((val,err) -> {
+			fsession.closeAsync().whenComplete((ignore,cerr) -> {
+				if(cerr != null)
+				{
+					logger.log(Level.WARNING,"Error closing session",cerr);
+				}
+				
+				if(err != null)
+				{
+					Throwable t = unwrap(err);
+					cf.completeExceptionally(t instanceof NoGraphException?t:new NoGraphException(t));
+				}
+				else
+				{
+					cf.complete(val);
+				}
+			});
+		});
+		
+		return cf;
+	}
+	
+	/**
+	 * Run a statement with the driver's async api.
+	 * 
+	 * @param cypher
+	 * @param params may be null
+	 * @param handler consumes the cursor
+	 * @return
+	 */
+	protected <T> CompletableFuture<T> runCypherAsync(String cypher, Map<String,Object> params, Function<StatementResultCursor,CompletionStage<T>> handler)
+	{
+		logger.fine(cypher);
+		
+		return runSessionAsync(session -> {
+			CompletionStage<StatementResultCursor> stage = null;
+			if(params != null && params.size() > 0)
+			{
+				stage = session.runAsync(cypher,params);
+			}
+			else
+			{
+				stage = session.runAsync(cypher);
+			}
+			return stage.thenCompose(handler);
+		});
+	}
+	
+	protected static Throwable unwrap(Throwable t)
+	{
+		if(t instanceof CompletionException && t.getCause() != null) return t.getCause();
+		return t;
+	}
+	
+	/**
+	 * Map nodes as the records arrive, dropping repeats.
+	 * 
+	 * @param cursor
+	 * @return
+	 */
+	protected CompletionStage<List<Node>> collectNodes(StatementResultCursor cursor)
+	{
+		Map<String,String> nids = new HashMap<String,String>();
+		List<Node> nodes = new ArrayList<Node>();
+		
+		return cursor.forEachAsync(r -> {
+			Node n = recToNode(r,0,true);
+			if(nids.put(n.getID(), n.getID()) == null)
+			{
+				nodes.add(n);
+			}
+		}).thenApply(summary -> nodes);
+	}
+	
+	/**
+	 * Map relationships as the records arrive, dropping repeats.
+	 * 
+	 * @param cursor
+	 * @param fetchNodes
+	 * @return
+	 */
+	protected CompletionStage<List<Relationship>> collectRels(StatementResultCursor cursor, boolean fetchNodes)
+	{
+		Map<String,String> rids = new HashMap<String,String>();
+		List<Relationship> rels = new ArrayList<Relationship>();
+		
+		return cursor.forEachAsync(r -> {
+			Relationship rel = recToRel(r,0,1,2,fetchNodes);
+			if(rids.put(rel.getID(), rel.getID()) == null)
+			{
+				rels.add(rel);
+			}
+		}).thenApply(summary -> rels);
+	}
+	
+	@Override
+	public CompletableFuture<Node> getNodeAsync(String id)
+	{
+		Long lid = toNeoID(id);
+		if(lid == null) return CompletableFuture.completedFuture(null);
+		
+		String cypher = "MATCH (n) WHERE id(n)=$id RETURN n";
+		
+		CompletableFuture<Node> cf = runCypherAsync(cypher, idParams(lid), cursor -> cursor.listAsync(r -> recToNode(r,0,true)).thenApply(nodes -> {
+			Node n = null;
+			if(nodes.size() > 0) n = nodes.get(nodes.size()-1);
+			return n;
+		}));
+		
+		// same as getNode, errors are logged and come back as null
+		return cf.exceptionally(ex -> {
+			logger.log(Level.WARNING,"Error getting node",ex);
+			return null;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Relationship> getRelationshipAsync(String id, boolean fetchNodes)
+	{
+		Long lid = toNeoID(id);
+		if(lid == null) return CompletableFuture.completedFuture(null);
+		
+		String cypher = "MATCH (n)-[r]->(m) WHERE id(r)=$id RETURN r,n,m";
+		
+		CompletableFuture<Relationship> cf = runCypherAsync(cypher, idParams(lid), cursor -> cursor.listAsync(r -> recToRel(r,0,1,2,fetchNodes)).thenApply(rels -> {
+			Relationship rel = null;
+			if(rels.size() > 0) rel = rels.get(rels.size()-1);
+			return rel;
+		}));
+		
+		return cf.exceptionally(ex -> {
+			logger.log(Level.WARNING,"Error getting rel",ex);
+			return null;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(String type, String key, Object val, int maxResults)
+	{
+		if(type == null && key == null) return CompletableFuture.completedFuture(null);
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		if(maxResults <= 0) maxResults = 25;
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = buildFindNodesCypher(type,key,val,maxResults,params);
+		
+		return runCypherAsync(cypher, params, this::collectNodes);
+	}
+	
+	@Override
+	public CompletableFuture<List<Relationship>> findRelatedNodesAsync(String id)
+	{
+		Long lid = toNeoID(id);
+		if(lid == null) return CompletableFuture.completedFuture(new ArrayList<Relationship>());
+		
+		CompletableFuture<List<Relationship>> cf = runCypherAsync(RELATED_CYPHER, idParams(lid), cursor -> collectRels(cursor,true));
+		
+		return cf.exceptionally(ex -> {
+			logger.log(Level.WARNING,"Error getting rels",ex);
+			return null;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(String type, String key, Object val, boolean fetchNodes, int maxResults)
+	{
+		if(type == null && key == null) return CompletableFuture.completedFuture(null);
+		
+		if(key != null && val == null)
+		{
+			logger.warning("Unable to search for null values");
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		if(maxResults <= 0) maxResults = 25;
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = buildFindRelsCypher(type,key,val,true,maxResults,params);
+		
+		return runCypherAsync(cypher, params, cursor -> collectRels(cursor,fetchNodes));
+	}
+	
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(GraphQuery query)
+	{
+		query = optimizeQuery(query,false);
+		if(query == null) return CompletableFuture.completedFuture(new ArrayList<Node>());
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = queryToCypher(query,false,params);
+		
+		return runCypherAsync(cypher, params, this::collectNodes);
+	}
+	
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(GraphQuery query)
+	{
+		query = optimizeQuery(query,true);
+		if(query == null) return CompletableFuture.completedFuture(new ArrayList<Relationship>());
+		
+		boolean fetchNodes = query.getFetchNodesForRelationships();
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = queryToCypher(query,true,params);
+		
+		return runCypherAsync(cypher, params, cursor -> collectRels(cursor,fetchNodes));
+	}
+	
+	@Override
+	public CompletableFuture<Long> countNodesAsync(String type)
+	{
+		// fresh counts don't need a round trip, stale ones take two statements so load them on the pool
+		TypeCounts tc = nodeTypeCounts;
+		if(type != null && tc != null && System.currentTimeMillis() - tc.loaded <= statsTtlMillis)
+		{
+			Long l = tc.counts.get(type);
+			return CompletableFuture.completedFuture(l == null?0L:l);
+		}
+		return super.countNodesAsync(type);
+	}
+	
+	@Override
+	public CompletableFuture<Long> countRelationshipsAsync(String type)
+	{
+		TypeCounts tc = relTypeCounts;
+		if(type != null && tc != null && System.currentTimeMillis() - tc.loaded <= statsTtlMillis)
+		{
+			Long l = tc.counts.get(type);
+			return CompletableFuture.completedFuture(l == null?0L:l);
+		}
+		return super.countRelationshipsAsync(type);
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		invalidateStats();
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = buildSaveNodeCypher(n,params);
+		boolean create = n.getID() == null;
+		
+		CompletableFuture<Void> cf = runCypherAsync(cypher, params, cursor -> cursor.forEachAsync(r -> {
+			if(create) n.setLongID(r.get(0).asLong());
+		}).thenApply(summary -> (Void)null));
+		
+		// same as saveNode, errors are logged
+		return cf.exceptionally(ex -> {
+			logger.log(Level.WARNING,"Error saving node",ex);
+			return null;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship rel)
+	{
+		invalidateStats();
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		String cypher = buildSaveRelCypher(rel,params);
+		boolean create = rel.getID() == null;
+		
+		CompletableFuture<Void> cf = runCypherAsync(cypher, params, cursor -> cursor.forEachAsync(r -> {
+			if(create) rel.setLongID(r.get(0).asLong());
+		}).thenApply(summary -> (Void)null));
+		
+		return cf.exceptionally(ex -> {
+			logger.log(Level.WARNING,"Error saving rel",ex);
+			return null;
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		if(nodes == null || nodes.size() == 0) return CompletableFuture.completedFuture(null);
+		
+		List<List<? extends ID>> lists = separateNewVsExisting(nodes, null);
+		List<Node> newl = (List<Node>) lists.get(0);
+		List<Node> existl = (List<Node>) lists.get(1);
+		
+		// the two lists don't overlap so the creates and updates can be in flight together
+		List<IngestChunk> chunks = new ArrayList<IngestChunk>();
+		if(newl != null && newl.size() > 0) chunks.addAll(nodeIngestChunks(newl));
+		if(existl != null && existl.size() > 0) chunks.addAll(nodeUpdateChunks(existl));
+		
+		return runChunksAsync(chunks);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		if(rels == null || rels.size() == 0) return CompletableFuture.completedFuture(null);
+		
+		List<List<? extends ID>> lists = separateNewVsExisting(rels, null);
+		List<Relationship> newl = (List<Relationship>) lists.get(0);
+		List<Relationship> existl = (List<Relationship>) lists.get(1);
+		
+		List<IngestChunk> chunks = new ArrayList<IngestChunk>();
+		if(newl != null && newl.size() > 0) chunks.addAll(relIngestChunks(newl));
+		if(existl != null && existl.size() > 0) chunks.addAll(relUpdateChunks(existl));
+		
+		return runChunksAsync(chunks);
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return deleteByIDAsync(ids, "MATCH (n) WHERE id(n) IN $ids DETACH DELETE n", "Error deleting node");
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return deleteByIDAsync(ids, "MATCH ()-[r]->() WHERE id(r) IN $ids DELETE r", "Error deleting rel");
+	}
+	
+	protected CompletableFuture<Void> deleteByIDAsync(List<String> ids, String cypher, String errMsg)
+	{
+		if(ids == null || ids.size() == 0) return CompletableFuture.completedFuture(null);
+		
+		List<Long> lids = toNeoIDs(ids);
+		if(lids.size() == 0) return CompletableFuture.completedFuture(null);
+		
+		invalidateStats();
+		
+		Map<String,Object> params = new HashMap<String,Object>();
+		params.put("ids", lids);
+		
+		CompletableFuture<Void> cf = runCypherAsync(cypher, params, cursor -> cursor.consumeAsync().thenApply(summary -> (Void)null));
+		
+		// same as the blocking deletes, errors are logged
+		return cf.exceptionally(ex -> {
+			logger.log(Level.WARNING,errMsg,ex);
+			return null;
+		});
+	}
+	
+	/**
+	 * The async version of runChunks.  Keeps up to ingest.threads chunks in flight, starting the next as
+	 * each finishes, so no thread is held while the server works.  The first failure stops new chunks
+	 * from starting and fails the future.
+	 * 
+	 * @param chunks
+	 * @return
+	 */
+	protected CompletableFuture<Void> runChunksAsync(List<IngestChunk> chunks)
+	{
+		int nc = chunks.size();
+		if(nc == 0) return CompletableFuture.completedFuture(null);
+		
+		invalidateStats();
+		
+		AtomicInteger next = new AtomicInteger();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		int lanes = Math.min(ingestThreads, nc);
+		CompletableFuture<?> all[] = new CompletableFuture<?>[lanes];
+		for(int i=0; i<lanes; i++)
+		{
+			all[i] = runLaneAsync(chunks, next, failure);
+		}
+		
+		CompletableFuture<Void> cf = new CompletableFuture<Void>();
+		CompletableFuture.allOf(all).whenComplete((v,err) -> {
+			Throwable t = failure.get();
+			if(t == null) t = err;
+			
+			if(t != null)
+			{
+				t = unwrap(t);
+				cf.completeExceptionally(t instanceof NoGraphException?t:new NoGraphException(t));
+			}
+			else
+			{
+				cf.complete(null);
+			}
+		});
+		return cf;
+	}
+	
+	protected CompletableFuture<Void> runLaneAsync(List<IngestChunk> chunks, AtomicInteger next, AtomicReference<Throwable> failure)
+	{
+		int ind = next.getAndIncrement();
+		if(ind >= chunks.size() || failure.get() != null) return CompletableFuture.completedFuture(null);
+		
+		IngestChunk chunk = chunks.get(ind);
+		return runChunkAsync(chunk).handle((v,err) -> {
+			if(err != null) failure.compareAndSet(null, err);
+			return (Void)null;
+		}).thenCompose(v -> runLaneAsync(chunks, next, failure));
+	}
+	
+	/**
+	 * Runs one chunk asynchronously.  Updates go in a managed write transaction that the driver retries
+	 * itself, commit included.  Creates use an explicit transaction and are only retried when they fail
+	 * before the commit is sent, a failed commit may still have written the rows.  Ids are only set once
+	 * the transaction has committed.
+	 * 
+	 * @param chunk
+	 * @return
+	 */
+	protected CompletableFuture<Void> runChunkAsync(IngestChunk chunk)
+	{
+		Map<String,Object> params = new HashMap<String,Object>();
+		params.put("rows", chunk.rows);
+		TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofMillis(ingestTimeoutMillis)).build();
+		
+		logger.fine(chunk.cypher);
+		
+		if(chunk.isIdempotent())
+		{
+			return runSessionAsync(session -> session.writeTransactionAsync(tx -> tx.runAsync(chunk.cypher, params).thenCompose(cursor -> cursor.listAsync()), config)
+					.thenApply(recs -> (Void)null));
+		}
+		
+		return runCreateAsync(chunk, params, config, 1);
+	}
+	
+	protected CompletableFuture<Void> runCreateAsync(IngestChunk chunk, Map<String,Object> params, TransactionConfig config, int attempt)
+	{
+		AtomicBoolean committing = new AtomicBoolean(false);
+		
+		// closing the session rolls back a transaction that never got to commit
+		CompletableFuture<List<Record>> run = runSessionAsync(session -> session.beginTransactionAsync(config).thenCompose(tx -> 
+				tx.runAsync(chunk.cypher, params).thenCompose(cursor -> cursor.listAsync()).thenCompose(recs -> {
+					committing.set(true);
+					return tx.commitAsync().thenApply(v -> recs);
+				})));
+		
+		CompletableFuture<Void> cf = new CompletableFuture<Void>();
+		run.whenComplete((recs,err) -> {
+			if(err == null)
+			{
+				try
+				{
+					setChunkIDs(chunk, recs);
+					cf.complete(null);
+				}
+				catch(Exception ex)
+				{
+					cf.completeExceptionally(new NoGraphException(ex));
+				}
+				return;
+			}
+			
+			Throwable t = unwrap(err);
+			Throwable cause = t.getCause() == null?t:t.getCause();
+			if(committing.get())
+			{
+				cf.completeExceptionally(new NoGraphException("Chunk of "+chunk.rows.size()+" failed during commit and may have been written",t));
+				return;
+			}
+			if(attempt > ingestRetries || !(cause instanceof Exception) || !isRetryable((Exception)cause))
+			{
+				cf.completeExceptionally(new NoGraphException("Chunk of "+chunk.rows.size()+" failed after "+attempt+" attempts",t));
+				return;
+			}
+			
+			logger.log(Level.FINE,"Retrying chunk",t);
+			GraphExecutors.getScheduler().schedule(() -> {
+				runCreateAsync(chunk, params, config, attempt+1).whenComplete((v,rerr) -> {
+					if(rerr != null) cf.completeExceptionally(unwrap(rerr));
+					else cf.complete(null);
+				});
+			}, Math.min(5000L, 100L << attempt), TimeUnit.MILLISECONDS);
+		});
+		return cf;
+	}
+	
+	/**
+	 * Builds the match for a query with the values as parameters so each query shape is only planned once.
+	 * 
+	 * @param query
+	 * @param rels true to match relationships
+	 * @param params filled with the query parameters
+	 * @return
+	 */
+	protected String queryToCypher(GraphQuery query, boolean rels, Map<String,Object> params)
+	{
+		CypherClause clause = queryTranslator.translate(rels?"r":"n", query.getCriterion(), rels, true);
+		params.putAll(clause.getParams());
+		
+		if(!rels)
+		{
+			indexManager.recordCriterion(clause.getLabel(), query.getCriterion());
+		}
+		
+		StringBuilder sb = new StringBuilder(96);
+		if(rels)
+		{
+			sb.append("MATCH (n)-[r");
+		}
+		else
+		{
+			sb.append("MATCH (n");
+		}
+		
+		if(clause.getLabel() != null)
+		{
+			sb.append(':');
+			CypherQueryTranslator.appendName(sb, clause.getLabel());
+		}
+		
+		if(rels)
+		{
+			sb.append("]->(m)");
+		}
+		else
+		{
+			sb.append(')');
+		}
+		
+		if(clause.getWhere() != null)
+		{
+			sb.append(" WHERE ").append(clause.getWhere());
+		}
+		
+		sb.append(rels?" RETURN r,n,m":" RETURN n");
+		
+		int maxResults = query.getMaxResults();
+		if(maxResults <= 0) maxResults = 25;
+		params.put("limit", maxResults);
+		sb.append(" LIMIT $limit");
+		
+		return sb.toString();
+	}
+    
+	@Override
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException {
+		query = optimizeQuery(query,false);
+		if(query == null) return new ArrayList<Node>();
+		
+		List<Node> nodes = null;
+		Node n = null;
+		Driver driver = getDriver();
+		Session session = null;
+		StatementResult res = null;
+
+		try
+		{
+			Map<String,Object> params = new HashMap<String,Object>();
+			String cypher = queryToCypher(query,false,params);
+			
+			session = driver.session();
+			
+			logger.fine(cypher);
+
+			res = session.run(cypher,params);
+			
+			Map<String,String> nids = new HashMap<String,String>();
+			String nid = null;
+			Record r = null;
+			
+			nodes = new ArrayList<Node>();
+			
+			while(res.hasNext())
+			{
+				r = res.next();
+				n = recToNode(r,0,true);
+				
+				nid = n.getID();
+				if(nids.get(nid)==null)
+				{
+					nodes.add(n);
+					nids.put(nid, nid);
+				}
+			}
+
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.SEVERE,"Error getting nodes",ex);
+			throw new NoGraphException(ex);
+		}
+		finally
+		{
+			close(session);
+		}
+
+		return nodes;
+	}
+
+	@Override
+	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException {
+		query = optimizeQuery(query,true);
+		if(query == null) return new ArrayList<Relationship>();
+		
+		List<Relationship> rels = null;
+		Driver driver = getDriver();
+		Session session = null;
+		StatementResult res = null;
+		boolean fetchNodes = query.getFetchNodesForRelationships();
+
+		try
+		{
+			Map<String,Object> params = new HashMap<String,Object>();
+			String cypher = queryToCypher(query,true,params);
+			
+			session = driver.session();
+			
+			logger.fine(cypher);
+
+			res = session.run(cypher,params);
+			
+			rels = new ArrayList<Relationship>();
+			while(res.hasNext())
+			{
+				rels.add(recToRel(res.next(),0,1,2,fetchNodes));
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.SEVERE,"Error getting rels",ex);
+			throw new NoGraphException(ex);
+		}
+		finally
+		{
 			close(session);
 		}
-
-		return nodes;
+
+		return rels;
+	}
+
+	@Override
+	public List<Relationship> findRelatedNodes(String id) throws NoGraphException 
+	{
+		Driver driver = getDriver();
+		Session session = null;
+		StatementResult res = null;
+		Relationship rel = null;
+		List<Relationship> rels = null;
+		Long lid = toNeoID(id);
+		if(lid == null) return new ArrayList<Relationship>();
+		
+		try
+		{
+			session = driver.session();
+			
+			// anchoring on one node lets the planner seek by id instead of scanning every relationship
+			res = session.run(RELATED_CYPHER,idParams(lid));
+			
+			Map<String,String> rids = new HashMap<String,String>();
+			String rid = null;
+			Record r = null;
+			rels = new ArrayList<Relationship>();
+			while(res.hasNext())
+			{
+				r = res.next();
+				rel = recToRel(r,0,1,2,true);
+				
+				rid = rel.getID();
+				if(rids.get(rid)==null)
+				{
+					rels.add(rel);
+					rids.put(rid, rid);
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error getting rels",ex);
+		}
+		finally
+		{
+			close(session);
+		}
+		
+		return rels;
+	}
+
+	/**
+	 * Search for paths inside the database with one statement instead of a round trip per hop.
+	 * 
+	 * With both ends given this is a shortestPath between each start and end pair.  With only one the pairs
+	 * it reaches are streamed until maxHits are found and then a shortestPath is run for each, so the search
+	 * stops early instead of expanding every path first.  Relationships are followed either
+	 * way like the search in BaseGraphManager.  A relationship type equality goes in the pattern, the rest
+	 * of the relationship criterion has to hold for every relationship on the path.
+	 */
+	@Override
+	public List<Path> findPaths(Criterion startCriterion, Criterion relationshipCriterion, Criterion endCriterion,
+			int maxLength, int maxHits) throws NoGraphException
+	{
+		if(startCriterion == null && endCriterion == null)
+		{
+			throw new NoGraphException("Path query needs a start or end criterion");
+		}
+		
+		List<Path> paths = new ArrayList<Path>();
+		if(maxLength < 1) return paths;
+		if(maxHits <= 0) maxHits = pathRootMax;
+		
+		Criterion crits[] = {startCriterion, relationshipCriterion, endCriterion};
+		GraphQuery q = null;
+		for(int i=0; i<crits.length; i++)
+		{
+			if(crits[i] == null) continue;
+			
+			q = new GraphQuery();
+			q.setCriterion(crits[i]);
+			q = optimizeQuery(q, i == 1);
+			if(q == null) return paths;
+			crits[i] = q.getCriterion();
+		}
+		
+		Driver driver = getDriver();
+		Session session = null;
+		StatementResult res = null;
+		
+		try
+		{
+			Map<String,Object> params = new HashMap<String,Object>();
+			String cypher = buildFindPathsCypher(crits[0], crits[1], crits[2], maxLength, maxHits, params);
+			
+			session = driver.session();
+			
+			logger.fine(cypher);
+			
+			res = session.run(cypher,params);
+			
+			// nodes are shared by every path through them
+			Map<Long,Node> nodes = new HashMap<Long,Node>();
+			while(res.hasNext())
+			{
+				paths.add(toPath(res.next().get(0).asPath(), nodes));
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.SEVERE,"Error finding paths",ex);
+			throw new NoGraphException(ex);
+		}
+		finally
+		{
+			close(session);
+		}
+		
+		return paths;
+	}
+	
+	/**
+	 * 
+	 * @param start may be null for any node
+	 * @param rel may be null for any relationship
+	 * @param end may be null for any node
+	 * @param maxLength
+	 * @param maxHits
+	 * @param params filled with the query parameters
+	 * @return
+	 */
+	protected String buildFindPathsCypher(Criterion start, Criterion rel, Criterion end, int maxLength, int maxHits, Map<String,Object> params)
+	{
+		StringBuilder sb = new StringBuilder(256);
+		
+		if(start != null) appendPathEnd(sb, "a", start, params);
+		if(end != null) appendPathEnd(sb, "b", end, params);
+		
+		CypherClause rc = null;
+		if(rel != null) rc = queryTranslator.translate("r", rel, true, true, params);
+		String relWhere = rc == null?null:rc.getWhere();
+		
+		StringBuilder hop = new StringBuilder(32);
+		hop.append("-[");
+		if(rc != null && rc.getLabel() != null)
+		{
+			hop.append(':');
+			CypherQueryTranslator.appendName(hop, rc.getLabel());
+		}
+		hop.append("*1..").append(maxLength).append("]-");
+		
+		boolean shortest = start != null && end != null;
+		if(shortest)
+		{
+			// shortestPath refuses a path from a node to itself
+			sb.append("WITH a, b WHERE a <> b ");
+		}
+		else
+		{
+			// distinct pairs stream out of the expansion so the limit stops it early
+			sb.append("MATCH q = (a)").append(hop).append("(b) WHERE a <> b");
+			if(relWhere != null)
+			{
+				sb.append(" AND all(r IN relationships(q) WHERE ").append(relWhere).append(')');
+			}
+			sb.append(" WITH DISTINCT a, b LIMIT $limit ");
+		}
+		
+		sb.append("MATCH p = shortestPath((a)").append(hop).append("(b))");
+		if(relWhere != null)
+		{
+			sb.append(" WHERE all(r IN relationships(p) WHERE ").append(relWhere).append(')');
+		}
+		
+		sb.append(" RETURN p");
+		
+		// at most limit pairs are left, sorting them is cheap
+		if(!shortest) sb.append(" ORDER BY length(p)");
+		
+		params.put("limit", maxHits);
+		sb.append(" LIMIT $limit");
+		
+		return sb.toString();
 	}
-
-	@Override
-	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException {
-		// TODO Auto-generated method stub
-		return null;
+	
+	protected void appendPathEnd(StringBuilder sb, String var, Criterion crit, Map<String,Object> params)
+	{
+		CypherClause clause = queryTranslator.translate(var, crit, false, true, params);
+		
+		sb.append("MATCH (").append(var);
+		if(clause.getLabel() != null)
+		{
+			sb.append(':');
+			CypherQueryTranslator.appendName(sb, clause.getLabel());
+			indexManager.recordCriterion(clause.getLabel(), crit);
+		}
+		sb.append(')');
+		
+		if(clause.getWhere() != null)
+		{
+			sb.append(" WHERE ").append(clause.getWhere());
+		}
+		sb.append(' ');
 	}
-
+	
+	/**
+	 * Turn a driver path into ours, relationships in path order with their stored direction.
+	 * 
+	 * @param np
+	 * @param nodes cache of nodes already converted
+	 * @return
+	 */
+	protected Path toPath(org.neo4j.driver.v1.types.Path np, Map<Long,Node> nodes)
+	{
+		for(org.neo4j.driver.v1.types.Node nn : np.nodes())
+		{
+			if(!nodes.containsKey(nn.id()))
+			{
+				nodes.put(nn.id(), toNode(nn, true));
+			}
+		}
+		
+		List<Relationship> rels = new ArrayList<Relationship>(np.length());
+		GenericRelationship rel = null;
+		for(org.neo4j.driver.v1.types.Relationship nr : np.relationships())
+		{
+			rel = new GenericRelationship();
+			rel.setLongID(nr.id());
+			rel.setType(nr.type());
+			rel.setPropertyMap(nr.asMap());
+			rel.setNode1(nodes.get(nr.startNodeId()));
+			rel.setNode2(nodes.get(nr.endNodeId()));
+			rels.add(rel);
+		}
+		
+		return buildPath(rels);
+	}
+	
+	/**
+	 * All the relationships for a batch of nodes in one UNWIND query per batch.
+	 */
 	@Override
-	public List<Relationship> findRelatedNodes(String id) throws NoGraphException 
+	protected Map<String,List<Relationship>> findRelationshipsForNodes(List<String> ids) throws NoGraphException
 	{
+		Map<String,List<Relationship>> out = new HashMap<String,List<Relationship>>();
+		if(ids == null || ids.size() == 0) return out;
+		
+		List<Long> lids = toNeoIDs(ids);
+		
 		Driver driver = getDriver();
 		Session session = null;
 		StatementResult res = null;
-		Relationship rel = null;
-		List<Relationship> rels = null;
+		
 		try
 		{
 			session = driver.session();
-			id = scrubCypher(id);
-			//Map<String,Object> params = new HashMap<String,Object>();
-			//params.put("idval", scrubCypher(id));
-			//TransactionConfig config = TransactionConfig.builder().withTimeout(Duration.ofSeconds(3)).build();
 			
-			//res = session.run("MATCH (n) where id(n)={idval} return n;",params,config);
-			res = session.run("MATCH (n)-[r]-(m) where id(n)="+id+" or id(m) = "+id+" return distinct(r),n,m;");
-			
-			Map<String,String> rids = new HashMap<String,String>();
-			String rid = null;
+			// start and end keep node1 and node2 in the relationship's own direction
+			String cypher = "UNWIND $ids AS nid MATCH (n)-[r]-() WHERE id(n)=nid RETURN r,startNode(r),endNode(r),nid";
+			List<List<Long>> batches = chunk(lids, nodeMapBatchSize);
+			int nb = batches.size();
+			Map<String,Object> params = new HashMap<String,Object>();
 			Record r = null;
-			rels = new ArrayList<Relationship>();
-			while(res.hasNext())
+			String nid = null;
+			List<Relationship> rels = null;
+			for(int i=0; i<nb; i++)
 			{
-				r = res.next();
-				rel = recToRel(r,0,1,2,true);
-				
-				rid = rel.getID();
-				if(rids.get(rid)==null)
+				params.put("ids", batches.get(i));
+				res = session.run(cypher,params);
+				while(res.hasNext())
 				{
-					rels.add(rel);
-					rids.put(rid, rid);
+					r = res.next();
+					nid = String.valueOf(r.get(3).asLong());
+					rels = out.get(nid);
+					if(rels == null)
+					{
+						rels = new ArrayList<Relationship>();
+						out.put(nid, rels);
+					}
+					rels.add(recToRel(r,0,1,2,false));
 				}
 			}
 		}
 		catch(Exception ex)
 		{
 			logger.log(Level.WARNING,"Error getting rels",ex);
+			throw new NoGraphException("Error getting rels",ex);
 		}
 		finally
 		{
 			close(session);
 		}
 		
-		return rels;
+		return out;
 	}
 
-	@Override
-	public long countNodes(String type) throws NoGraphException {
-		if(type == null || type.trim().length() == 0)
+	/**
+	 * Counts per type as of when they were read.
+	 */
+	protected static class TypeCounts
+	{
+		protected final Map<String,Long> counts;
+		protected final long loaded;
+		
+		protected TypeCounts(Map<String,Long> counts, long loaded)
 		{
-			logger.warning("Empty type");
-			return 0;
+			this.counts = counts;
+			this.loaded = loaded;
+		}
+	}
+	
+	/**
+	 * Drop the cached counts after a write through this manager.
+	 */
+	protected void invalidateStats()
+	{
+		nodeTypeCounts = null;
+		relTypeCounts = null;
+	}
+	
+	/**
+	 * The counts per type, reloaded once they are older than the stats ttl.
+	 * 
+	 * @param rels
+	 * @return shared, don't modify
+	 * @throws NoGraphException
+	 */
+	protected Map<String,Long> cachedCounts(boolean rels) throws NoGraphException
+	{
+		TypeCounts tc = rels?relTypeCounts:nodeTypeCounts;
+		long now = System.currentTimeMillis();
+		if(tc == null || now - tc.loaded > statsTtlMillis)
+		{
+			tc = new TypeCounts(loadCounts(rels), now);
+			if(rels)
+			{
+				relTypeCounts = tc;
+			}
+			else
+			{
+				nodeTypeCounts = tc;
+			}
 		}
+		return tc.counts;
+	}
+	
+	/**
+	 * Reads the type names from the token store then counts every type in one UNION ALL statement.  Each
+	 * part names a single label or a directed relationship type so it is answered from the count store.
+	 * 
+	 * @param rels
+	 * @return types with at least one object
+	 * @throws NoGraphException
+	 */
+	protected Map<String,Long> loadCounts(boolean rels) throws NoGraphException
+	{
+		Map<String,Long> counts = new HashMap<String,Long>();
 		
-		long count = 0;
-				
 		Driver driver = getDriver();
 		Session session = null;
 		StatementResult res = null;
 		
 		try
 		{
-			type = scrubCypher(type);
-
 			session = driver.session();
-			res = session.run("MATCH (n:"+type+") return count(n)");
 			
-			Record r = null;
+			if(rels)
+			{
+				res = session.run("CALL db.relationshipTypes() YIELD relationshipType RETURN relationshipType");
+			}
+			else
+			{
+				res = session.run("CALL db.labels() YIELD label RETURN label");
+			}
+			
+			List<String> types = new ArrayList<String>();
+			while(res.hasNext())
+			{
+				types.add(res.next().get(0).asString());
+			}
+			
+			int nt = types.size();
+			if(nt == 0) return counts;
+			
+			StringBuilder sb = new StringBuilder(nt*48);
+			for(int i=0; i<nt; i++)
+			{
+				if(i > 0) sb.append(" UNION ALL ");
+				if(rels)
+				{
+					sb.append("MATCH ()-[r:");
+					CypherQueryTranslator.appendName(sb, types.get(i));
+					sb.append("]->() RETURN ").append(i).append(" AS ind, count(r) AS c");
+				}
+				else
+				{
+					sb.append("MATCH (n:");
+					CypherQueryTranslator.appendName(sb, types.get(i));
+					sb.append(") RETURN ").append(i).append(" AS ind, count(n) AS c");
+				}
+			}
 			
-			if(res.hasNext())
+			res = session.run(sb.toString());
+			
+			Record r = null;
+			long count = 0;
+			while(res.hasNext())
 			{
 				r = res.next();
-				count = r.get(0).asNumber().longValue();
+				count = r.get(1).asNumber().longValue();
+				
+				// the token store keeps names no object uses anymore
+				if(count > 0)
+				{
+					counts.put(types.get(r.get(0).asInt()), count);
+				}
 			}
 		}
 		catch(Exception ex)
 		{
-			logger.log(Level.WARNING,"Error getting node type count",ex);
+			throw new NoGraphException("Error getting counts",ex);
 		}
 		finally
 		{
 			close(session);
 		}
+		
+		return counts;
+	}
+	
+	@Override
+	public long countNodes(String type) throws NoGraphException {
+		if(type == null || type.trim().length() == 0)
+		{
+			logger.warning("Empty type");
+			return 0;
+		}
+		
+		long count = 0;
+		
+		try
+		{
+			Long l = cachedCounts(false).get(type);
+			if(l != null) count = l;
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error getting node type count",ex);
+		}
 
 		return count;
 	}
@@ -1221,34 +2585,16 @@ public class Neo4jGraphManager extends BaseGraphManager
 		}
 		
 		long count = 0;
-				
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
 		
 		try
 		{
-			type = scrubCypher(type);
-
-			session = driver.session();
-			res = session.run("MATCH ()-[r:"+type+"]-() return count(r)");
-			
-			Record r = null;
-			
-			if(res.hasNext())
-			{
-				r = res.next();
-				count = r.get(0).asNumber().longValue();
-			}
+			Long l = cachedCounts(true).get(type);
+			if(l != null) count = l;
 		}
 		catch(Exception ex)
 		{
 			logger.log(Level.WARNING,"Error getting rel type count",ex);
 		}
-		finally
-		{
-			close(session);
-		}
 
 		return count;
 	}
@@ -1256,65 +2602,34 @@ public class Neo4jGraphManager extends BaseGraphManager
 	@Override
 	public List<String> getNodeTypes() throws NoGraphException 
 	{
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
 		List<String> types = null;
 		
 		try
 		{
-			session = driver.session();
-			res = session.run("MATCH (n) WITH DISTINCT labels(n) AS labels UNWIND labels AS label RETURN DISTINCT label ORDER BY label");
-			
-			Record r = null;
-			types = new ArrayList<String>();
-			while(res.hasNext())
-			{
-				r = res.next();
-				types.add(r.get(0).asString());
-			}
+			types = new ArrayList<String>(cachedCounts(false).keySet());
+			Collections.sort(types);
 		}
 		catch(Exception ex)
 		{
 			logger.log(Level.WARNING,"Error getting node types",ex);
 		}
-		finally
-		{
-			close(session);
-		}
 		return types;
 	}
 
 	
 	@Override
 	public List<String> getRelationshipTypes() throws NoGraphException {
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
 		List<String> types = null;
 		
 		try
 		{
-			
-			session = driver.session();
-			res = session.run("MATCH ()-[r]-() return distinct type(r)");
-			
-			Record r = null;
-			types = new ArrayList<String>();
-			while(res.hasNext())
-			{
-				r = res.next();
-				types.add(r.get(0).asString());
-			}
+			types = new ArrayList<String>(cachedCounts(true).keySet());
+			Collections.sort(types);
 		}
 		catch(Exception ex)
 		{
 			logger.log(Level.WARNING,"Error getting rel types",ex);
 		}
-		finally
-		{
-			close(session);
-		}
 		return types;	
 	}
 
@@ -1322,49 +2637,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 	public Map<String, Long> getNodeCountsByType() throws NoGraphException {
 		Map<String,Long> counts = new HashMap<String,Long>();
 		
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
-		
 		try
 		{
-			session = driver.session();
-			
-			res = session.run("MATCH (n) WITH DISTINCT labels(n) AS labels UNWIND labels AS label RETURN DISTINCT label ORDER BY label");
-			
-			Record r = null;
-			List<String> types = new ArrayList<String>();
-			while(res.hasNext())
-			{
-				r = res.next();
-				types.add(r.get(0).asString());
-			}
-			
-			int nt = types.size();
-			String type = null;
-			long count = 0;
-			
-			for(int i=0; i<nt; i++)
-			{
-				type = types.get(i);
-				res = session.run("MATCH (n:"+type+") return count(n)");
-							
-				if(res.hasNext())
-				{
-					r = res.next();
-					count = r.get(0).asNumber().longValue();
-					counts.put(type, count);
-				}
-			}
+			counts.putAll(cachedCounts(false));
 		}
 		catch(Exception ex)
 		{
 			logger.log(Level.WARNING,"Error getting node type count",ex);
 		}
-		finally
-		{
-			close(session);
-		}	
 		
 		return counts;
 	}
@@ -1374,34 +2654,14 @@ public class Neo4jGraphManager extends BaseGraphManager
 	{
 		Map<String,Long> counts = new HashMap<String,Long>();
 		
-		Driver driver = getDriver();
-		Session session = null;
-		StatementResult res = null;
-		
 		try
 		{
-			session = driver.session();
-			res = session.run("MATCH ()-[r]-() return distinct type(r), count(r)");
-			
-			Record r = null;
-			String type = null;
-			long count = 0;
-			while(res.hasNext())
-			{
-				r = res.next();
-				type = r.get(0).asString();
-				count = r.get(1).asNumber().longValue();
-				counts.put(type, count);
-			}
+			counts.putAll(cachedCounts(true));
 		}
 		catch(Exception ex)
 		{
 			logger.log(Level.WARNING,"Error getting rel counts",ex);
 		}
-		finally
-		{
-			close(session);
-		}
 		
 		return counts;
 	}
@@ -0,0 +1,556 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.query.CypherQueryTranslator;
+
+/**
+ * Creates the schema indexes and uniqueness constraints the Neo4j manager's lookups need.
+ *
+ * Lookups by label and key are counted and once a key has been asked for often enough an index is created
+ * in the background.  Only keys the GraphMeta store has seen on the type are indexed, unless there's no meta
+ * for the type at all, and a key turned down is remembered rather than checked again.  Constraints listed in
+ * neo4j.index.unique, as Label.key pairs, are created on first use of the driver, as is an index for every
+ * property in the GraphMeta store when neo4j.index.meta is set.  Creating anything that already exists is a
+ * no-op.
+ *
+ * A lookup is matched with an equality an index can seek on only once the key is known to be scalar on the
+ * label, from neo4j.scalar.keys or from a background check run when the key's index is created or first
+ * used.  Everything else, and anything written with a list value on the label, keeps the IN predicate.
+ *
+ * @author aholinch
+ *
+ */
+public class Neo4jIndexManager
+{
+	private static final Logger logger = Logger.getLogger(Neo4jIndexManager.class.getName());
+
+	public static final String PROP_INDEX_AUTO = "neo4j.index.auto";
+	public static final String PROP_INDEX_HITS = "neo4j.index.hits";
+	public static final String PROP_INDEX_META = "neo4j.index.meta";
+	public static final String PROP_INDEX_UNIQUE = "neo4j.index.unique";
+	public static final String PROP_MULTI_KEYS = "neo4j.multi.keys";
+	public static final String PROP_SCALAR_KEYS = "neo4j.scalar.keys";
+
+	protected Neo4jGraphManager gm = null;
+
+	protected boolean auto = true;
+	protected int hitThreshold = 100;
+	protected boolean indexMeta = false;
+
+	/**
+	 * label\0key for every index or constraint known to exist.
+	 */
+	protected Set<String> indexed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Indexes that have been handed to the background pool but aren't done yet.
+	 */
+	protected Set<String> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * label\0key pairs GraphMeta doesn't know, never indexed.
+	 */
+	protected Set<String> rejected = ConcurrentHashMap.newKeySet();
+
+	protected Map<String,AtomicInteger> hits = new ConcurrentHashMap<String,AtomicInteger>();
+
+	/**
+	 * label\0key pairs seen holding lists, and keys configured as lists on every label.
+	 */
+	protected Set<String> multiKeys = ConcurrentHashMap.newKeySet();
+	protected Set<String> multiNames = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * label\0key pairs known to hold only single values.
+	 */
+	protected Set<String> scalarKeys = ConcurrentHashMap.newKeySet();
+	protected Set<String> checking = ConcurrentHashMap.newKeySet();
+
+	protected volatile boolean started = false;
+	private final Object startSync = new Object();
+
+	public Neo4jIndexManager(Neo4jGraphManager gm)
+	{
+		this.gm = gm;
+
+		auto = ConfigUtil.getBooleanProperty(PROP_INDEX_AUTO,true);
+		hitThreshold = Math.max(1,ConfigUtil.getIntProperty(PROP_INDEX_HITS,100));
+		indexMeta = ConfigUtil.getBooleanProperty(PROP_INDEX_META,false);
+
+		String keys = ConfigUtil.getProperty(PROP_MULTI_KEYS);
+		if(keys != null)
+		{
+			String sa[] = keys.split(",");
+			for(int i=0; i<sa.length; i++)
+			{
+				if(sa[i].trim().length() > 0) multiNames.add(sa[i].trim());
+			}
+		}
+
+		keys = ConfigUtil.getProperty(PROP_SCALAR_KEYS);
+		if(keys != null)
+		{
+			String sa[] = keys.split(",");
+			String s = null;
+			int ind = 0;
+			for(int i=0; i<sa.length; i++)
+			{
+				s = sa[i].trim();
+				ind = s.indexOf('.');
+				if(ind < 1 || ind == s.length()-1)
+				{
+					if(s.length() > 0) logger.warning("Expected Label.key for scalar key, got " + s);
+					continue;
+				}
+				scalarKeys.add(indexKey(s.substring(0,ind), s.substring(ind+1)));
+			}
+		}
+	}
+
+	protected static String indexKey(String label, String key)
+	{
+		return label + '\u0000' + key;
+	}
+
+	/**
+	 * Load what the database already has and create the configured schema, once, in the background.
+	 */
+	public void start()
+	{
+		if(started) return;
+
+		synchronized(startSync)
+		{
+			if(started) return;
+			started = true;
+		}
+
+		GraphExecutors.getAsyncExecutor().execute(() -> {
+			try
+			{
+				ensureSchema();
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.WARNING,"Error creating neo4j schema",ex);
+			}
+		});
+	}
+
+	/**
+	 * Load the existing indexes and create the configured constraints and meta indexes.
+	 *
+	 * @throws Exception
+	 */
+	public void ensureSchema() throws Exception
+	{
+		loadExisting();
+
+		String unique = ConfigUtil.getProperty(PROP_INDEX_UNIQUE);
+		if(unique != null)
+		{
+			String sa[] = unique.split(",");
+			String s = null;
+			int ind = 0;
+			for(int i=0; i<sa.length; i++)
+			{
+				s = sa[i].trim();
+				ind = s.indexOf('.');
+				if(ind < 1 || ind == s.length()-1)
+				{
+					logger.warning("Expected Label.key for unique constraint, got " + s);
+					continue;
+				}
+				ensureUnique(s.substring(0,ind), s.substring(ind+1));
+			}
+		}
+
+		if(indexMeta)
+		{
+			// labels come from the cached counts, properties from the meta store, nothing is scanned
+			List<String> types = gm.getNodeTypes();
+			if(types == null) return;
+
+			List<String> props = null;
+			int nt = types.size();
+			for(int i=0; i<nt; i++)
+			{
+				props = metaProperties(types.get(i));
+				if(props == null) continue;
+
+				int np = props.size();
+				for(int j=0; j<np; j++)
+				{
+					ensureIndex(types.get(i), props.get(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * What the GraphMeta store has seen on a node type.
+	 */
+	protected List<String> metaProperties(String label)
+	{
+		GraphMetaStore store = gm.metaStore;
+		if(store == null) return null;
+		return store.getPropertiesForNodeType(label);
+	}
+
+	/**
+	 * Remember the single property indexes and constraints the database already has.
+	 */
+	protected void loadExisting()
+	{
+		Driver driver = gm.getDriver();
+		Session session = null;
+
+		try
+		{
+			session = driver.session();
+			StatementResult res = session.run("CALL db.indexes() YIELD tokenNames, properties RETURN tokenNames, properties");
+
+			Record r = null;
+			List<Object> labels = null;
+			List<Object> props = null;
+			while(res.hasNext())
+			{
+				r = res.next();
+				labels = r.get(0).asList();
+				props = r.get(1).asList();
+
+				// composite indexes can't serve a single key lookup
+				if(labels.size() == 1 && props.size() == 1)
+				{
+					indexed.add(indexKey(String.valueOf(labels.get(0)), String.valueOf(props.get(0))));
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.FINE,"Unable to list existing indexes",ex);
+		}
+		finally
+		{
+			gm.close(session);
+		}
+	}
+
+	/**
+	 * Count a lookup of key on label, creating the index in the background once it's hot.  Only counting
+	 * happens on the caller's thread.
+	 *
+	 * @param label
+	 * @param key
+	 */
+	public void recordLookup(String label, String key)
+	{
+		if(label == null || key == null) return;
+
+		String ik = indexKey(label, key);
+		if(indexed.contains(ik))
+		{
+			// an index made before this process started, find out if it can be used with equality
+			if(!scalarKeys.contains(ik) && !multiKeys.contains(ik)) checkScalarLater(label, key);
+			return;
+		}
+
+		if(!auto || pending.contains(ik) || rejected.contains(ik)) return;
+
+		AtomicInteger ai = hits.computeIfAbsent(ik, k -> new AtomicInteger());
+		if(ai.incrementAndGet() < hitThreshold) return;
+
+		if(!pending.add(ik)) return;
+
+		GraphExecutors.getAsyncExecutor().execute(() -> {
+			try
+			{
+				List<String> props = metaProperties(label);
+				if(props != null && props.size() > 0 && !props.contains(key))
+				{
+					// not a key this type has, an index would stay empty
+					rejected.add(ik);
+					return;
+				}
+
+				ensureIndex(label, key);
+				checkScalar(label, key);
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.WARNING,"Error creating index on " + label + "." + key,ex);
+			}
+			finally
+			{
+				// a failed attempt starts counting again rather than retrying on every lookup
+				hits.remove(ik);
+				pending.remove(ik);
+			}
+		});
+	}
+
+	protected void checkScalarLater(String label, String key)
+	{
+		String ik = indexKey(label, key);
+		if(!checking.add(ik)) return;
+
+		GraphExecutors.getAsyncExecutor().execute(() -> {
+			try
+			{
+				checkScalar(label, key);
+			}
+			catch(Exception ex)
+			{
+				// left unknown so lookups keep using IN
+				logger.log(Level.WARNING,"Error checking " + label + "." + key + " for list values",ex);
+			}
+		});
+	}
+
+	/**
+	 * Look for a list value of key on label.  Adding an empty list to a list gives the same list, to
+	 * anything else a one element list, so the scan stops at the first list it finds.
+	 *
+	 * @param label
+	 * @param key
+	 * @throws Exception
+	 */
+	public void checkScalar(String label, String key) throws Exception
+	{
+		String ik = indexKey(label, key);
+		if(scalarKeys.contains(ik) || multiKeys.contains(ik) || multiNames.contains(key)) return;
+
+		StringBuilder sb = new StringBuilder(96);
+		sb.append("MATCH (n:");
+		CypherQueryTranslator.appendName(sb, label);
+		sb.append(") WHERE [] + ");
+		CypherQueryTranslator.appendProperty(sb, "n", key);
+		sb.append(" = ");
+		CypherQueryTranslator.appendProperty(sb, "n", key);
+		sb.append(" RETURN 1 LIMIT 1");
+
+		String cypher = sb.toString();
+		logger.fine(cypher);
+
+		Driver driver = gm.getDriver();
+		Session session = null;
+
+		try
+		{
+			session = driver.session();
+			boolean lists = session.run(cypher).hasNext();
+
+			// a list written while the check ran wins
+			if(lists || multiKeys.contains(ik))
+			{
+				multiKeys.add(ik);
+			}
+			else
+			{
+				scalarKeys.add(ik);
+			}
+		}
+		finally
+		{
+			gm.close(session);
+		}
+	}
+
+	/**
+	 * Count the keys of a query on label that an index could serve.  Negations and likes can't use one.
+	 *
+	 * @param label
+	 * @param crit
+	 */
+	public void recordCriterion(String label, Criterion crit)
+	{
+		if(!auto || label == null || crit == null) return;
+
+		if(crit instanceof SimpleCriterion)
+		{
+			SimpleCriterion sc = (SimpleCriterion)crit;
+			int op = sc.getOperator();
+			if(op == SimpleCriterion.OP_NOT_EQUAL || op == SimpleCriterion.OP_LIKE) return;
+			if(isPropertyKey(sc.getKey())) recordLookup(label, sc.getKey());
+		}
+		else if(crit instanceof RangeCriterion)
+		{
+			RangeCriterion rc = (RangeCriterion)crit;
+			if(isPropertyKey(rc.getKey())) recordLookup(label, rc.getKey());
+		}
+		else if(crit instanceof SetCriterion)
+		{
+			SetCriterion set = (SetCriterion)crit;
+			int nc = set.getNumCriteria();
+			for(int i=0; i<nc; i++)
+			{
+				recordCriterion(label, set.getCriterion(i));
+			}
+		}
+	}
+
+	protected boolean isPropertyKey(String key)
+	{
+		return key != null && !GenericNode.ID_KEY.equals(key) && !GenericNode.TYPE_KEY.equals(key);
+	}
+
+	/**
+	 * Create an index on label.key if there isn't one.
+	 *
+	 * @param label
+	 * @param key
+	 * @throws Exception
+	 */
+	public void ensureIndex(String label, String key) throws Exception
+	{
+		String ik = indexKey(label, key);
+		if(indexed.contains(ik)) return;
+
+		StringBuilder sb = new StringBuilder(64);
+		sb.append("CREATE INDEX ON :");
+		CypherQueryTranslator.appendName(sb, label);
+		sb.append('(');
+		CypherQueryTranslator.appendName(sb, key);
+		sb.append(')');
+
+		runSchema(sb.toString());
+		indexed.add(ik);
+		logger.info("Created index on " + label + "." + key);
+	}
+
+	/**
+	 * Create a uniqueness constraint on label.key if there isn't one.  The constraint brings its own index.
+	 *
+	 * @param label
+	 * @param key
+	 * @throws Exception
+	 */
+	public void ensureUnique(String label, String key) throws Exception
+	{
+		StringBuilder sb = new StringBuilder(80);
+		sb.append("CREATE CONSTRAINT ON (n:");
+		CypherQueryTranslator.appendName(sb, label);
+		sb.append(") ASSERT ");
+		CypherQueryTranslator.appendProperty(sb, "n", key);
+		sb.append(" IS UNIQUE");
+
+		try
+		{
+			runSchema(sb.toString());
+			indexed.add(indexKey(label, key));
+		}
+		catch(ClientException ex)
+		{
+			// most likely a plain index already on the key or duplicate values
+			logger.log(Level.WARNING,"Unable to create unique constraint on " + label + "." + key,ex);
+		}
+	}
+
+	/**
+	 * Schema statements can't share a transaction with data so each runs on its own.
+	 */
+	protected void runSchema(String cypher) throws Exception
+	{
+		logger.fine(cypher);
+
+		Driver driver = gm.getDriver();
+		Session session = null;
+
+		try
+		{
+			session = driver.session();
+			session.run(cypher).consume();
+		}
+		catch(ClientException ex)
+		{
+			String code = ex.code();
+			if(code == null || !code.contains("AlreadyExists")) throw ex;
+		}
+		finally
+		{
+			gm.close(session);
+		}
+	}
+
+	/**
+	 * Note the keys written with list values on a label.
+	 *
+	 * @param label
+	 * @param props
+	 */
+	public void noteValues(String label, Map<String,Object> props)
+	{
+		if(props == null || label == null) return;
+
+		for(Map.Entry<String,Object> e : props.entrySet())
+		{
+			if(isMultiValue(e.getValue()))
+			{
+				String ik = indexKey(label, e.getKey());
+				multiKeys.add(ik);
+				scalarKeys.remove(ik);
+			}
+		}
+	}
+
+	protected static boolean isMultiValue(Object val)
+	{
+		return val instanceof Collection || (val != null && val.getClass().isArray() && !(val instanceof byte[]));
+	}
+
+	/**
+	 * True if key = val can be used instead of val IN key, which lets an index seek.  Only for keys known
+	 * to be scalar on the label.
+	 *
+	 * @param label
+	 * @param key
+	 * @param val
+	 * @return
+	 */
+	public boolean useEquality(String label, String key, Object val)
+	{
+		if(label == null || isMultiValue(val) || multiNames.contains(key)) return false;
+
+		String ik = indexKey(label, key);
+		return scalarKeys.contains(ik) && !multiKeys.contains(ik);
+	}
+
+	public boolean isIndexed(String label, String key)
+	{
+		return indexed.contains(indexKey(label, key));
+	}
+}
@@ -0,0 +1,372 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Path;
+import org.nograph.Relationship;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.impl.memory.IntList;
+import org.nograph.impl.query.CriterionMatcher;
+
+/**
+ * Breadth first path search that only needs a bulk neighbor lookup from the backend.
+ * 
+ * Both sides expand a whole level at a time with one findRelationshipsForNodes call per batch of
+ * frontier nodes, always growing the smaller frontier, until they meet.  Every node keeps the first
+ * root that reached it so when several starts share a neighborhood only the nearest one is reported
+ * through it.  Relationships are followed either way and one path is kept per start and end pair.
+ * 
+ * @author aholinch
+ *
+ */
+public class PathSearch 
+{
+	protected BaseGraphManager gm = null;
+	protected CriterionMatcher relMatcher = null;
+	protected int maxLength = 0;
+	protected int maxHits = 0;
+	protected int batchSize = 1000;
+	
+	// node ids are interned so the per side state can live in arrays
+	protected Map<String,Integer> nodeInds = new HashMap<String,Integer>();
+	protected List<String> nodeIDs = new ArrayList<String>();
+	
+	protected Map<String,Integer> relInds = new HashMap<String,Integer>();
+	protected List<Relationship> rels = new ArrayList<Relationship>();
+	protected IntList relNode1 = new IntList();
+	protected IntList relNode2 = new IntList();
+	
+	protected Side fwd = new Side();
+	protected Side bwd = new Side();
+	protected boolean bidirectional = false;
+	
+	protected Set<Long> pairs = new HashSet<Long>();
+	protected List<List<Relationship>> hits = new ArrayList<List<Relationship>>();
+	
+	/**
+	 * Visited set, parents and frontier for one direction.
+	 */
+	protected static class Side
+	{
+		protected BitSet visited = new BitSet();
+		protected int root[] = new int[64];
+		protected int parentRel[] = new int[64];
+		protected IntList frontier = new IntList();
+		protected int level = 0;
+		
+		protected void ensure(int size)
+		{
+			if(size > root.length)
+			{
+				int len = Math.max(size, root.length*2);
+				root = Arrays.copyOf(root, len);
+				parentRel = Arrays.copyOf(parentRel, len);
+			}
+		}
+	}
+	
+	public PathSearch(BaseGraphManager gm, Criterion relationshipCriterion, int maxLength, int maxHits, int batchSize)
+	{
+		this.gm = gm;
+		this.relMatcher = new CriterionMatcher(relationshipCriterion);
+		this.maxLength = maxLength;
+		this.maxHits = maxHits;
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	protected int internNode(String id)
+	{
+		Integer ind = nodeInds.get(id);
+		if(ind != null) return ind;
+		
+		int i = nodeIDs.size();
+		nodeIDs.add(id);
+		nodeInds.put(id, i);
+		fwd.ensure(i+1);
+		bwd.ensure(i+1);
+		return i;
+	}
+	
+	protected int internRel(Relationship r, int n1, int n2)
+	{
+		String id = r.getID();
+		if(id != null)
+		{
+			Integer ind = relInds.get(id);
+			if(ind != null) return ind;
+		}
+		
+		int i = rels.size();
+		rels.add(r);
+		relNode1.add(n1);
+		relNode2.add(n2);
+		if(id != null) relInds.put(id, i);
+		return i;
+	}
+	
+	protected void seed(Side side, List<Node> roots)
+	{
+		if(roots == null) return;
+		
+		int size = roots.size();
+		String id = null;
+		int ind = 0;
+		for(int i=0; i<size; i++)
+		{
+			id = roots.get(i).getID();
+			if(id == null) continue;
+			
+			ind = internNode(id);
+			if(side.visited.get(ind)) continue;
+			
+			side.visited.set(ind);
+			side.root[ind] = ind;
+			side.parentRel[ind] = -1;
+			side.frontier.add(ind);
+		}
+	}
+	
+	/**
+	 * Search out from the starts, every node reached is an end.
+	 * 
+	 * @param starts
+	 */
+	public void seedStarts(List<Node> starts)
+	{
+		seed(fwd, starts);
+	}
+	
+	/**
+	 * Search from both sides, paths only count where they meet.
+	 * 
+	 * @param ends
+	 */
+	public void seedEnds(List<Node> ends)
+	{
+		bidirectional = true;
+		seed(bwd, ends);
+	}
+	
+	public void run() throws NoGraphException
+	{
+		Side side = null;
+		int nf = 0;
+		int nb = 0;
+		while(hits.size() < maxHits && fwd.level + bwd.level < maxLength)
+		{
+			nf = fwd.frontier.size();
+			nb = bwd.frontier.size();
+			
+			if(!bidirectional)
+			{
+				if(nf == 0) break;
+				side = fwd;
+			}
+			else if(nf == 0 && nb == 0)
+			{
+				break;
+			}
+			else if(nf == 0 || (nb > 0 && nb < nf))
+			{
+				side = bwd;
+			}
+			else
+			{
+				side = fwd;
+			}
+			
+			expand(side, side == fwd?bwd:fwd);
+		}
+	}
+	
+	protected boolean relMatches(Relationship r)
+	{
+		return relMatcher.matches(key -> {
+			if(GenericNode.TYPE_KEY.equals(key)) return r.getType();
+			if(GenericNode.ID_KEY.equals(key)) return r.getID();
+			return r.getProperty(key);
+		});
+	}
+	
+	protected void expand(Side side, Side other) throws NoGraphException
+	{
+		IntList frontier = side.frontier;
+		side.frontier = new IntList();
+		side.level++;
+		
+		int size = frontier.size();
+		List<String> ids = new ArrayList<String>(size);
+		for(int i=0; i<size; i++)
+		{
+			ids.add(nodeIDs.get(frontier.get(i)));
+		}
+		
+		List<List<String>> batches = BaseGraphManager.chunk(ids, batchSize);
+		int nb = batches.size();
+		List<String> batch = null;
+		Map<String,List<Relationship>> adj = null;
+		List<Relationship> list = null;
+		Relationship r = null;
+		String id = null;
+		String nid = null;
+		int cur = 0;
+		int next = 0;
+		int ri = 0;
+		for(int b=0; b<nb; b++)
+		{
+			batch = batches.get(b);
+			adj = gm.findRelationshipsForNodes(batch);
+			if(adj == null) continue;
+			
+			int nids = batch.size();
+			for(int i=0; i<nids; i++)
+			{
+				id = batch.get(i);
+				list = adj.get(id);
+				if(list == null) continue;
+				
+				cur = nodeInds.get(id);
+				int nr = list.size();
+				for(int j=0; j<nr; j++)
+				{
+					r = list.get(j);
+					if(id.equals(r.getNode1ID()))
+					{
+						nid = r.getNode2ID();
+					}
+					else if(id.equals(r.getNode2ID()))
+					{
+						nid = r.getNode1ID();
+					}
+					else
+					{
+						continue;
+					}
+					if(nid == null || nid.equals(id)) continue;
+					
+					next = internNode(nid);
+					if(side.visited.get(next)) continue;
+					if(!relMatches(r)) continue;
+					
+					ri = internRel(r, nodeInds.get(r.getNode1ID()), nodeInds.get(r.getNode2ID()));
+					side.visited.set(next);
+					side.root[next] = side.root[cur];
+					side.parentRel[next] = ri;
+					side.frontier.add(next);
+					
+					if(!bidirectional)
+					{
+						addHit(next, -1);
+					}
+					else if(other.visited.get(next))
+					{
+						addHit(next, next);
+					}
+					
+					if(hits.size() >= maxHits) return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Walk the parents back to the root.
+	 */
+	protected List<Relationship> trace(Side side, int node)
+	{
+		List<Relationship> out = new ArrayList<Relationship>();
+		int cur = node;
+		int ri = 0;
+		while(side.parentRel[cur] >= 0)
+		{
+			ri = side.parentRel[cur];
+			out.add(rels.get(ri));
+			cur = relNode1.get(ri) == cur?relNode2.get(ri):relNode1.get(ri);
+		}
+		return out;
+	}
+	
+	/**
+	 * Record the path through a node reached from the start side, and from the end side when meet is not -1.
+	 */
+	protected void addHit(int node, int meet)
+	{
+		int start = fwd.root[node];
+		int end = meet < 0?node:bwd.root[meet];
+		if(start == end) return;
+		
+		long key = (((long)start)<<32) | (end & 0xffffffffL);
+		if(!pairs.add(key)) return;
+		
+		List<Relationship> path = trace(fwd, node);
+		Collections.reverse(path);
+		if(meet >= 0)
+		{
+			path.addAll(trace(bwd, meet));
+		}
+		hits.add(path);
+	}
+	
+	/**
+	 * Paths found so far with their endpoint nodes filled in.
+	 * 
+	 * @param reverse true to flip each path end to start
+	 * @return
+	 * @throws NoGraphException
+	 */
+	public List<Path> getPaths(boolean reverse) throws NoGraphException
+	{
+		// fill in endpoints once for every relationship used
+		Set<Relationship> seen = Collections.newSetFromMap(new IdentityHashMap<Relationship,Boolean>());
+		List<Relationship> toFill = new ArrayList<Relationship>();
+		int nh = hits.size();
+		List<Relationship> path = null;
+		for(int i=0; i<nh; i++)
+		{
+			path = hits.get(i);
+			int np = path.size();
+			for(int j=0; j<np; j++)
+			{
+				if(seen.add(path.get(j))) toFill.add(path.get(j));
+			}
+		}
+		gm.populateNodesForRels(toFill);
+		
+		List<Path> paths = new ArrayList<Path>(nh);
+		for(int i=0; i<nh; i++)
+		{
+			path = hits.get(i);
+			if(reverse) Collections.reverse(path);
+			paths.add(gm.buildPath(path));
+		}
+		return paths;
+	}
+}
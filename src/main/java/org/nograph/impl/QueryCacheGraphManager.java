@@ -0,0 +1,632 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nograph.GraphManager;
+import org.nograph.GraphQuery;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.cache.CacheStats;
+import org.nograph.impl.cache.LruCache;
+import org.nograph.impl.query.CriterionKey;
+
+/**
+ * Caches the results of find queries in front of any manager.
+ * 
+ * GraphQuery results are keyed on the canonical form of the criterion, so reordered ANDs and ORs share an
+ * entry.  Each entry remembers the write counters of the types it can return, taken before the query ran,
+ * and is dropped on read once a write through this manager has touched one of those types.  Queries that
+ * don't pin a type depend on every write of their kind, and relationship queries that fetch nodes also
+ * depend on node writes.  Deletes by id don't know the type so they count against every type.  The cache
+ * is bounded by an estimate of the result size in bytes.
+ * 
+ * Cached objects are shared between callers so treat them as read-only.
+ * 
+ * @author aholinch
+ *
+ */
+public class QueryCacheGraphManager extends DelegatingGraphManager 
+{
+	public static final String PROP_MAX_BYTES = "querycache.max.bytes";
+	public static final String PROP_TTL_MS = "querycache.ttl.ms";
+	
+	protected LruCache<String,CachedResult> cache = null;
+	
+	protected Versions nodeVersions = new Versions();
+	protected Versions relVersions = new Versions();
+	
+	/**
+	 * Write counters for one kind of object.
+	 */
+	protected static class Versions
+	{
+		// bumped on every write
+		protected AtomicLong all = new AtomicLong();
+		
+		// bumped by writes whose types aren't known
+		protected AtomicLong unknown = new AtomicLong();
+		
+		protected ConcurrentHashMap<String,AtomicLong> byType = new ConcurrentHashMap<String,AtomicLong>();
+		
+		protected AtomicLong type(String type)
+		{
+			return byType.computeIfAbsent(type == null?"":type, k -> new AtomicLong());
+		}
+		
+		protected void bump(Set<String> types)
+		{
+			if(types == null)
+			{
+				unknown.incrementAndGet();
+			}
+			else
+			{
+				for(String t : types)
+				{
+					type(t).incrementAndGet();
+				}
+			}
+			all.incrementAndGet();
+		}
+		
+		/**
+		 * Counters a query over these types depends on.
+		 */
+		protected void addDeps(Set<String> types, List<AtomicLong> deps)
+		{
+			if(types == null)
+			{
+				deps.add(all);
+				return;
+			}
+			
+			deps.add(unknown);
+			for(String t : types)
+			{
+				deps.add(type(t));
+			}
+		}
+	}
+	
+	/**
+	 * Results with the counters they were read under.
+	 */
+	protected static class CachedResult
+	{
+		protected List<?> results = null;
+		protected AtomicLong deps[] = null;
+		protected long stamps[] = null;
+		protected int bytes = 0;
+		
+		protected boolean isCurrent()
+		{
+			for(int i=0; i<deps.length; i++)
+			{
+				if(deps[i].get() != stamps[i]) return false;
+			}
+			return true;
+		}
+	}
+	
+	public QueryCacheGraphManager(GraphManager delegate)
+	{
+		this(delegate, ConfigUtil.getLongProperty(PROP_MAX_BYTES, 64L*1024*1024), ConfigUtil.getLongProperty(PROP_TTL_MS, 60000));
+	}
+	
+	public QueryCacheGraphManager(GraphManager delegate, long maxBytes, long ttlMillis)
+	{
+		super(delegate);
+		cache = new LruCache<String,CachedResult>(maxBytes, ttlMillis, (k,v) -> v.bytes + 2*k.length() + 64);
+	}
+	
+	public CacheStats getStats()
+	{
+		return cache.getStats();
+	}
+	
+	/**
+	 * Estimated bytes held by cached results.
+	 * 
+	 * @return
+	 */
+	public long getWeight()
+	{
+		return cache.weight();
+	}
+	
+	public void clearCache()
+	{
+		nodeVersions.bump(null);
+		relVersions.bump(null);
+		cache.invalidateAll();
+	}
+	
+	/*
+	 * Lookups
+	 */
+	
+	protected CachedResult stamp(Set<String> nodeTypes, boolean nodes, Set<String> relTypes, boolean rels)
+	{
+		List<AtomicLong> deps = new ArrayList<AtomicLong>();
+		if(nodes) nodeVersions.addDeps(nodeTypes, deps);
+		if(rels) relVersions.addDeps(relTypes, deps);
+		
+		CachedResult cr = new CachedResult();
+		cr.deps = deps.toArray(new AtomicLong[deps.size()]);
+		cr.stamps = new long[cr.deps.length];
+		for(int i=0; i<cr.deps.length; i++)
+		{
+			cr.stamps[i] = cr.deps[i].get();
+		}
+		return cr;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected <T> List<T> cached(String key)
+	{
+		CachedResult cr = cache.get(key);
+		if(cr == null) return null;
+		if(!cr.isCurrent())
+		{
+			cache.invalidate(key);
+			return null;
+		}
+		return new ArrayList<T>((List<T>)cr.results);
+	}
+	
+	protected void store(String key, CachedResult cr, List<?> results, boolean rels)
+	{
+		if(results == null) return;
+		
+		cr.results = new ArrayList<Object>(results);
+		long bytes = 16;
+		int size = results.size();
+		for(int i=0; i<size; i++)
+		{
+			if(rels)
+			{
+				bytes += estimateRel((Relationship)results.get(i));
+			}
+			else
+			{
+				bytes += estimateNode((Node)results.get(i));
+			}
+		}
+		cr.bytes = (int)Math.min(Integer.MAX_VALUE, bytes);
+		cache.put(key, cr);
+	}
+	
+	protected static Set<String> single(String type)
+	{
+		if(type == null) return null;
+		Set<String> out = new HashSet<String>();
+		out.add(type);
+		return out;
+	}
+	
+	protected static String nodeFindKey(String type, String key, Object val, int maxResults)
+	{
+		StringBuilder sb = new StringBuilder("NF|");
+		sb.append(type).append('|').append(CriterionKey.canonical(new GraphQuery.SimpleCriterion(key, val)));
+		sb.append('|').append(maxResults);
+		return sb.toString();
+	}
+	
+	protected static String relFindKey(String type, String key, Object val, boolean fetchNodes, int maxResults)
+	{
+		StringBuilder sb = new StringBuilder("RF|");
+		sb.append(type).append('|').append(CriterionKey.canonical(new GraphQuery.SimpleCriterion(key, val)));
+		sb.append('|').append(fetchNodes).append('|').append(maxResults);
+		return sb.toString();
+	}
+	
+	protected static String nodeQueryKey(GraphQuery query)
+	{
+		return "NQ|" + CriterionKey.canonical(query.getCriterion()) + "|" + query.getMaxResults();
+	}
+	
+	protected static String relQueryKey(GraphQuery query)
+	{
+		return "RQ|" + CriterionKey.canonical(query.getCriterion()) + "|" + query.getFetchNodesForRelationships() + "|" + query.getMaxResults();
+	}
+	
+	@Override
+	public List<Node> findNodes(String type, String key, Object val, int maxResults) throws NoGraphException
+	{
+		String ck = nodeFindKey(type, key, val, maxResults);
+		
+		List<Node> nodes = cached(ck);
+		if(nodes != null) return nodes;
+		
+		CachedResult cr = stamp(single(type), true, null, false);
+		nodes = delegate.findNodes(type, key, val, maxResults);
+		store(ck, cr, nodes, false);
+		return nodes;
+	}
+
+	@Override
+	public List<Relationship> findRelationships(String type, String key, Object val, boolean fetchNodes, int maxResults)
+			throws NoGraphException
+	{
+		String ck = relFindKey(type, key, val, fetchNodes, maxResults);
+		
+		List<Relationship> rels = cached(ck);
+		if(rels != null) return rels;
+		
+		CachedResult cr = stamp(null, fetchNodes, single(type), true);
+		rels = delegate.findRelationships(type, key, val, fetchNodes, maxResults);
+		store(ck, cr, rels, true);
+		return rels;
+	}
+
+	@Override
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException
+	{
+		String ck = nodeQueryKey(query);
+		
+		List<Node> nodes = cached(ck);
+		if(nodes != null) return nodes;
+		
+		CachedResult cr = stamp(CriterionKey.typesOf(query.getCriterion()), true, null, false);
+		nodes = delegate.findNodes(query);
+		store(ck, cr, nodes, false);
+		return nodes;
+	}
+
+	@Override
+	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException
+	{
+		boolean fetchNodes = query.getFetchNodesForRelationships();
+		String ck = relQueryKey(query);
+		
+		List<Relationship> rels = cached(ck);
+		if(rels != null) return rels;
+		
+		CachedResult cr = stamp(null, fetchNodes, CriterionKey.typesOf(query.getCriterion()), true);
+		rels = delegate.findRelationships(query);
+		store(ck, cr, rels, true);
+		return rels;
+	}
+	
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(String type, String key, Object val, int maxResults)
+	{
+		String ck = nodeFindKey(type, key, val, maxResults);
+		
+		List<Node> nodes = cached(ck);
+		if(nodes != null) return CompletableFuture.completedFuture(nodes);
+		
+		CachedResult cr = stamp(single(type), true, null, false);
+		return super.findNodesAsync(type, key, val, maxResults).thenApply(res -> {
+			store(ck, cr, res, false);
+			return res;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(String type, String key, Object val, boolean fetchNodes, int maxResults)
+	{
+		String ck = relFindKey(type, key, val, fetchNodes, maxResults);
+		
+		List<Relationship> rels = cached(ck);
+		if(rels != null) return CompletableFuture.completedFuture(rels);
+		
+		CachedResult cr = stamp(null, fetchNodes, single(type), true);
+		return super.findRelationshipsAsync(type, key, val, fetchNodes, maxResults).thenApply(res -> {
+			store(ck, cr, res, true);
+			return res;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<List<Node>> findNodesAsync(GraphQuery query)
+	{
+		String ck = nodeQueryKey(query);
+		
+		List<Node> nodes = cached(ck);
+		if(nodes != null) return CompletableFuture.completedFuture(nodes);
+		
+		CachedResult cr = stamp(CriterionKey.typesOf(query.getCriterion()), true, null, false);
+		return super.findNodesAsync(query).thenApply(res -> {
+			store(ck, cr, res, false);
+			return res;
+		});
+	}
+	
+	@Override
+	public CompletableFuture<List<Relationship>> findRelationshipsAsync(GraphQuery query)
+	{
+		String ck = relQueryKey(query);
+		
+		List<Relationship> rels = cached(ck);
+		if(rels != null) return CompletableFuture.completedFuture(rels);
+		
+		CachedResult cr = stamp(null, query.getFetchNodesForRelationships(), CriterionKey.typesOf(query.getCriterion()), true);
+		return super.findRelationshipsAsync(query).thenApply(res -> {
+			store(ck, cr, res, true);
+			return res;
+		});
+	}
+	
+	/*
+	 * Size estimates, roughly what the objects cost on the heap
+	 */
+	
+	protected static long estimateString(String str)
+	{
+		if(str == null) return 0;
+		return 40 + 2L*str.length();
+	}
+	
+	protected static long estimateValue(Object val)
+	{
+		if(val == null) return 0;
+		if(val instanceof String) return estimateString((String)val);
+		if(val instanceof Number || val instanceof Boolean) return 16;
+		if(val instanceof Collection)
+		{
+			long bytes = 32;
+			for(Object o : (Collection<?>)val)
+			{
+				bytes += 8 + estimateValue(o);
+			}
+			return bytes;
+		}
+		if(val instanceof Map)
+		{
+			return estimateMap((Map<?,?>)val);
+		}
+		return 32;
+	}
+	
+	protected static long estimateMap(Map<?,?> map)
+	{
+		if(map == null) return 0;
+		
+		long bytes = 48;
+		for(Map.Entry<?,?> e : map.entrySet())
+		{
+			bytes += 32 + estimateValue(e.getKey()) + estimateValue(e.getValue());
+		}
+		return bytes;
+	}
+	
+	protected static long estimateNode(Node n)
+	{
+		if(n == null) return 0;
+		return 32 + estimateString(n.getID()) + estimateString(n.getType()) + estimateMap(n.getPropertyMap());
+	}
+	
+	protected static long estimateRel(Relationship r)
+	{
+		if(r == null) return 0;
+		
+		long bytes = 40 + estimateString(r.getID()) + estimateString(r.getType()) + estimateMap(r.getPropertyMap());
+		if(r.getNode1() != null) bytes += estimateNode(r.getNode1());
+		if(r.getNode2() != null) bytes += estimateNode(r.getNode2());
+		return bytes;
+	}
+	
+	/*
+	 * Writes
+	 */
+	
+	/**
+	 * Types being written.  Updates could be moving an object off another type, so those count as unknown.
+	 */
+	protected static Set<String> nodeTypes(List<Node> nodes)
+	{
+		if(nodes == null) return new HashSet<String>();
+		
+		Set<String> types = new HashSet<String>();
+		int size = nodes.size();
+		Node n = null;
+		for(int i=0; i<size; i++)
+		{
+			n = nodes.get(i);
+			if(n == null) continue;
+			if(n.getID() != null) return null;
+			types.add(n.getType() == null?"":n.getType());
+		}
+		return types;
+	}
+	
+	protected static Set<String> relTypes(List<Relationship> rels)
+	{
+		if(rels == null) return new HashSet<String>();
+		
+		Set<String> types = new HashSet<String>();
+		int size = rels.size();
+		Relationship r = null;
+		for(int i=0; i<size; i++)
+		{
+			r = rels.get(i);
+			if(r == null) continue;
+			if(r.getID() != null) return null;
+			types.add(r.getType() == null?"":r.getType());
+		}
+		return types;
+	}
+
+	@Override
+	public void saveNode(Node n) throws NoGraphException
+	{
+		Set<String> types = n == null?new HashSet<String>():nodeTypes(Collections.singletonList(n));
+		try
+		{
+			delegate.saveNode(n);
+		}
+		finally
+		{
+			nodeVersions.bump(types);
+		}
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException
+	{
+		Set<String> types = nodeTypes(nodes);
+		try
+		{
+			delegate.ingestNodes(nodes);
+		}
+		finally
+		{
+			nodeVersions.bump(types);
+		}
+	}
+
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException
+	{
+		Set<String> types = nodeTypes(nodes);
+		try
+		{
+			delegate.saveNodes(nodes);
+		}
+		finally
+		{
+			nodeVersions.bump(types);
+		}
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException
+	{
+		try
+		{
+			delegate.deleteNodesByID(ids);
+		}
+		finally
+		{
+			// some backends take the attached relationships with the node
+			nodeVersions.bump(null);
+			relVersions.bump(null);
+		}
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException
+	{
+		Set<String> types = r == null?new HashSet<String>():relTypes(Collections.singletonList(r));
+		try
+		{
+			delegate.saveRelationship(r);
+		}
+		finally
+		{
+			relVersions.bump(types);
+		}
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		Set<String> types = relTypes(rels);
+		try
+		{
+			delegate.ingestRelationships(rels);
+		}
+		finally
+		{
+			relVersions.bump(types);
+		}
+	}
+
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException
+	{
+		Set<String> types = relTypes(rels);
+		try
+		{
+			delegate.saveRelationships(rels);
+		}
+		finally
+		{
+			relVersions.bump(types);
+		}
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException
+	{
+		try
+		{
+			delegate.deleteRelationshipsByID(ids);
+		}
+		finally
+		{
+			relVersions.bump(null);
+		}
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveNodeAsync(Node n)
+	{
+		Set<String> types = n == null?new HashSet<String>():nodeTypes(Collections.singletonList(n));
+		return super.saveNodeAsync(n).whenComplete((v,ex) -> nodeVersions.bump(types));
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveNodesAsync(List<Node> nodes)
+	{
+		Set<String> types = nodeTypes(nodes);
+		return super.saveNodesAsync(nodes).whenComplete((v,ex) -> nodeVersions.bump(types));
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteNodesByIDAsync(List<String> ids)
+	{
+		return super.deleteNodesByIDAsync(ids).whenComplete((v,ex) -> {
+			nodeVersions.bump(null);
+			relVersions.bump(null);
+		});
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipAsync(Relationship r)
+	{
+		Set<String> types = r == null?new HashSet<String>():relTypes(Collections.singletonList(r));
+		return super.saveRelationshipAsync(r).whenComplete((v,ex) -> relVersions.bump(types));
+	}
+	
+	@Override
+	public CompletableFuture<Void> saveRelationshipsAsync(List<Relationship> rels)
+	{
+		Set<String> types = relTypes(rels);
+		return super.saveRelationshipsAsync(rels).whenComplete((v,ex) -> relVersions.bump(types));
+	}
+	
+	@Override
+	public CompletableFuture<Void> deleteRelationshipsByIDAsync(List<String> ids)
+	{
+		return super.deleteRelationshipsByIDAsync(ids).whenComplete((v,ex) -> relVersions.bump(null));
+	}
+}
@@ -0,0 +1,1238 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.DataDecorator;
+import org.nograph.GraphManager;
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.shard.HashShardRouter;
+import org.nograph.impl.shard.ShardRouter;
+
+/**
+ * Spreads one graph over several child managers.
+ * 
+ * The router picks the shard for new nodes and relationships.  Ids handed back are prefixed with the shard
+ * number, like 2:1234, so reads by id go straight to the right child.  A relationship lives on one shard
+ * and refers to an end on another shard by its prefixed id, so the children need to store endpoint ids as
+ * data (elastic, ngweb) to hold cross shard relationships.  Such ends are flagged in the FOREIGN_ENDS_KEY
+ * property, which is hidden again on the way out.  Queries run on every shard that can match in
+ * parallel and stop as soon as enough results are in, so their order is not stable across calls.
+ * Endpoint nodes are filled in with one batched lookup per shard.
+ * 
+ * @author aholinch
+ *
+ */
+public class ShardedGraphManager extends BaseGraphManager 
+{
+	private static final Logger logger = Logger.getLogger(ShardedGraphManager.class.getName());
+	
+	public static final char SHARD_SEP = ':';
+	
+	/**
+	 * Relationship property naming the ends, 1 and or 2, stored as another shard's prefixed id.
+	 */
+	public static final String FOREIGN_ENDS_KEY = "_foreignEnds";
+	
+	/**
+	 * Criterion keys for endpoint ids on backends that store them as data.
+	 */
+	public static final String NODE1_ID_KEY = "node1.id";
+	public static final String NODE2_ID_KEY = "node2.id";
+	
+	protected static final int PAGE_SIZE = 500;
+	
+	protected List<GraphManager> shards = null;
+	protected ShardRouter router = null;
+	protected int allShards[] = null;
+	
+	public ShardedGraphManager(List<GraphManager> shards)
+	{
+		this(shards, new HashShardRouter(shards.size()));
+	}
+	
+	public ShardedGraphManager(List<GraphManager> shards, ShardRouter router)
+	{
+		this.shards = new ArrayList<GraphManager>(shards);
+		this.router = router;
+		
+		int ns = shards.size();
+		allShards = new int[ns];
+		for(int i=0; i<ns; i++) allShards[i] = i;
+		
+		logger.fine("Sharding over " + ns + " managers");
+	}
+	
+	public List<GraphManager> getShards()
+	{
+		return Collections.unmodifiableList(shards);
+	}
+	
+	public ShardRouter getRouter()
+	{
+		return router;
+	}
+	
+	@Override
+	protected String getBackendName()
+	{
+		return "sharded";
+	}
+	
+	/*
+	 * Ids
+	 */
+	
+	protected String toGlobal(int shard, String id)
+	{
+		if(id == null) return null;
+		return String.valueOf(shard) + SHARD_SEP + id;
+	}
+	
+	/**
+	 * The shard from an id's prefix.
+	 * 
+	 * @param id
+	 * @return the shard or -1 if the id has no prefix
+	 */
+	protected int shardOf(String id)
+	{
+		if(id == null) return -1;
+		
+		int ind = id.indexOf(SHARD_SEP);
+		if(ind < 1 || ind > 9) return -1;
+		
+		int s = 0;
+		char c = 0;
+		for(int i=0; i<ind; i++)
+		{
+			c = id.charAt(i);
+			if(c < '0' || c > '9') return -1;
+			s = s*10 + (c-'0');
+		}
+		
+		if(s >= shards.size()) return -1;
+		return s;
+	}
+	
+	protected String toLocal(String id)
+	{
+		return id.substring(id.indexOf(SHARD_SEP)+1);
+	}
+	
+	/**
+	 * Where an id lives, from its prefix or the router.
+	 * 
+	 * @param id
+	 * @return the shard or -1 if it could be anywhere
+	 */
+	protected int homeShard(String id)
+	{
+		if(id == null) return -1;
+		int s = shardOf(id);
+		if(s >= 0) return s;
+		return router.shardForID(id);
+	}
+	
+	/**
+	 * How a shard knows an id, local ids for its own nodes and prefixed ids for everyone else's.
+	 * 
+	 * @param id
+	 * @param shard
+	 * @return
+	 */
+	protected String idForShard(String id, int shard)
+	{
+		if(id == null) return null;
+		if(shardOf(id) == shard) return toLocal(id);
+		return id;
+	}
+	
+	/**
+	 * A copy of a shard's node under its global id, the shard's object is left alone.
+	 */
+	protected Node globalNode(int shard, Node n)
+	{
+		if(n == null) return null;
+		
+		GenericNode c = new GenericNode();
+		c.setID(toGlobal(shard, n.getID()));
+		c.setType(n.getType());
+		Map<String,Object> props = n.getPropertyMap();
+		c.setPropertyMap(props == null?null:new HashMap<String,Object>(props));
+		return c;
+	}
+	
+	protected List<Node> globalNodes(int shard, List<Node> nodes)
+	{
+		if(nodes == null) return null;
+		int size = nodes.size();
+		List<Node> out = new ArrayList<Node>(size);
+		for(int i=0; i<size; i++)
+		{
+			out.add(globalNode(shard, nodes.get(i)));
+		}
+		return out;
+	}
+	
+	protected Node globalEnd(int shard, Node n, String id, boolean foreign)
+	{
+		if(id == null) return null;
+		
+		GenericNode c = new GenericNode();
+		c.setID(foreign?id:toGlobal(shard, id));
+		if(n != null) c.setType(n.getType());
+		return c;
+	}
+	
+	/**
+	 * A copy of a shard's relationship under global ids.  Which ends were stored as another shard's
+	 * prefixed id is read from the flag copyRel wrote, a local id that happens to look prefixed stays local.
+	 */
+	protected Relationship globalRel(int shard, Relationship r)
+	{
+		if(r == null) return null;
+		
+		Map<String,Object> props = r.getPropertyMap();
+		String foreign = "";
+		if(props != null)
+		{
+			props = new HashMap<String,Object>(props);
+			Object flag = props.remove(FOREIGN_ENDS_KEY);
+			if(flag != null) foreign = String.valueOf(flag);
+		}
+		
+		GenericRelationship c = new GenericRelationship();
+		c.setID(toGlobal(shard, r.getID()));
+		c.setType(r.getType());
+		c.setPropertyMap(props);
+		c.setNode1(globalEnd(shard, r.getNode1(), r.getNode1ID(), foreign.indexOf('1') >= 0));
+		c.setNode2(globalEnd(shard, r.getNode2(), r.getNode2ID(), foreign.indexOf('2') >= 0));
+		return c;
+	}
+	
+	protected List<Relationship> globalRels(int shard, List<Relationship> rels)
+	{
+		if(rels == null) return null;
+		int size = rels.size();
+		List<Relationship> out = new ArrayList<Relationship>(size);
+		for(int i=0; i<size; i++)
+		{
+			out.add(globalRel(shard, rels.get(i)));
+		}
+		return out;
+	}
+	
+	/**
+	 * Copy to hand to a shard so the caller's object keeps its global id.
+	 */
+	protected Node copyNode(Node n, String id)
+	{
+		GenericNode c = new GenericNode();
+		c.setID(id);
+		c.setType(n.getType());
+		c.setPropertyMap(n.getPropertyMap());
+		return c;
+	}
+	
+	/**
+	 * Copy to hand to a shard, flagging the ends that belong to other shards.
+	 */
+	protected Relationship copyRel(Relationship r, int shard)
+	{
+		String id1 = r.getNode1ID();
+		String id2 = r.getNode2ID();
+		String foreign = "";
+		if(isForeign(id1, shard)) foreign += "1";
+		if(isForeign(id2, shard)) foreign += "2";
+		
+		Map<String,Object> props = r.getPropertyMap();
+		if(props != null || foreign.length() > 0)
+		{
+			props = props == null?new HashMap<String,Object>():new HashMap<String,Object>(props);
+			props.remove(FOREIGN_ENDS_KEY);
+			if(foreign.length() > 0) props.put(FOREIGN_ENDS_KEY, foreign);
+		}
+		
+		GenericRelationship c = new GenericRelationship();
+		c.setID(r.getID() == null?null:idForShard(r.getID(), shard));
+		c.setType(r.getType());
+		c.setPropertyMap(props);
+		c.setNode1(endForShard(r.getNode1(), id1, shard));
+		c.setNode2(endForShard(r.getNode2(), id2, shard));
+		return c;
+	}
+	
+	protected boolean isForeign(String id, int shard)
+	{
+		int s = shardOf(id);
+		return s >= 0 && s != shard;
+	}
+	
+	protected Node endForShard(Node n, String id, int shard)
+	{
+		GenericNode c = new GenericNode();
+		c.setID(idForShard(id, shard));
+		if(n != null) c.setType(n.getType());
+		return c;
+	}
+	
+	protected List<String> hideFlag(List<String> names)
+	{
+		if(names != null) names.remove(FOREIGN_ENDS_KEY);
+		return names;
+	}
+	
+	/*
+	 * Scatter gather
+	 */
+	
+	/**
+	 * One call against one shard.
+	 */
+	protected static interface ShardCall<V>
+	{
+		public V call(int shard, GraphManager gm) throws Exception;
+	}
+	
+	/**
+	 * Run a call on each target shard in parallel and hand the results to the sink in the order they finish.
+	 * When the sink returns false the calls still running are cancelled.
+	 * 
+	 * @param targets shards to call, null for all
+	 * @param call
+	 * @param sink
+	 * @throws NoGraphException
+	 */
+	protected <V> void scatter(int targets[], ShardCall<V> call, Predicate<V> sink) throws NoGraphException
+	{
+		if(targets == null) targets = allShards;
+		int nt = targets.length;
+		if(nt == 0) return;
+		
+		if(nt == 1 || GraphExecutors.isPoolThread())
+		{
+			V v = null;
+			int s = 0;
+			for(int i=0; i<nt; i++)
+			{
+				s = targets[i];
+				try
+				{
+					v = call.call(s, shards.get(s));
+				}
+				catch(NoGraphException ex)
+				{
+					throw ex;
+				}
+				catch(Exception ex)
+				{
+					throw new NoGraphException("Error calling shard " + s, ex);
+				}
+				if(!sink.test(v)) return;
+			}
+			return;
+		}
+		
+		ExecutorCompletionService<V> ecs = new ExecutorCompletionService<V>(GraphExecutors.getIOExecutor());
+		List<Future<V>> futures = new ArrayList<Future<V>>(nt);
+		for(int i=0; i<nt; i++)
+		{
+			final int s = targets[i];
+			futures.add(ecs.submit(() -> call.call(s, shards.get(s))));
+		}
+		
+		try
+		{
+			for(int i=0; i<nt; i++)
+			{
+				if(!sink.test(ecs.take().get())) break;
+			}
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new NoGraphException("Interrupted calling shards",ex);
+		}
+		catch(ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if(cause instanceof NoGraphException) throw (NoGraphException)cause;
+			throw new NoGraphException("Error calling shards",cause);
+		}
+		finally
+		{
+			for(int i=0; i<nt; i++)
+			{
+				futures.get(i).cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Concatenate list results, stopping once maxResults are in.
+	 */
+	protected <T> List<T> gather(int targets[], ShardCall<List<T>> call, int maxResults) throws NoGraphException
+	{
+		List<T> out = new ArrayList<T>();
+		scatter(targets, call, list -> {
+			if(list != null) out.addAll(list);
+			return maxResults <= 0 || out.size() < maxResults;
+		});
+		
+		if(maxResults > 0 && out.size() > maxResults)
+		{
+			return new ArrayList<T>(out.subList(0, maxResults));
+		}
+		return out;
+	}
+	
+	protected long sum(int targets[], ShardCall<Long> call) throws NoGraphException
+	{
+		long total[] = new long[1];
+		scatter(targets, call, v -> {
+			if(v != null) total[0] += v;
+			return true;
+		});
+		return total[0];
+	}
+	
+	protected Map<String,Long> sumCounts(ShardCall<Map<String,Long>> call) throws NoGraphException
+	{
+		Map<String,Long> out = new LinkedHashMap<String,Long>();
+		scatter(null, call, m -> {
+			if(m != null)
+			{
+				for(Map.Entry<String,Long> e : m.entrySet())
+				{
+					out.merge(e.getKey(), e.getValue() == null?0L:e.getValue(), Long::sum);
+				}
+			}
+			return true;
+		});
+		return out;
+	}
+	
+	protected List<String> union(ShardCall<List<String>> call, int targets[]) throws NoGraphException
+	{
+		Set<String> out = new LinkedHashSet<String>();
+		scatter(targets, call, list -> {
+			if(list != null) out.addAll(list);
+			return true;
+		});
+		return new ArrayList<String>(out);
+	}
+	
+	protected Map<String,List<String>> unionByType(ShardCall<Map<String,List<String>>> call) throws NoGraphException
+	{
+		Map<String,Set<String>> merged = new LinkedHashMap<String,Set<String>>();
+		scatter(null, call, m -> {
+			if(m != null)
+			{
+				for(Map.Entry<String,List<String>> e : m.entrySet())
+				{
+					if(e.getValue() == null) continue;
+					merged.computeIfAbsent(e.getKey(), k -> new LinkedHashSet<String>()).addAll(e.getValue());
+				}
+			}
+			return true;
+		});
+		
+		Map<String,List<String>> out = new LinkedHashMap<String,List<String>>();
+		for(Map.Entry<String,Set<String>> e : merged.entrySet())
+		{
+			out.put(e.getKey(), new ArrayList<String>(e.getValue()));
+		}
+		return out;
+	}
+	
+	/**
+	 * Split ids by the shard they live on.
+	 * 
+	 * @param ids
+	 * @param unknown filled with ids that could be on any shard
+	 * @return local ids per shard
+	 */
+	protected List<List<String>> groupIDs(List<String> ids, List<String> unknown)
+	{
+		int ns = shards.size();
+		List<List<String>> groups = new ArrayList<List<String>>(ns);
+		for(int i=0; i<ns; i++) groups.add(new ArrayList<String>());
+		
+		int size = ids.size();
+		String id = null;
+		int s = 0;
+		for(int i=0; i<size; i++)
+		{
+			id = ids.get(i);
+			s = homeShard(id);
+			if(s < 0)
+			{
+				if(unknown != null) unknown.add(id);
+			}
+			else
+			{
+				groups.get(s).add(idForShard(id, s));
+			}
+		}
+		return groups;
+	}
+	
+	protected int[] nonEmpty(List<? extends List<?>> groups)
+	{
+		int ns = groups.size();
+		int cnt = 0;
+		for(int i=0; i<ns; i++)
+		{
+			if(groups.get(i).size() > 0) cnt++;
+		}
+		
+		int out[] = new int[cnt];
+		cnt = 0;
+		for(int i=0; i<ns; i++)
+		{
+			if(groups.get(i).size() > 0) out[cnt++] = i;
+		}
+		return out;
+	}
+	
+	/*
+	 * Queries
+	 */
+	
+	/**
+	 * Rewrite a query's criterion for each shard.  Ids and endpoint ids are turned into the form the shard
+	 * stores them in and an equality on the id of another shard's object can't match there.
+	 * 
+	 * @param crit
+	 * @param rels true for relationship queries, where endpoint id keys are rewritten too
+	 * @param crits filled with the criterion for each shard
+	 * @return the shards that can match
+	 */
+	protected int[] shardCriteria(Criterion crit, boolean rels, Criterion crits[])
+	{
+		int ns = shards.size();
+		int targets[] = new int[ns];
+		int nt = 0;
+		for(int i=0; i<ns; i++)
+		{
+			crits[i] = crit == null?null:criterionForShard(crit, i, rels);
+			if(crit == null || crits[i] != null) targets[nt++] = i;
+		}
+		
+		if(nt == ns) return null;
+		int out[] = new int[nt];
+		System.arraycopy(targets, 0, out, 0, nt);
+		return out;
+	}
+	
+	/**
+	 * The criterion as one shard has to see it.
+	 * 
+	 * @param crit
+	 * @param shard
+	 * @param rels
+	 * @return null if nothing on the shard can match
+	 */
+	protected Criterion criterionForShard(Criterion crit, int shard, boolean rels)
+	{
+		if(crit instanceof SetCriterion)
+		{
+			SetCriterion set = (SetCriterion)crit;
+			boolean and = set.getSetOperation() == SetCriterion.COMB_AND;
+			SetCriterion out = new SetCriterion(set.getSetOperation());
+			int nc = set.getNumCriteria();
+			int added = 0;
+			Criterion c = null;
+			for(int i=0; i<nc; i++)
+			{
+				c = criterionForShard(set.getCriterion(i), shard, rels);
+				if(c == null)
+				{
+					if(and) return null;
+					continue;
+				}
+				out.addCriterion(c);
+				added++;
+			}
+			if(!and && added == 0 && nc > 0) return null;
+			return out;
+		}
+		
+		if(!(crit instanceof SimpleCriterion)) return crit;
+		
+		SimpleCriterion sc = (SimpleCriterion)crit;
+		String key = sc.getKey();
+		int op = sc.getOperator();
+		boolean ids = GenericNode.ID_KEY.equals(key);
+		boolean ends = rels && (NODE1_ID_KEY.equals(key) || NODE2_ID_KEY.equals(key));
+		if(!(ids || ends) || sc.getValue() == null) return crit;
+		if(op != SimpleCriterion.OP_EQUAL && op != SimpleCriterion.OP_NOT_EQUAL) return crit;
+		
+		String id = String.valueOf(sc.getValue());
+		int home = shardOf(id);
+		if(home < 0) return crit;
+		
+		if(ids && home != shard)
+		{
+			// another shard's object, a prefixed id never equals a local one
+			return op == SimpleCriterion.OP_EQUAL?null:crit;
+		}
+		
+		return new SimpleCriterion(key, op, idForShard(id, shard));
+	}
+	
+	protected GraphQuery queryForShard(GraphQuery query, Criterion crit)
+	{
+		// endpoints are filled in here across shards
+		GraphQuery q = new GraphQuery();
+		q.setCriterion(crit);
+		q.setMaxResults(query.getMaxResults());
+		q.setFetchNodesForRelationships(false);
+		return q;
+	}
+	
+	protected static interface CursorCall<T>
+	{
+		public GraphCursor<T> open(int shard, GraphManager gm) throws Exception;
+	}
+	
+	protected static interface GlobalMap<T>
+	{
+		public List<T> map(int shard, List<T> objs);
+	}
+	
+	/**
+	 * Walks the shards one after another, only one shard's cursor is open at a time.  Results come
+	 * back in pages so relationship endpoints are filled in with one lookup per page.
+	 */
+	protected class ShardCursor<T> extends BatchCursor<T>
+	{
+		protected int targets[] = null;
+		protected CursorCall<T> call = null;
+		protected GlobalMap<T> global = null;
+		protected boolean fetchNodes = false;
+		protected int next = 0;
+		protected int shard = -1;
+		protected GraphCursor<T> cursor = null;
+		
+		public ShardCursor(int targets[], CursorCall<T> call, GlobalMap<T> global, boolean fetchNodes)
+		{
+			this.targets = targets == null?allShards:targets;
+			this.call = call;
+			this.global = global;
+			this.fetchNodes = fetchNodes;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		protected List<T> nextBatch() 
+		{
+			try
+			{
+				while(cursor == null || !cursor.hasNext())
+				{
+					if(cursor != null) cursor.close();
+					cursor = null;
+					if(next >= targets.length) return null;
+					
+					shard = targets[next++];
+					cursor = call.open(shard, shards.get(shard));
+				}
+				
+				List<T> page = new ArrayList<T>(PAGE_SIZE);
+				while(page.size() < PAGE_SIZE && cursor.hasNext())
+				{
+					page.add(cursor.next());
+				}
+				
+				page = global.map(shard, page);
+				if(fetchNodes) populateNodesForRels((List<Relationship>)page);
+				return page;
+			}
+			catch(Exception ex)
+			{
+				logger.log(Level.WARNING,"Error reading shard " + shard,ex);
+				throw new RuntimeException("Error reading shard " + shard,ex);
+			}
+		}
+		
+		@Override
+		protected void release() 
+		{
+			if(cursor != null) cursor.close();
+			cursor = null;
+		}
+	}
+	
+	/*
+	 * Nodes
+	 */
+	
+	protected int shardForNewNode(Node n)
+	{
+		int s = homeShard(n.getID());
+		if(s < 0) s = router.shardForNode(n);
+		return s;
+	}
+	
+	@Override
+	public void saveNode(Node n) throws NoGraphException 
+	{
+		if(n == null) return;
+		
+		int s = shardForNewNode(n);
+		Node c = copyNode(n, n.getID() == null?null:idForShard(n.getID(), s));
+		shards.get(s).saveNode(c);
+		n.setID(toGlobal(s, c.getID()));
+	}
+	
+	protected interface NodeWrite
+	{
+		public void write(GraphManager gm, List<Node> nodes) throws NoGraphException;
+	}
+	
+	protected void writeNodes(List<Node> nodes, NodeWrite write) throws NoGraphException
+	{
+		if(nodes == null || nodes.size() == 0) return;
+		
+		int ns = shards.size();
+		List<List<Node>> orig = new ArrayList<List<Node>>(ns);
+		List<List<Node>> copies = new ArrayList<List<Node>>(ns);
+		for(int i=0; i<ns; i++)
+		{
+			orig.add(new ArrayList<Node>());
+			copies.add(new ArrayList<Node>());
+		}
+		
+		int size = nodes.size();
+		Node n = null;
+		int s = 0;
+		for(int i=0; i<size; i++)
+		{
+			n = nodes.get(i);
+			s = shardForNewNode(n);
+			orig.get(s).add(n);
+			copies.get(s).add(copyNode(n, n.getID() == null?null:idForShard(n.getID(), s)));
+		}
+		
+		scatter(nonEmpty(copies), (shard, gm) -> {
+			write.write(gm, copies.get(shard));
+			return Boolean.TRUE;
+		}, v -> true);
+		
+		for(int i=0; i<ns; i++)
+		{
+			List<Node> o = orig.get(i);
+			List<Node> c = copies.get(i);
+			int no = o.size();
+			for(int j=0; j<no; j++)
+			{
+				o.get(j).setID(toGlobal(i, c.get(j).getID()));
+			}
+		}
+	}
+
+	@Override
+	public void ingestNodes(List<Node> nodes) throws NoGraphException 
+	{
+		writeNodes(nodes, (gm, list) -> gm.ingestNodes(list));
+	}
+
+	@Override
+	public void saveNodes(List<Node> nodes) throws NoGraphException 
+	{
+		writeNodes(nodes, (gm, list) -> gm.saveNodes(list));
+	}
+
+	@Override
+	public Node getNode(String id) throws NoGraphException 
+	{
+		if(id == null) return null;
+		
+		int s = homeShard(id);
+		if(s >= 0)
+		{
+			return globalNode(s, shards.get(s).getNode(idForShard(id, s)));
+		}
+		
+		Node found[] = new Node[1];
+		scatter(null, (shard, gm) -> globalNode(shard, gm.getNode(id)), n -> {
+			if(n != null && found[0] == null) found[0] = n;
+			return found[0] == null;
+		});
+		return found[0];
+	}
+	
+	/**
+	 * One bulk lookup per shard, in parallel.
+	 */
+	@Override
+	protected Map<String,Node> buildNodeMap(List<String> ids)
+	{
+		Map<String,Node> nodeMap = new HashMap<String,Node>();
+		if(ids == null || ids.size() == 0) return nodeMap;
+		
+		List<String> unknown = new ArrayList<String>();
+		List<List<String>> groups = groupIDs(ids, unknown);
+		
+		try
+		{
+			scatter(nonEmpty(groups), (s, gm) -> {
+				Map<String,Node> m = null;
+				if(gm instanceof BaseGraphManager)
+				{
+					m = ((BaseGraphManager)gm).buildNodeMap(groups.get(s));
+				}
+				if(m == null)
+				{
+					// this shard has no bulk lookup
+					m = mapInParallel(groups.get(s), gm::getNode);
+				}
+				Map<String,Node> out = new HashMap<String,Node>();
+				if(m != null)
+				{
+					for(Map.Entry<String,Node> e : m.entrySet())
+					{
+						if(e.getValue() == null) continue;
+						out.put(toGlobal(s, e.getKey()), globalNode(s, e.getValue()));
+					}
+				}
+				return out;
+			}, m -> {
+				nodeMap.putAll(m);
+				return true;
+			});
+			
+			// ids without a home have to be asked of every shard
+			if(unknown.size() > 0)
+			{
+				nodeMap.putAll(mapInParallel(unknown, this::getNode));
+			}
+		}
+		catch(Exception ex)
+		{
+			// a partial map would read as not found, let them be fetched individually
+			logger.log(Level.WARNING,"Error getting nodes in bulk",ex);
+			return null;
+		}
+		
+		return nodeMap;
+	}
+
+	@Override
+	public void deleteNodesByID(List<String> ids) throws NoGraphException 
+	{
+		if(ids == null || ids.size() == 0) return;
+		
+		List<String> unknown = new ArrayList<String>();
+		List<List<String>> groups = groupIDs(ids, unknown);
+		
+		scatter(nonEmpty(groups), (s, gm) -> {
+			gm.deleteNodesByID(groups.get(s));
+			return Boolean.TRUE;
+		}, v -> true);
+		
+		if(unknown.size() > 0)
+		{
+			scatter(null, (s, gm) -> {
+				gm.deleteNodesByID(unknown);
+				return Boolean.TRUE;
+			}, v -> true);
+		}
+	}
+
+	@Override
+	public List<Node> findNodes(String type, String key, Object val, int maxResults) throws NoGraphException 
+	{
+		return gather(router.shardsForNodeType(type), (s, gm) -> globalNodes(s, gm.findNodes(type, key, val, maxResults)), maxResults);
+	}
+
+	@Override
+	public List<Node> findNodes(GraphQuery query) throws NoGraphException 
+	{
+		Criterion crits[] = new Criterion[shards.size()];
+		int targets[] = shardCriteria(query.getCriterion(), false, crits);
+		return gather(targets, (s, gm) -> globalNodes(s, gm.findNodes(queryForShard(query, crits[s]))), query.getMaxResults());
+	}
+	
+	@Override
+	public GraphCursor<Node> iterateNodes(String type, String key, Object val) throws NoGraphException
+	{
+		return new ShardCursor<Node>(router.shardsForNodeType(type), (s, gm) -> {
+			if(gm instanceof BaseGraphManager) return ((BaseGraphManager)gm).iterateNodes(type, key, val);
+			return new ListCursor<Node>(gm.findNodes(type, key, val, Integer.MAX_VALUE));
+		}, this::globalNodes, false);
+	}
+	
+	@Override
+	public GraphCursor<Node> iterateNodes(GraphQuery query) throws NoGraphException
+	{
+		Criterion crits[] = new Criterion[shards.size()];
+		int targets[] = shardCriteria(query.getCriterion(), false, crits);
+		return new ShardCursor<Node>(targets, (s, gm) -> {
+			GraphQuery q = queryForShard(query, crits[s]);
+			if(gm instanceof BaseGraphManager) return ((BaseGraphManager)gm).iterateNodes(q);
+			return new ListCursor<Node>(gm.findNodes(q));
+		}, this::globalNodes, false);
+	}
+	
+	/*
+	 * Relationships
+	 */
+	
+	protected int shardForNewRel(Relationship r)
+	{
+		int s = homeShard(r.getID());
+		if(s >= 0) return s;
+		return router.shardForRelationship(r, homeShard(r.getNode1ID()), homeShard(r.getNode2ID()));
+	}
+
+	@Override
+	public void saveRelationship(Relationship r) throws NoGraphException 
+	{
+		if(r == null) return;
+		
+		int s = shardForNewRel(r);
+		Relationship c = copyRel(r, s);
+		shards.get(s).saveRelationship(c);
+		r.setID(toGlobal(s, c.getID()));
+	}
+	
+	protected interface RelWrite
+	{
+		public void write(GraphManager gm, List<Relationship> rels) throws NoGraphException;
+	}
+	
+	protected void writeRels(List<Relationship> rels, RelWrite write) throws NoGraphException
+	{
+		if(rels == null || rels.size() == 0) return;
+		
+		int ns = shards.size();
+		List<List<Relationship>> orig = new ArrayList<List<Relationship>>(ns);
+		List<List<Relationship>> copies = new ArrayList<List<Relationship>>(ns);
+		for(int i=0; i<ns; i++)
+		{
+			orig.add(new ArrayList<Relationship>());
+			copies.add(new ArrayList<Relationship>());
+		}
+		
+		int size = rels.size();
+		Relationship r = null;
+		int s = 0;
+		for(int i=0; i<size; i++)
+		{
+			r = rels.get(i);
+			s = shardForNewRel(r);
+			orig.get(s).add(r);
+			copies.get(s).add(copyRel(r, s));
+		}
+		
+		scatter(nonEmpty(copies), (shard, gm) -> {
+			write.write(gm, copies.get(shard));
+			return Boolean.TRUE;
+		}, v -> true);
+		
+		for(int i=0; i<ns; i++)
+		{
+			List<Relationship> o = orig.get(i);
+			List<Relationship> c = copies.get(i);
+			int no = o.size();
+			for(int j=0; j<no; j++)
+			{
+				o.get(j).setID(toGlobal(i, c.get(j).getID()));
+			}
+		}
+	}
+
+	@Override
+	public void ingestRelationships(List<Relationship> rels) throws NoGraphException 
+	{
+		writeRels(rels, (gm, list) -> gm.ingestRelationships(list));
+	}
+
+	@Override
+	public void saveRelationships(List<Relationship> rels) throws NoGraphException 
+	{
+		writeRels(rels, (gm, list) -> gm.saveRelationships(list));
+	}
+
+	@Override
+	public Relationship getRelationship(String id, boolean fetchNodes) throws NoGraphException 
+	{
+		if(id == null) return null;
+		
+		Relationship r = null;
+		int s = homeShard(id);
+		if(s >= 0)
+		{
+			r = globalRel(s, shards.get(s).getRelationship(idForShard(id, s), false));
+		}
+		else
+		{
+			Relationship found[] = new Relationship[1];
+			scatter(null, (shard, gm) -> globalRel(shard, gm.getRelationship(id, false)), rel -> {
+				if(rel != null && found[0] == null) found[0] = rel;
+				return found[0] == null;
+			});
+			r = found[0];
+		}
+		
+		if(r != null && fetchNodes)
+		{
+			populateNodesForRels(Collections.singletonList(r));
+		}
+		return r;
+	}
+
+	@Override
+	public void deleteRelationshipsByID(List<String> ids) throws NoGraphException 
+	{
+		if(ids == null || ids.size() == 0) return;
+		
+		List<String> unknown = new ArrayList<String>();
+		List<List<String>> groups = groupIDs(ids, unknown);
+		
+		scatter(nonEmpty(groups), (s, gm) -> {
+			gm.deleteRelationshipsByID(groups.get(s));
+			return Boolean.TRUE;
+		}, v -> true);
+		
+		if(unknown.size() > 0)
+		{
+			scatter(null, (s, gm) -> {
+				gm.deleteRelationshipsByID(unknown);
+				return Boolean.TRUE;
+			}, v -> true);
+		}
+	}
+
+	@Override
+	public List<Relationship> findRelationships(String type, String key, Object val, boolean fetchNodes, int maxResults) throws NoGraphException 
+	{
+		List<Relationship> rels = gather(router.shardsForRelationshipType(type), 
+				(s, gm) -> globalRels(s, gm.findRelationships(type, key, val, false, maxResults)), maxResults);
+		if(fetchNodes) populateNodesForRels(rels);
+		return rels;
+	}
+
+	@Override
+	public List<Relationship> findRelationships(GraphQuery query) throws NoGraphException 
+	{
+		Criterion crits[] = new Criterion[shards.size()];
+		int targets[] = shardCriteria(query.getCriterion(), true, crits);
+		
+		List<Relationship> rels = gather(targets, (s, gm) -> globalRels(s, gm.findRelationships(queryForShard(query, crits[s]))), query.getMaxResults());
+		if(query.getFetchNodesForRelationships()) populateNodesForRels(rels);
+		return rels;
+	}
+	
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(String type, String key, Object val, boolean fetchNodes) throws NoGraphException
+	{
+		return new ShardCursor<Relationship>(router.shardsForRelationshipType(type), (s, gm) -> {
+			if(gm instanceof BaseGraphManager) return ((BaseGraphManager)gm).iterateRelationships(type, key, val, false);
+			return new ListCursor<Relationship>(gm.findRelationships(type, key, val, false, Integer.MAX_VALUE));
+		}, this::globalRels, fetchNodes);
+	}
+	
+	@Override
+	public GraphCursor<Relationship> iterateRelationships(GraphQuery query) throws NoGraphException
+	{
+		Criterion crits[] = new Criterion[shards.size()];
+		int targets[] = shardCriteria(query.getCriterion(), true, crits);
+		return new ShardCursor<Relationship>(targets, (s, gm) -> {
+			GraphQuery q = queryForShard(query, crits[s]);
+			if(gm instanceof BaseGraphManager) return ((BaseGraphManager)gm).iterateRelationships(q);
+			return new ListCursor<Relationship>(gm.findRelationships(q));
+		}, this::globalRels, query.getFetchNodesForRelationships());
+	}
+	
+	/**
+	 * Asks every shard at once since a relationship on one shard can point at a node on another.
+	 */
+	@Override
+	protected Map<String,List<Relationship>> findRelationshipsForNodes(List<String> ids) throws NoGraphException
+	{
+		Map<String,List<Relationship>> out = new HashMap<String,List<Relationship>>();
+		if(ids == null || ids.size() == 0) return out;
+		
+		scatter(null, (s, gm) -> {
+			int size = ids.size();
+			List<String> sids = new ArrayList<String>(size);
+			for(int i=0; i<size; i++)
+			{
+				sids.add(idForShard(ids.get(i), s));
+			}
+			
+			Map<String,List<Relationship>> res = null;
+			if(gm instanceof BaseGraphManager)
+			{
+				res = ((BaseGraphManager)gm).findRelationshipsForNodes(sids);
+			}
+			else
+			{
+				res = mapInParallel(sids, gm::findRelatedNodes);
+			}
+			
+			Map<String,List<Relationship>> byID = new HashMap<String,List<Relationship>>();
+			if(res == null) return byID;
+			
+			List<Relationship> rels = null;
+			for(int i=0; i<size; i++)
+			{
+				rels = res.get(sids.get(i));
+				if(rels != null && rels.size() > 0)
+				{
+					byID.put(ids.get(i), globalRels(s, rels));
+				}
+			}
+			return byID;
+		}, m -> {
+			for(Map.Entry<String,List<Relationship>> e : m.entrySet())
+			{
+				out.computeIfAbsent(e.getKey(), k -> new ArrayList<Relationship>()).addAll(e.getValue());
+			}
+			return true;
+		});
+		
+		return out;
+	}
+
+	@Override
+	public List<Relationship> findRelatedNodes(String id) throws NoGraphException 
+	{
+		List<Relationship> rels = findRelationshipsForNodes(Collections.singletonList(id)).get(id);
+		if(rels == null) return new ArrayList<Relationship>();
+		
+		populateNodesForRels(rels);
+		return rels;
+	}
+	
+	/*
+	 * Counts and meta
+	 */
+
+	@Override
+	public long countNodes(String type) throws NoGraphException 
+	{
+		return sum(router.shardsForNodeType(type), (s, gm) -> gm.countNodes(type));
+	}
+
+	@Override
+	public long countRelationships(String type) throws NoGraphException 
+	{
+		return sum(router.shardsForRelationshipType(type), (s, gm) -> gm.countRelationships(type));
+	}
+
+	@Override
+	public List<String> getNodeTypes() throws NoGraphException 
+	{
+		return union((s, gm) -> gm.getNodeTypes(), null);
+	}
+
+	@Override
+	public List<String> getRelationshipTypes() throws NoGraphException 
+	{
+		return union((s, gm) -> gm.getRelationshipTypes(), null);
+	}
+
+	@Override
+	public Map<String, Long> getNodeCountsByType() throws NoGraphException 
+	{
+		return sumCounts((s, gm) -> gm.getNodeCountsByType());
+	}
+
+	@Override
+	public Map<String, Long> getRelationshipCountsByType() throws NoGraphException 
+	{
+		return sumCounts((s, gm) -> gm.getRelationshipCountsByType());
+	}
+	
+	@Override
+	public List<String> getPropertyNamesForNodeType(String type) throws NoGraphException 
+	{
+		return union((s, gm) -> gm.getPropertyNamesForNodeType(type), router.shardsForNodeType(type));
+	}
+	
+	@Override
+	public List<String> getPropertyNamesForRelationshipType(String type) throws NoGraphException 
+	{
+		return hideFlag(union((s, gm) -> gm.getPropertyNamesForRelationshipType(type), router.shardsForRelationshipType(type)));
+	}
+	
+	@Override
+	public Map<String, List<String>> getPropertyNamesByNodeType() throws NoGraphException 
+	{
+		return unionByType((s, gm) -> gm.getPropertyNamesByNodeType());
+	}
+	
+	@Override
+	public Map<String, List<String>> getPropertyNamesByRelationshipType() throws NoGraphException 
+	{
+		Map<String,List<String>> names = unionByType((s, gm) -> gm.getPropertyNamesByRelationshipType());
+		if(names != null) names.values().forEach(this::hideFlag);
+		return names;
+	}
+	
+	/*
+	 * Decoration happens on the shards
+	 */
+	
+	@Override
+	public void setDataDecorator(DataDecorator decorator) 
+	{
+		super.setDataDecorator(decorator);
+		int ns = shards.size();
+		for(int i=0; i<ns; i++)
+		{
+			shards.get(i).setDataDecorator(decorator);
+		}
+	}
+	
+	@Override
+	public void clearDataDecorator() 
+	{
+		super.clearDataDecorator();
+		int ns = shards.size();
+		for(int i=0; i<ns; i++)
+		{
+			shards.get(i).clearDataDecorator();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl;
+
+import org.nograph.DataDecorator;
+
+/**
+ * Marks a decorator that can be called from many threads at once.  With decorate.parallel=true
+ * large batches handed to one of these are split across the decoration pool.
+ * 
+ * @author aholinch
+ *
+ */
+public interface ThreadSafeDecorator extends DataDecorator 
+{
+}
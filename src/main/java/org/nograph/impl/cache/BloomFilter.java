@@ -0,0 +1,140 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size Bloom filter over strings that is safe to add to and test from many threads.
+ * 
+ * Bits are set with compare and swap so adds never block readers.
+ * 
+ * @author aholinch
+ *
+ */
+public class BloomFilter 
+{
+	protected AtomicLongArray bits = null;
+	protected long numBits = 0;
+	protected int numHashes = 0;
+	protected long capacity = 0;
+	protected AtomicLong count = new AtomicLong();
+	
+	/**
+	 * 
+	 * @param capacity insertions before the false positive rate goes over fpp
+	 * @param fpp target false positive probability
+	 */
+	public BloomFilter(long capacity, double fpp)
+	{
+		if(capacity < 1) capacity = 1;
+		if(fpp <= 0 || fpp >= 1) fpp = 0.01;
+		
+		this.capacity = capacity;
+		
+		double ln2 = Math.log(2);
+		long m = (long)Math.ceil(-capacity * Math.log(fpp) / (ln2*ln2));
+		m = Math.max(64, (m + 63) & ~63L);
+		
+		numHashes = Math.max(1, (int)Math.round((double)m / capacity * ln2));
+		bits = new AtomicLongArray((int)Math.min(Integer.MAX_VALUE, m >>> 6));
+		numBits = ((long)bits.length()) << 6;
+	}
+	
+	/**
+	 * 64 bit hash of the chars, murmur style finalizer.
+	 */
+	protected static long hash(String str)
+	{
+		long h = 0xcbf29ce484222325L;
+		int len = str.length();
+		for(int i=0; i<len; i++)
+		{
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	public void add(String str)
+	{
+		long h = hash(str);
+		int h1 = (int)h;
+		int h2 = (int)(h >>> 32);
+		
+		long bit = 0;
+		int word = 0;
+		long mask = 0;
+		long old = 0;
+		for(int i=1; i<=numHashes; i++)
+		{
+			bit = Math.floorMod((long)h1 + (long)i*h2, numBits);
+			word = (int)(bit >>> 6);
+			mask = 1L << (bit & 63);
+			
+			old = bits.get(word);
+			while((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask))
+			{
+				old = bits.get(word);
+			}
+		}
+		count.incrementAndGet();
+	}
+	
+	/**
+	 * False means the string was never added, true means it probably was.
+	 * 
+	 * @param str
+	 * @return
+	 */
+	public boolean mightContain(String str)
+	{
+		long h = hash(str);
+		int h1 = (int)h;
+		int h2 = (int)(h >>> 32);
+		
+		long bit = 0;
+		for(int i=1; i<=numHashes; i++)
+		{
+			bit = Math.floorMod((long)h1 + (long)i*h2, numBits);
+			if((bits.get((int)(bit >>> 6)) & (1L << (bit & 63))) == 0) return false;
+		}
+		return true;
+	}
+	
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	public long getCapacity()
+	{
+		return capacity;
+	}
+	
+	public boolean isFull()
+	{
+		return count.get() >= capacity;
+	}
+}
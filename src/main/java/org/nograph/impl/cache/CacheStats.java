@@ -0,0 +1,90 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+/**
+ * Point in time counters for a cache.
+ * 
+ * @author aholinch
+ *
+ */
+public class CacheStats 
+{
+	protected long hits = 0;
+	protected long misses = 0;
+	protected long evictions = 0;
+	protected long expirations = 0;
+	protected long size = 0;
+	
+	public CacheStats(long hits, long misses, long evictions, long expirations, long size)
+	{
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.size = size;
+	}
+	
+	public long getHits() 
+	{
+		return hits;
+	}
+
+	public long getMisses() 
+	{
+		return misses;
+	}
+
+	/**
+	 * Entries dropped to stay under the size bound.
+	 * 
+	 * @return
+	 */
+	public long getEvictions() 
+	{
+		return evictions;
+	}
+
+	/**
+	 * Entries dropped because their ttl passed.
+	 * 
+	 * @return
+	 */
+	public long getExpirations() 
+	{
+		return expirations;
+	}
+
+	public long getSize() 
+	{
+		return size;
+	}
+	
+	public double getHitRate()
+	{
+		long total = hits + misses;
+		if(total == 0) return 0;
+		return ((double)hits)/((double)total);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "hits="+hits+", misses="+misses+", evictions="+evictions+", expirations="+expirations+", size="+size;
+	}
+}
@@ -0,0 +1,416 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * A bounded, concurrent segmented LRU cache with an optional time to live.
+ *
+ * Keys are hashed across independently locked segments so readers of different keys rarely contend.
+ * The bound is split evenly across the segments.  Each segment keeps two access ordered lists, new
+ * entries go on probation and move to the protected list when they are read again.  Eviction takes
+ * the least recently used probation entry first, so a scan of keys read only once can't flush the
+ * entries that are read over and over.  When the protected list outgrows its share it demotes its
+ * least recently used entry back to probation.
+ *
+ * The bound counts entries unless a weigher is given, then it is the total weight.
+ *
+ * @author aholinch
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class LruCache<K,V>
+{
+	/**
+	 * Share of each segment the protected list may hold.
+	 */
+	public static final double PROTECTED_SHARE = 0.8;
+
+	protected Segment<K,V> segments[] = null;
+	protected int segmentMask = 0;
+	protected long ttlNanos = 0;
+	protected Weigher<K,V> weigher = null;
+
+	protected LongAdder hits = new LongAdder();
+	protected LongAdder misses = new LongAdder();
+	protected LongAdder evictions = new LongAdder();
+	protected LongAdder expirations = new LongAdder();
+
+	/**
+	 *
+	 * @param maxEntries total entries across all segments
+	 * @param ttlMillis zero or less for no expiration
+	 */
+	public LruCache(int maxEntries, long ttlMillis)
+	{
+		this(maxEntries, ttlMillis, 16);
+	}
+
+	public LruCache(int maxEntries, long ttlMillis, int numSegments)
+	{
+		this(maxEntries, ttlMillis, numSegments, null);
+	}
+
+	/**
+	 *
+	 * @param maxWeight total weight across all segments
+	 * @param ttlMillis zero or less for no expiration
+	 * @param weigher
+	 */
+	public LruCache(long maxWeight, long ttlMillis, Weigher<K,V> weigher)
+	{
+		this(maxWeight, ttlMillis, 16, weigher);
+	}
+
+	@SuppressWarnings("unchecked")
+	public LruCache(long maxWeight, long ttlMillis, int numSegments, Weigher<K,V> weigher)
+	{
+		if(maxWeight < 1) maxWeight = 1;
+		this.weigher = weigher;
+
+		// power of two so we can mask
+		int ns = 1;
+		while(ns < numSegments && ns < maxWeight) ns <<= 1;
+
+		segmentMask = ns-1;
+		segments = (Segment<K,V>[])new Segment<?,?>[ns];
+
+		long perSegment = Math.max(1, (maxWeight+ns-1)/ns);
+		for(int i=0; i<ns; i++)
+		{
+			segments[i] = new Segment<K,V>(perSegment);
+		}
+
+		if(ttlMillis > 0)
+		{
+			ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		}
+	}
+
+	protected Segment<K,V> segmentFor(Object key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & segmentMask];
+	}
+
+	/**
+	 * Returns the cached value or null if it is missing or expired.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public V get(K key)
+	{
+		if(key == null) return null;
+
+		Segment<K,V> seg = segmentFor(key);
+		V val = null;
+		synchronized(seg)
+		{
+			Entry<V> e = seg.probation.get(key);
+			if(e == null) e = seg.protect.get(key);
+
+			if(e != null)
+			{
+				if(ttlNanos > 0 && System.nanoTime() - e.created > ttlNanos)
+				{
+					seg.remove(key);
+					expirations.increment();
+				}
+				else
+				{
+					val = e.value;
+					if(!e.isProtected) seg.promote(key, e);
+				}
+			}
+		}
+
+		if(val == null)
+		{
+			misses.increment();
+		}
+		else
+		{
+			hits.increment();
+		}
+		return val;
+	}
+
+	public void put(K key, V value)
+	{
+		if(key == null || value == null) return;
+
+		int weight = weigher == null?1:Math.max(0, weigher.weigh(key, value));
+
+		Segment<K,V> seg = segmentFor(key);
+		Entry<V> e = new Entry<V>(value, System.nanoTime(), weight);
+		synchronized(seg)
+		{
+			// too big to ever fit, don't flush the segment for it
+			if(weight > seg.maxWeight)
+			{
+				seg.remove(key);
+				return;
+			}
+
+			// a replaced entry keeps its place, a new one starts on probation
+			Entry<V> old = seg.protect.get(key);
+			if(old != null)
+			{
+				e.isProtected = true;
+				seg.protect.put(key, e);
+				seg.protectWeight += weight - old.weight;
+				seg.weight += weight - old.weight;
+				seg.demote();
+			}
+			else
+			{
+				old = seg.probation.put(key, e);
+				if(old != null) seg.weight -= old.weight;
+				seg.weight += weight;
+			}
+
+			evictions.add(seg.evict(e));
+		}
+	}
+
+	public void invalidate(K key)
+	{
+		if(key == null) return;
+
+		Segment<K,V> seg = segmentFor(key);
+		synchronized(seg)
+		{
+			seg.remove(key);
+		}
+	}
+
+	/**
+	 * Remove every entry the test accepts.  This walks the whole cache so save it for rare events.
+	 *
+	 * @param test
+	 */
+	public void invalidateIf(BiPredicate<K,V> test)
+	{
+		int ns = segments.length;
+		Segment<K,V> seg = null;
+		for(int i=0; i<ns; i++)
+		{
+			seg = segments[i];
+			synchronized(seg)
+			{
+				seg.removeIf(seg.probation, test);
+				seg.removeIf(seg.protect, test);
+			}
+		}
+	}
+
+	public void invalidateAll()
+	{
+		int ns = segments.length;
+		for(int i=0; i<ns; i++)
+		{
+			synchronized(segments[i])
+			{
+				segments[i].clear();
+			}
+		}
+	}
+
+	public long size()
+	{
+		long size = 0;
+		int ns = segments.length;
+		for(int i=0; i<ns; i++)
+		{
+			synchronized(segments[i])
+			{
+				size += segments[i].probation.size() + segments[i].protect.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Total weight held, the same as size without a weigher.
+	 *
+	 * @return
+	 */
+	public long weight()
+	{
+		long weight = 0;
+		int ns = segments.length;
+		for(int i=0; i<ns; i++)
+		{
+			synchronized(segments[i])
+			{
+				weight += segments[i].weight;
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * How much an entry counts against the bound, like its size in bytes.
+	 */
+	public static interface Weigher<K,V>
+	{
+		public int weigh(K key, V value);
+	}
+
+	public CacheStats getStats()
+	{
+		return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size());
+	}
+
+	protected static class Entry<V>
+	{
+		final V value;
+		final long created;
+		final int weight;
+		boolean isProtected = false;
+
+		Entry(V value, long created, int weight)
+		{
+			this.value = value;
+			this.created = created;
+			this.weight = weight;
+		}
+	}
+
+	protected static class Segment<K,V>
+	{
+		final LinkedHashMap<K,Entry<V>> probation;
+		final LinkedHashMap<K,Entry<V>> protect;
+		final long maxWeight;
+		final long maxProtectWeight;
+		long weight = 0;
+		long protectWeight = 0;
+
+		Segment(long maxWeight)
+		{
+			this.maxWeight = maxWeight;
+			maxProtectWeight = Math.max(1, (long)(maxWeight*PROTECTED_SHARE));
+			int cap = (int)Math.min(maxWeight, 1024);
+			probation = new LinkedHashMap<K,Entry<V>>(cap, 0.75f, true);
+			protect = new LinkedHashMap<K,Entry<V>>(cap, 0.75f, true);
+		}
+
+		/**
+		 * Move a probation entry that was read again to the protected list.
+		 */
+		void promote(K key, Entry<V> e)
+		{
+			probation.remove(key);
+			e.isProtected = true;
+			protect.put(key, e);
+			protectWeight += e.weight;
+			demote();
+		}
+
+		/**
+		 * Push the least recently used protected entries back to probation until the list fits its share.
+		 */
+		void demote()
+		{
+			Iterator<Map.Entry<K,Entry<V>>> iter = protect.entrySet().iterator();
+			Map.Entry<K,Entry<V>> eldest = null;
+			while(protectWeight > maxProtectWeight && protect.size() > 1 && iter.hasNext())
+			{
+				eldest = iter.next();
+				iter.remove();
+				eldest.getValue().isProtected = false;
+				protectWeight -= eldest.getValue().weight;
+				probation.put(eldest.getKey(), eldest.getValue());
+			}
+		}
+
+		/**
+		 * Drop least recently used entries, probation first, until back under the bound.
+		 *
+		 * @param keep the entry just written
+		 * @return how many were dropped
+		 */
+		int evict(Entry<V> keep)
+		{
+			int n = evict(probation, keep);
+			if(weight > maxWeight) n += evict(protect, keep);
+			return n;
+		}
+
+		private int evict(LinkedHashMap<K,Entry<V>> map, Entry<V> keep)
+		{
+			int n = 0;
+			Iterator<Map.Entry<K,Entry<V>>> iter = map.entrySet().iterator();
+			Map.Entry<K,Entry<V>> eldest = null;
+			while(weight > maxWeight && iter.hasNext())
+			{
+				eldest = iter.next();
+				if(eldest.getValue() == keep) continue;
+				weight -= eldest.getValue().weight;
+				if(eldest.getValue().isProtected) protectWeight -= eldest.getValue().weight;
+				iter.remove();
+				n++;
+			}
+			return n;
+		}
+
+		void removeIf(LinkedHashMap<K,Entry<V>> map, BiPredicate<K,V> test)
+		{
+			Iterator<Map.Entry<K,Entry<V>>> iter = map.entrySet().iterator();
+			Map.Entry<K,Entry<V>> me = null;
+			while(iter.hasNext())
+			{
+				me = iter.next();
+				if(test.test(me.getKey(), me.getValue().value))
+				{
+					weight -= me.getValue().weight;
+					if(me.getValue().isProtected) protectWeight -= me.getValue().weight;
+					iter.remove();
+				}
+			}
+		}
+
+		void remove(Object key)
+		{
+			Entry<V> e = probation.remove(key);
+			if(e == null)
+			{
+				e = protect.remove(key);
+				if(e != null) protectWeight -= e.weight;
+			}
+			if(e != null) weight -= e.weight;
+		}
+
+		void clear()
+		{
+			probation.clear();
+			protect.clear();
+			weight = 0;
+			protectWeight = 0;
+		}
+	}
+}
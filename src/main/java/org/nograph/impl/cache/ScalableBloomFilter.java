@@ -0,0 +1,103 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter that grows as strings are added.
+ * 
+ * When the newest stage fills up a new one twice as big is added with half the false positive rate, so the
+ * overall rate stays near the target however many strings go in.  Lookups check every stage.
+ * 
+ * @author aholinch
+ *
+ */
+public class ScalableBloomFilter 
+{
+	protected volatile BloomFilter stages[] = null;
+	protected double fpp = 0.01;
+	
+	/**
+	 * 
+	 * @param initialCapacity
+	 * @param fpp overall false positive target
+	 */
+	public ScalableBloomFilter(long initialCapacity, double fpp)
+	{
+		if(fpp <= 0 || fpp >= 1) fpp = 0.01;
+		this.fpp = fpp;
+		
+		// the stage rates sum to at most fpp
+		stages = new BloomFilter[]{new BloomFilter(initialCapacity, fpp/2)};
+	}
+	
+	public void add(String str)
+	{
+		if(str == null) return;
+		
+		BloomFilter s[] = stages;
+		BloomFilter last = s[s.length-1];
+		if(last.isFull())
+		{
+			last = grow(last);
+		}
+		last.add(str);
+	}
+	
+	protected synchronized BloomFilter grow(BloomFilter full)
+	{
+		BloomFilter s[] = stages;
+		BloomFilter last = s[s.length-1];
+		if(last != full) return last;
+		
+		BloomFilter next = new BloomFilter(last.getCapacity()*2, fpp/Math.pow(2, s.length+1));
+		BloomFilter grown[] = Arrays.copyOf(s, s.length+1);
+		grown[s.length] = next;
+		stages = grown;
+		return next;
+	}
+	
+	public boolean mightContain(String str)
+	{
+		if(str == null) return false;
+		
+		BloomFilter s[] = stages;
+		for(int i=s.length-1; i>=0; i--)
+		{
+			if(s[i].mightContain(str)) return true;
+		}
+		return false;
+	}
+	
+	public long getCount()
+	{
+		BloomFilter s[] = stages;
+		long cnt = 0;
+		for(int i=0; i<s.length; i++)
+		{
+			cnt += s[i].getCount();
+		}
+		return cnt;
+	}
+	
+	public int getNumStages()
+	{
+		return stages.length;
+	}
+}
@@ -0,0 +1,259 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.memory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * One property stored for every row as a primitive array when the values allow it.
+ * 
+ * A column starts out typed by the first value it sees.  Storing a value of another type moves the
+ * column to plain objects, so set returns the column to keep using.  Integral numbers come back as Long.
+ * 
+ * @author aholinch
+ *
+ */
+public abstract class Column 
+{
+	public abstract Object get(int row);
+	
+	public abstract boolean has(int row);
+	
+	/**
+	 * 
+	 * @param row
+	 * @param val not null
+	 * @return this or the column it was moved to
+	 */
+	public abstract Column set(int row, Object val);
+	
+	public abstract void clear(int row);
+	
+	/**
+	 * Highest row that might have a value plus one.
+	 * 
+	 * @return
+	 */
+	public abstract int capacity();
+	
+	public static Column forValue(Object val)
+	{
+		if(isIntegral(val)) return new LongColumn();
+		if(val instanceof Double || val instanceof Float) return new DoubleColumn();
+		if(val instanceof Boolean) return new BooleanColumn();
+		return new ObjectColumn();
+	}
+	
+	protected static boolean isIntegral(Object val)
+	{
+		return val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte;
+	}
+	
+	protected static int grow(int cap, int row)
+	{
+		int nc = Math.max(16, cap);
+		while(nc <= row) nc *= 2;
+		return nc;
+	}
+	
+	/**
+	 * Copy everything into an object column.
+	 * 
+	 * @return
+	 */
+	protected ObjectColumn toObjects()
+	{
+		ObjectColumn oc = new ObjectColumn();
+		int cap = capacity();
+		for(int i=0; i<cap; i++)
+		{
+			if(has(i)) oc.set(i, get(i));
+		}
+		return oc;
+	}
+	
+	public static class LongColumn extends Column
+	{
+		protected long vals[] = new long[0];
+		protected BitSet present = new BitSet();
+		
+		@Override
+		public Object get(int row)
+		{
+			if(!present.get(row)) return null;
+			return vals[row];
+		}
+
+		@Override
+		public boolean has(int row)
+		{
+			return present.get(row);
+		}
+
+		@Override
+		public Column set(int row, Object val)
+		{
+			if(!isIntegral(val))
+			{
+				return toObjects().set(row, val);
+			}
+			if(row >= vals.length) vals = Arrays.copyOf(vals, grow(vals.length,row));
+			vals[row] = ((Number)val).longValue();
+			present.set(row);
+			return this;
+		}
+
+		@Override
+		public void clear(int row)
+		{
+			present.clear(row);
+		}
+
+		@Override
+		public int capacity()
+		{
+			return vals.length;
+		}
+	}
+	
+	public static class DoubleColumn extends Column
+	{
+		protected double vals[] = new double[0];
+		protected BitSet present = new BitSet();
+		
+		@Override
+		public Object get(int row)
+		{
+			if(!present.get(row)) return null;
+			return vals[row];
+		}
+
+		@Override
+		public boolean has(int row)
+		{
+			return present.get(row);
+		}
+
+		@Override
+		public Column set(int row, Object val)
+		{
+			if(!(val instanceof Double || val instanceof Float))
+			{
+				return toObjects().set(row, val);
+			}
+			if(row >= vals.length) vals = Arrays.copyOf(vals, grow(vals.length,row));
+			vals[row] = ((Number)val).doubleValue();
+			present.set(row);
+			return this;
+		}
+
+		@Override
+		public void clear(int row)
+		{
+			present.clear(row);
+		}
+
+		@Override
+		public int capacity()
+		{
+			return vals.length;
+		}
+	}
+	
+	public static class BooleanColumn extends Column
+	{
+		protected BitSet vals = new BitSet();
+		protected BitSet present = new BitSet();
+		
+		@Override
+		public Object get(int row)
+		{
+			if(!present.get(row)) return null;
+			return vals.get(row);
+		}
+
+		@Override
+		public boolean has(int row)
+		{
+			return present.get(row);
+		}
+
+		@Override
+		public Column set(int row, Object val)
+		{
+			if(!(val instanceof Boolean))
+			{
+				return toObjects().set(row, val);
+			}
+			vals.set(row, (Boolean)val);
+			present.set(row);
+			return this;
+		}
+
+		@Override
+		public void clear(int row)
+		{
+			present.clear(row);
+		}
+
+		@Override
+		public int capacity()
+		{
+			return present.length();
+		}
+	}
+	
+	public static class ObjectColumn extends Column
+	{
+		protected Object vals[] = new Object[0];
+		
+		@Override
+		public Object get(int row)
+		{
+			if(row >= vals.length) return null;
+			return vals[row];
+		}
+
+		@Override
+		public boolean has(int row)
+		{
+			return row < vals.length && vals[row] != null;
+		}
+
+		@Override
+		public Column set(int row, Object val)
+		{
+			if(row >= vals.length) vals = Arrays.copyOf(vals, grow(vals.length,row));
+			vals[row] = val;
+			return this;
+		}
+
+		@Override
+		public void clear(int row)
+		{
+			if(row < vals.length) vals[row] = null;
+		}
+
+		@Override
+		public int capacity()
+		{
+			return vals.length;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Properties for a set of rows kept column by column.  Not thread safe, the owner locks around it.
+ * 
+ * @author aholinch
+ *
+ */
+public class ColumnStore 
+{
+	protected Map<String,Column> columns = new LinkedHashMap<String,Column>();
+	
+	/**
+	 * Replace every property of the row.
+	 * 
+	 * @param row
+	 * @param props
+	 */
+	public void setRow(int row, Map<String,Object> props)
+	{
+		clearRow(row);
+		if(props == null) return;
+		
+		String key = null;
+		Object val = null;
+		Column col = null;
+		Column out = null;
+		for(Map.Entry<String,Object> me : props.entrySet())
+		{
+			key = me.getKey();
+			val = me.getValue();
+			if(key == null || val == null) continue;
+			
+			col = columns.get(key);
+			if(col == null) col = Column.forValue(val);
+			out = col.set(row, val);
+			if(out != col || !columns.containsKey(key))
+			{
+				columns.put(key, out);
+			}
+		}
+	}
+	
+	public void clearRow(int row)
+	{
+		Iterator<Column> iter = columns.values().iterator();
+		while(iter.hasNext())
+		{
+			iter.next().clear(row);
+		}
+	}
+	
+	public Object get(int row, String key)
+	{
+		Column col = columns.get(key);
+		if(col == null) return null;
+		return col.get(row);
+	}
+	
+	public Map<String,Object> getRow(int row)
+	{
+		Map<String,Object> props = new LinkedHashMap<String,Object>();
+		Object val = null;
+		for(Map.Entry<String,Column> me : columns.entrySet())
+		{
+			val = me.getValue().get(row);
+			if(val != null)
+			{
+				props.put(me.getKey(), val);
+			}
+		}
+		return props;
+	}
+}
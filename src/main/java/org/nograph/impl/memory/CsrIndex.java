@@ -0,0 +1,103 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.memory;
+
+import java.util.BitSet;
+
+/**
+ * Compressed sparse row adjacency for one direction.  The relationships of node n are
+ * rels[offsets[n]] up to rels[offsets[n+1]].
+ * 
+ * @author aholinch
+ *
+ */
+public class CsrIndex 
+{
+	protected int offsets[] = null;
+	protected int rels[] = null;
+	
+	protected CsrIndex(int offsets[], int rels[])
+	{
+		this.offsets = offsets;
+		this.rels = rels;
+	}
+	
+	public static CsrIndex empty()
+	{
+		return new CsrIndex(new int[1], new int[0]);
+	}
+	
+	/**
+	 * Counting sort of the live relationships by one endpoint.
+	 * 
+	 * @param numNodes
+	 * @param numRels
+	 * @param endpoint node for each relationship
+	 * @param live relationships to keep
+	 * @return
+	 */
+	public static CsrIndex build(int numNodes, int numRels, int endpoint[], BitSet live)
+	{
+		int offsets[] = new int[numNodes+1];
+		int cnt = 0;
+		for(int r=0; r<numRels; r++)
+		{
+			if(!live.get(r)) continue;
+			offsets[endpoint[r]+1]++;
+			cnt++;
+		}
+		
+		for(int n=0; n<numNodes; n++)
+		{
+			offsets[n+1] += offsets[n];
+		}
+		
+		int rels[] = new int[cnt];
+		int pos[] = new int[numNodes];
+		System.arraycopy(offsets, 0, pos, 0, numNodes);
+		for(int r=0; r<numRels; r++)
+		{
+			if(!live.get(r)) continue;
+			rels[pos[endpoint[r]]++] = r;
+		}
+		
+		return new CsrIndex(offsets, rels);
+	}
+	
+	public int start(int node)
+	{
+		if(node+1 >= offsets.length) return 0;
+		return offsets[node];
+	}
+	
+	public int end(int node)
+	{
+		if(node+1 >= offsets.length) return 0;
+		return offsets[node+1];
+	}
+	
+	public int rel(int ind)
+	{
+		return rels[ind];
+	}
+	
+	public int numRels()
+	{
+		return rels.length;
+	}
+}
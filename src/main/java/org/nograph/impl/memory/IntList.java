@@ -0,0 +1,71 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.memory;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints.
+ * 
+ * @author aholinch
+ *
+ */
+public class IntList 
+{
+	protected int data[] = null;
+	protected int size = 0;
+	
+	public IntList()
+	{
+		this(8);
+	}
+	
+	public IntList(int capacity)
+	{
+		data = new int[Math.max(1, capacity)];
+	}
+	
+	public void add(int val)
+	{
+		if(size == data.length)
+		{
+			data = Arrays.copyOf(data, size*2);
+		}
+		data[size++] = val;
+	}
+	
+	public int get(int ind)
+	{
+		return data[ind];
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public void clear()
+	{
+		size = 0;
+	}
+	
+	public int[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+}
@@ -0,0 +1,169 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per operation metrics for one backend and graph.
+ *
+ * Instances are shared by backend and graph name so a wrapper and the manager it wraps report together.
+ * Each one is registered with the platform MBean server.
+ *
+ * @author aholinch
+ *
+ */
+public class GraphMetrics implements GraphMetricsMXBean
+{
+	private static final Logger logger = Logger.getLogger(GraphMetrics.class.getName());
+
+	private static final Map<String,GraphMetrics> registry = new ConcurrentHashMap<String,GraphMetrics>();
+
+	protected String backend = null;
+	protected String graph = null;
+	protected Map<String,OpMetrics> ops = new ConcurrentHashMap<String,OpMetrics>();
+
+	/**
+	 * Get the shared metrics for a backend and graph.
+	 *
+	 * @param backend
+	 * @param graph may be null
+	 * @return
+	 */
+	public static GraphMetrics forBackend(String backend, String graph)
+	{
+		String key = backend+"|"+(graph==null?"":graph);
+		GraphMetrics gm = registry.get(key);
+		if(gm != null) return gm;
+
+		gm = registry.computeIfAbsent(key, k -> {
+			GraphMetrics m = new GraphMetrics(backend,graph);
+			m.register();
+			return m;
+		});
+		return gm;
+	}
+
+	protected GraphMetrics(String backend, String graph)
+	{
+		this.backend = backend;
+		this.graph = graph;
+	}
+
+	protected void register()
+	{
+		try
+		{
+			String on = "org.nograph:type=GraphMetrics,backend="+ObjectName.quote(backend);
+			if(graph != null) on += ",graph="+ObjectName.quote(graph);
+
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName oname = new ObjectName(on);
+			if(!mbs.isRegistered(oname))
+			{
+				mbs.registerMBean(this, oname);
+			}
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Unable to register metrics mbean",ex);
+		}
+	}
+
+	/**
+	 * Get the metrics for an operation.  Hold on to the result on hot paths to skip the lookup.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public OpMetrics op(String name)
+	{
+		OpMetrics om = ops.get(name);
+		if(om == null)
+		{
+			om = ops.computeIfAbsent(name, OpMetrics::new);
+		}
+		return om;
+	}
+
+	/**
+	 * Record a finished call.
+	 *
+	 * @param name
+	 * @param startNanos
+	 * @param numItems
+	 * @param error
+	 */
+	public void record(String name, long startNanos, int numItems, boolean error)
+	{
+		op(name).record(startNanos, numItems, error);
+	}
+
+	@Override
+	public String getBackend()
+	{
+		return backend;
+	}
+
+	@Override
+	public String getGraph()
+	{
+		return graph;
+	}
+
+	@Override
+	public Map<String,OpSnapshot> getOperations()
+	{
+		Map<String,OpSnapshot> out = new TreeMap<String,OpSnapshot>();
+		for(OpMetrics om : ops.values())
+		{
+			out.put(om.getName(), om.snapshot());
+		}
+		return out;
+	}
+
+	@Override
+	public void reset()
+	{
+		for(OpMetrics om : ops.values())
+		{
+			om.reset();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(backend);
+		if(graph != null) sb.append(" ").append(graph);
+		for(OpSnapshot os : getOperations().values())
+		{
+			sb.append("\n  ").append(os);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,37 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a backend's metrics, registered as org.nograph:type=GraphMetrics,backend=...,graph=...
+ *
+ * @author aholinch
+ *
+ */
+public interface GraphMetricsMXBean
+{
+	public String getBackend();
+
+	public String getGraph();
+
+	public Map<String,OpSnapshot> getOperations();
+
+	public void reset();
+}
@@ -0,0 +1,92 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency for one operation.
+ *
+ * @author aholinch
+ *
+ */
+public class OpMetrics
+{
+	protected String name = null;
+	protected LongAdder calls = new LongAdder();
+	protected LongAdder errors = new LongAdder();
+	protected LongAdder items = new LongAdder();
+	protected LongAdder bytes = new LongAdder();
+	protected LatencyHistogram latency = new LatencyHistogram();
+
+	public OpMetrics(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Record a finished call.
+	 *
+	 * @param startNanos from System.nanoTime() before the call
+	 * @param numItems nodes or relationships returned or written
+	 * @param error
+	 */
+	public void record(long startNanos, int numItems, boolean error)
+	{
+		latency.record(System.nanoTime()-startNanos);
+		calls.increment();
+		if(numItems > 0) items.add(numItems);
+		if(error) errors.increment();
+	}
+
+	/**
+	 * Count encoded bytes received on the wire, not chars.
+	 *
+	 * @param num
+	 */
+	public void addBytes(long num)
+	{
+		if(num > 0) bytes.add(num);
+	}
+
+	public OpSnapshot snapshot()
+	{
+		long counts[] = latency.getCounts();
+		long nc = calls.sum();
+		long mean = 0;
+		if(nc > 0) mean = latency.getTotal()/nc;
+
+		return new OpSnapshot(name, nc, errors.sum(), items.sum(), bytes.sum(), mean,
+				LatencyHistogram.getPercentile(counts, 50), LatencyHistogram.getPercentile(counts, 90),
+				LatencyHistogram.getPercentile(counts, 99), latency.getMax());
+	}
+
+	public void reset()
+	{
+		calls.reset();
+		errors.reset();
+		items.reset();
+		bytes.reset();
+		latency.reset();
+	}
+}
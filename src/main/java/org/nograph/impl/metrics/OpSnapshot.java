@@ -0,0 +1,110 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.metrics;
+
+/**
+ * Point in time copy of one operation's metrics.  Latencies are in nanoseconds.
+ *
+ * @author aholinch
+ *
+ */
+public class OpSnapshot
+{
+	protected String name = null;
+	protected long calls = 0;
+	protected long errors = 0;
+	protected long items = 0;
+	protected long bytes = 0;
+	protected long meanNanos = 0;
+	protected long p50Nanos = 0;
+	protected long p90Nanos = 0;
+	protected long p99Nanos = 0;
+	protected long maxNanos = 0;
+
+	public OpSnapshot(String name, long calls, long errors, long items, long bytes, long meanNanos, long p50Nanos,
+			long p90Nanos, long p99Nanos, long maxNanos)
+	{
+		this.name = name;
+		this.calls = calls;
+		this.errors = errors;
+		this.items = items;
+		this.bytes = bytes;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p90Nanos = p90Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getCalls()
+	{
+		return calls;
+	}
+
+	public long getErrors()
+	{
+		return errors;
+	}
+
+	public long getItems()
+	{
+		return items;
+	}
+
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	public long getMeanNanos()
+	{
+		return meanNanos;
+	}
+
+	public long getP50Nanos()
+	{
+		return p50Nanos;
+	}
+
+	public long getP90Nanos()
+	{
+		return p90Nanos;
+	}
+
+	public long getP99Nanos()
+	{
+		return p99Nanos;
+	}
+
+	public long getMaxNanos()
+	{
+		return maxNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name+" calls="+calls+" errors="+errors+" items="+items+" bytes="+bytes+" mean="+meanNanos/1000+"us p50="+
+				p50Nanos/1000+"us p90="+p90Nanos/1000+"us p99="+p99Nanos/1000+"us max="+maxNanos/1000+"us";
+	}
+}
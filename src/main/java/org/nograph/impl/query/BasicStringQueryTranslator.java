@@ -47,41 +47,62 @@ public class BasicStringQueryTranslator implements QueryTranslator
 		return queryToNative(prefix,query);
 	}
 
+	/**
+	 * The query as text, or null when it has no criterion or the criterion writes nothing, like an empty set.
+	 */
 	protected String queryToNative(String prefix, GraphQuery query)
 	{
-		return criterionToClause(prefix,query.getCriterion()).toString();
+		if(query == null) return null;
+		Object clause = criterionToClause(prefix,query.getCriterion());
+		if(clause == null) return null;
+		return clause.toString();
+	}
+	
+	/**
+	 * Runs a builder through the append methods and hands back its text, or null if nothing was written.
+	 */
+	protected String finish(StringBuilder sb)
+	{
+		if(sb.length() == 0) return null;
+		return sb.toString();
 	}
 	
 	@Override
 	public Object criterionToClause(String prefix, Criterion crit) {
-		String qs = null;
-		
+		StringBuilder sb = new StringBuilder(64);
+		appendClause(sb,prefix,crit);
+		return finish(sb);
+	}
+	
+	@Override
+	public void appendClause(StringBuilder sb, String prefix, Criterion crit)
+	{
 		if(crit instanceof SimpleCriterion)
 		{
-			qs = simpleCriterionToClause(prefix,(SimpleCriterion)crit).toString();
+			appendSimple(sb,prefix,(SimpleCriterion)crit);
 		}
 		else if(crit instanceof SetCriterion)
 		{
-			qs = setCriterionToClause(prefix,(SetCriterion)crit).toString();
+			appendSet(sb,prefix,(SetCriterion)crit);
 		}
 		else if(crit instanceof RangeCriterion)
 		{
-			qs = rangeCriterionToClause(prefix,(RangeCriterion)crit).toString();
+			appendRange(sb,prefix,(RangeCriterion)crit);
 		}
-		
-		return qs;
 	}
 
 	@Override
 	public Object simpleCriterionToClause(String prefix, SimpleCriterion crit) 
 	{
-		String qs = null;
-		
-		String op = opToString(crit.getOperator());
-		
-		qs = crit.getKey() + op + valueToString(crit.getValue());
-		
-		return qs;
+		StringBuilder sb = new StringBuilder(32);
+		appendSimple(sb,prefix,crit);
+		return finish(sb);
+	}
+	
+	protected void appendSimple(StringBuilder sb, String prefix, SimpleCriterion crit)
+	{
+		sb.append(crit.getKey()).append(opToString(crit.getOperator()));
+		appendValue(sb,crit.getValue());
 	}
 	
 	/**
@@ -91,7 +112,60 @@ public class BasicStringQueryTranslator implements QueryTranslator
 	 */
 	protected String valueToString(Object val)
 	{
-		return String.valueOf(val);
+		StringBuilder sb = new StringBuilder();
+		appendValue(sb,val);
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes a value straight into the buffer.  Numbers and booleans skip the trip through a String and
+	 * text goes a character at a time through appendChar so subclasses can escape it in place.
+	 * 
+	 * @param sb
+	 * @param val
+	 */
+	protected void appendValue(StringBuilder sb, Object val)
+	{
+		if(val instanceof CharSequence)
+		{
+			CharSequence cs = (CharSequence)val;
+			int len = cs.length();
+			for(int i=0; i<len; i++)
+			{
+				appendChar(sb,cs.charAt(i));
+			}
+		}
+		else if(val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte)
+		{
+			sb.append(((Number)val).longValue());
+		}
+		else if(val instanceof Double)
+		{
+			sb.append(((Double)val).doubleValue());
+		}
+		else if(val instanceof Float)
+		{
+			sb.append(((Float)val).floatValue());
+		}
+		else if(val instanceof Boolean)
+		{
+			sb.append(((Boolean)val).booleanValue());
+		}
+		else
+		{
+			sb.append(val);
+		}
+	}
+	
+	/**
+	 * Override to escape characters that mean something to the backend.
+	 * 
+	 * @param sb
+	 * @param c
+	 */
+	protected void appendChar(StringBuilder sb, char c)
+	{
+		sb.append(c);
 	}
 	
 	protected String opToString(int opCode)
@@ -127,62 +201,76 @@ public class BasicStringQueryTranslator implements QueryTranslator
 
 	@Override
 	public Object setCriterionToClause(String prefix, SetCriterion crit) {
-		String qs = null;
-		
-		int op = crit.getSetOperation();
-		String opStr = " AND ";
-		if(op == SetCriterion.COMB_OR)
+		StringBuilder sb = new StringBuilder(64);
+		appendSet(sb,prefix,crit);
+		return finish(sb);
+	}
+	
+	protected void appendSet(StringBuilder sb, String prefix, SetCriterion crit)
+	{
+		int numcrit = crit.getNumCriteria();
+		if(numcrit < 1)
 		{
-			opStr = " OR ";
+			return;
 		}
 		
-		int numcrit = crit.getNumCriteria();
-		if(numcrit < 1)
+		if(numcrit == 1)
 		{
-			return null;
+			appendClause(sb,prefix,crit.getCriterion(0));
+			return;
 		}
 		
-		Criterion tmpcrit = null;
-		String tmp = null;
+		String opStr = " AND ";
+		boolean or = crit.getSetOperation() == SetCriterion.COMB_OR;
+		if(or)
+		{
+			opStr = " OR ";
+		}
 		
-		tmpcrit = crit.getCriterion(0);
-		tmp = criterionToClause(prefix,tmpcrit).toString();
-		if(numcrit > 1)
+		// children that write nothing are dropped along with their operator
+		int mark = 0;
+		int open = sb.length();
+		boolean first = true;
+		for(int i=0; i<numcrit; i++)
 		{
-			qs = "("+tmp+")";
-			for(int i=1; i<numcrit; i++)
+			mark = sb.length();
+			if(!first) sb.append(opStr);
+			sb.append('(');
+			int inner = sb.length();
+			appendClause(sb,prefix,crit.getCriterion(i));
+			if(sb.length() == inner)
 			{
-				tmpcrit = crit.getCriterion(i);
-				tmp = criterionToClause(prefix,tmpcrit).toString();
-				qs += opStr+"("+tmp+")";
+				// a child that writes nothing matches everything, which makes an OR match everything too
+				if(or)
+				{
+					sb.setLength(open);
+					return;
+				}
+				sb.setLength(mark);
+			}
+			else
+			{
+				sb.append(')');
+				first = false;
 			}
 		}
-		else
-		{
-			qs = tmp;
-		}
-		return qs;
 	}
 
 	@Override
 	public Object rangeCriterionToClause(String prefix, RangeCriterion crit) {
-		String valueStr1 = valueToString(crit.getMinValue());
-		String valueStr2 = valueToString(crit.getMaxValue());
-		
-		String minB = "{";
-		String maxB = "}";
-		if(crit.getMinInclusive())
-		{
-			minB = "[";
-		}
-		if(crit.getMaxInclusive())
-		{
-			maxB = "]";
-		}
-		
-		String qs = crit.getKey()+":"+minB + valueStr1 + " TO " + valueStr2 + maxB;
-				
-		return qs;
+		StringBuilder sb = new StringBuilder(48);
+		appendRange(sb,prefix,crit);
+		return finish(sb);
+	}
+	
+	protected void appendRange(StringBuilder sb, String prefix, RangeCriterion crit)
+	{
+		sb.append(crit.getKey()).append(':');
+		sb.append(crit.getMinInclusive()?'[':'{');
+		appendValue(sb,crit.getMinValue());
+		sb.append(" TO ");
+		appendValue(sb,crit.getMaxValue());
+		sb.append(crit.getMaxInclusive()?']':'}');
 	}
 
 }
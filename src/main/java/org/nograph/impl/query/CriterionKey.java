@@ -0,0 +1,235 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.GenericNode;
+
+/**
+ * Canonical string form of a criterion tree, for use as a cache key.
+ * 
+ * Nested sets with the same operation are flattened and their children sorted and deduped, so an AND or OR
+ * of the same children in any order gives the same key.  Strings are length prefixed so no value can look
+ * like structure.  Whole numbers and decimals are kept apart since backends don't always match them alike.
+ * 
+ * @author aholinch
+ *
+ */
+public class CriterionKey 
+{
+	private CriterionKey()
+	{
+		
+	}
+	
+	public static String canonical(Criterion crit)
+	{
+		StringBuilder sb = new StringBuilder(64);
+		append(sb, crit);
+		return sb.toString();
+	}
+	
+	protected static void append(StringBuilder sb, Criterion crit)
+	{
+		if(crit == null)
+		{
+			sb.append('*');
+		}
+		else if(crit instanceof SimpleCriterion)
+		{
+			SimpleCriterion sc = (SimpleCriterion)crit;
+			sb.append("S(");
+			appendString(sb, sc.getKey());
+			sb.append(',').append(sc.getOperator()).append(',');
+			appendValue(sb, sc.getValue());
+			sb.append(')');
+		}
+		else if(crit instanceof RangeCriterion)
+		{
+			RangeCriterion rc = (RangeCriterion)crit;
+			sb.append("R(");
+			appendString(sb, rc.getKey());
+			sb.append(',').append(rc.getMinInclusive()?'[':'(');
+			appendValue(sb, rc.getMinValue());
+			sb.append(',');
+			appendValue(sb, rc.getMaxValue());
+			sb.append(rc.getMaxInclusive()?']':')').append(')');
+		}
+		else if(crit instanceof SetCriterion)
+		{
+			SetCriterion set = (SetCriterion)crit;
+			int op = set.getSetOperation();
+			
+			List<Criterion> kids = new ArrayList<Criterion>();
+			flatten(set, op, kids);
+			
+			TreeSet<String> keys = new TreeSet<String>();
+			int size = kids.size();
+			for(int i=0; i<size; i++)
+			{
+				keys.add(canonical(kids.get(i)));
+			}
+			
+			if(keys.size() == 1)
+			{
+				sb.append(keys.first());
+				return;
+			}
+			
+			sb.append(op == SetCriterion.COMB_OR?"O(":"A(");
+			boolean first = true;
+			for(String k : keys)
+			{
+				if(!first) sb.append(',');
+				sb.append(k);
+				first = false;
+			}
+			sb.append(')');
+		}
+		else
+		{
+			sb.append("X(").append(crit.getClass().getName()).append(':');
+			appendString(sb, crit.toString());
+			sb.append(')');
+		}
+	}
+	
+	protected static void flatten(SetCriterion set, int op, List<Criterion> out)
+	{
+		int nc = set.getNumCriteria();
+		Criterion c = null;
+		for(int i=0; i<nc; i++)
+		{
+			c = set.getCriterion(i);
+			if(c instanceof SetCriterion && ((SetCriterion)c).getSetOperation() == op)
+			{
+				flatten((SetCriterion)c, op, out);
+			}
+			else
+			{
+				out.add(c);
+			}
+		}
+	}
+	
+	protected static void appendString(StringBuilder sb, String str)
+	{
+		if(str == null)
+		{
+			sb.append('~');
+			return;
+		}
+		sb.append(str.length()).append(':').append(str);
+	}
+	
+	protected static void appendValue(StringBuilder sb, Object val)
+	{
+		if(val == null)
+		{
+			sb.append('~');
+		}
+		else if(val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte)
+		{
+			sb.append('i').append(((Number)val).longValue());
+		}
+		else if(val instanceof Double || val instanceof Float)
+		{
+			sb.append('d').append(((Number)val).doubleValue());
+		}
+		else if(val instanceof Boolean)
+		{
+			sb.append('b').append(val);
+		}
+		else if(val instanceof String)
+		{
+			sb.append('s');
+			appendString(sb, (String)val);
+		}
+		else
+		{
+			sb.append('o');
+			appendString(sb, val.getClass().getName());
+			appendString(sb, val.toString());
+		}
+	}
+	
+	/**
+	 * The types a query can return, from type equality tests that must hold.
+	 * 
+	 * @param crit
+	 * @return the types or null if it could match any type
+	 */
+	public static Set<String> typesOf(Criterion crit)
+	{
+		if(crit instanceof SimpleCriterion)
+		{
+			SimpleCriterion sc = (SimpleCriterion)crit;
+			if(GenericNode.TYPE_KEY.equals(sc.getKey()) && sc.getOperator() == SimpleCriterion.OP_EQUAL && sc.getValue() != null)
+			{
+				Set<String> out = new HashSet<String>();
+				out.add(sc.getValue().toString());
+				return out;
+			}
+			return null;
+		}
+		
+		if(!(crit instanceof SetCriterion)) return null;
+		
+		SetCriterion set = (SetCriterion)crit;
+		int nc = set.getNumCriteria();
+		Set<String> out = null;
+		Set<String> kid = null;
+		if(set.getSetOperation() == SetCriterion.COMB_OR)
+		{
+			// every branch has to be limited
+			out = new HashSet<String>();
+			for(int i=0; i<nc; i++)
+			{
+				kid = typesOf(set.getCriterion(i));
+				if(kid == null) return null;
+				out.addAll(kid);
+			}
+			return nc == 0?null:out;
+		}
+		
+		// any limited branch limits the whole and
+		for(int i=0; i<nc; i++)
+		{
+			kid = typesOf(set.getCriterion(i));
+			if(kid == null) continue;
+			if(out == null)
+			{
+				out = kid;
+			}
+			else
+			{
+				out.retainAll(kid);
+			}
+		}
+		return out;
+	}
+}
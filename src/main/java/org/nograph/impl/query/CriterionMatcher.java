@@ -0,0 +1,250 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+
+/**
+ * Evaluates a criterion tree against values in memory, for backends that have no query language of their own.
+ * 
+ * Numbers compare by value whatever their boxed type, other values compare if they are Comparable and
+ * otherwise fall back to their strings.  LIKE takes % and * for any run of characters and _ and ? for one.
+ * A missing value only matches NOT_EQUAL.  A null criterion matches everything.
+ * 
+ * @author aholinch
+ *
+ */
+public class CriterionMatcher 
+{
+	/**
+	 * Where the matcher gets a value for a key.
+	 */
+	public static interface ValueSource
+	{
+		public Object getValue(String key);
+	}
+	
+	protected Criterion crit = null;
+	protected Map<SimpleCriterion,Pattern> likes = new IdentityHashMap<SimpleCriterion,Pattern>();
+	
+	public CriterionMatcher(Criterion crit)
+	{
+		this.crit = crit;
+		compileLikes(crit);
+	}
+	
+	protected void compileLikes(Criterion c)
+	{
+		if(c instanceof SimpleCriterion)
+		{
+			SimpleCriterion sc = (SimpleCriterion)c;
+			if(sc.getOperator() == SimpleCriterion.OP_LIKE && sc.getValue() != null)
+			{
+				likes.put(sc, likeToPattern(String.valueOf(sc.getValue())));
+			}
+		}
+		else if(c instanceof SetCriterion)
+		{
+			SetCriterion set = (SetCriterion)c;
+			int nc = set.getNumCriteria();
+			for(int i=0; i<nc; i++)
+			{
+				compileLikes(set.getCriterion(i));
+			}
+		}
+	}
+	
+	public static Pattern likeToPattern(String like)
+	{
+		StringBuilder sb = new StringBuilder(like.length()+8);
+		int len = like.length();
+		char c = 0;
+		int start = 0;
+		for(int i=0; i<len; i++)
+		{
+			c = like.charAt(i);
+			if(c == '%' || c == '*' || c == '_' || c == '?')
+			{
+				if(i > start) sb.append(Pattern.quote(like.substring(start, i)));
+				sb.append((c == '%' || c == '*')?".*":".");
+				start = i+1;
+			}
+		}
+		if(len > start) sb.append(Pattern.quote(like.substring(start)));
+		
+		return Pattern.compile(sb.toString(), Pattern.DOTALL);
+	}
+	
+	public boolean matches(ValueSource src)
+	{
+		return matches(crit, src);
+	}
+	
+	protected boolean matches(Criterion c, ValueSource src)
+	{
+		if(c == null) return true;
+		
+		if(c instanceof SimpleCriterion)
+		{
+			return matchesSimple((SimpleCriterion)c, src);
+		}
+		else if(c instanceof SetCriterion)
+		{
+			SetCriterion set = (SetCriterion)c;
+			int nc = set.getNumCriteria();
+			if(nc < 1) return true;
+			
+			boolean or = set.getSetOperation() == SetCriterion.COMB_OR;
+			for(int i=0; i<nc; i++)
+			{
+				if(matches(set.getCriterion(i), src) == or)
+				{
+					return or;
+				}
+			}
+			return !or;
+		}
+		else if(c instanceof RangeCriterion)
+		{
+			RangeCriterion rc = (RangeCriterion)c;
+			Object val = src.getValue(rc.getKey());
+			if(val == null) return false;
+			
+			Integer cmp = null;
+			if(rc.getMinValue() != null)
+			{
+				cmp = compare(val, rc.getMinValue());
+				if(cmp == null) return false;
+				if(cmp < 0 || (cmp == 0 && !rc.getMinInclusive())) return false;
+			}
+			if(rc.getMaxValue() != null)
+			{
+				cmp = compare(val, rc.getMaxValue());
+				if(cmp == null) return false;
+				if(cmp > 0 || (cmp == 0 && !rc.getMaxInclusive())) return false;
+			}
+			return true;
+		}
+		
+		return false;
+	}
+	
+	protected boolean matchesSimple(SimpleCriterion sc, ValueSource src)
+	{
+		Object val = src.getValue(sc.getKey());
+		Object target = sc.getValue();
+		int op = sc.getOperator();
+		
+		if(op == SimpleCriterion.OP_NOT_EQUAL)
+		{
+			return !valuesEqual(val, target);
+		}
+		
+		if(val == null) return false;
+		
+		if(op == SimpleCriterion.OP_EQUAL)
+		{
+			return valuesEqual(val, target);
+		}
+		
+		if(op == SimpleCriterion.OP_LIKE)
+		{
+			Pattern p = likes.get(sc);
+			if(p == null) return false;
+			return p.matcher(String.valueOf(val)).matches();
+		}
+		
+		Integer cmp = compare(val, target);
+		if(cmp == null) return false;
+		
+		switch(op)
+		{
+			case SimpleCriterion.OP_GT:
+				return cmp > 0;
+			case SimpleCriterion.OP_GE:
+				return cmp >= 0;
+			case SimpleCriterion.OP_LT:
+				return cmp < 0;
+			case SimpleCriterion.OP_LE:
+				return cmp <= 0;
+		}
+		return false;
+	}
+	
+	public static boolean valuesEqual(Object a, Object b)
+	{
+		if(a == null || b == null) return a == b;
+		if(a.equals(b)) return true;
+		
+		Integer cmp = compare(a, b);
+		return cmp != null && cmp == 0;
+	}
+	
+	/**
+	 * 
+	 * @param a
+	 * @param b
+	 * @return null if the two can't be ordered
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Integer compare(Object a, Object b)
+	{
+		if(a == null || b == null) return null;
+		
+		if(a instanceof Number && b instanceof Number)
+		{
+			if(isIntegral(a) && isIntegral(b))
+			{
+				return Long.compare(((Number)a).longValue(), ((Number)b).longValue());
+			}
+			return Double.compare(((Number)a).doubleValue(), ((Number)b).doubleValue());
+		}
+		
+		if(a instanceof Number && b instanceof String)
+		{
+			// values typed in by hand come through as strings
+			try
+			{
+				return compare(a, Double.valueOf((String)b));
+			}
+			catch(NumberFormatException ex)
+			{
+				return null;
+			}
+		}
+		
+		if(a instanceof Comparable && a.getClass() == b.getClass())
+		{
+			return ((Comparable)a).compareTo(b);
+		}
+		
+		return a.toString().compareTo(b.toString());
+	}
+	
+	protected static boolean isIntegral(Object o)
+	{
+		return o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte;
+	}
+}
@@ -0,0 +1,73 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A translated cypher predicate and the parameters it refers to.
+ * 
+ * The label is the type pulled out of the top of the query so it can go in the match pattern, where an
+ * index can use it.  Where is the rest of the predicate, or null if there isn't any.
+ * 
+ * @author aholinch
+ *
+ */
+public class CypherClause 
+{
+	protected String label = null;
+	protected String where = null;
+	protected Map<String,Object> params = null;
+	
+	public CypherClause()
+	{
+		params = new HashMap<String,Object>();
+	}
+	
+	public CypherClause(String label, String where, Map<String,Object> params)
+	{
+		this.label = label;
+		this.where = where;
+		this.params = params;
+	}
+	
+	public String getLabel()
+	{
+		return label;
+	}
+	
+	public String getWhere()
+	{
+		return where;
+	}
+	
+	public Map<String,Object> getParams()
+	{
+		return params;
+	}
+	
+	/**
+	 * The where text, or an empty string, so the clause can be dropped into a statement.
+	 */
+	public String toString()
+	{
+		if(where == null) return "";
+		return where;
+	}
+}
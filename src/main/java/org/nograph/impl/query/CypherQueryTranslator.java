@@ -0,0 +1,543 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.GenericNode;
+
+/**
+ * Translates criteria into cypher predicates with every value passed as a parameter.
+ * 
+ * Parameters are named $p0, $p1... in the order they are visited so two queries of the same shape give
+ * the same text and the server can reuse the plan it compiled the first time.  The prefix is the variable
+ * the predicate is written against, like n or r.  The type key becomes a label test and the id key becomes
+ * id(prefix).  An equality on type at the top of the query is pulled out as the label for the match
+ * pattern.  An IN set from the QueryOptimizer becomes one IN test against a list parameter.  LIKE uses the
+ * same wildcards as CriterionMatcher and missing values match NOT_EQUAL.
+ * 
+ * The translate methods return a CypherClause holding the parameters.  Appending to a plain buffer loses
+ * them so use appendClause with a parameter map instead.
+ * 
+ * @author aholinch
+ *
+ */
+public class CypherQueryTranslator implements QueryTranslator 
+{
+	public CypherQueryTranslator()
+	{
+		
+	}
+
+	@Override
+	public Object graphQueryToNativeNode(String prefix, GraphQuery query)
+	{
+		return translate(prefix, query.getCriterion(), false, true);
+	}
+
+	@Override
+	public Object graphQueryToNativeRel(String prefix, GraphQuery query)
+	{
+		return translate(prefix, query.getCriterion(), true, true);
+	}
+	
+	/**
+	 * 
+	 * @param prefix the variable name
+	 * @param crit
+	 * @param rel true if the variable is a relationship
+	 * @param pullLabel true to move a top level type equality into the label
+	 * @return
+	 */
+	public CypherClause translate(String prefix, Criterion crit, boolean rel, boolean pullLabel)
+	{
+		return translate(prefix, crit, rel, pullLabel, new HashMap<String,Object>());
+	}
+	
+	/**
+	 * Translate into an existing parameter map, so several clauses can go in one statement without
+	 * their parameter names colliding.
+	 * 
+	 * @param prefix the variable name
+	 * @param crit
+	 * @param rel true if the variable is a relationship
+	 * @param pullLabel true to move a top level type equality into the label
+	 * @param params parameters are added here and named after its size
+	 * @return
+	 */
+	public CypherClause translate(String prefix, Criterion crit, boolean rel, boolean pullLabel, Map<String,Object> params)
+	{
+		Criterion skip = null;
+		String label = null;
+		if(pullLabel)
+		{
+			skip = findLabelCriterion(crit);
+			if(skip != null)
+			{
+				label = String.valueOf(((SimpleCriterion)skip).getValue());
+			}
+		}
+		
+		StringBuilder sb = new StringBuilder(64);
+		if(crit != skip)
+		{
+			appendClause(sb, prefix, crit, rel, skip, params);
+		}
+		
+		String where = null;
+		if(sb.length() > 0) where = sb.toString();
+		
+		return new CypherClause(label, where, params);
+	}
+	
+	/**
+	 * A type equality that every match has to satisfy, either the root or a child of a root AND.
+	 */
+	protected Criterion findLabelCriterion(Criterion crit)
+	{
+		if(isTypeEquality(crit)) return crit;
+		
+		if(crit instanceof SetCriterion)
+		{
+			SetCriterion set = (SetCriterion)crit;
+			if(set.getSetOperation() != SetCriterion.COMB_AND) return null;
+			
+			int nc = set.getNumCriteria();
+			for(int i=0; i<nc; i++)
+			{
+				if(isTypeEquality(set.getCriterion(i))) return set.getCriterion(i);
+			}
+		}
+		
+		return null;
+	}
+	
+	protected boolean isTypeEquality(Criterion crit)
+	{
+		if(!(crit instanceof SimpleCriterion)) return false;
+		
+		SimpleCriterion sc = (SimpleCriterion)crit;
+		return sc.getOperator() == SimpleCriterion.OP_EQUAL && sc.getValue() != null && GenericNode.TYPE_KEY.equals(sc.getKey());
+	}
+
+	@Override
+	public Object criterionToClause(String prefix, Criterion crit)
+	{
+		return translate(prefix, crit, false, false);
+	}
+
+	@Override
+	public Object simpleCriterionToClause(String prefix, SimpleCriterion crit)
+	{
+		return translate(prefix, crit, false, false);
+	}
+
+	@Override
+	public Object setCriterionToClause(String prefix, SetCriterion crit)
+	{
+		return translate(prefix, crit, false, false);
+	}
+
+	@Override
+	public Object rangeCriterionToClause(String prefix, RangeCriterion crit)
+	{
+		return translate(prefix, crit, false, false);
+	}
+	
+	/**
+	 * 
+	 * @param sb
+	 * @param prefix
+	 * @param crit
+	 * @param rel
+	 * @param skip a criterion already handled by the label, left out
+	 * @param params filled with the values
+	 */
+	public void appendClause(StringBuilder sb, String prefix, Criterion crit, boolean rel, Criterion skip, Map<String,Object> params)
+	{
+		if(crit == skip) return;
+		
+		if(crit instanceof SimpleCriterion)
+		{
+			appendSimple(sb, prefix, (SimpleCriterion)crit, rel, params);
+		}
+		else if(crit instanceof SetCriterion)
+		{
+			appendSet(sb, prefix, (SetCriterion)crit, rel, skip, params);
+		}
+		else if(crit instanceof RangeCriterion)
+		{
+			appendRange(sb, prefix, (RangeCriterion)crit, params);
+		}
+	}
+	
+	protected void appendSet(StringBuilder sb, String prefix, SetCriterion crit, boolean rel, Criterion skip, Map<String,Object> params)
+	{
+		int numcrit = crit.getNumCriteria();
+		if(numcrit < 1) return;
+		
+		if(numcrit == 1)
+		{
+			appendClause(sb, prefix, crit.getCriterion(0), rel, skip, params);
+			return;
+		}
+		
+		String opStr = " AND ";
+		boolean or = crit.getSetOperation() == SetCriterion.COMB_OR;
+		if(or)
+		{
+			String key = QueryOptimizer.inSetKey(crit);
+			if(key != null)
+			{
+				appendIn(sb, prefix, key, crit, rel, params);
+				return;
+			}
+			
+			opStr = " OR ";
+		}
+		
+		int mark = 0;
+		int inner = 0;
+		int written = 0;
+		int open = sb.length();
+		sb.append('(');
+		for(int i=0; i<numcrit; i++)
+		{
+			mark = sb.length();
+			if(written > 0) sb.append(opStr);
+			inner = sb.length();
+			appendClause(sb, prefix, crit.getCriterion(i), rel, skip, params);
+			if(sb.length() == inner)
+			{
+				// a child that writes nothing matches everything, which makes an OR match everything too
+				if(or)
+				{
+					sb.setLength(open);
+					return;
+				}
+				sb.setLength(mark);
+			}
+			else
+			{
+				written++;
+			}
+		}
+		
+		if(written == 0)
+		{
+			sb.setLength(open);
+		}
+		else
+		{
+			sb.append(')');
+		}
+	}
+	
+	/**
+	 * An OR of equalities on one key as a single IN test against a list parameter.
+	 */
+	protected void appendIn(StringBuilder sb, String prefix, String key, SetCriterion crit, boolean rel, Map<String,Object> params)
+	{
+		int nc = crit.getNumCriteria();
+		List<Object> vals = new ArrayList<Object>(nc);
+		boolean ids = GenericNode.ID_KEY.equals(key);
+		boolean types = GenericNode.TYPE_KEY.equals(key);
+		Object val = null;
+		for(int i=0; i<nc; i++)
+		{
+			val = ((SimpleCriterion)crit.getCriterion(i)).getValue();
+			if(ids)
+			{
+				val = toID(val);
+				if(val == null) continue;
+			}
+			else if(types)
+			{
+				val = String.valueOf(val);
+			}
+			else
+			{
+				val = toParamValue(val);
+			}
+			vals.add(val);
+		}
+		
+		if(vals.size() == 0)
+		{
+			sb.append("false");
+			return;
+		}
+		
+		String name = "p" + params.size();
+		params.put(name, vals);
+		
+		if(ids)
+		{
+			sb.append("id(").append(prefix).append(") IN $").append(name);
+		}
+		else if(types && rel)
+		{
+			sb.append("type(").append(prefix).append(") IN $").append(name);
+		}
+		else if(types)
+		{
+			sb.append("any(l IN labels(").append(prefix).append(") WHERE l IN $").append(name).append(')');
+		}
+		else
+		{
+			appendProperty(sb, prefix, key);
+			sb.append(" IN $").append(name);
+		}
+	}
+	
+	protected void appendSimple(StringBuilder sb, String prefix, SimpleCriterion crit, boolean rel, Map<String,Object> params)
+	{
+		String key = crit.getKey();
+		Object val = crit.getValue();
+		int op = crit.getOperator();
+		
+		if(GenericNode.TYPE_KEY.equals(key))
+		{
+			appendTypeTest(sb, prefix, op, val, rel, params);
+			return;
+		}
+		
+		if(GenericNode.ID_KEY.equals(key))
+		{
+			appendIdTest(sb, prefix, op, val, params);
+			return;
+		}
+		
+		if(val == null)
+		{
+			// nothing equals a missing value, everything is not equal to it
+			sb.append(op == SimpleCriterion.OP_NOT_EQUAL?"true":"false");
+			return;
+		}
+		
+		if(op == SimpleCriterion.OP_NOT_EQUAL)
+		{
+			sb.append('(');
+			appendProperty(sb, prefix, key);
+			sb.append(" IS NULL OR ");
+			appendProperty(sb, prefix, key);
+			sb.append(" <> ");
+			appendParam(sb, val, params);
+			sb.append(')');
+			return;
+		}
+		
+		appendProperty(sb, prefix, key);
+		if(op == SimpleCriterion.OP_LIKE)
+		{
+			sb.append(" =~ ");
+			appendParam(sb, "(?s)"+CriterionMatcher.likeToPattern(String.valueOf(val)).pattern(), params);
+			return;
+		}
+		
+		sb.append(' ').append(opToString(op)).append(' ');
+		appendParam(sb, val, params);
+	}
+	
+	protected void appendTypeTest(StringBuilder sb, String prefix, int op, Object val, boolean rel, Map<String,Object> params)
+	{
+		if(val == null)
+		{
+			sb.append(op == SimpleCriterion.OP_NOT_EQUAL?"true":"false");
+			return;
+		}
+		
+		if(op == SimpleCriterion.OP_NOT_EQUAL) sb.append("NOT ");
+		
+		if(rel)
+		{
+			sb.append("type(").append(prefix).append(") = ");
+			appendParam(sb, String.valueOf(val), params);
+		}
+		else
+		{
+			appendParam(sb, String.valueOf(val), params);
+			sb.append(" IN labels(").append(prefix).append(')');
+		}
+	}
+	
+	/**
+	 * 
+	 * @param val
+	 * @return the neo4j id or null if it isn't one
+	 */
+	protected Long toID(Object val)
+	{
+		if(val instanceof Number)
+		{
+			return ((Number)val).longValue();
+		}
+		
+		if(val != null)
+		{
+			try
+			{
+				return Long.parseLong(String.valueOf(val).trim());
+			}
+			catch(Exception ex)
+			{
+				// not a neo4j id so nothing has it
+			}
+		}
+		return null;
+	}
+	
+	protected void appendIdTest(StringBuilder sb, String prefix, int op, Object val, Map<String,Object> params)
+	{
+		Long id = toID(val);
+		if(id == null)
+		{
+			sb.append(op == SimpleCriterion.OP_NOT_EQUAL?"true":"false");
+			return;
+		}
+		
+		String opStr = "=";
+		if(op != SimpleCriterion.OP_LIKE) opStr = opToString(op);
+		
+		sb.append("id(").append(prefix).append(") ").append(opStr).append(' ');
+		appendParam(sb, id, params);
+	}
+	
+	protected void appendRange(StringBuilder sb, String prefix, RangeCriterion crit, Map<String,Object> params)
+	{
+		Object min = crit.getMinValue();
+		Object max = crit.getMaxValue();
+		if(min == null && max == null)
+		{
+			sb.append("exists(");
+			appendProperty(sb, prefix, crit.getKey());
+			sb.append(')');
+			return;
+		}
+		
+		boolean both = min != null && max != null;
+		if(both) sb.append('(');
+		if(min != null)
+		{
+			appendProperty(sb, prefix, crit.getKey());
+			sb.append(crit.getMinInclusive()?" >= ":" > ");
+			appendParam(sb, min, params);
+		}
+		if(both) sb.append(" AND ");
+		if(max != null)
+		{
+			appendProperty(sb, prefix, crit.getKey());
+			sb.append(crit.getMaxInclusive()?" <= ":" < ");
+			appendParam(sb, max, params);
+		}
+		if(both) sb.append(')');
+	}
+	
+	protected void appendParam(StringBuilder sb, Object val, Map<String,Object> params)
+	{
+		String name = "p" + params.size();
+		params.put(name, toParamValue(val));
+		sb.append('$').append(name);
+	}
+	
+	/**
+	 * Values the driver can't send as they are.
+	 */
+	protected Object toParamValue(Object val)
+	{
+		if(val instanceof java.util.Date)
+		{
+			return ((java.util.Date)val).getTime();
+		}
+		return val;
+	}
+	
+	/**
+	 * Appends prefix.key, quoting the key unless it is a plain identifier.
+	 */
+	public static void appendProperty(StringBuilder sb, String prefix, String key)
+	{
+		sb.append(prefix).append('.');
+		appendName(sb, key);
+	}
+	
+	/**
+	 * Appends a property, label or type name, in backticks if it needs them.
+	 */
+	public static void appendName(StringBuilder sb, String name)
+	{
+		if(isIdentifier(name))
+		{
+			sb.append(name);
+			return;
+		}
+		
+		sb.append('`');
+		int len = name.length();
+		char c = 0;
+		for(int i=0; i<len; i++)
+		{
+			c = name.charAt(i);
+			if(c == '`') sb.append('`');
+			sb.append(c);
+		}
+		sb.append('`');
+	}
+	
+	protected static boolean isIdentifier(String name)
+	{
+		int len = name.length();
+		if(len == 0) return false;
+		
+		char c = 0;
+		for(int i=0; i<len; i++)
+		{
+			c = name.charAt(i);
+			if(c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) continue;
+			if(i > 0 && c >= '0' && c <= '9') continue;
+			return false;
+		}
+		return true;
+	}
+	
+	protected String opToString(int opCode)
+	{
+		switch(opCode)
+		{
+			case SimpleCriterion.OP_GT:
+				return ">";
+			case SimpleCriterion.OP_LT:
+				return "<";
+			case SimpleCriterion.OP_GE:
+				return ">=";
+			case SimpleCriterion.OP_LE:
+				return "<=";
+			case SimpleCriterion.OP_NOT_EQUAL:
+				return "<>";
+		}
+		return "=";
+	}
+}
@@ -0,0 +1,502 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.GenericNode;
+
+/**
+ * Translates criteria into elasticsearch query dsl that runs entirely in filter context.
+ * 
+ * Filters skip scoring and elasticsearch can cache them, which a query_string can't do.  ANDs become bool
+ * filter clauses, ORs become bool should, and an OR of equalities on one key collapses to a single terms
+ * query.  String values are matched exactly against the keyword sub field that dynamic mapping adds, set
+ * the suffix to an empty string if the index maps strings as keyword directly.  The id key becomes an ids
+ * query.  LIKE takes the same wildcards as CriterionMatcher and a missing value matches NOT_EQUAL.
+ * 
+ * The prefix is put in front of every field name, like node1. for an endpoint.
+ * 
+ * @author aholinch
+ *
+ */
+public class ElasticDslQueryTranslator implements QueryTranslator 
+{
+	protected String keywordSuffix = ".keyword";
+	
+	public ElasticDslQueryTranslator()
+	{
+		
+	}
+	
+	public ElasticDslQueryTranslator(String keywordSuffix)
+	{
+		if(keywordSuffix == null) keywordSuffix = "";
+		this.keywordSuffix = keywordSuffix;
+	}
+	
+	public String getKeywordSuffix()
+	{
+		return keywordSuffix;
+	}
+
+	@Override
+	public Object graphQueryToNativeNode(String prefix, GraphQuery query)
+	{
+		return queryToNative(prefix, query.getCriterion());
+	}
+
+	@Override
+	public Object graphQueryToNativeRel(String prefix, GraphQuery query)
+	{
+		return queryToNative(prefix, query.getCriterion());
+	}
+	
+	/**
+	 * The query object for a search body, wrapped in a filter so nothing gets scored.
+	 */
+	public String queryToNative(String prefix, Criterion crit)
+	{
+		StringBuilder sb = new StringBuilder(128);
+		sb.append("{\"bool\":{\"filter\":[");
+		int mark = sb.length();
+		appendClause(sb, prefix, crit);
+		if(sb.length() == mark)
+		{
+			return "{\"match_all\":{}}";
+		}
+		sb.append("]}}");
+		return sb.toString();
+	}
+
+	@Override
+	public Object criterionToClause(String prefix, Criterion crit)
+	{
+		StringBuilder sb = new StringBuilder(64);
+		appendClause(sb, prefix, crit);
+		return finish(sb);
+	}
+
+	@Override
+	public Object simpleCriterionToClause(String prefix, SimpleCriterion crit)
+	{
+		StringBuilder sb = new StringBuilder(64);
+		appendSimple(sb, prefix, crit);
+		return finish(sb);
+	}
+
+	@Override
+	public Object setCriterionToClause(String prefix, SetCriterion crit)
+	{
+		StringBuilder sb = new StringBuilder(64);
+		appendSet(sb, prefix, crit);
+		return finish(sb);
+	}
+
+	@Override
+	public Object rangeCriterionToClause(String prefix, RangeCriterion crit)
+	{
+		StringBuilder sb = new StringBuilder(64);
+		appendRange(sb, prefix, crit);
+		return finish(sb);
+	}
+	
+	protected String finish(StringBuilder sb)
+	{
+		if(sb.length() == 0) return null;
+		return sb.toString();
+	}
+	
+	@Override
+	public void appendClause(StringBuilder sb, String prefix, Criterion crit)
+	{
+		if(crit instanceof SimpleCriterion)
+		{
+			appendSimple(sb, prefix, (SimpleCriterion)crit);
+		}
+		else if(crit instanceof SetCriterion)
+		{
+			appendSet(sb, prefix, (SetCriterion)crit);
+		}
+		else if(crit instanceof RangeCriterion)
+		{
+			appendRange(sb, prefix, (RangeCriterion)crit);
+		}
+	}
+	
+	protected void appendSet(StringBuilder sb, String prefix, SetCriterion crit)
+	{
+		int numcrit = crit.getNumCriteria();
+		if(numcrit < 1) return;
+		
+		if(numcrit == 1)
+		{
+			appendClause(sb, prefix, crit.getCriterion(0));
+			return;
+		}
+		
+		boolean or = crit.getSetOperation() == SetCriterion.COMB_OR;
+		if(or && appendTerms(sb, prefix, crit)) return;
+		
+		int open = sb.length();
+		sb.append(or?"{\"bool\":{\"should\":[":"{\"bool\":{\"filter\":[");
+		
+		int mark = 0;
+		int inner = 0;
+		int written = 0;
+		for(int i=0; i<numcrit; i++)
+		{
+			mark = sb.length();
+			if(written > 0) sb.append(',');
+			inner = sb.length();
+			appendClause(sb, prefix, crit.getCriterion(i));
+			if(sb.length() == inner)
+			{
+				// a child that writes nothing matches everything, which makes a should match everything too
+				if(or)
+				{
+					sb.setLength(open);
+					return;
+				}
+				sb.setLength(mark);
+			}
+			else
+			{
+				written++;
+			}
+		}
+		
+		if(written == 0)
+		{
+			sb.setLength(open);
+			return;
+		}
+		
+		sb.append(']');
+		if(or) sb.append(",\"minimum_should_match\":1");
+		sb.append("}}");
+	}
+	
+	/**
+	 * Writes an OR of equalities on one key as a single terms or ids query.
+	 * 
+	 * @return false if the set isn't that shape and nothing was written
+	 */
+	protected boolean appendTerms(StringBuilder sb, String prefix, SetCriterion crit)
+	{
+		int numcrit = crit.getNumCriteria();
+		String key = null;
+		Boolean strings = null;
+		Criterion c = null;
+		SimpleCriterion sc = null;
+		for(int i=0; i<numcrit; i++)
+		{
+			c = crit.getCriterion(i);
+			if(!(c instanceof SimpleCriterion)) return false;
+			
+			sc = (SimpleCriterion)c;
+			if(sc.getOperator() != SimpleCriterion.OP_EQUAL || sc.getValue() == null || sc.getKey() == null) return false;
+			if(key == null)
+			{
+				key = sc.getKey();
+			}
+			else if(!key.equals(sc.getKey()))
+			{
+				return false;
+			}
+			
+			// strings and numbers go to different fields
+			boolean isStr = isString(sc.getValue());
+			if(strings == null)
+			{
+				strings = isStr;
+			}
+			else if(strings.booleanValue() != isStr)
+			{
+				return false;
+			}
+		}
+		
+		boolean ids = isIdKey(prefix, key);
+		if(ids)
+		{
+			sb.append("{\"ids\":{\"values\":[");
+		}
+		else
+		{
+			sb.append("{\"terms\":{");
+			appendField(sb, prefix, key, strings);
+			sb.append(":[");
+		}
+		
+		for(int i=0; i<numcrit; i++)
+		{
+			if(i > 0) sb.append(',');
+			sc = (SimpleCriterion)crit.getCriterion(i);
+			if(ids)
+			{
+				appendString(sb, String.valueOf(sc.getValue()));
+			}
+			else
+			{
+				appendValue(sb, sc.getValue());
+			}
+		}
+		sb.append("]}}");
+		return true;
+	}
+	
+	protected void appendSimple(StringBuilder sb, String prefix, SimpleCriterion crit)
+	{
+		String key = crit.getKey();
+		Object val = crit.getValue();
+		int op = crit.getOperator();
+		
+		if(val == null)
+		{
+			// nothing equals a missing value, everything is not equal to it
+			sb.append(op == SimpleCriterion.OP_NOT_EQUAL?"{\"match_all\":{}}":"{\"bool\":{\"must_not\":[{\"match_all\":{}}]}}");
+			return;
+		}
+		
+		if(op == SimpleCriterion.OP_NOT_EQUAL)
+		{
+			sb.append("{\"bool\":{\"must_not\":[");
+			appendEquals(sb, prefix, key, val);
+			sb.append("]}}");
+			return;
+		}
+		
+		if(op == SimpleCriterion.OP_EQUAL)
+		{
+			appendEquals(sb, prefix, key, val);
+			return;
+		}
+		
+		if(op == SimpleCriterion.OP_LIKE)
+		{
+			sb.append("{\"wildcard\":{");
+			appendField(sb, prefix, key, true);
+			sb.append(":{\"value\":");
+			appendString(sb, likeToWildcard(String.valueOf(val)));
+			sb.append("}}}");
+			return;
+		}
+		
+		String rop = null;
+		switch(op)
+		{
+			case SimpleCriterion.OP_GT:
+				rop = "gt";
+				break;
+			case SimpleCriterion.OP_GE:
+				rop = "gte";
+				break;
+			case SimpleCriterion.OP_LT:
+				rop = "lt";
+				break;
+			default:
+				rop = "lte";
+				break;
+		}
+		
+		sb.append("{\"range\":{");
+		appendField(sb, prefix, key, isString(val));
+		sb.append(":{\"").append(rop).append("\":");
+		appendValue(sb, val);
+		sb.append("}}}");
+	}
+	
+	protected void appendEquals(StringBuilder sb, String prefix, String key, Object val)
+	{
+		if(isIdKey(prefix, key))
+		{
+			sb.append("{\"ids\":{\"values\":[");
+			appendString(sb, String.valueOf(val));
+			sb.append("]}}");
+			return;
+		}
+		
+		sb.append("{\"term\":{");
+		appendField(sb, prefix, key, isString(val));
+		sb.append(':');
+		appendValue(sb, val);
+		sb.append("}}");
+	}
+	
+	protected void appendRange(StringBuilder sb, String prefix, RangeCriterion crit)
+	{
+		Object min = crit.getMinValue();
+		Object max = crit.getMaxValue();
+		
+		if(min == null && max == null)
+		{
+			sb.append("{\"exists\":{\"field\":");
+			appendString(sb, prefix + crit.getKey());
+			sb.append("}}");
+			return;
+		}
+		
+		sb.append("{\"range\":{");
+		appendField(sb, prefix, crit.getKey(), isString(min != null?min:max));
+		sb.append(":{");
+		if(min != null)
+		{
+			sb.append(crit.getMinInclusive()?"\"gte\":":"\"gt\":");
+			appendValue(sb, min);
+		}
+		if(max != null)
+		{
+			if(min != null) sb.append(',');
+			sb.append(crit.getMaxInclusive()?"\"lte\":":"\"lt\":");
+			appendValue(sb, max);
+		}
+		sb.append("}}}");
+	}
+	
+	protected boolean isIdKey(String prefix, String key)
+	{
+		return (prefix == null || prefix.length() == 0) && GenericNode.ID_KEY.equals(key);
+	}
+	
+	protected boolean isString(Object val)
+	{
+		return !(val instanceof Number || val instanceof Boolean || val instanceof java.util.Date);
+	}
+	
+	protected void appendField(StringBuilder sb, String prefix, String key, boolean string)
+	{
+		sb.append('"');
+		if(prefix != null) appendEscaped(sb, prefix);
+		appendEscaped(sb, key);
+		if(string) appendEscaped(sb, keywordSuffix);
+		sb.append('"');
+	}
+	
+	protected void appendValue(StringBuilder sb, Object val)
+	{
+		if(val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte)
+		{
+			sb.append(((Number)val).longValue());
+		}
+		else if(val instanceof Double || val instanceof Float)
+		{
+			double d = ((Number)val).doubleValue();
+			if(Double.isNaN(d) || Double.isInfinite(d))
+			{
+				appendString(sb, String.valueOf(d));
+			}
+			else
+			{
+				sb.append(d);
+			}
+		}
+		else if(val instanceof Number)
+		{
+			sb.append(val);
+		}
+		else if(val instanceof Boolean)
+		{
+			sb.append(((Boolean)val).booleanValue());
+		}
+		else if(val instanceof java.util.Date)
+		{
+			sb.append(((java.util.Date)val).getTime());
+		}
+		else
+		{
+			appendString(sb, String.valueOf(val));
+		}
+	}
+	
+	protected static void appendString(StringBuilder sb, String str)
+	{
+		sb.append('"');
+		appendEscaped(sb, str);
+		sb.append('"');
+	}
+	
+	protected static void appendEscaped(StringBuilder sb, String str)
+	{
+		int len = str.length();
+		char c = 0;
+		for(int i=0; i<len; i++)
+		{
+			c = str.charAt(i);
+			switch(c)
+			{
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if(c < 0x20)
+					{
+						sb.append("\\u00");
+						sb.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+					}
+					else
+					{
+						sb.append(c);
+					}
+			}
+		}
+	}
+	
+	/**
+	 * Maps the LIKE wildcards onto elasticsearch's * and ?, escaping a literal backslash.
+	 */
+	protected static String likeToWildcard(String like)
+	{
+		StringBuilder sb = new StringBuilder(like.length()+4);
+		int len = like.length();
+		char c = 0;
+		for(int i=0; i<len; i++)
+		{
+			c = like.charAt(i);
+			if(c == '%')
+			{
+				sb.append('*');
+			}
+			else if(c == '_')
+			{
+				sb.append('?');
+			}
+			else
+			{
+				if(c == '\\') sb.append('\\');
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
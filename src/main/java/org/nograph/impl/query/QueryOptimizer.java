@@ -0,0 +1,838 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.GenericNode;
+
+/**
+ * Rewrites a criterion tree into a smaller equivalent one before it is translated for a backend.
+ * 
+ * Same-operation sets are flattened and duplicate children dropped.  An OR of equalities on one key becomes
+ * an IN set, which is kept as a nested OR of sorted equalities so every translator can still read it and
+ * the ones that know the shape can emit their native IN.  Within an AND the tests on each key are combined:
+ * equalities and IN sets intersect, bounds and ranges merge into one range, and anything that can't be
+ * satisfied turns the AND into NOTHING.  Children are ordered by estimated selectivity, most selective first
+ * for AND and most likely first for OR.
+ * 
+ * Merging tests on a key assumes a property has one value.  Backends that match any element of a list
+ * property should turn that off with setSingleValued(false), which keeps the other rewrites.  Values only
+ * merge with values of the same kind so "5" and 5 are left alone.  The input is never modified.
+ * 
+ * @author aholinch
+ *
+ */
+public class QueryOptimizer 
+{
+	/**
+	 * Returned when nothing can match, a test every translator reads as false.
+	 */
+	public static final SimpleCriterion NOTHING = new SimpleCriterion(GenericNode.ID_KEY, null);
+	
+	/**
+	 * Stands in for a set that matches everything while rewriting.
+	 */
+	private static final SetCriterion ALL = new SetCriterion(SetCriterion.COMB_AND);
+	
+	protected Selectivity selectivity = null;
+	protected boolean singleValued = true;
+	
+	/**
+	 * Estimates the fraction of objects a criterion matches.
+	 */
+	public static interface Selectivity
+	{
+		public double estimate(Criterion crit);
+	}
+	
+	public QueryOptimizer()
+	{
+		this(null);
+	}
+	
+	public QueryOptimizer(Selectivity selectivity)
+	{
+		if(selectivity == null) selectivity = new StatsSelectivity(null, null);
+		this.selectivity = selectivity;
+	}
+	
+	public boolean isSingleValued()
+	{
+		return singleValued;
+	}
+	
+	public void setSingleValued(boolean flag)
+	{
+		singleValued = flag;
+	}
+	
+	public static boolean matchesNothing(Criterion crit)
+	{
+		return crit == NOTHING;
+	}
+	
+	/**
+	 * A copy of the query with the criterion optimized.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	public GraphQuery optimize(GraphQuery query)
+	{
+		GraphQuery out = new GraphQuery();
+		out.setCriterion(optimize(query.getCriterion()));
+		out.setMaxResults(query.getMaxResults());
+		out.setFetchNodesForRelationships(query.getFetchNodesForRelationships());
+		return out;
+	}
+	
+	/**
+	 * 
+	 * @param crit
+	 * @return the rewritten criterion, NOTHING if it can't match
+	 */
+	public Criterion optimize(Criterion crit)
+	{
+		if(crit == null) return null;
+		
+		Criterion out = rewrite(crit);
+		if(out == ALL) return new SetCriterion(SetCriterion.COMB_AND);
+		return out;
+	}
+	
+	protected Criterion rewrite(Criterion crit)
+	{
+		if(crit instanceof SetCriterion)
+		{
+			return rewriteSet((SetCriterion)crit);
+		}
+		
+		if(crit instanceof RangeCriterion && singleValued)
+		{
+			RangeCriterion rc = (RangeCriterion)crit;
+			Integer cmp = compare(rc.getMinValue(), rc.getMaxValue());
+			if(cmp != null && (cmp > 0 || (cmp == 0 && !(rc.getMinInclusive() && rc.getMaxInclusive()))))
+			{
+				return NOTHING;
+			}
+		}
+		
+		return crit;
+	}
+	
+	protected Criterion rewriteSet(SetCriterion set)
+	{
+		int op = set.getSetOperation();
+		boolean or = op == SetCriterion.COMB_OR;
+		
+		// an empty set of either kind matches everything, as the matcher and translators read it
+		int nc = set.getNumCriteria();
+		if(nc < 1) return ALL;
+		
+		// flattened children deduped on their canonical form
+		Map<String,Criterion> kids = new LinkedHashMap<String,Criterion>();
+		Criterion r = null;
+		for(int i=0; i<nc; i++)
+		{
+			r = rewrite(set.getCriterion(i));
+			if(r == null || r == ALL)
+			{
+				if(or) return ALL;
+				continue;
+			}
+			if(r == NOTHING)
+			{
+				if(!or) return NOTHING;
+				continue;
+			}
+			
+			if(r instanceof SetCriterion && ((SetCriterion)r).getSetOperation() == op)
+			{
+				SetCriterion rs = (SetCriterion)r;
+				int rn = rs.getNumCriteria();
+				for(int j=0; j<rn; j++)
+				{
+					kids.put(CriterionKey.canonical(rs.getCriterion(j)), rs.getCriterion(j));
+				}
+			}
+			else
+			{
+				kids.put(CriterionKey.canonical(r), r);
+			}
+		}
+		
+		List<Criterion> list = new ArrayList<Criterion>(kids.values());
+		if(or)
+		{
+			list = groupDisjuncts(list);
+		}
+		else if(singleValued)
+		{
+			list = mergeConjuncts(list);
+			if(list == null) return NOTHING;
+		}
+		
+		if(list.size() == 0) return or?NOTHING:ALL;
+		if(list.size() == 1) return list.get(0);
+		
+		order(list, or);
+		
+		SetCriterion out = new SetCriterion(op);
+		int size = list.size();
+		for(int i=0; i<size; i++)
+		{
+			out.addCriterion(list.get(i));
+		}
+		return out;
+	}
+	
+	/**
+	 * Sorts by estimated selectivity, each estimate computed once.
+	 */
+	protected void order(List<Criterion> list, boolean or)
+	{
+		int size = list.size();
+		List<Object[]> est = new ArrayList<Object[]>(size);
+		for(int i=0; i<size; i++)
+		{
+			est.add(new Object[]{selectivity.estimate(list.get(i)), list.get(i)});
+		}
+		
+		Collections.sort(est, (a,b) -> {
+			int cmp = Double.compare((Double)a[0], (Double)b[0]);
+			return or?-cmp:cmp;
+		});
+		
+		for(int i=0; i<size; i++)
+		{
+			list.set(i, (Criterion)est.get(i)[1]);
+		}
+	}
+	
+	/*
+	 * OR
+	 */
+	
+	/**
+	 * Pulls equalities on the same key together into IN sets, leaving them where the first one was.
+	 */
+	protected List<Criterion> groupDisjuncts(List<Criterion> list)
+	{
+		Map<String,List<SimpleCriterion>> groups = new LinkedHashMap<String,List<SimpleCriterion>>();
+		List<Object> slots = new ArrayList<Object>();
+		
+		int size = list.size();
+		Criterion c = null;
+		String gk = null;
+		List<SimpleCriterion> group = null;
+		for(int i=0; i<size; i++)
+		{
+			c = list.get(i);
+			gk = null;
+			if(isEquality(c))
+			{
+				SimpleCriterion sc = (SimpleCriterion)c;
+				gk = groupKey(sc.getKey(), sc.getValue());
+			}
+			
+			if(gk == null)
+			{
+				slots.add(c);
+				continue;
+			}
+			
+			group = groups.get(gk);
+			if(group == null)
+			{
+				group = new ArrayList<SimpleCriterion>();
+				groups.put(gk, group);
+				slots.add(gk);
+			}
+			group.add((SimpleCriterion)c);
+		}
+		
+		List<Criterion> out = new ArrayList<Criterion>(slots.size());
+		int ns = slots.size();
+		Object slot = null;
+		for(int i=0; i<ns; i++)
+		{
+			slot = slots.get(i);
+			if(slot instanceof String)
+			{
+				group = groups.get(slot);
+				if(group.size() == 1)
+				{
+					out.add(group.get(0));
+				}
+				else
+				{
+					out.add(inSet(group.get(0).getKey(), values(group)));
+				}
+			}
+			else
+			{
+				out.add((Criterion)slot);
+			}
+		}
+		return out;
+	}
+	
+	protected List<Object> values(List<SimpleCriterion> crits)
+	{
+		int size = crits.size();
+		List<Object> vals = new ArrayList<Object>(size);
+		for(int i=0; i<size; i++)
+		{
+			vals.add(crits.get(i).getValue());
+		}
+		return vals;
+	}
+	
+	/**
+	 * An OR of sorted equalities, or the single equality.
+	 */
+	public static Criterion inSet(String key, List<Object> vals)
+	{
+		if(vals.size() == 1) return new SimpleCriterion(key, vals.get(0));
+		
+		List<Object> sorted = new ArrayList<Object>(vals);
+		Collections.sort(sorted, (a,b) -> {
+			Integer cmp = compare(a,b);
+			if(cmp != null) return cmp;
+			return CriterionKey.canonical(new SimpleCriterion(key,a)).compareTo(CriterionKey.canonical(new SimpleCriterion(key,b)));
+		});
+		
+		SetCriterion set = new SetCriterion(SetCriterion.COMB_OR);
+		int size = sorted.size();
+		for(int i=0; i<size; i++)
+		{
+			set.addCriterion(new SimpleCriterion(key, sorted.get(i)));
+		}
+		return set;
+	}
+	
+	/**
+	 * The key of an IN set, an OR whose children are all equalities on one key.
+	 * 
+	 * @param crit
+	 * @return the key or null if it isn't one
+	 */
+	public static String inSetKey(Criterion crit)
+	{
+		if(!(crit instanceof SetCriterion)) return null;
+		
+		SetCriterion set = (SetCriterion)crit;
+		if(set.getSetOperation() != SetCriterion.COMB_OR) return null;
+		
+		int nc = set.getNumCriteria();
+		if(nc < 1) return null;
+		
+		String key = null;
+		Criterion c = null;
+		for(int i=0; i<nc; i++)
+		{
+			c = set.getCriterion(i);
+			if(!isEquality(c)) return null;
+			
+			if(key == null)
+			{
+				key = ((SimpleCriterion)c).getKey();
+			}
+			else if(!key.equals(((SimpleCriterion)c).getKey()))
+			{
+				return null;
+			}
+		}
+		return key;
+	}
+	
+	protected static boolean isEquality(Criterion c)
+	{
+		if(!(c instanceof SimpleCriterion)) return false;
+		
+		SimpleCriterion sc = (SimpleCriterion)c;
+		return sc.getOperator() == SimpleCriterion.OP_EQUAL && sc.getKey() != null && sc.getValue() != null;
+	}
+	
+	/*
+	 * AND
+	 */
+	
+	/**
+	 * Combines the tests on each key.
+	 * 
+	 * @return the merged children or null if they can't all hold
+	 */
+	protected List<Criterion> mergeConjuncts(List<Criterion> list)
+	{
+		Map<String,KeyFacts> facts = new LinkedHashMap<String,KeyFacts>();
+		List<Criterion> rest = new ArrayList<Criterion>();
+		
+		int size = list.size();
+		Criterion c = null;
+		for(int i=0; i<size; i++)
+		{
+			c = list.get(i);
+			if(!addFact(facts, c))
+			{
+				rest.add(c);
+			}
+		}
+		
+		List<Criterion> out = new ArrayList<Criterion>(list.size());
+		for(KeyFacts kf : facts.values())
+		{
+			if(!kf.resolve(out)) return null;
+		}
+		out.addAll(rest);
+		return out;
+	}
+	
+	protected boolean addFact(Map<String,KeyFacts> facts, Criterion c)
+	{
+		if(c instanceof SimpleCriterion)
+		{
+			SimpleCriterion sc = (SimpleCriterion)c;
+			Object val = sc.getValue();
+			int op = sc.getOperator();
+			if(sc.getKey() == null || val == null || op == SimpleCriterion.OP_LIKE) return false;
+			
+			KeyFacts kf = facts(facts, sc.getKey(), val);
+			if(kf == null) return false;
+			
+			switch(op)
+			{
+				case SimpleCriterion.OP_EQUAL:
+					List<Object> one = new ArrayList<Object>(1);
+					one.add(val);
+					kf.allow(one);
+					break;
+				case SimpleCriterion.OP_NOT_EQUAL:
+					kf.notEquals.add(val);
+					break;
+				case SimpleCriterion.OP_GT:
+					kf.lower(val, false);
+					break;
+				case SimpleCriterion.OP_GE:
+					kf.lower(val, true);
+					break;
+				case SimpleCriterion.OP_LT:
+					kf.upper(val, false);
+					break;
+				case SimpleCriterion.OP_LE:
+					kf.upper(val, true);
+					break;
+				default:
+					return false;
+			}
+			return true;
+		}
+		
+		if(c instanceof RangeCriterion)
+		{
+			RangeCriterion rc = (RangeCriterion)c;
+			Object min = rc.getMinValue();
+			Object max = rc.getMaxValue();
+			if(rc.getKey() == null || (min == null && max == null)) return false;
+			if(min != null && max != null && compare(min, max) == null) return false;
+			
+			KeyFacts kf = facts(facts, rc.getKey(), min != null?min:max);
+			if(kf == null) return false;
+			
+			if(min != null) kf.lower(min, rc.getMinInclusive());
+			if(max != null) kf.upper(max, rc.getMaxInclusive());
+			return true;
+		}
+		
+		String key = inSetKey(c);
+		if(key != null)
+		{
+			SetCriterion set = (SetCriterion)c;
+			int nc = set.getNumCriteria();
+			List<Object> vals = new ArrayList<Object>(nc);
+			String gk = null;
+			String first = null;
+			for(int i=0; i<nc; i++)
+			{
+				Object val = ((SimpleCriterion)set.getCriterion(i)).getValue();
+				gk = groupKey(key, val);
+				if(gk == null) return false;
+				if(first == null) first = gk;
+				else if(!first.equals(gk)) return false;
+				vals.add(val);
+			}
+			
+			KeyFacts kf = facts(facts, key, vals.get(0));
+			if(kf == null) return false;
+			kf.allow(vals);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	protected KeyFacts facts(Map<String,KeyFacts> facts, String key, Object val)
+	{
+		String gk = groupKey(key, val);
+		if(gk == null) return null;
+		
+		KeyFacts kf = facts.get(gk);
+		if(kf == null)
+		{
+			kf = new KeyFacts(key);
+			facts.put(gk, kf);
+		}
+		return kf;
+	}
+	
+	/**
+	 * Key plus the kind of value, values of different kinds are never merged.
+	 * 
+	 * @return null if the value can't be ordered
+	 */
+	protected static String groupKey(String key, Object val)
+	{
+		if(key == null || val == null) return null;
+		if(val instanceof Number) return key + "\u0000n";
+		if(!(val instanceof Comparable)) return null;
+		return key + "\u0000" + val.getClass().getName();
+	}
+	
+	/**
+	 * Compares values of the same kind.
+	 * 
+	 * @return null if they can't be compared
+	 */
+	protected static Integer compare(Object a, Object b)
+	{
+		if(a == null || b == null) return null;
+		if(a instanceof Number != b instanceof Number) return null;
+		return CriterionMatcher.compare(a, b);
+	}
+	
+	/**
+	 * Everything an AND says about one key.
+	 */
+	protected class KeyFacts
+	{
+		protected String key = null;
+		
+		// null if any value is allowed
+		protected List<Object> allowed = null;
+		protected List<Object> notEquals = new ArrayList<Object>();
+		
+		protected Object low = null;
+		protected boolean lowInc = false;
+		protected Object high = null;
+		protected boolean highInc = false;
+		
+		protected KeyFacts(String key)
+		{
+			this.key = key;
+		}
+		
+		protected void allow(List<Object> vals)
+		{
+			List<Object> next = new ArrayList<Object>(vals.size());
+			int size = vals.size();
+			Object val = null;
+			for(int i=0; i<size; i++)
+			{
+				val = vals.get(i);
+				if(contains(next, val)) continue;
+				if(allowed == null || contains(allowed, val)) next.add(val);
+			}
+			allowed = next;
+		}
+		
+		protected boolean contains(List<Object> vals, Object val)
+		{
+			int size = vals.size();
+			Integer cmp = null;
+			for(int i=0; i<size; i++)
+			{
+				cmp = compare(vals.get(i), val);
+				if(cmp != null && cmp == 0) return true;
+			}
+			return false;
+		}
+		
+		protected void lower(Object val, boolean inc)
+		{
+			if(low == null)
+			{
+				low = val;
+				lowInc = inc;
+				return;
+			}
+			
+			int cmp = compare(val, low);
+			if(cmp > 0 || (cmp == 0 && !inc))
+			{
+				low = val;
+				lowInc = inc;
+			}
+		}
+		
+		protected void upper(Object val, boolean inc)
+		{
+			if(high == null)
+			{
+				high = val;
+				highInc = inc;
+				return;
+			}
+			
+			int cmp = compare(val, high);
+			if(cmp < 0 || (cmp == 0 && !inc))
+			{
+				high = val;
+				highInc = inc;
+			}
+		}
+		
+		protected boolean inBounds(Object val)
+		{
+			int cmp = 0;
+			if(low != null)
+			{
+				cmp = compare(val, low);
+				if(cmp < 0 || (cmp == 0 && !lowInc)) return false;
+			}
+			if(high != null)
+			{
+				cmp = compare(val, high);
+				if(cmp > 0 || (cmp == 0 && !highInc)) return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Adds the merged tests.
+		 * 
+		 * @return false if no value satisfies them
+		 */
+		protected boolean resolve(List<Criterion> out)
+		{
+			if(low != null && high != null)
+			{
+				int cmp = compare(low, high);
+				if(cmp > 0 || (cmp == 0 && !(lowInc && highInc))) return false;
+				
+				if(cmp == 0 && allowed == null)
+				{
+					List<Object> one = new ArrayList<Object>(1);
+					one.add(low);
+					allowed = one;
+				}
+			}
+			
+			if(allowed != null)
+			{
+				// the bounds and not equals are applied here, a value that passes has the key set
+				List<Object> vals = new ArrayList<Object>(allowed.size());
+				int size = allowed.size();
+				Object val = null;
+				for(int i=0; i<size; i++)
+				{
+					val = allowed.get(i);
+					if(inBounds(val) && !contains(notEquals, val)) vals.add(val);
+				}
+				if(vals.size() == 0) return false;
+				
+				out.add(inSet(key, vals));
+				return true;
+			}
+			
+			if(low != null && high != null)
+			{
+				out.add(new RangeCriterion(key, low, high, lowInc, highInc));
+			}
+			else if(low != null)
+			{
+				out.add(new SimpleCriterion(key, lowInc?SimpleCriterion.OP_GE:SimpleCriterion.OP_GT, low));
+			}
+			else if(high != null)
+			{
+				out.add(new SimpleCriterion(key, highInc?SimpleCriterion.OP_LE:SimpleCriterion.OP_LT, high));
+			}
+			
+			boolean bounded = low != null || high != null;
+			int size = notEquals.size();
+			Object val = null;
+			for(int i=0; i<size; i++)
+			{
+				val = notEquals.get(i);
+				
+				// a value outside the bounds is already excluded
+				if(bounded && !inBounds(val)) continue;
+				out.add(new SimpleCriterion(key, SimpleCriterion.OP_NOT_EQUAL, val));
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Guesses selectivity from the object count per type and which types carry each property.
+	 * Without stats it falls back on the shape of each test.
+	 */
+	public static class StatsSelectivity implements Selectivity
+	{
+		protected Map<String,Long> typeCounts = null;
+		protected Map<String,Double> presence = null;
+		protected double total = 0;
+		
+		/**
+		 * 
+		 * @param typeCounts objects per type, may be null
+		 * @param propsByType property names per type, may be null
+		 */
+		public StatsSelectivity(Map<String,Long> typeCounts, Map<String,List<String>> propsByType)
+		{
+			this.typeCounts = typeCounts;
+			if(typeCounts != null)
+			{
+				for(Long l : typeCounts.values())
+				{
+					if(l != null) total += l;
+				}
+			}
+			
+			if(propsByType != null && total > 0)
+			{
+				presence = new HashMap<String,Double>();
+				Long count = null;
+				for(Map.Entry<String,List<String>> e : propsByType.entrySet())
+				{
+					count = typeCounts.get(e.getKey());
+					if(count == null || e.getValue() == null) continue;
+					
+					for(String prop : e.getValue())
+					{
+						Double d = presence.get(prop);
+						presence.put(prop, (d == null?0:d) + count/total);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Fraction of objects with the property set.
+		 */
+		protected double presence(String key)
+		{
+			if(presence == null) return 1.0;
+			
+			Double d = presence.get(key);
+			if(d == null) return 0.01;
+			return Math.min(1.0, d);
+		}
+		
+		protected double single()
+		{
+			if(total > 0) return 1.0/(total+1);
+			return 1e-6;
+		}
+		
+		protected double equality(String key, Object val)
+		{
+			if(GenericNode.ID_KEY.equals(key)) return single();
+			
+			if(GenericNode.TYPE_KEY.equals(key))
+			{
+				if(typeCounts == null || total <= 0) return 0.2;
+				Long count = typeCounts.get(String.valueOf(val));
+				if(count == null) return single();
+				return count/total;
+			}
+			
+			return presence(key)*0.01;
+		}
+		
+		@Override
+		public double estimate(Criterion crit)
+		{
+			if(crit == null) return 1.0;
+			
+			if(crit instanceof SimpleCriterion)
+			{
+				SimpleCriterion sc = (SimpleCriterion)crit;
+				Object val = sc.getValue();
+				switch(sc.getOperator())
+				{
+					case SimpleCriterion.OP_EQUAL:
+						if(val == null) return 0;
+						return equality(sc.getKey(), val);
+					case SimpleCriterion.OP_NOT_EQUAL:
+						if(val == null) return 1.0;
+						return 1.0 - equality(sc.getKey(), val);
+					case SimpleCriterion.OP_LIKE:
+						String like = String.valueOf(val);
+						boolean leading = like.length() == 0 || "%*_?".indexOf(like.charAt(0)) >= 0;
+						return presence(sc.getKey())*(leading?0.5:0.1);
+					default:
+						return presence(sc.getKey())*0.5;
+				}
+			}
+			
+			if(crit instanceof RangeCriterion)
+			{
+				RangeCriterion rc = (RangeCriterion)crit;
+				double p = presence(rc.getKey());
+				if(rc.getMinValue() != null && rc.getMaxValue() != null) return p*0.25;
+				if(rc.getMinValue() == null && rc.getMaxValue() == null) return p;
+				return p*0.5;
+			}
+			
+			if(crit instanceof SetCriterion)
+			{
+				SetCriterion set = (SetCriterion)crit;
+				int nc = set.getNumCriteria();
+				if(nc < 1) return 1.0;
+				
+				boolean or = set.getSetOperation() == SetCriterion.COMB_OR;
+				double est = or?0:1;
+				for(int i=0; i<nc; i++)
+				{
+					if(or)
+					{
+						est += estimate(set.getCriterion(i));
+					}
+					else
+					{
+						est *= estimate(set.getCriterion(i));
+					}
+				}
+				return Math.min(1.0, est);
+			}
+			
+			return 1.0;
+		}
+	}
+}
@@ -45,4 +45,21 @@ public interface QueryTranslator
 
     public Object rangeCriterionToClause(String prefix, GraphQuery.RangeCriterion crit);
 
+    /**
+     * Append the clause for a criterion to a shared buffer.  Translators that build text should override
+     * this so a whole tree is written into one buffer instead of copying each level's string into its parent.
+     * 
+     * @param sb
+     * @param prefix
+     * @param crit
+     */
+    public default void appendClause(StringBuilder sb, String prefix, GraphQuery.Criterion crit)
+    {
+    	Object clause = criterionToClause(prefix, crit);
+    	if(clause != null)
+    	{
+    		sb.append(clause);
+    	}
+    }
+
 }
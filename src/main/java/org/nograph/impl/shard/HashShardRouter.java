@@ -0,0 +1,140 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+/**
+ * Spreads nodes over a consistent hash ring so adding a shard only moves about 1/n of the keys.
+ * 
+ * The key is the value of keyProperty when set, otherwise the node's id.  New nodes with neither are
+ * dealt out round robin.  Relationships are kept with node1.
+ * 
+ * @author aholinch
+ *
+ */
+public class HashShardRouter implements ShardRouter 
+{
+	protected TreeMap<Integer,Integer> ring = new TreeMap<Integer,Integer>();
+	protected int numShards = 0;
+	protected String keyProperty = null;
+	protected AtomicInteger next = new AtomicInteger();
+	
+	public HashShardRouter(int numShards)
+	{
+		this(numShards, 128, null);
+	}
+	
+	/**
+	 * 
+	 * @param numShards
+	 * @param virtualNodes points on the ring per shard
+	 * @param keyProperty node property to hash, may be null
+	 */
+	public HashShardRouter(int numShards, int virtualNodes, String keyProperty)
+	{
+		this.numShards = numShards;
+		this.keyProperty = keyProperty;
+		
+		for(int s=0; s<numShards; s++)
+		{
+			for(int v=0; v<virtualNodes; v++)
+			{
+				ring.put(hash("shard-"+s+"#"+v), s);
+			}
+		}
+	}
+	
+	/**
+	 * FNV-1a with a final avalanche so similar keys land far apart.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int hash(String key)
+	{
+		byte bytes[] = key.getBytes(StandardCharsets.UTF_8);
+		int h = 0x811c9dc5;
+		for(int i=0; i<bytes.length; i++)
+		{
+			h ^= (bytes[i] & 0xff);
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+	
+	public int shardForKey(String key)
+	{
+		if(ring.isEmpty()) return 0;
+		
+		Map.Entry<Integer,Integer> e = ring.ceilingEntry(hash(key));
+		if(e == null) e = ring.firstEntry();
+		return e.getValue();
+	}
+
+	@Override
+	public int shardForNode(Node n) 
+	{
+		Object key = null;
+		if(keyProperty != null) key = n.getProperty(keyProperty);
+		if(key == null) key = n.getID();
+		if(key != null) return shardForKey(String.valueOf(key));
+		
+		return Math.floorMod(next.getAndIncrement(), Math.max(1, numShards));
+	}
+
+	@Override
+	public int shardForRelationship(Relationship r, int node1Shard, int node2Shard) 
+	{
+		if(node1Shard >= 0) return node1Shard;
+		if(node2Shard >= 0) return node2Shard;
+		if(r.getID() != null) return shardForKey(r.getID());
+		return Math.floorMod(next.getAndIncrement(), Math.max(1, numShards));
+	}
+
+	@Override
+	public int shardForID(String id) 
+	{
+		// only ids we hashed on the way in can be found this way
+		if(keyProperty != null) return -1;
+		return shardForKey(id);
+	}
+
+	@Override
+	public int[] shardsForNodeType(String type) 
+	{
+		return null;
+	}
+
+	@Override
+	public int[] shardsForRelationshipType(String type) 
+	{
+		return null;
+	}
+}
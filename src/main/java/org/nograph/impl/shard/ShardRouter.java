@@ -0,0 +1,74 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.shard;
+
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+/**
+ * Decides which child manager of a sharded graph holds each node and relationship.
+ * 
+ * Shards are numbered from zero in the order they were given to the sharded manager.
+ * 
+ * @author aholinch
+ *
+ */
+public interface ShardRouter 
+{
+	/**
+	 * Shard for a node that has not been stored yet.
+	 * 
+	 * @param n
+	 * @return
+	 */
+	public int shardForNode(Node n);
+	
+	/**
+	 * Shard for a relationship that has not been stored yet.
+	 * 
+	 * @param r
+	 * @param node1Shard shard holding node1 or -1 if not known
+	 * @param node2Shard shard holding node2 or -1 if not known
+	 * @return
+	 */
+	public int shardForRelationship(Relationship r, int node1Shard, int node2Shard);
+	
+	/**
+	 * Shard for an id that doesn't carry a shard prefix.
+	 * 
+	 * @param id
+	 * @return the shard or -1 if it could be on any of them
+	 */
+	public int shardForID(String id);
+	
+	/**
+	 * Shards that can hold nodes of a type.
+	 * 
+	 * @param type
+	 * @return the shards or null for all of them
+	 */
+	public int[] shardsForNodeType(String type);
+	
+	/**
+	 * Shards that can hold relationships of a type.
+	 * 
+	 * @param type
+	 * @return the shards or null for all of them
+	 */
+	public int[] shardsForRelationshipType(String type);
+}
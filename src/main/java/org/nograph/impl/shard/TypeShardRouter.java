@@ -0,0 +1,110 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.shard;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.nograph.Node;
+import org.nograph.Relationship;
+
+/**
+ * Puts each node type on a fixed shard, unmapped types go to the default shard.
+ * 
+ * Relationships of a mapped type go to that shard, others are kept with node1 so a backend that needs
+ * both ends locally still works when related types share a shard.
+ * 
+ * @author aholinch
+ *
+ */
+public class TypeShardRouter implements ShardRouter 
+{
+	protected Map<String,Integer> nodeTypes = new HashMap<String,Integer>();
+	protected Map<String,Integer> relTypes = new HashMap<String,Integer>();
+	protected int defaultShard = 0;
+	
+	public TypeShardRouter()
+	{
+		
+	}
+	
+	public TypeShardRouter(int defaultShard)
+	{
+		this.defaultShard = defaultShard;
+	}
+	
+	public void setNodeTypeShard(String type, int shard)
+	{
+		nodeTypes.put(type, shard);
+	}
+	
+	public void setRelationshipTypeShard(String type, int shard)
+	{
+		relTypes.put(type, shard);
+	}
+	
+	public int getDefaultShard()
+	{
+		return defaultShard;
+	}
+
+	@Override
+	public int shardForNode(Node n) 
+	{
+		Integer s = nodeTypes.get(n.getType());
+		if(s == null) return defaultShard;
+		return s;
+	}
+
+	@Override
+	public int shardForRelationship(Relationship r, int node1Shard, int node2Shard) 
+	{
+		Integer s = relTypes.get(r.getType());
+		if(s != null) return s;
+		if(node1Shard >= 0) return node1Shard;
+		if(node2Shard >= 0) return node2Shard;
+		return defaultShard;
+	}
+
+	@Override
+	public int shardForID(String id) 
+	{
+		return -1;
+	}
+
+	@Override
+	public int[] shardsForNodeType(String type) 
+	{
+		if(type == null) return null;
+		
+		Integer s = nodeTypes.get(type);
+		if(s == null) return new int[]{defaultShard};
+		return new int[]{s};
+	}
+
+	@Override
+	public int[] shardsForRelationshipType(String type) 
+	{
+		if(type == null) return null;
+		
+		// unmapped types follow node1 so could be anywhere
+		Integer s = relTypes.get(type);
+		if(s == null) return null;
+		return new int[]{s};
+	}
+}
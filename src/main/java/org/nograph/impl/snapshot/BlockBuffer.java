@@ -0,0 +1,117 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer a block is encoded into before it goes to the file.
+ * 
+ * @author aholinch
+ *
+ */
+public class BlockBuffer 
+{
+	protected byte data[] = null;
+	protected int size = 0;
+	
+	public BlockBuffer(int capacity)
+	{
+		data = new byte[Math.max(16, capacity)];
+	}
+	
+	protected void ensure(int extra)
+	{
+		if(size + extra > data.length)
+		{
+			data = Arrays.copyOf(data, Math.max(size + extra, data.length*2));
+		}
+	}
+	
+	public void writeByte(int b)
+	{
+		ensure(1);
+		data[size++] = (byte)b;
+	}
+	
+	public void writeBytes(byte bytes[])
+	{
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, data, size, bytes.length);
+		size += bytes.length;
+	}
+	
+	public void writeVarLong(long v)
+	{
+		ensure(10);
+		while((v & ~0x7fL) != 0)
+		{
+			data[size++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		data[size++] = (byte)v;
+	}
+	
+	public void writeLong(long v)
+	{
+		ensure(8);
+		for(int i=56; i>=0; i-=8)
+		{
+			data[size++] = (byte)(v >>> i);
+		}
+	}
+	
+	public void writeInt(int v)
+	{
+		ensure(4);
+		for(int i=24; i>=0; i-=8)
+		{
+			data[size++] = (byte)(v >>> i);
+		}
+	}
+	
+	public void writeDouble(double d)
+	{
+		writeLong(Double.doubleToRawLongBits(d));
+	}
+	
+	public void writeString(String str)
+	{
+		byte bytes[] = str.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(bytes.length);
+		writeBytes(bytes);
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public void reset()
+	{
+		size = 0;
+	}
+	
+	public void writeTo(OutputStream out) throws IOException
+	{
+		out.write(data, 0, size);
+	}
+}
@@ -0,0 +1,110 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of a binary graph snapshot.
+ * 
+ * <pre>
+ * header   magic(8) version(4)
+ * blocks   node blocks then relationship blocks
+ * footer   string dictionary, node and relationship counts, block index
+ * trailer  footer offset(8) magic(8)
+ * </pre>
+ * 
+ * A node block holds nodes of one type with consecutive ordinals, a relationship block holds relationships
+ * of one type sorted by source ordinal.  Properties are stored a column at a time with their names in the
+ * dictionary.  Integers are zigzag varints, so small ids and counts take a byte or two.
+ * 
+ * @author aholinch
+ *
+ */
+public final class SnapshotFormat 
+{
+	public static final byte MAGIC[] = {'N','G','S','N','A','P','0','1'};
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 12;
+	public static final int TRAILER_SIZE = 16;
+	
+	public static final byte BLOCK_NODES = 1;
+	public static final byte BLOCK_RELS = 2;
+	
+	// column encodings
+	public static final byte COL_LONG = 1;
+	public static final byte COL_DOUBLE = 2;
+	public static final byte COL_BOOLEAN = 3;
+	public static final byte COL_STRING = 4;
+	public static final byte COL_STRING_DICT = 5;
+	public static final byte COL_MIXED = 6;
+	
+	// value tags for mixed columns
+	public static final byte TAG_NULL = 0;
+	public static final byte TAG_LONG = 1;
+	public static final byte TAG_DOUBLE = 2;
+	public static final byte TAG_TRUE = 3;
+	public static final byte TAG_FALSE = 4;
+	public static final byte TAG_STRING = 5;
+	public static final byte TAG_LIST = 6;
+	public static final byte TAG_MAP = 7;
+	
+	private SnapshotFormat()
+	{
+		
+	}
+	
+	public static long zigzag(long v)
+	{
+		return (v << 1) ^ (v >> 63);
+	}
+	
+	public static long unzigzag(long v)
+	{
+		return (v >>> 1) ^ -(v & 1);
+	}
+	
+	public static long readVarLong(ByteBuffer buf)
+	{
+		long v = 0;
+		int shift = 0;
+		byte b = 0;
+		do
+		{
+			b = buf.get();
+			v |= ((long)(b & 0x7f)) << shift;
+			shift += 7;
+		}
+		while((b & 0x80) != 0);
+		return v;
+	}
+	
+	public static int readVarInt(ByteBuffer buf)
+	{
+		return (int)readVarLong(buf);
+	}
+	
+	public static String readString(ByteBuffer buf)
+	{
+		int len = readVarInt(buf);
+		byte bytes[] = new byte[len];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,510 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.snapshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.GraphManager;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.GenericNode;
+import org.nograph.impl.GenericRelationship;
+import org.nograph.impl.GraphExecutors;
+
+/**
+ * Reads a binary graph snapshot through memory mapped blocks.
+ * 
+ * importInto loads the nodes a block at a time in parallel, then the relationships once every node has its
+ * new id.  Integer properties come back as Long and float properties as Double.
+ * 
+ * @author aholinch
+ *
+ */
+public class SnapshotReader implements Closeable
+{
+	private static final Logger logger = Logger.getLogger(SnapshotReader.class.getName());
+	
+	protected RandomAccessFile raf = null;
+	protected FileChannel channel = null;
+	
+	protected String dict[] = null;
+	protected long nodeCount = 0;
+	protected long relCount = 0;
+	protected List<BlockInfo> blocks = new ArrayList<BlockInfo>();
+	
+	/**
+	 * Where a block sits in the file.
+	 */
+	public static class BlockInfo
+	{
+		protected byte kind = 0;
+		protected long offset = 0;
+		protected long length = 0;
+		protected int count = 0;
+		
+		public byte getKind()
+		{
+			return kind;
+		}
+		
+		public int getCount()
+		{
+			return count;
+		}
+	}
+	
+	public SnapshotReader(File file) throws IOException
+	{
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		
+		try
+		{
+			readFooter();
+		}
+		catch(IOException ex)
+		{
+			close();
+			throw ex;
+		}
+		catch(RuntimeException ex)
+		{
+			close();
+			throw new IOException("Corrupt snapshot " + file, ex);
+		}
+	}
+	
+	protected void readFooter() throws IOException
+	{
+		long size = channel.size();
+		if(size < SnapshotFormat.HEADER_SIZE + SnapshotFormat.TRAILER_SIZE) throw new IOException("Not a snapshot");
+		
+		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, SnapshotFormat.HEADER_SIZE);
+		checkMagic(head);
+		int version = head.getInt();
+		if(version != SnapshotFormat.VERSION) throw new IOException("Unsupported snapshot version " + version);
+		
+		ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, size - SnapshotFormat.TRAILER_SIZE, SnapshotFormat.TRAILER_SIZE);
+		long footer = tail.getLong();
+		checkMagic(tail);
+		
+		ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, footer, size - SnapshotFormat.TRAILER_SIZE - footer);
+		int nd = SnapshotFormat.readVarInt(buf);
+		dict = new String[nd];
+		for(int i=0; i<nd; i++)
+		{
+			dict[i] = SnapshotFormat.readString(buf);
+		}
+		nodeCount = SnapshotFormat.readVarLong(buf);
+		relCount = SnapshotFormat.readVarLong(buf);
+		
+		int nb = SnapshotFormat.readVarInt(buf);
+		BlockInfo bi = null;
+		for(int i=0; i<nb; i++)
+		{
+			bi = new BlockInfo();
+			bi.kind = buf.get();
+			bi.offset = SnapshotFormat.readVarLong(buf);
+			bi.length = SnapshotFormat.readVarLong(buf);
+			bi.count = SnapshotFormat.readVarInt(buf);
+			blocks.add(bi);
+		}
+	}
+	
+	protected void checkMagic(ByteBuffer buf) throws IOException
+	{
+		byte magic[] = new byte[SnapshotFormat.MAGIC.length];
+		buf.get(magic);
+		if(!Arrays.equals(magic, SnapshotFormat.MAGIC)) throw new IOException("Not a snapshot");
+	}
+	
+	public long getNodeCount()
+	{
+		return nodeCount;
+	}
+	
+	public long getRelationshipCount()
+	{
+		return relCount;
+	}
+	
+	public List<BlockInfo> getBlocks()
+	{
+		return blocks;
+	}
+	
+	protected MappedByteBuffer map(BlockInfo bi) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY, bi.offset, bi.length);
+	}
+	
+	protected String type(ByteBuffer buf)
+	{
+		int code = SnapshotFormat.readVarInt(buf);
+		if(code == 0) return null;
+		return dict[code-1];
+	}
+	
+	/**
+	 * Decode a node block.  The nodes have no ids, node i of the block has ordinal getFirstOrdinal + i.
+	 * 
+	 * @param bi
+	 * @return
+	 * @throws IOException
+	 */
+	public NodeBlock readNodes(BlockInfo bi) throws IOException
+	{
+		ByteBuffer buf = map(bi);
+		if(buf.get() != SnapshotFormat.BLOCK_NODES) throw new IOException("Not a node block");
+		
+		String type = type(buf);
+		NodeBlock nb = new NodeBlock();
+		nb.firstOrdinal = SnapshotFormat.readVarInt(buf);
+		int size = SnapshotFormat.readVarInt(buf);
+		
+		List<Map<String,Object>> rows = readColumns(buf, size);
+		nb.nodes = new ArrayList<Node>(size);
+		GenericNode n = null;
+		for(int i=0; i<size; i++)
+		{
+			n = new GenericNode();
+			n.setType(type);
+			n.setPropertyMap(rows.get(i));
+			nb.nodes.add(n);
+		}
+		return nb;
+	}
+	
+	/**
+	 * Nodes from one block.
+	 */
+	public static class NodeBlock
+	{
+		protected int firstOrdinal = 0;
+		protected List<Node> nodes = null;
+		
+		public int getFirstOrdinal()
+		{
+			return firstOrdinal;
+		}
+		
+		public List<Node> getNodes()
+		{
+			return nodes;
+		}
+	}
+	
+	/**
+	 * Decode a relationship block, pointing the ends at nodeIDs by ordinal.
+	 * 
+	 * @param bi
+	 * @param nodeIDs
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Relationship> readRelationships(BlockInfo bi, String nodeIDs[]) throws IOException
+	{
+		ByteBuffer buf = map(bi);
+		if(buf.get() != SnapshotFormat.BLOCK_RELS) throw new IOException("Not a relationship block");
+		
+		String type = type(buf);
+		int size = SnapshotFormat.readVarInt(buf);
+		
+		int src[] = new int[size];
+		long s = 0;
+		for(int i=0; i<size; i++)
+		{
+			s += SnapshotFormat.readVarLong(buf);
+			src[i] = (int)s;
+		}
+		
+		int dst[] = new int[size];
+		for(int i=0; i<size; i++)
+		{
+			dst[i] = (int)(src[i] + SnapshotFormat.unzigzag(SnapshotFormat.readVarLong(buf)));
+		}
+		
+		List<Map<String,Object>> rows = readColumns(buf, size);
+		List<Relationship> rels = new ArrayList<Relationship>(size);
+		GenericRelationship r = null;
+		for(int i=0; i<size; i++)
+		{
+			r = new GenericRelationship();
+			r.setType(type);
+			r.setPropertyMap(rows.get(i));
+			r.setNode1(endNode(nodeIDs[src[i]]));
+			r.setNode2(endNode(nodeIDs[dst[i]]));
+			rels.add(r);
+		}
+		return rels;
+	}
+	
+	protected Node endNode(String id)
+	{
+		GenericNode n = new GenericNode();
+		n.setID(id);
+		return n;
+	}
+	
+	protected List<Map<String,Object>> readColumns(ByteBuffer buf, int size)
+	{
+		List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(size);
+		for(int i=0; i<size; i++)
+		{
+			rows.add(new LinkedHashMap<String,Object>());
+		}
+		
+		int nc = SnapshotFormat.readVarInt(buf);
+		boolean present[] = new boolean[size];
+		for(int c=0; c<nc; c++)
+		{
+			String name = dict[SnapshotFormat.readVarInt(buf)];
+			byte kind = buf.get();
+			
+			if(buf.get() == 1)
+			{
+				Arrays.fill(present, true);
+			}
+			else
+			{
+				int b = 0;
+				for(int i=0; i<size; i++)
+				{
+					if((i & 7) == 0) b = buf.get();
+					present[i] = (b & (1 << (i & 7))) != 0;
+				}
+			}
+			
+			switch(kind)
+			{
+			case SnapshotFormat.COL_LONG:
+				for(int i=0; i<size; i++)
+				{
+					if(present[i]) rows.get(i).put(name, SnapshotFormat.unzigzag(SnapshotFormat.readVarLong(buf)));
+				}
+				break;
+			case SnapshotFormat.COL_DOUBLE:
+				for(int i=0; i<size; i++)
+				{
+					if(present[i]) rows.get(i).put(name, buf.getDouble());
+				}
+				break;
+			case SnapshotFormat.COL_BOOLEAN:
+				int b = 0;
+				int nb = 0;
+				for(int i=0; i<size; i++)
+				{
+					if(!present[i]) continue;
+					if(nb == 0) b = buf.get();
+					rows.get(i).put(name, (b & (1 << nb)) != 0);
+					nb = (nb+1) & 7;
+				}
+				break;
+			case SnapshotFormat.COL_STRING:
+				for(int i=0; i<size; i++)
+				{
+					if(present[i]) rows.get(i).put(name, SnapshotFormat.readString(buf));
+				}
+				break;
+			case SnapshotFormat.COL_STRING_DICT:
+				String strs[] = new String[SnapshotFormat.readVarInt(buf)];
+				for(int i=0; i<strs.length; i++)
+				{
+					strs[i] = SnapshotFormat.readString(buf);
+				}
+				for(int i=0; i<size; i++)
+				{
+					if(present[i]) rows.get(i).put(name, strs[SnapshotFormat.readVarInt(buf)]);
+				}
+				break;
+			default:
+				for(int i=0; i<size; i++)
+				{
+					if(present[i]) rows.get(i).put(name, readValue(buf));
+				}
+			}
+		}
+		return rows;
+	}
+	
+	protected Object readValue(ByteBuffer buf)
+	{
+		byte tag = buf.get();
+		switch(tag)
+		{
+		case SnapshotFormat.TAG_NULL:
+			return null;
+		case SnapshotFormat.TAG_LONG:
+			return SnapshotFormat.unzigzag(SnapshotFormat.readVarLong(buf));
+		case SnapshotFormat.TAG_DOUBLE:
+			return buf.getDouble();
+		case SnapshotFormat.TAG_TRUE:
+			return Boolean.TRUE;
+		case SnapshotFormat.TAG_FALSE:
+			return Boolean.FALSE;
+		case SnapshotFormat.TAG_LIST:
+			int n = SnapshotFormat.readVarInt(buf);
+			List<Object> list = new ArrayList<Object>(n);
+			for(int i=0; i<n; i++)
+			{
+				list.add(readValue(buf));
+			}
+			return list;
+		case SnapshotFormat.TAG_MAP:
+			int nm = SnapshotFormat.readVarInt(buf);
+			Map<String,Object> m = new LinkedHashMap<String,Object>();
+			for(int i=0; i<nm; i++)
+			{
+				String key = SnapshotFormat.readString(buf);
+				m.put(key, readValue(buf));
+			}
+			return m;
+		default:
+			return SnapshotFormat.readString(buf);
+		}
+	}
+	
+	/**
+	 * Bulk load the snapshot into a manager, a block per ingest call with blocks running in parallel on the io pool.
+	 * 
+	 * @param gm
+	 * @throws NoGraphException
+	 */
+	public void importInto(GraphManager gm) throws NoGraphException
+	{
+		if(nodeCount > Integer.MAX_VALUE) throw new NoGraphException("Too many nodes to import " + nodeCount);
+		
+		String nodeIDs[] = new String[(int)nodeCount];
+		
+		// every node needs its new id before any relationship can be written
+		runBlocks(SnapshotFormat.BLOCK_NODES, bi -> {
+			NodeBlock nb = readNodes(bi);
+			List<Node> nodes = nb.getNodes();
+			gm.ingestNodes(nodes);
+			int size = nodes.size();
+			for(int i=0; i<size; i++)
+			{
+				nodeIDs[nb.getFirstOrdinal()+i] = nodes.get(i).getID();
+			}
+		});
+		
+		runBlocks(SnapshotFormat.BLOCK_RELS, bi -> gm.ingestRelationships(readRelationships(bi, nodeIDs)));
+	}
+	
+	protected static interface BlockTask
+	{
+		public void run(BlockInfo bi) throws Exception;
+	}
+	
+	protected void runBlocks(byte kind, BlockTask task) throws NoGraphException
+	{
+		List<BlockInfo> todo = new ArrayList<BlockInfo>();
+		int nb = blocks.size();
+		for(int i=0; i<nb; i++)
+		{
+			if(blocks.get(i).kind == kind) todo.add(blocks.get(i));
+		}
+		
+		int nt = todo.size();
+		if(nt == 0) return;
+		
+		if(nt == 1 || GraphExecutors.isPoolThread())
+		{
+			for(int i=0; i<nt; i++)
+			{
+				try
+				{
+					task.run(todo.get(i));
+				}
+				catch(NoGraphException ex)
+				{
+					throw ex;
+				}
+				catch(Exception ex)
+				{
+					logger.log(Level.WARNING,"Error importing snapshot",ex);
+					throw new NoGraphException("Error importing snapshot",ex);
+				}
+			}
+			return;
+		}
+		
+		ExecutorService executor = GraphExecutors.getIOExecutor();
+		List<Future<?>> futures = new ArrayList<Future<?>>(nt);
+		for(int i=0; i<nt; i++)
+		{
+			final BlockInfo bi = todo.get(i);
+			futures.add(executor.submit(() -> {
+				task.run(bi);
+				return null;
+			}));
+		}
+		
+		try
+		{
+			for(int i=0; i<nt; i++)
+			{
+				futures.get(i).get();
+			}
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new NoGraphException("Interrupted importing snapshot",ex);
+		}
+		catch(ExecutionException ex)
+		{
+			logger.log(Level.WARNING,"Error importing snapshot",ex.getCause());
+			Throwable cause = ex.getCause();
+			if(cause instanceof NoGraphException) throw (NoGraphException)cause;
+			throw new NoGraphException("Error importing snapshot",cause);
+		}
+		finally
+		{
+			for(int i=0; i<nt; i++)
+			{
+				futures.get(i).cancel(false);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException 
+	{
+		if(raf != null) raf.close();
+		raf = null;
+		channel = null;
+	}
+}
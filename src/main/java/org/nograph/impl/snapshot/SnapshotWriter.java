@@ -0,0 +1,554 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nograph.GraphManager;
+import org.nograph.NoGraphException;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.ConfigUtil;
+import org.nograph.impl.GraphCursor;
+
+/**
+ * Streams a graph into the binary snapshot format.
+ * 
+ * Nodes must be written before any relationship that points at them since relationships store node
+ * ordinals rather than ids.  Only the id to ordinal map is held in memory, everything else goes out a
+ * block at a time.  Relationships whose nodes weren't written are skipped.
+ * 
+ * @author aholinch
+ *
+ */
+public class SnapshotWriter implements Closeable
+{
+	private static final Logger logger = Logger.getLogger(SnapshotWriter.class.getName());
+	
+	public static final String PROP_BLOCK_SIZE = "snapshot.block";
+	
+	protected OutputStream out = null;
+	protected long pos = 0;
+	protected int blockSize = 10000;
+	
+	protected Map<String,Integer> dict = new HashMap<String,Integer>();
+	protected List<String> dictStrings = new ArrayList<String>();
+	
+	protected Map<String,Integer> ordinals = new HashMap<String,Integer>();
+	protected int nodeCount = 0;
+	protected long relCount = 0;
+	protected long skipped = 0;
+	
+	protected BlockBuffer buf = new BlockBuffer(1<<16);
+	protected BlockBuffer index = new BlockBuffer(1<<10);
+	protected int numBlocks = 0;
+	protected boolean closed = false;
+	
+	public SnapshotWriter(File file) throws IOException
+	{
+		this(new BufferedOutputStream(new FileOutputStream(file), 1<<20));
+	}
+	
+	public SnapshotWriter(OutputStream out) throws IOException
+	{
+		this.out = out;
+		blockSize = Math.max(1, ConfigUtil.getIntProperty(PROP_BLOCK_SIZE, 10000));
+		
+		BlockBuffer header = new BlockBuffer(SnapshotFormat.HEADER_SIZE);
+		header.writeBytes(SnapshotFormat.MAGIC);
+		header.writeInt(SnapshotFormat.VERSION);
+		header.writeTo(out);
+		pos = header.size();
+	}
+	
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	public void setBlockSize(int blockSize)
+	{
+		this.blockSize = Math.max(1, blockSize);
+	}
+	
+	public long getNodeCount()
+	{
+		return nodeCount;
+	}
+	
+	public long getRelationshipCount()
+	{
+		return relCount;
+	}
+	
+	public long getSkippedRelationshipCount()
+	{
+		return skipped;
+	}
+	
+	protected int code(String str)
+	{
+		Integer c = dict.get(str);
+		if(c == null)
+		{
+			c = dictStrings.size();
+			dictStrings.add(str);
+			dict.put(str, c);
+		}
+		return c;
+	}
+	
+	/**
+	 * Copy every node then every relationship out of a manager, one type at a time.
+	 * 
+	 * @param gm
+	 * @throws NoGraphException
+	 */
+	public void export(GraphManager gm) throws NoGraphException
+	{
+		try
+		{
+			List<String> types = gm.getNodeTypes();
+			int nt = types == null?0:types.size();
+			for(int i=0; i<nt; i++)
+			{
+				try(GraphCursor<Node> cursor = GraphCursor.allNodes(gm, types.get(i)))
+				{
+					writeAll(cursor, true);
+				}
+			}
+			
+			types = gm.getRelationshipTypes();
+			nt = types == null?0:types.size();
+			for(int i=0; i<nt; i++)
+			{
+				try(GraphCursor<Relationship> cursor = GraphCursor.allRelationships(gm, types.get(i)))
+				{
+					writeAll(cursor, false);
+				}
+			}
+		}
+		catch(NoGraphException ex)
+		{
+			throw ex;
+		}
+		catch(Exception ex)
+		{
+			logger.log(Level.WARNING,"Error exporting graph",ex);
+			throw new NoGraphException("Error exporting graph",ex);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected <T> void writeAll(Iterator<T> iter, boolean nodes) throws IOException
+	{
+		List<T> batch = new ArrayList<T>(blockSize);
+		while(iter.hasNext())
+		{
+			batch.add(iter.next());
+			if(batch.size() >= blockSize)
+			{
+				if(nodes) writeNodes((List<Node>)batch); else writeRelationships((List<Relationship>)batch);
+				batch.clear();
+			}
+		}
+		
+		if(batch.size() > 0)
+		{
+			if(nodes) writeNodes((List<Node>)batch); else writeRelationships((List<Relationship>)batch);
+		}
+	}
+	
+	protected static <T> Map<String,List<T>> byType(List<T> items, Function<T,String> typeOf)
+	{
+		Map<String,List<T>> out = new LinkedHashMap<String,List<T>>();
+		int size = items.size();
+		T item = null;
+		for(int i=0; i<size; i++)
+		{
+			item = items.get(i);
+			out.computeIfAbsent(typeOf.apply(item), k -> new ArrayList<T>()).add(item);
+		}
+		return out;
+	}
+	
+	/**
+	 * Write nodes, one block per type in the list.  Nodes need ids so relationships can find them.
+	 * 
+	 * @param nodes
+	 * @throws IOException
+	 */
+	public void writeNodes(List<Node> nodes) throws IOException
+	{
+		if(nodes == null || nodes.size() == 0) return;
+		
+		Map<String,List<Node>> groups = byType(nodes, Node::getType);
+		for(Map.Entry<String,List<Node>> e : groups.entrySet())
+		{
+			List<Node> group = e.getValue();
+			int size = group.size();
+			int first = nodeCount;
+			List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(size);
+			for(int i=0; i<size; i++)
+			{
+				Node n = group.get(i);
+				String id = n.getID();
+				if(id != null && ordinals.putIfAbsent(id, nodeCount) != null)
+				{
+					throw new IOException("Node " + id + " written twice");
+				}
+				
+				// nodes without ids still take an ordinal so the block stays dense
+				nodeCount++;
+				rows.add(n.getPropertyMap());
+			}
+			
+			buf.reset();
+			buf.writeByte(SnapshotFormat.BLOCK_NODES);
+			buf.writeVarLong(e.getKey() == null?0:code(e.getKey())+1);
+			buf.writeVarLong(first);
+			buf.writeVarLong(size);
+			writeColumns(rows);
+			flushBlock(SnapshotFormat.BLOCK_NODES, size);
+		}
+	}
+	
+	/**
+	 * Write relationships, one block per type sorted by source ordinal.
+	 * 
+	 * @param rels
+	 * @throws IOException
+	 */
+	public void writeRelationships(List<Relationship> rels) throws IOException
+	{
+		if(rels == null || rels.size() == 0) return;
+		
+		Map<String,List<Relationship>> groups = byType(rels, Relationship::getType);
+		for(Map.Entry<String,List<Relationship>> e : groups.entrySet())
+		{
+			List<Relationship> group = e.getValue();
+			int size = group.size();
+			
+			// pack source and target into one long so a primitive sort keeps the pairs together
+			long keys[] = new long[size];
+			int n = 0;
+			Integer src = null;
+			Integer dst = null;
+			Relationship r = null;
+			for(int i=0; i<size; i++)
+			{
+				r = group.get(i);
+				src = r.getNode1ID() == null?null:ordinals.get(r.getNode1ID());
+				dst = r.getNode2ID() == null?null:ordinals.get(r.getNode2ID());
+				if(src == null || dst == null)
+				{
+					skipped++;
+					continue;
+				}
+				keys[n++] = (((long)src) << 32) | (i & 0xffffffffL);
+			}
+			if(n == 0) continue;
+			
+			Arrays.sort(keys, 0, n);
+			
+			List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(n);
+			buf.reset();
+			buf.writeByte(SnapshotFormat.BLOCK_RELS);
+			buf.writeVarLong(e.getKey() == null?0:code(e.getKey())+1);
+			buf.writeVarLong(n);
+			
+			// sources as deltas from the previous row
+			long prev = 0;
+			long s = 0;
+			for(int i=0; i<n; i++)
+			{
+				s = keys[i] >>> 32;
+				buf.writeVarLong(s - prev);
+				prev = s;
+			}
+			
+			for(int i=0; i<n; i++)
+			{
+				r = group.get((int)keys[i]);
+				buf.writeVarLong(SnapshotFormat.zigzag(ordinals.get(r.getNode2ID()) - (keys[i] >>> 32)));
+				rows.add(r.getPropertyMap());
+			}
+			
+			writeColumns(rows);
+			flushBlock(SnapshotFormat.BLOCK_RELS, n);
+			relCount += n;
+		}
+	}
+	
+	protected static int kindOf(Object v)
+	{
+		if(v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) return SnapshotFormat.COL_LONG;
+		if(v instanceof Double || v instanceof Float) return SnapshotFormat.COL_DOUBLE;
+		if(v instanceof Boolean) return SnapshotFormat.COL_BOOLEAN;
+		if(v instanceof String) return SnapshotFormat.COL_STRING;
+		return SnapshotFormat.COL_MIXED;
+	}
+	
+	protected void writeColumns(List<Map<String,Object>> rows)
+	{
+		int size = rows.size();
+		Set<String> names = new LinkedHashSet<String>();
+		Map<String,Object> row = null;
+		for(int i=0; i<size; i++)
+		{
+			row = rows.get(i);
+			if(row != null) names.addAll(row.keySet());
+		}
+		
+		buf.writeVarLong(names.size());
+		
+		Object vals[] = new Object[size];
+		for(String name : names)
+		{
+			int present = 0;
+			int kind = -1;
+			for(int i=0; i<size; i++)
+			{
+				row = rows.get(i);
+				vals[i] = row == null?null:row.get(name);
+				if(vals[i] == null) continue;
+				
+				present++;
+				int k = kindOf(vals[i]);
+				if(kind < 0) kind = k;
+				else if(kind != k) kind = SnapshotFormat.COL_MIXED;
+			}
+			if(kind < 0) kind = SnapshotFormat.COL_MIXED;
+			
+			Map<String,Integer> strCodes = null;
+			if(kind == SnapshotFormat.COL_STRING)
+			{
+				// low cardinality strings go through a per column dictionary
+				strCodes = new LinkedHashMap<String,Integer>();
+				for(int i=0; i<size && strCodes.size()*4 <= present; i++)
+				{
+					if(vals[i] != null) strCodes.putIfAbsent((String)vals[i], strCodes.size());
+				}
+				if(strCodes.size()*4 <= present) kind = SnapshotFormat.COL_STRING_DICT;
+			}
+			
+			buf.writeVarLong(code(name));
+			buf.writeByte(kind);
+			
+			if(present == size)
+			{
+				buf.writeByte(1);
+			}
+			else
+			{
+				buf.writeByte(0);
+				int b = 0;
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] != null) b |= 1 << (i & 7);
+					if((i & 7) == 7 || i == size-1)
+					{
+						buf.writeByte(b);
+						b = 0;
+					}
+				}
+			}
+			
+			switch(kind)
+			{
+			case SnapshotFormat.COL_LONG:
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] != null) buf.writeVarLong(SnapshotFormat.zigzag(((Number)vals[i]).longValue()));
+				}
+				break;
+			case SnapshotFormat.COL_DOUBLE:
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] != null) buf.writeDouble(((Number)vals[i]).doubleValue());
+				}
+				break;
+			case SnapshotFormat.COL_BOOLEAN:
+				int b = 0;
+				int nb = 0;
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] == null) continue;
+					if((Boolean)vals[i]) b |= 1 << nb;
+					nb++;
+					if(nb == 8)
+					{
+						buf.writeByte(b);
+						b = 0;
+						nb = 0;
+					}
+				}
+				if(nb > 0) buf.writeByte(b);
+				break;
+			case SnapshotFormat.COL_STRING:
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] != null) buf.writeString((String)vals[i]);
+				}
+				break;
+			case SnapshotFormat.COL_STRING_DICT:
+				buf.writeVarLong(strCodes.size());
+				for(String str : strCodes.keySet())
+				{
+					buf.writeString(str);
+				}
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] != null) buf.writeVarLong(strCodes.get(vals[i]));
+				}
+				break;
+			default:
+				for(int i=0; i<size; i++)
+				{
+					if(vals[i] != null) writeValue(vals[i]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tagged value for mixed columns.  Types the format doesn't know are kept as their strings.
+	 * 
+	 * @param v
+	 */
+	protected void writeValue(Object v)
+	{
+		int kind = kindOf(v);
+		if(v == null)
+		{
+			buf.writeByte(SnapshotFormat.TAG_NULL);
+		}
+		else if(kind == SnapshotFormat.COL_LONG)
+		{
+			buf.writeByte(SnapshotFormat.TAG_LONG);
+			buf.writeVarLong(SnapshotFormat.zigzag(((Number)v).longValue()));
+		}
+		else if(kind == SnapshotFormat.COL_DOUBLE)
+		{
+			buf.writeByte(SnapshotFormat.TAG_DOUBLE);
+			buf.writeDouble(((Number)v).doubleValue());
+		}
+		else if(kind == SnapshotFormat.COL_BOOLEAN)
+		{
+			buf.writeByte((Boolean)v?SnapshotFormat.TAG_TRUE:SnapshotFormat.TAG_FALSE);
+		}
+		else if(v instanceof Collection)
+		{
+			Collection<?> c = (Collection<?>)v;
+			buf.writeByte(SnapshotFormat.TAG_LIST);
+			buf.writeVarLong(c.size());
+			for(Object o : c)
+			{
+				writeValue(o);
+			}
+		}
+		else if(v instanceof Map)
+		{
+			Map<?,?> m = (Map<?,?>)v;
+			buf.writeByte(SnapshotFormat.TAG_MAP);
+			buf.writeVarLong(m.size());
+			for(Map.Entry<?,?> e : m.entrySet())
+			{
+				buf.writeString(String.valueOf(e.getKey()));
+				writeValue(e.getValue());
+			}
+		}
+		else
+		{
+			buf.writeByte(SnapshotFormat.TAG_STRING);
+			buf.writeString(v.toString());
+		}
+	}
+	
+	protected void flushBlock(byte kind, int count) throws IOException
+	{
+		index.writeByte(kind);
+		index.writeVarLong(pos);
+		index.writeVarLong(buf.size());
+		index.writeVarLong(count);
+		numBlocks++;
+		
+		buf.writeTo(out);
+		pos += buf.size();
+	}
+	
+	/**
+	 * Write the footer and close the stream.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed) return;
+		closed = true;
+		
+		try
+		{
+			long footer = pos;
+			
+			buf.reset();
+			int nd = dictStrings.size();
+			buf.writeVarLong(nd);
+			for(int i=0; i<nd; i++)
+			{
+				buf.writeString(dictStrings.get(i));
+			}
+			buf.writeVarLong(nodeCount);
+			buf.writeVarLong(relCount);
+			buf.writeVarLong(numBlocks);
+			buf.writeTo(out);
+			index.writeTo(out);
+			
+			BlockBuffer trailer = new BlockBuffer(SnapshotFormat.TRAILER_SIZE);
+			trailer.writeLong(footer);
+			trailer.writeBytes(SnapshotFormat.MAGIC);
+			trailer.writeTo(out);
+			
+			if(skipped > 0)
+			{
+				logger.warning("Skipped " + skipped + " relationships whose nodes were not in the snapshot");
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * No false negatives, and a false positive rate near the target at capacity.
+ * 
+ * @author aholinch
+ *
+ */
+public class BloomFilterTest 
+{
+	/**
+	 * Fraction of strings never added that the filter claims.
+	 */
+	protected static double falsePositiveRate(BloomFilter bf, int probes)
+	{
+		int fp = 0;
+		for(int i=0; i<probes; i++)
+		{
+			if(bf.mightContain("absent-" + i)) fp++;
+		}
+		return fp/(double)probes;
+	}
+	
+	@Test
+	public void testNoFalseNegatives()
+	{
+		BloomFilter bf = new BloomFilter(10000, 0.01);
+		List<String> added = new ArrayList<String>();
+		for(int i=0; i<10000; i++)
+		{
+			String str = UUID.randomUUID().toString();
+			added.add(str);
+			bf.add(str);
+		}
+		
+		for(String str : added)
+		{
+			assertTrue(str, bf.mightContain(str));
+		}
+		assertEquals(10000, bf.getCount());
+		assertTrue(bf.isFull());
+	}
+	
+	@Test
+	public void testFalsePositiveRate()
+	{
+		BloomFilter bf = new BloomFilter(20000, 0.01);
+		for(int i=0; i<20000; i++)
+		{
+			bf.add("present-" + i);
+		}
+		
+		// twice the target leaves room for chance, a broken hash lands far above it
+		double rate = falsePositiveRate(bf, 100000);
+		assertTrue("rate " + rate, rate < 0.02);
+	}
+	
+	@Test
+	public void testEmpty()
+	{
+		BloomFilter bf = new BloomFilter(100, 0.01);
+		assertFalse(bf.mightContain("a"));
+		assertFalse(bf.mightContain(""));
+		assertFalse(bf.isFull());
+		assertEquals(100, bf.getCapacity());
+		
+		bf.add("");
+		assertTrue(bf.mightContain(""));
+	}
+}
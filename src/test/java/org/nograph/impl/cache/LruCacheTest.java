@@ -0,0 +1,187 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Single segment caches so eviction order is predictable.
+ * 
+ * @author aholinch
+ *
+ */
+public class LruCacheTest 
+{
+	@Test
+	public void testBound()
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(5, 0, 1);
+		for(int i=0; i<20; i++)
+		{
+			cache.put("k" + i, i);
+			assertTrue(cache.size() <= 5);
+		}
+		assertEquals(5, cache.size());
+		assertEquals(15, cache.getStats().getEvictions());
+		
+		// the newest survive
+		for(int i=15; i<20; i++)
+		{
+			assertEquals(Integer.valueOf(i), cache.get("k" + i));
+		}
+		assertNull(cache.get("k0"));
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedGoesFirst()
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(3, 0, 1);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		
+		// promoted, so the unread b goes before it
+		cache.get("a");
+		cache.put("d", 4);
+		
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+		assertEquals(Integer.valueOf(4), cache.get("d"));
+	}
+	
+	@Test
+	public void testScanKeepsHotEntries()
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(10, 0, 1);
+		for(int i=0; i<5; i++)
+		{
+			cache.put("hot" + i, i);
+			cache.get("hot" + i);
+		}
+		
+		for(int i=0; i<1000; i++)
+		{
+			cache.put("scan" + i, i);
+		}
+		
+		for(int i=0; i<5; i++)
+		{
+			assertEquals(Integer.valueOf(i), cache.get("hot" + i));
+		}
+		assertEquals(10, cache.size());
+	}
+	
+	@Test
+	public void testReplace()
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(3, 0, 1);
+		cache.put("a", 1);
+		cache.put("a", 2);
+		assertEquals(1, cache.size());
+		assertEquals(Integer.valueOf(2), cache.get("a"));
+		
+		cache.put("a", 3);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.weight());
+		assertEquals(Integer.valueOf(3), cache.get("a"));
+		
+		cache.put(null, 1);
+		cache.put("b", null);
+		assertEquals(1, cache.size());
+		assertNull(cache.get(null));
+	}
+	
+	@Test
+	public void testWeigher()
+	{
+		LruCache<String,String> cache = new LruCache<String,String>(10L, 0, 1, (k,v) -> v.length());
+		cache.put("a", "xxxx");
+		cache.put("b", "xxxx");
+		assertEquals(8, cache.weight());
+		
+		cache.put("c", "xxxx");
+		assertEquals(8, cache.weight());
+		assertNull(cache.get("a"));
+		
+		// bigger than the whole cache, never stored and nothing flushed for it
+		cache.put("d", "xxxxxxxxxxxx");
+		assertNull(cache.get("d"));
+		assertEquals(2, cache.size());
+	}
+	
+	@Test
+	public void testExpiration() throws Exception
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(10, 20, 1);
+		cache.put("a", 1);
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		
+		Thread.sleep(50);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getStats().getExpirations());
+	}
+	
+	@Test
+	public void testInvalidate()
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(100, 0, 4);
+		for(int i=0; i<20; i++)
+		{
+			cache.put("k" + i, i);
+			if(i%2 == 0) cache.get("k" + i);
+		}
+		
+		cache.invalidate("k0");
+		cache.invalidate("k1");
+		assertNull(cache.get("k0"));
+		assertNull(cache.get("k1"));
+		assertEquals(18, cache.size());
+		
+		cache.invalidateIf((k,v) -> v >= 10);
+		assertEquals(8, cache.size());
+		assertEquals(8, cache.weight());
+		assertEquals(Integer.valueOf(9), cache.get("k9"));
+		assertNull(cache.get("k10"));
+		
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.weight());
+	}
+	
+	@Test
+	public void testStats()
+	{
+		LruCache<String,Integer> cache = new LruCache<String,Integer>(10, 0);
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+		
+		CacheStats stats = cache.getStats();
+		assertEquals(2, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getSize());
+		assertEquals(2.0/3.0, stats.getHitRate(), 1e-9);
+	}
+}
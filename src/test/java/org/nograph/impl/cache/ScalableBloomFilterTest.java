@@ -0,0 +1,113 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Growing past the first stage keeps every added string and the overall false positive rate.
+ * 
+ * @author aholinch
+ *
+ */
+public class ScalableBloomFilterTest 
+{
+	@Test
+	public void testGrowsWithoutFalseNegatives()
+	{
+		ScalableBloomFilter sbf = new ScalableBloomFilter(1000, 0.01);
+		assertEquals(1, sbf.getNumStages());
+		
+		for(int i=0; i<50000; i++)
+		{
+			sbf.add("present-" + i);
+		}
+		assertTrue(sbf.getNumStages() > 1);
+		assertEquals(50000, sbf.getCount());
+		
+		for(int i=0; i<50000; i++)
+		{
+			assertTrue(sbf.mightContain("present-" + i));
+		}
+	}
+	
+	@Test
+	public void testFalsePositiveRateAfterGrowth()
+	{
+		ScalableBloomFilter sbf = new ScalableBloomFilter(1000, 0.01);
+		for(int i=0; i<50000; i++)
+		{
+			sbf.add("present-" + i);
+		}
+		
+		// the stage rates sum to the target, so fifty times the first capacity still stays near it
+		int fp = 0;
+		int probes = 100000;
+		for(int i=0; i<probes; i++)
+		{
+			if(sbf.mightContain("absent-" + i)) fp++;
+		}
+		double rate = fp/(double)probes;
+		assertTrue("rate " + rate, rate < 0.02);
+	}
+	
+	@Test
+	public void testNullsAndBadRate()
+	{
+		ScalableBloomFilter sbf = new ScalableBloomFilter(10, 5);
+		sbf.add(null);
+		assertEquals(0, sbf.getCount());
+		assertFalse(sbf.mightContain(null));
+		
+		sbf.add("a");
+		assertTrue(sbf.mightContain("a"));
+		assertFalse(sbf.mightContain("b"));
+	}
+	
+	@Test
+	public void testConcurrentAdds() throws Exception
+	{
+		ScalableBloomFilter sbf = new ScalableBloomFilter(100, 0.01);
+		Thread threads[] = new Thread[4];
+		for(int t=0; t<threads.length; t++)
+		{
+			final int base = t*10000;
+			threads[t] = new Thread(() -> {
+				for(int i=0; i<10000; i++)
+				{
+					sbf.add("present-" + (base+i));
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread t : threads)
+		{
+			t.join();
+		}
+		
+		assertEquals(40000, sbf.getCount());
+		for(int i=0; i<40000; i++)
+		{
+			assertTrue(sbf.mightContain("present-" + i));
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+
+/**
+ * Clauses are written into one buffer, with children that write nothing left out.
+ * 
+ * @author aholinch
+ *
+ */
+public class BasicStringQueryTranslatorTest 
+{
+	protected static SetCriterion set(int comb, Criterion... crits)
+	{
+		SetCriterion set = new SetCriterion(comb);
+		for(Criterion c:crits) set.addCriterion(c);
+		return set;
+	}
+	
+	protected static GraphQuery query(Criterion crit)
+	{
+		GraphQuery gq = new GraphQuery();
+		gq.setCriterion(crit);
+		return gq;
+	}
+	
+	@Test
+	public void testSimple()
+	{
+		BasicStringQueryTranslator bt = new BasicStringQueryTranslator();
+		assertEquals("a=1", bt.criterionToClause("n", new SimpleCriterion("a", 1)));
+		assertEquals("a=x y", bt.criterionToClause("n", new SimpleCriterion("a", "x y")));
+		assertEquals("a>1.5", bt.criterionToClause("n", new SimpleCriterion("a", SimpleCriterion.OP_GT, 1.5d)));
+		assertEquals("a<3", bt.criterionToClause("n", new SimpleCriterion("a", SimpleCriterion.OP_LT, 3L)));
+		assertEquals("a>=true", bt.criterionToClause("n", new SimpleCriterion("a", SimpleCriterion.OP_GE, true)));
+		assertEquals("a<=2", bt.criterionToClause("n", new SimpleCriterion("a", SimpleCriterion.OP_LE, (short)2)));
+		assertEquals("a!=2", bt.criterionToClause("n", new SimpleCriterion("a", SimpleCriterion.OP_NOT_EQUAL, 2)));
+		assertEquals("aLIKEb%", bt.criterionToClause("n", new SimpleCriterion("a", SimpleCriterion.OP_LIKE, "b%")));
+		
+		assertEquals("a:1", new BasicStringQueryTranslator(":").simpleCriterionToClause("n", new SimpleCriterion("a", 1)));
+	}
+	
+	@Test
+	public void testRange()
+	{
+		BasicStringQueryTranslator bt = new BasicStringQueryTranslator();
+		assertEquals("a:[1 TO 5}", bt.rangeCriterionToClause("n", new RangeCriterion("a", 1, 5, true, false)));
+		assertEquals("a:{x TO y]", bt.criterionToClause("n", new RangeCriterion("a", "x", "y", false, true)));
+	}
+	
+	@Test
+	public void testSets()
+	{
+		BasicStringQueryTranslator bt = new BasicStringQueryTranslator();
+		Criterion a = new SimpleCriterion("a", 1);
+		Criterion b = new SimpleCriterion("b", SimpleCriterion.OP_GT, 2);
+		Criterion c = new SimpleCriterion("c", "z");
+		
+		assertEquals("(a=1) AND (b>2)", bt.setCriterionToClause("n", set(SetCriterion.COMB_AND, a, b)));
+		assertEquals("(a=1) OR ((b>2) AND (c=z))", bt.criterionToClause("n", set(SetCriterion.COMB_OR, a, set(SetCriterion.COMB_AND, b, c))));
+		assertEquals("a=1", bt.criterionToClause("n", set(SetCriterion.COMB_OR, a)));
+	}
+	
+	@Test
+	public void testEmpty()
+	{
+		BasicStringQueryTranslator bt = new BasicStringQueryTranslator();
+		Criterion a = new SimpleCriterion("a", 1);
+		Criterion empty = set(SetCriterion.COMB_AND);
+		
+		assertNull(bt.criterionToClause("n", empty));
+		assertNull(bt.criterionToClause("n", null));
+		assertNull(bt.graphQueryToNativeNode("n", query(empty)));
+		assertNull(bt.graphQueryToNativeRel("n", query(null)));
+		assertNull(bt.queryToNative("n", null));
+		
+		// an empty child matches everything so it drops out of an AND and takes the whole OR with it
+		assertEquals("(a=1)", bt.criterionToClause("n", set(SetCriterion.COMB_AND, a, empty)));
+		assertEquals("(a=1)", bt.criterionToClause("n", set(SetCriterion.COMB_AND, empty, a)));
+		assertNull(bt.criterionToClause("n", set(SetCriterion.COMB_OR, a, empty)));
+		assertNull(bt.criterionToClause("n", set(SetCriterion.COMB_OR, empty, a)));
+		assertEquals("(c=z) AND (b>2)", bt.criterionToClause("n", set(SetCriterion.COMB_AND, new SimpleCriterion("c", "z"), set(SetCriterion.COMB_OR, a, empty), new SimpleCriterion("b", SimpleCriterion.OP_GT, 2))));
+	}
+	
+	@Test
+	public void testEscaping()
+	{
+		BasicStringQueryTranslator bt = new BasicStringQueryTranslator() {
+			@Override
+			protected void appendChar(StringBuilder sb, char c)
+			{
+				if(c == '"' || c == '\\') sb.append('\\');
+				sb.append(c);
+			}
+		};
+		assertEquals("a=say \\\"hi\\\"", bt.criterionToClause("n", new SimpleCriterion("a", "say \"hi\"")));
+	}
+}
@@ -0,0 +1,200 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.GenericNode;
+
+/**
+ * Every value has to come through as a parameter, named in the order it was visited.
+ * 
+ * @author aholinch
+ *
+ */
+public class CypherQueryTranslatorTest 
+{
+	protected CypherQueryTranslator ct = new CypherQueryTranslator();
+	
+	protected static SetCriterion set(int comb, Criterion... crits)
+	{
+		SetCriterion set = new SetCriterion(comb);
+		for(Criterion c:crits) set.addCriterion(c);
+		return set;
+	}
+	
+	protected static Criterion eq(String key, Object val)
+	{
+		return new SimpleCriterion(key, val);
+	}
+	
+	protected static Criterion op(String key, int op, Object val)
+	{
+		return new SimpleCriterion(key, op, val);
+	}
+	
+	@Test
+	public void testSimple()
+	{
+		CypherClause cc = ct.translate("n", op("age", SimpleCriterion.OP_GE, 21), false, true);
+		assertNull(cc.getLabel());
+		assertEquals("n.age >= $p0", cc.getWhere());
+		assertEquals(21, cc.getParams().get("p0"));
+		
+		cc = ct.translate("n", op("age", SimpleCriterion.OP_NOT_EQUAL, 21), false, false);
+		assertEquals("(n.age IS NULL OR n.age <> $p0)", cc.getWhere());
+		
+		cc = ct.translate("n", op("name", SimpleCriterion.OP_LIKE, "Jo_n%"), false, false);
+		assertEquals("n.name =~ $p0", cc.getWhere());
+		assertTrue(((String)cc.getParams().get("p0")).startsWith("(?s)"));
+		
+		assertEquals("false", ct.translate("n", eq("age", null), false, false).getWhere());
+		assertEquals("true", ct.translate("n", op("age", SimpleCriterion.OP_NOT_EQUAL, null), false, false).getWhere());
+		
+		cc = ct.translate("n", eq("when", new Date(1000L)), false, false);
+		assertEquals(1000L, cc.getParams().get("p0"));
+	}
+	
+	@Test
+	public void testQuotedNames()
+	{
+		assertEquals("n.`first name` = $p0", ct.translate("n", eq("first name", "x"), false, false).getWhere());
+		assertEquals("n.`a``b` = $p0", ct.translate("n", eq("a`b", "x"), false, false).getWhere());
+		assertEquals("n.`1st` = $p0", ct.translate("n", eq("1st", "x"), false, false).getWhere());
+		assertEquals("n.a_1 = $p0", ct.translate("n", eq("a_1", "x"), false, false).getWhere());
+		
+		StringBuilder sb = new StringBuilder();
+		CypherQueryTranslator.appendName(sb, "it's");
+		assertEquals("`it's`", sb.toString());
+	}
+	
+	@Test
+	public void testIdsAndTypes()
+	{
+		CypherClause cc = ct.translate("n", eq(GenericNode.ID_KEY, "42"), false, false);
+		assertEquals("id(n) = $p0", cc.getWhere());
+		assertEquals(42L, cc.getParams().get("p0"));
+		
+		assertEquals("false", ct.translate("n", eq(GenericNode.ID_KEY, "abc"), false, false).getWhere());
+		assertEquals("true", ct.translate("n", op(GenericNode.ID_KEY, SimpleCriterion.OP_NOT_EQUAL, "abc"), false, false).getWhere());
+		
+		cc = ct.translate("n", eq(GenericNode.TYPE_KEY, "Person"), false, false);
+		assertEquals("$p0 IN labels(n)", cc.getWhere());
+		assertEquals("Person", cc.getParams().get("p0"));
+		
+		assertEquals("type(r) = $p0", ct.translate("r", eq(GenericNode.TYPE_KEY, "KNOWS"), true, false).getWhere());
+		assertEquals("NOT type(r) = $p0", ct.translate("r", op(GenericNode.TYPE_KEY, SimpleCriterion.OP_NOT_EQUAL, "KNOWS"), true, false).getWhere());
+	}
+	
+	@Test
+	public void testPullLabel()
+	{
+		CypherClause cc = ct.translate("n", eq(GenericNode.TYPE_KEY, "Person"), false, true);
+		assertEquals("Person", cc.getLabel());
+		assertNull(cc.getWhere());
+		assertEquals("", cc.toString());
+		assertTrue(cc.getParams().isEmpty());
+		
+		cc = ct.translate("n", set(SetCriterion.COMB_AND, eq("age", 3), eq(GenericNode.TYPE_KEY, "Person"), eq("b", 4)), false, true);
+		assertEquals("Person", cc.getLabel());
+		assertEquals("(n.age = $p0 AND n.b = $p1)", cc.getWhere());
+		
+		// a type inside an OR doesn't hold for every match so it stays in the predicate
+		cc = ct.translate("n", set(SetCriterion.COMB_OR, eq("age", 3), eq(GenericNode.TYPE_KEY, "Person")), false, true);
+		assertNull(cc.getLabel());
+		assertEquals("(n.age = $p0 OR $p1 IN labels(n))", cc.getWhere());
+	}
+	
+	@Test
+	public void testInSet()
+	{
+		CypherClause cc = ct.translate("n", set(SetCriterion.COMB_OR, eq("age", 1), eq("age", 2), eq("age", 3)), false, false);
+		assertEquals("n.age IN $p0", cc.getWhere());
+		assertEquals(Arrays.asList(1, 2, 3), cc.getParams().get("p0"));
+		
+		cc = ct.translate("n", set(SetCriterion.COMB_OR, eq(GenericNode.ID_KEY, "7"), eq(GenericNode.ID_KEY, "x"), eq(GenericNode.ID_KEY, 9)), false, false);
+		assertEquals("id(n) IN $p0", cc.getWhere());
+		assertEquals(Arrays.asList(7L, 9L), cc.getParams().get("p0"));
+		
+		assertEquals("false", ct.translate("n", set(SetCriterion.COMB_OR, eq(GenericNode.ID_KEY, "x"), eq(GenericNode.ID_KEY, "y")), false, false).getWhere());
+		assertEquals("type(r) IN $p0", ct.translate("r", set(SetCriterion.COMB_OR, eq(GenericNode.TYPE_KEY, "A"), eq(GenericNode.TYPE_KEY, "B")), true, false).getWhere());
+		assertEquals("any(l IN labels(n) WHERE l IN $p0)", ct.translate("n", set(SetCriterion.COMB_OR, eq(GenericNode.TYPE_KEY, "A"), eq(GenericNode.TYPE_KEY, "B")), false, false).getWhere());
+	}
+	
+	@Test
+	public void testRange()
+	{
+		CypherClause cc = ct.translate("n", new RangeCriterion("age", 1, 5, true, false), false, false);
+		assertEquals("(n.age >= $p0 AND n.age < $p1)", cc.getWhere());
+		assertEquals(1, cc.getParams().get("p0"));
+		assertEquals(5, cc.getParams().get("p1"));
+		
+		assertEquals("n.age > $p0", ct.translate("n", new RangeCriterion("age", 1, null, false, false), false, false).getWhere());
+		assertEquals("exists(n.age)", ct.translate("n", new RangeCriterion("age", null, null, false, false), false, false).getWhere());
+	}
+	
+	@Test
+	public void testEmptyChildren()
+	{
+		Criterion empty = set(SetCriterion.COMB_AND);
+		
+		assertNull(ct.translate("n", empty, false, true).getWhere());
+		
+		CypherClause cc = ct.translate("n", set(SetCriterion.COMB_AND, eq("a", 1), empty, eq("b", 2)), false, false);
+		assertEquals("(n.a = $p0 AND n.b = $p1)", cc.getWhere());
+		
+		// an empty child matches everything, so the OR does too and writes nothing
+		cc = ct.translate("n", set(SetCriterion.COMB_OR, eq("a", 1), empty, op("b", SimpleCriterion.OP_GT, 2)), false, false);
+		assertNull(cc.getWhere());
+		
+		cc = ct.translate("n", set(SetCriterion.COMB_AND, eq("c", 3), set(SetCriterion.COMB_OR, op("a", SimpleCriterion.OP_GT, 1), empty)), false, false);
+		assertEquals("(n.c = $p0)", cc.getWhere());
+		
+		// the pulled label leaves nothing behind in a one child AND
+		cc = ct.translate("n", set(SetCriterion.COMB_AND, eq(GenericNode.TYPE_KEY, "Person"), empty), false, true);
+		assertEquals("Person", cc.getLabel());
+		assertNull(cc.getWhere());
+	}
+	
+	@Test
+	public void testSharedParams()
+	{
+		Map<String,Object> params = new HashMap<String,Object>();
+		CypherClause a = ct.translate("a", eq("x", 1), false, false, params);
+		CypherClause b = ct.translate("b", eq("x", 2), false, false, params);
+		assertEquals("a.x = $p0", a.getWhere());
+		assertEquals("b.x = $p1", b.getWhere());
+		assertEquals(2, params.size());
+		assertEquals(2, params.get("p1"));
+		
+		// the same shape gives the same text
+		assertEquals(ct.translate("n", eq("x", 5), false, false).getWhere(), ct.translate("n", eq("x", 6), false, false).getWhere());
+	}
+}
@@ -0,0 +1,151 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+import org.nograph.impl.GenericNode;
+
+/**
+ * Filter context dsl compared as text, so field order matters here the way it doesn't to elasticsearch.
+ * 
+ * @author aholinch
+ *
+ */
+public class ElasticDslQueryTranslatorTest 
+{
+	protected static final String MATCH_ALL = "{\"match_all\":{}}";
+	
+	protected ElasticDslQueryTranslator et = new ElasticDslQueryTranslator();
+	
+	protected static SetCriterion set(int comb, Criterion... crits)
+	{
+		SetCriterion set = new SetCriterion(comb);
+		for(Criterion c:crits) set.addCriterion(c);
+		return set;
+	}
+	
+	protected static Criterion eq(String key, Object val)
+	{
+		return new SimpleCriterion(key, val);
+	}
+	
+	protected static Criterion op(String key, int op, Object val)
+	{
+		return new SimpleCriterion(key, op, val);
+	}
+	
+	protected String clause(Criterion crit)
+	{
+		return (String)et.criterionToClause("", crit);
+	}
+	
+	@Test
+	public void testEquals()
+	{
+		assertEquals("{\"term\":{\"name.keyword\":\"Bob\"}}", clause(eq("name", "Bob")));
+		assertEquals("{\"term\":{\"age\":3}}", clause(eq("age", 3)));
+		assertEquals("{\"term\":{\"on\":true}}", clause(eq("on", true)));
+		assertEquals("{\"term\":{\"at\":1000}}", clause(eq("at", new Date(1000L))));
+		assertEquals("{\"term\":{\"x\":\"NaN\"}}", clause(eq("x", Double.NaN)));
+		
+		assertEquals("{\"term\":{\"name\":\"Bob\"}}", new ElasticDslQueryTranslator(null).criterionToClause("", eq("name", "Bob")));
+		assertEquals("{\"term\":{\"node1.name.keyword\":\"Bob\"}}", et.criterionToClause("node1.", eq("name", "Bob")));
+	}
+	
+	@Test
+	public void testIds()
+	{
+		assertEquals("{\"ids\":{\"values\":[\"7\"]}}", clause(eq(GenericNode.ID_KEY, 7)));
+		assertEquals("{\"ids\":{\"values\":[\"7\",\"8\"]}}", clause(set(SetCriterion.COMB_OR, eq(GenericNode.ID_KEY, "7"), eq(GenericNode.ID_KEY, "8"))));
+		
+		// an endpoint id is a plain field
+		assertEquals("{\"term\":{\"node1.id.keyword\":\"7\"}}", et.criterionToClause("node1.", eq(GenericNode.ID_KEY, "7")));
+	}
+	
+	@Test
+	public void testOperators()
+	{
+		assertEquals("{\"bool\":{\"must_not\":[{\"term\":{\"age\":3}}]}}", clause(op("age", SimpleCriterion.OP_NOT_EQUAL, 3)));
+		assertEquals("{\"range\":{\"age\":{\"gt\":3}}}", clause(op("age", SimpleCriterion.OP_GT, 3)));
+		assertEquals("{\"range\":{\"age\":{\"gte\":3}}}", clause(op("age", SimpleCriterion.OP_GE, 3)));
+		assertEquals("{\"range\":{\"age\":{\"lt\":3}}}", clause(op("age", SimpleCriterion.OP_LT, 3)));
+		assertEquals("{\"range\":{\"name.keyword\":{\"lte\":\"m\"}}}", clause(op("name", SimpleCriterion.OP_LE, "m")));
+		assertEquals("{\"wildcard\":{\"name.keyword\":{\"value\":\"Jo?n*\\\\\\\\\"}}}", clause(op("name", SimpleCriterion.OP_LIKE, "Jo_n%\\")));
+		
+		assertEquals(MATCH_ALL, clause(op("age", SimpleCriterion.OP_NOT_EQUAL, null)));
+		assertEquals("{\"bool\":{\"must_not\":[" + MATCH_ALL + "]}}", clause(eq("age", null)));
+	}
+	
+	@Test
+	public void testRange()
+	{
+		assertEquals("{\"range\":{\"age\":{\"gte\":1,\"lt\":5}}}", clause(new RangeCriterion("age", 1, 5, true, false)));
+		assertEquals("{\"range\":{\"age\":{\"lte\":5}}}", clause(new RangeCriterion("age", null, 5, false, true)));
+		assertEquals("{\"range\":{\"name.keyword\":{\"gt\":\"a\"}}}", clause(new RangeCriterion("name", "a", null, false, false)));
+		assertEquals("{\"exists\":{\"field\":\"age\"}}", clause(new RangeCriterion("age", null, null, false, false)));
+	}
+	
+	@Test
+	public void testSets()
+	{
+		assertEquals("{\"bool\":{\"filter\":[{\"term\":{\"a\":1}},{\"term\":{\"b\":2}}]}}", clause(set(SetCriterion.COMB_AND, eq("a", 1), eq("b", 2))));
+		assertEquals("{\"bool\":{\"should\":[{\"term\":{\"a\":1}},{\"range\":{\"b\":{\"gt\":2}}}],\"minimum_should_match\":1}}",
+				clause(set(SetCriterion.COMB_OR, eq("a", 1), op("b", SimpleCriterion.OP_GT, 2))));
+		assertEquals("{\"term\":{\"a\":1}}", clause(set(SetCriterion.COMB_OR, eq("a", 1))));
+		
+		assertEquals("{\"terms\":{\"a\":[1,2,3]}}", clause(set(SetCriterion.COMB_OR, eq("a", 1), eq("a", 2), eq("a", 3))));
+		assertEquals("{\"terms\":{\"a.keyword\":[\"x\",\"y\"]}}", clause(set(SetCriterion.COMB_OR, eq("a", "x"), eq("a", "y"))));
+		
+		// strings and numbers go to different fields so they can't share a terms query
+		assertEquals("{\"bool\":{\"should\":[{\"term\":{\"a.keyword\":\"x\"}},{\"term\":{\"a\":1}}],\"minimum_should_match\":1}}",
+				clause(set(SetCriterion.COMB_OR, eq("a", "x"), eq("a", 1))));
+	}
+	
+	@Test
+	public void testEmptyChildren()
+	{
+		Criterion empty = set(SetCriterion.COMB_AND);
+		
+		assertNull(clause(empty));
+		assertEquals(MATCH_ALL, et.queryToNative("", empty));
+		assertEquals(MATCH_ALL, et.queryToNative("", null));
+		
+		assertEquals("{\"bool\":{\"filter\":[{\"term\":{\"a\":1}},{\"term\":{\"b\":2}}]}}", clause(set(SetCriterion.COMB_AND, eq("a", 1), empty, eq("b", 2))));
+		
+		// an empty child matches everything, so the should does too and writes nothing
+		assertNull(clause(set(SetCriterion.COMB_OR, eq("a", 1), empty, op("b", SimpleCriterion.OP_GT, 2))));
+		assertEquals(MATCH_ALL, et.queryToNative("", set(SetCriterion.COMB_OR, empty, eq("a", 1))));
+		assertEquals("{\"bool\":{\"filter\":[{\"term\":{\"c\":3}}]}}", clause(set(SetCriterion.COMB_AND, eq("c", 3), set(SetCriterion.COMB_OR, op("a", SimpleCriterion.OP_GT, 1), empty))));
+	}
+	
+	@Test
+	public void testQuery()
+	{
+		assertEquals("{\"bool\":{\"filter\":[{\"term\":{\"a\":1}}]}}", et.queryToNative("", eq("a", 1)));
+		assertEquals("{\"term\":{\"say \\\"hi\\\"\\n.keyword\":\"tab\\there\\u0001\"}}", clause(eq("say \"hi\"\n", "tab\there\u0001")));
+	}
+}
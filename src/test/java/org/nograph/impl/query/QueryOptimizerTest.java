@@ -0,0 +1,317 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.nograph.GraphQuery;
+import org.nograph.GraphQuery.Criterion;
+import org.nograph.GraphQuery.RangeCriterion;
+import org.nograph.GraphQuery.SetCriterion;
+import org.nograph.GraphQuery.SimpleCriterion;
+
+/**
+ * Each rewrite is checked for shape and against CriterionMatcher on sample objects, so a rewrite that
+ * changes what matches fails even when the shape looks right.
+ * 
+ * @author aholinch
+ *
+ */
+public class QueryOptimizerTest 
+{
+	/**
+	 * Values of a from -1 to 11 plus a string and missing, values of b from 1 to 3 plus missing.
+	 */
+	protected static List<Map<String,Object>> samples()
+	{
+		List<Object> avals = new ArrayList<Object>();
+		avals.add(null);
+		avals.add("x");
+		for(int i=-1; i<=11; i++) avals.add(i);
+		
+		List<Object> bvals = new ArrayList<Object>();
+		bvals.add(null);
+		for(int i=1; i<=3; i++) bvals.add(i);
+		
+		List<Map<String,Object>> out = new ArrayList<Map<String,Object>>();
+		Map<String,Object> map = null;
+		for(Object a:avals)
+		{
+			for(Object b:bvals)
+			{
+				map = new HashMap<String,Object>();
+				if(a != null) map.put("a", a);
+				if(b != null) map.put("b", b);
+				out.add(map);
+			}
+		}
+		return out;
+	}
+	
+	protected static Criterion eq(String key, Object val)
+	{
+		return new SimpleCriterion(key, val);
+	}
+	
+	protected static Criterion op(String key, int op, Object val)
+	{
+		return new SimpleCriterion(key, op, val);
+	}
+	
+	protected static SetCriterion and(Criterion... crits)
+	{
+		return set(SetCriterion.COMB_AND, crits);
+	}
+	
+	protected static SetCriterion or(Criterion... crits)
+	{
+		return set(SetCriterion.COMB_OR, crits);
+	}
+	
+	protected static SetCriterion set(int comb, Criterion... crits)
+	{
+		SetCriterion set = new SetCriterion(comb);
+		for(Criterion c:crits) set.addCriterion(c);
+		return set;
+	}
+	
+	/**
+	 * Optimizes and checks the result matches exactly the samples the input does.
+	 */
+	protected static Criterion check(QueryOptimizer qo, Criterion crit)
+	{
+		Criterion out = qo.optimize(crit);
+		assertNotNull(out);
+		
+		CriterionMatcher before = new CriterionMatcher(crit);
+		CriterionMatcher after = new CriterionMatcher(out);
+		for(Map<String,Object> map:samples())
+		{
+			assertEquals("rewrite of " + crit + " to " + out + " on " + map, before.matches(key -> map.get(key)), after.matches(key -> map.get(key)));
+		}
+		return out;
+	}
+	
+	protected static Criterion check(Criterion crit)
+	{
+		return check(new QueryOptimizer(), crit);
+	}
+	
+	protected static boolean matchesAll(Criterion crit)
+	{
+		return crit instanceof SetCriterion && ((SetCriterion)crit).getNumCriteria() == 0 && ((SetCriterion)crit).getSetOperation() == SetCriterion.COMB_AND;
+	}
+	
+	protected static List<Object> inSetValues(Criterion crit)
+	{
+		List<Object> vals = new ArrayList<Object>();
+		SetCriterion set = (SetCriterion)crit;
+		int nc = set.getNumCriteria();
+		for(int i=0; i<nc; i++)
+		{
+			vals.add(((SimpleCriterion)set.getCriterion(i)).getValue());
+		}
+		return vals;
+	}
+	
+	@Test
+	public void testBoundsMergeToTighter()
+	{
+		Criterion out = check(and(op("a",SimpleCriterion.OP_GT,2), op("a",SimpleCriterion.OP_GE,4), op("a",SimpleCriterion.OP_LT,9), op("a",SimpleCriterion.OP_LE,7)));
+		assertTrue(out instanceof RangeCriterion);
+		
+		RangeCriterion rc = (RangeCriterion)out;
+		assertEquals("a", rc.getKey());
+		assertEquals(4, rc.getMinValue());
+		assertEquals(7, rc.getMaxValue());
+		assertTrue(rc.getMinInclusive());
+		assertTrue(rc.getMaxInclusive());
+	}
+	
+	@Test
+	public void testExclusiveWinsTie()
+	{
+		RangeCriterion rc = (RangeCriterion)check(and(op("a",SimpleCriterion.OP_GE,3), op("a",SimpleCriterion.OP_GT,3), new RangeCriterion("a",null,8,false,true), op("a",SimpleCriterion.OP_LT,8)));
+		assertEquals(3, rc.getMinValue());
+		assertEquals(8, rc.getMaxValue());
+		assertFalse(rc.getMinInclusive());
+		assertFalse(rc.getMaxInclusive());
+	}
+	
+	@Test
+	public void testEqualBounds()
+	{
+		Criterion out = check(and(op("a",SimpleCriterion.OP_GE,5), op("a",SimpleCriterion.OP_LE,5)));
+		assertTrue(out instanceof SimpleCriterion);
+		assertEquals(SimpleCriterion.OP_EQUAL, ((SimpleCriterion)out).getOperator());
+		assertEquals(5, ((SimpleCriterion)out).getValue());
+		
+		assertTrue(QueryOptimizer.matchesNothing(check(and(op("a",SimpleCriterion.OP_GE,5), op("a",SimpleCriterion.OP_LT,5)))));
+		assertTrue(QueryOptimizer.matchesNothing(check(and(op("a",SimpleCriterion.OP_GT,6), op("a",SimpleCriterion.OP_LT,4)))));
+		assertTrue(QueryOptimizer.matchesNothing(check(new RangeCriterion("a",5,5,true,false))));
+	}
+	
+	@Test
+	public void testEqualityAgainstBounds()
+	{
+		Criterion out = check(and(eq("a",5), op("a",SimpleCriterion.OP_GE,5), op("a",SimpleCriterion.OP_LT,9)));
+		assertTrue(out instanceof SimpleCriterion);
+		assertEquals(5, ((SimpleCriterion)out).getValue());
+		
+		assertTrue(QueryOptimizer.matchesNothing(check(and(eq("a",5), op("a",SimpleCriterion.OP_GT,5)))));
+		assertTrue(QueryOptimizer.matchesNothing(check(and(eq("a",5), eq("a",6)))));
+	}
+	
+	@Test
+	public void testInSetIntersection()
+	{
+		Criterion out = check(or(eq("a",3), eq("a",1), eq("a",2), eq("a",1)));
+		assertEquals("a", QueryOptimizer.inSetKey(out));
+		assertEquals(3, inSetValues(out).size());
+		assertEquals(1, inSetValues(out).get(0));
+		assertEquals(3, inSetValues(out).get(2));
+		
+		out = check(and(or(eq("a",1), eq("a",2), eq("a",3), eq("a",4)), or(eq("a",3), eq("a",4), eq("a",5))));
+		assertEquals("a", QueryOptimizer.inSetKey(out));
+		assertEquals(2, inSetValues(out).size());
+		assertEquals(3, inSetValues(out).get(0));
+		assertEquals(4, inSetValues(out).get(1));
+		
+		out = check(and(or(eq("a",1), eq("a",5), eq("a",9)), op("a",SimpleCriterion.OP_GT,1), op("a",SimpleCriterion.OP_NOT_EQUAL,9)));
+		assertTrue(out instanceof SimpleCriterion);
+		assertEquals(5, ((SimpleCriterion)out).getValue());
+		
+		assertTrue(QueryOptimizer.matchesNothing(check(and(or(eq("a",1), eq("a",2)), or(eq("a",3), eq("a",4))))));
+	}
+	
+	@Test
+	public void testNotEqualPruning()
+	{
+		Criterion out = check(and(op("a",SimpleCriterion.OP_GT,2), op("a",SimpleCriterion.OP_NOT_EQUAL,1)));
+		assertTrue(out instanceof SimpleCriterion);
+		assertEquals(SimpleCriterion.OP_GT, ((SimpleCriterion)out).getOperator());
+		
+		out = check(and(new RangeCriterion("a",2,6,true,true), op("a",SimpleCriterion.OP_NOT_EQUAL,4)));
+		assertTrue(out instanceof SetCriterion);
+		assertEquals(2, ((SetCriterion)out).getNumCriteria());
+		
+		assertTrue(QueryOptimizer.matchesNothing(check(and(eq("a",4), op("a",SimpleCriterion.OP_NOT_EQUAL,4)))));
+		
+		// a missing value passes a lone not equal, nothing is pruned without a bound
+		check(and(op("a",SimpleCriterion.OP_NOT_EQUAL,4), op("a",SimpleCriterion.OP_NOT_EQUAL,5)));
+	}
+	
+	@Test
+	public void testMixedKindsNotMerged()
+	{
+		Criterion out = check(and(eq("a","5"), eq("a",5)));
+		assertFalse(QueryOptimizer.matchesNothing(out));
+		assertEquals(2, ((SetCriterion)out).getNumCriteria());
+	}
+	
+	@Test
+	public void testNothingAndAllPropagate()
+	{
+		Criterion never = and(eq("a",1), eq("a",2));
+		Criterion always = and();
+		
+		assertTrue(QueryOptimizer.matchesNothing(check(and(eq("b",1), never))));
+		assertTrue(QueryOptimizer.matchesNothing(check(or(never, and(eq("a",3), op("a",SimpleCriterion.OP_GT,4))))));
+		assertTrue(matchesAll(check(or())));
+		
+		Criterion out = check(or(never, eq("b",2)));
+		assertTrue(out instanceof SimpleCriterion);
+		assertEquals("b", ((SimpleCriterion)out).getKey());
+		
+		out = check(and(always, eq("b",2)));
+		assertTrue(out instanceof SimpleCriterion);
+		assertEquals("b", ((SimpleCriterion)out).getKey());
+		
+		assertTrue(matchesAll(check(or(eq("b",2), always))));
+		assertTrue(matchesAll(check(and(always, and(), or(eq("a",1), and())))));
+		
+		out = check(and(eq("b",3), or(never, and(always, eq("a",7))), or(eq("b",3), eq("b",1))));
+		assertFalse(QueryOptimizer.matchesNothing(out));
+		
+		assertTrue(QueryOptimizer.matchesNothing(check(or(and(never, eq("b",1)), or(never, and(eq("b",1), eq("b",2)))))));
+		assertTrue(matchesAll(check(or(and(never, eq("b",1)), or(never, or())))));
+	}
+	
+	@Test
+	public void testFlattenAndDedupe()
+	{
+		Criterion out = check(and(eq("b",1), and(op("a",SimpleCriterion.OP_GT,3), and(eq("b",1)))));
+		assertTrue(out instanceof SetCriterion);
+		assertEquals(2, ((SetCriterion)out).getNumCriteria());
+	}
+	
+	@Test
+	public void testMultiValued()
+	{
+		QueryOptimizer qo = new QueryOptimizer();
+		qo.setSingleValued(false);
+		assertFalse(qo.isSingleValued());
+		
+		// a list property can hold both values or values on both sides of the bounds
+		Criterion out = qo.optimize(and(eq("a",1), eq("a",2)));
+		assertFalse(QueryOptimizer.matchesNothing(out));
+		assertEquals(2, ((SetCriterion)out).getNumCriteria());
+		
+		out = qo.optimize(and(op("a",SimpleCriterion.OP_GT,6), op("a",SimpleCriterion.OP_LT,4)));
+		assertFalse(QueryOptimizer.matchesNothing(out));
+		
+		out = qo.optimize(new RangeCriterion("a",6,4,true,true));
+		assertFalse(QueryOptimizer.matchesNothing(out));
+		
+		// the rewrites that don't assume one value still run
+		assertEquals("a", QueryOptimizer.inSetKey(check(qo, or(eq("a",2), eq("a",1)))));
+		assertTrue(matchesAll(check(qo, or())));
+		assertTrue(matchesAll(check(qo, and(and(), or(eq("a",1), and())))));
+		
+		check(qo, and(eq("b",1), or(eq("a",1), eq("a",2)), op("a",SimpleCriterion.OP_GE,2)));
+	}
+	
+	@Test
+	public void testQueryCopy()
+	{
+		GraphQuery gq = new GraphQuery();
+		gq.setCriterion(and(eq("a",1), eq("a",2)));
+		gq.setMaxResults(10);
+		gq.setFetchNodesForRelationships(true);
+		
+		GraphQuery out = new QueryOptimizer().optimize(gq);
+		assertTrue(QueryOptimizer.matchesNothing(out.getCriterion()));
+		assertEquals(10, out.getMaxResults());
+		assertTrue(out.getFetchNodesForRelationships());
+		assertEquals(2, ((SetCriterion)gq.getCriterion()).getNumCriteria());
+		
+		assertNull(new QueryOptimizer().optimize((Criterion)null));
+		assertSame(QueryOptimizer.NOTHING, new QueryOptimizer().optimize(QueryOptimizer.NOTHING));
+	}
+}
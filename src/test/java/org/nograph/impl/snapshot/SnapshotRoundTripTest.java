@@ -0,0 +1,277 @@
+/* 
+
+Copyright 2020 aholinch
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.nograph.impl.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nograph.Node;
+import org.nograph.Relationship;
+import org.nograph.impl.GenericNode;
+import org.nograph.impl.GenericRelationship;
+import org.nograph.impl.InMemoryGraphManager;
+
+/**
+ * Writes a graph out with SnapshotWriter and reads it back with SnapshotReader.
+ * 
+ * @author aholinch
+ *
+ */
+public class SnapshotRoundTripTest 
+{
+	protected File file = null;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("nograph", ".snap");
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if(file != null) file.delete();
+	}
+	
+	protected static Node node(String id, String type, Object... kv)
+	{
+		GenericNode n = new GenericNode();
+		n.setID(id);
+		n.setType(type);
+		n.setPropertyMap(props(kv));
+		return n;
+	}
+	
+	protected static Relationship rel(String id, String type, Node n1, Node n2, Object... kv)
+	{
+		GenericRelationship r = new GenericRelationship();
+		r.setID(id);
+		r.setType(type);
+		r.setNode1(n1);
+		r.setNode2(n2);
+		r.setPropertyMap(props(kv));
+		return r;
+	}
+	
+	protected static Map<String,Object> props(Object... kv)
+	{
+		Map<String,Object> map = new LinkedHashMap<String,Object>();
+		for(int i=0; i<kv.length; i+=2)
+		{
+			map.put((String)kv[i], kv[i+1]);
+		}
+		return map;
+	}
+	
+	/**
+	 * Null values are dropped since a missing property reads back as missing.
+	 */
+	protected static Map<String,Object> present(Map<String,Object> map)
+	{
+		Map<String,Object> out = new HashMap<String,Object>();
+		for(Map.Entry<String,Object> e : map.entrySet())
+		{
+			if(e.getValue() != null) out.put(e.getKey(), e.getValue());
+		}
+		return out;
+	}
+	
+	/**
+	 * Ten people sharing two cities, so the city column goes through a dictionary, with a sparse age column,
+	 * a nickname column that is null in every row and a mixed column.
+	 */
+	protected static List<Node> people()
+	{
+		List<Node> nodes = new ArrayList<Node>();
+		Object mixed[] = {1L, "one", 1.5d, true, Arrays.asList(1L, "two"), null};
+		for(int i=0; i<10; i++)
+		{
+			nodes.add(node("p" + i, "person", "name", "person " + i, "city", i%2==0?"Denver":"Boulder", "age", i%3==0?null:(long)(20+i),
+					"nickname", null, "misc", mixed[i%mixed.length], "active", i%2==0));
+		}
+		return nodes;
+	}
+	
+	protected static List<Node> companies()
+	{
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(node("c0", "company", "name", "Acme", "revenue", 12.5d));
+		nodes.add(node("c1", "company", "name", "Initech", "revenue", -3.25d));
+		return nodes;
+	}
+	
+	@Test
+	public void testBlocks() throws Exception
+	{
+		List<Node> people = people();
+		List<Node> companies = companies();
+		List<Relationship> rels = new ArrayList<Relationship>();
+		for(int i=0; i<people.size(); i++)
+		{
+			rels.add(rel("w" + i, "works_at", people.get(i), companies.get(i%2), "since", i%4==0?null:(long)(2000+i)));
+		}
+		rels.add(rel("k0", "knows", people.get(3), people.get(1)));
+		rels.add(rel("bad", "knows", people.get(0), node("missing", "person")));
+		
+		try(SnapshotWriter w = new SnapshotWriter(file))
+		{
+			List<Node> all = new ArrayList<Node>(people);
+			all.addAll(companies);
+			w.writeNodes(all);
+			w.writeRelationships(rels);
+			
+			assertEquals(12, w.getNodeCount());
+			assertEquals(11, w.getRelationshipCount());
+			assertEquals(1, w.getSkippedRelationshipCount());
+		}
+		
+		try(SnapshotReader r = new SnapshotReader(file))
+		{
+			assertEquals(12, r.getNodeCount());
+			assertEquals(11, r.getRelationshipCount());
+			
+			String ids[] = new String[12];
+			Map<String,Node> byID = new HashMap<String,Node>();
+			List<Relationship> read = new ArrayList<Relationship>();
+			for(SnapshotReader.BlockInfo bi : r.getBlocks())
+			{
+				if(bi.getKind() != SnapshotFormat.BLOCK_NODES) continue;
+				
+				SnapshotReader.NodeBlock nb = r.readNodes(bi);
+				List<Node> nodes = nb.getNodes();
+				assertEquals(bi.getCount(), nodes.size());
+				for(int i=0; i<nodes.size(); i++)
+				{
+					// the ordinal is all the snapshot keeps, hand back the original id
+					Node n = nodes.get(i);
+					Node orig = nb.getFirstOrdinal()+i < 10?people.get(nb.getFirstOrdinal()+i):companies.get(nb.getFirstOrdinal()+i-10);
+					assertEquals(orig.getType(), n.getType());
+					assertEquals(present(orig.getPropertyMap()), n.getPropertyMap());
+					assertFalse(n.getPropertyMap().containsKey("nickname"));
+					
+					ids[nb.getFirstOrdinal()+i] = orig.getID();
+					byID.put(orig.getID(), orig);
+				}
+			}
+			assertEquals(12, byID.size());
+			
+			for(SnapshotReader.BlockInfo bi : r.getBlocks())
+			{
+				if(bi.getKind() == SnapshotFormat.BLOCK_RELS) read.addAll(r.readRelationships(bi, ids));
+			}
+			assertEquals(11, read.size());
+			
+			Map<String,Relationship> byEnds = new HashMap<String,Relationship>();
+			for(Relationship rel : rels)
+			{
+				byEnds.put(rel.getType() + rel.getNode1ID() + rel.getNode2ID(), rel);
+			}
+			for(Relationship rel : read)
+			{
+				Relationship orig = byEnds.get(rel.getType() + rel.getNode1ID() + rel.getNode2ID());
+				assertNotNull(rel.getType() + " " + rel.getNode1ID() + " " + rel.getNode2ID(), orig);
+				assertEquals(present(orig.getPropertyMap()), rel.getPropertyMap());
+				if("works_at".equals(rel.getType()))
+				{
+					assertEquals("person", byID.get(rel.getNode1ID()).getType());
+					assertEquals("company", byID.get(rel.getNode2ID()).getType());
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testExportImport() throws Exception
+	{
+		InMemoryGraphManager src = new InMemoryGraphManager();
+		List<Node> people = people();
+		List<Node> companies = companies();
+		src.ingestNodes(people);
+		src.ingestNodes(companies);
+		
+		List<Relationship> rels = new ArrayList<Relationship>();
+		for(int i=0; i<people.size(); i++)
+		{
+			rels.add(rel(null, "works_at", people.get(i), companies.get(i%2), "since", i%4==0?null:(long)(2000+i), "title", i%3==0?"dev":(Object)(long)i));
+		}
+		for(int i=1; i<people.size(); i++)
+		{
+			rels.add(rel(null, "knows", people.get(i-1), people.get(i)));
+		}
+		src.ingestRelationships(rels);
+		
+		try(SnapshotWriter w = new SnapshotWriter(file))
+		{
+			w.setBlockSize(4);
+			w.export(src);
+		}
+		
+		InMemoryGraphManager dst = new InMemoryGraphManager();
+		try(SnapshotReader r = new SnapshotReader(file))
+		{
+			assertTrue(r.getBlocks().size() > 4);
+			r.importInto(dst);
+		}
+		
+		assertEquals(src.getNodeCountsByType(), dst.getNodeCountsByType());
+		assertEquals(src.getRelationshipCountsByType(), dst.getRelationshipCountsByType());
+		
+		List<Node> all = new ArrayList<Node>(people);
+		all.addAll(companies);
+		for(Node orig : all)
+		{
+			List<Node> found = dst.findNodes(orig.getType(), "name", orig.getProperty("name"));
+			assertEquals(1, found.size());
+			assertEquals(present(orig.getPropertyMap()), present(found.get(0).getPropertyMap()));
+		}
+		
+		// ends are resolved through the new ids so the types on each side must still line up
+		List<Relationship> works = dst.findRelationships("works_at", null, null, true);
+		assertEquals(10, works.size());
+		for(Relationship r : works)
+		{
+			assertEquals("person", r.getNode1().getType());
+			assertEquals("company", r.getNode2().getType());
+			
+			int i = Integer.parseInt(((String)r.getNode1().getProperty("name")).substring(7));
+			assertEquals(companies.get(i%2).getProperty("name"), r.getNode2().getProperty("name"));
+			assertEquals(present(rels.get(i).getPropertyMap()), present(r.getPropertyMap()));
+		}
+		
+		List<Relationship> knows = dst.findRelationships("knows", null, null, true);
+		assertEquals(9, knows.size());
+		for(Relationship r : knows)
+		{
+			int i = Integer.parseInt(((String)r.getNode1().getProperty("name")).substring(7));
+			assertEquals("person " + (i+1), r.getNode2().getProperty("name"));
+		}
+	}
+}